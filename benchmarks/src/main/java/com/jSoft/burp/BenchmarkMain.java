@@ -0,0 +1,34 @@
+package com.jSoft.burp;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar. Delegates to JMH, defaulting to JSON results
+ * under target/jmh/ named after the benchmarked version, so runs from
+ * different releases can be compared. Any -rf/-rff given on the command line
+ * wins.
+ */
+public final class BenchmarkMain {
+  private BenchmarkMain(){}
+
+  public static void main(String[] args) throws Exception{
+    List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+    if(!jmhArgs.contains("-rf")){
+      jmhArgs.add("-rf");
+      jmhArgs.add("json");
+    }
+    if(!jmhArgs.contains("-rff")){
+      String version = System.getProperty("bench.version", BenchmarkMain.class.getPackage().getImplementationVersion());
+      Path dir = Paths.get("target", "jmh");
+      Files.createDirectories(dir);
+      jmhArgs.add("-rff");
+      jmhArgs.add(dir.resolve("jmh-result-" + (version == null ? "dev" : version) + ".json").toString());
+    }
+    org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+  }
+}
@@ -0,0 +1,58 @@
+package com.jSoft.burp;
+
+import com.jSoft.burp.browserhost.Host;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one call across the extension/host boundary: the old reflective
+ * Method.invoke path, the bound MethodHandle path in BrowserHostBridge, and a
+ * direct static call as the floor. Host.setHomeUrl is used as the target
+ * because it does no work beyond a volatile write.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BridgeCallBenchmark {
+  private static final String URL = "https://www.google.com";
+
+  private Method reflective;
+
+  @Setup
+  public void setup() throws Exception{
+    reflective = Class.forName("com.jSoft.burp.browserhost.Host", false, ClassLoader.getSystemClassLoader())
+      .getMethod("setHomeUrl", String.class);
+    if(!BrowserHostBridge.isAvailable()){
+      throw new IllegalStateException("Host not visible to the system classloader");
+    }
+  }
+
+  @Benchmark
+  public void reflective() throws Exception{
+    reflective.invoke(null, URL);
+  }
+
+  @Benchmark
+  public void bridge(){
+    BrowserHostBridge.setHomeUrl(URL);
+  }
+
+  @Benchmark
+  public void direct(){
+    Host.setHomeUrl(URL);
+  }
+}
@@ -0,0 +1,69 @@
+package com.jSoft.burp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * URL bar suggestions over a history of 100k URLs on 3000 hosts, measured
+ * the way the URL field asks for them: one suggest call, answered on the
+ * history's worker thread. "prefix" covers a blank field (most frecent), a
+ * one-letter prefix matching everything, a host prefix and a deep path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class UrlHistoryBenchmark {
+  private static final int ENTRIES = 100_000;
+
+  @Param({"", "h", "host-42", "https://www.host-420.example/p/1"})
+  public String prefix;
+
+  private Path       dir;
+  private UrlHistory history;
+
+  @Setup
+  public void setup() throws Exception{
+    dir = Files.createTempDirectory("url-history-bench");
+    history = new UrlHistory(dir.resolve("urls"));
+    Random r = new Random(42);
+    for(int i = 0; i < ENTRIES; i++){
+      history.recordVisit("https://www.host-" + r.nextInt(3000) + ".example/p/" + i + "?q=" + r.nextInt(1000), null);
+    }
+    history.suggest("", 1).get(); // after every visit above
+  }
+
+  @TearDown
+  public void tearDown() throws IOException{
+    history.close();
+    try(Stream<Path> files = Files.walk(dir)){
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public List<UrlHistory.Suggestion> suggest() throws Exception{
+    return history.suggest(prefix, UrlSuggestions.MAX_SUGGESTIONS).get();
+  }
+}
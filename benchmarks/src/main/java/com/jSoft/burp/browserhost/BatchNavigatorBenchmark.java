@@ -0,0 +1,299 @@
+package com.jSoft.burp.browserhost;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Batch navigation against a local HTTP server. Pages are HttpClient
+ * requests that feed their Slot the way Host's handlers do (loading, load
+ * end, load error, requests started), so only the orchestration is measured.
+ * Every benchmark checks its behaviour and throws if it is wrong:
+ *
+ *   concurrent    32 pages of 20 ms; the server never sees more than
+ *                 concurrency requests at once, and more than one when
+ *                 allowed
+ *   timeout       half of 8 pages never answer within the 500 ms timeout
+ *   networkIdle   4 pages keep requesting assets after load; the results
+ *                 come IDLE_MILLIS after the last request
+ *   cancelOnClose 64 pages, the stream is closed after 3 results; the
+ *                 rest are never requested and every page is closed
+ *   slowConsumer  the consumer takes 10 ms per result; pages wait for it
+ *                 instead of loading ahead (at most 2 * concurrency + 1)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dsun.net.httpserver.nodelay=true"})
+@State(Scope.Benchmark)
+public class BatchNavigatorBenchmark {
+  @Param({"1", "4", "16"})
+  public int concurrency;
+
+  private static final int  PAGE_MILLIS   = 20;
+  private static final long HANG_MILLIS   = 2_000;
+  private static final int  ASSETS        = 3;
+  private static final int  ASSET_GAP     = 100;
+  private static final long TIMEOUT_MILLIS = 500;
+
+  private HttpServer      server;
+  private ExecutorService serverThreads;
+  private HttpClient      client;
+  private String          base;
+  private BatchNavigator  navigator;
+
+  private final AtomicInteger requests    = new AtomicInteger(); // pages requested
+  private final AtomicInteger inFlight    = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+  private final AtomicInteger openPages   = new AtomicInteger();
+
+  @Setup
+  public void setup() throws IOException{
+    serverThreads = Executors.newVirtualThreadPerTaskExecutor();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.setExecutor(serverThreads);
+    server.createContext("/page", ex -> {
+      requests.incrementAndGet();
+      int now = inFlight.incrementAndGet();
+      int max;
+      while(now > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, now)){}
+      try{
+        sleep(param(ex.getRequestURI(), "delay", PAGE_MILLIS));
+        respond(ex, 200, "<html><body>page</body></html>");
+      }finally{
+        inFlight.decrementAndGet();
+      }
+    });
+    server.createContext("/hang", ex -> {
+      requests.incrementAndGet();
+      sleep(HANG_MILLIS);
+      respond(ex, 200, "late");
+    });
+    server.createContext("/asset", ex -> respond(ex, 200, "asset"));
+    server.start();
+    base = "http://127.0.0.1:" + server.getAddress().getPort();
+    client = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+    navigator = new BatchNavigator(slot -> new HttpPage(slot), line -> {});
+    try(Stream<Map<String, Object>> warm = navigator.run(Stream.of(base + "/page"), 1, 5_000, false)){
+      warm.forEach(r -> {}); // connection and client threads
+    }
+  }
+
+  @TearDown
+  public void tearDown(){
+    server.stop(0);
+    serverThreads.shutdownNow();
+  }
+
+  @Benchmark
+  public int concurrent(){
+    maxInFlight.set(0);
+    List<Map<String, Object>> results = run(pages(32, "/page"), 5_000, false);
+    expect(results.size() == 32, "results: " + results.size());
+    expect(count(results, BatchNavigator.OUTCOME_LOADED) == 32, "not all loaded: " + results);
+    expect(maxInFlight.get() <= concurrency, "server saw " + maxInFlight.get() + " requests at once");
+    expect(concurrency == 1 || maxInFlight.get() > 1, "pages did not overlap");
+    return results.size();
+  }
+
+  @Benchmark
+  public int timeout(){
+    Stream<String> urls = IntStream.range(0, 8).mapToObj(i -> base + (i % 2 == 0 ? "/hang?i=" : "/page?i=") + i);
+    List<Map<String, Object>> results = run(urls, TIMEOUT_MILLIS, false);
+    expect(count(results, BatchNavigator.OUTCOME_TIMEOUT) == 4, "timeouts: " + results);
+    expect(count(results, BatchNavigator.OUTCOME_LOADED) == 4, "loaded: " + results);
+    return results.size();
+  }
+
+  @Benchmark
+  public int networkIdle(){
+    List<Map<String, Object>> results = run(pages(4, "/page?assets=" + ASSETS + "&"), 5_000, true);
+    for(Map<String, Object> r : results){
+      expect(BatchNavigator.OUTCOME_IDLE.equals(r.get(BatchNavigator.OUTCOME)), "not idle: " + r);
+      long waited = (Long)r.get(BatchNavigator.TOTAL_MILLIS) - (Long)r.get(BatchNavigator.LOAD_MILLIS);
+      expect(waited >= ASSETS * ASSET_GAP + BatchNavigator.IDLE_MILLIS - 20, "idle after " + waited + " ms: " + r);
+    }
+    return results.size();
+  }
+
+  @Benchmark
+  public int cancelOnClose() throws InterruptedException{
+    requests.set(0);
+    int taken = 0;
+    try(Stream<Map<String, Object>> results = navigator.run(pages(64, "/page?delay=50&"), concurrency, 5_000, false)){
+      Iterator<Map<String, Object>> it = results.iterator();
+      while(taken < 3 && it.hasNext()){
+        it.next();
+        taken++;
+      }
+    }
+    long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while(openPages.get() > 0 && System.nanoTime() < until) Thread.sleep(1);
+    expect(openPages.get() == 0, openPages.get() + " pages left open");
+    int max = taken + 2 * concurrency + 1;
+    expect(requests.get() <= max, requests.get() + " pages requested after close, at most " + max + " expected");
+    return requests.get();
+  }
+
+  @Benchmark
+  public int slowConsumer() throws InterruptedException{
+    requests.set(0);
+    int consumed = 0;
+    int bound = 2 * concurrency + 1; // a queued result per slot plus one held by every page
+    try(Stream<Map<String, Object>> results = navigator.run(pages(16, "/page?delay=1&"), concurrency, 5_000, false)){
+      Iterator<Map<String, Object>> it = results.iterator();
+      while(it.hasNext()){
+        it.next();
+        consumed++;
+        expect(requests.get() - consumed <= bound, requests.get() + " requested with " + consumed + " consumed");
+        Thread.sleep(10);
+      }
+    }
+    expect(consumed == 16, "consumed " + consumed);
+    return consumed;
+  }
+
+  //-----------------------------------------------------------------------------
+  private List<Map<String, Object>> run(Stream<String> urls, long timeoutMillis, boolean idle){
+    try(Stream<Map<String, Object>> results = navigator.run(urls, concurrency, timeoutMillis, idle)){
+      return results.collect(Collectors.toList());
+    }
+  }
+
+  private Stream<String> pages(int n, String path){
+    String sep = path.endsWith("&") ? "" : path.contains("?") ? "&" : "?";
+    return IntStream.range(0, n).mapToObj(i -> base + path + sep + "i=" + i);
+  }
+
+  private static long count(List<Map<String, Object>> results, String outcome){
+    return results.stream().filter(r -> outcome.equals(r.get(BatchNavigator.OUTCOME))).count();
+  }
+
+  private static void expect(boolean ok, String message){
+    if(!ok) throw new IllegalStateException(message);
+  }
+
+  private static int param(URI uri, String name, int fallback){
+    String q = uri.getRawQuery();
+    if(q == null) return fallback;
+    for(String kv : q.split("&")){
+      if(kv.startsWith(name + "=")) return Integer.parseInt(kv.substring(name.length() + 1));
+    }
+    return fallback;
+  }
+
+  private static void sleep(long millis){
+    try{
+      Thread.sleep(millis);
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void respond(HttpExchange ex, int status, String body) throws IOException{
+    byte[] b = body.getBytes(StandardCharsets.UTF_8);
+    try{
+      ex.getResponseHeaders().add("Content-Type", "text/html");
+      ex.sendResponseHeaders(status, b.length);
+      try(OutputStream out = ex.getResponseBody()){
+        out.write(b);
+      }
+    }catch(IOException ignored){
+      // client gave up (stopped page)
+    }finally{
+      ex.close();
+    }
+  }
+
+  //-----------------------------------------------------------------------------
+  /**
+   * A page as Host reports it: loading starts with the request and ends
+   * after the response; "assets" more requests follow ASSET_GAP ms apart
+   * after load, as scripts fetching data would. Callbacks of a load that
+   * was stopped or replaced are dropped.
+   */
+  private final class HttpPage implements BatchNavigator.Page {
+    private final BatchNavigator.Slot slot;
+    private final AtomicInteger loadSeq = new AtomicInteger();
+    private volatile CompletableFuture<?> current;
+    private volatile String url;
+
+    HttpPage(BatchNavigator.Slot slot){
+      this.slot = slot;
+      openPages.incrementAndGet();
+    }
+
+    @Override public void load(String u){
+      int seq = loadSeq.incrementAndGet();
+      url = u;
+      slot.loadingChanged(true);
+      slot.requestStarted();
+      current = client.sendAsync(HttpRequest.newBuilder(URI.create(u)).build(), HttpResponse.BodyHandlers.discarding())
+        .whenComplete((r, t) -> {
+          if(seq != loadSeq.get()) return;
+          if(t != null) slot.loadError(t.toString());
+          else slot.loadEnd(r.statusCode());
+          slot.loadingChanged(false);
+          if(t == null) assets(seq, param(URI.create(u), "assets", 0));
+        });
+    }
+
+    private void assets(int seq, int left){
+      if(left == 0 || seq != loadSeq.get()) return;
+      CompletableFuture.delayedExecutor(ASSET_GAP, TimeUnit.MILLISECONDS).execute(() -> {
+        if(seq != loadSeq.get()) return;
+        slot.requestStarted();
+        client.sendAsync(HttpRequest.newBuilder(URI.create(base + "/asset")).build(), HttpResponse.BodyHandlers.discarding())
+          .whenComplete((r, t) -> assets(seq, left - 1));
+      });
+    }
+
+    @Override public void stop(){
+      loadSeq.incrementAndGet();
+      CompletableFuture<?> f = current;
+      if(f != null) f.cancel(true);
+    }
+
+    @Override public String url(){
+      return url;
+    }
+
+    @Override public void close(){
+      stop();
+      openPages.decrementAndGet();
+    }
+  }
+}
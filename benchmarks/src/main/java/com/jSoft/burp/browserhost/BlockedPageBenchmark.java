@@ -0,0 +1,76 @@
+package com.jSoft.burp.browserhost;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of showing the blocked page: the burpbrowser:// URL built on the CEF
+ * thread plus the template render done by the scheme handler, against the
+ * data: URL (per-character String.format encoding) it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockedPageBenchmark {
+  private final String attempted = "https://tracker.thirdparty.example/collect?v=1&tid=UA-000000-1&cid=<script>&dl=%2Fcheckout";
+  private final InternalPages pages = new InternalPages(() -> "allow *.google.com", () -> "https://www.google.com");
+  private final String blockedUrl = InternalPages.url(InternalPages.PAGE_BLOCKED, "url", attempted);
+
+  @Benchmark
+  public String internalUrl(){
+    return InternalPages.url(InternalPages.PAGE_BLOCKED, "url", attempted);
+  }
+
+  @Benchmark
+  public byte[] internalServe(){
+    return pages.serve(blockedUrl).body;
+  }
+
+  @Benchmark
+  public byte[] internalUrlAndServe(){
+    return pages.serve(InternalPages.url(InternalPages.PAGE_BLOCKED, "url", attempted)).body;
+  }
+
+  @Benchmark
+  public String legacyDataUrl(){
+    return "data:text/html;charset=utf-8," + legacyEncode(legacyHtml(attempted));
+  }
+
+  //-----------------------------------------------------------------------------
+  // Previous Host.showBlocked implementation, kept as the baseline
+
+  private static String legacyHtml(String attempted){
+    String safe = attempted == null ? "" : attempted.replace("<", "&lt;").replace(">", "&gt;");
+    return "<!doctype html><html><head><meta charset='utf-8'><title>Navigation Blocked</title>" +
+      "<style>body{font-family:system-ui,Segoe UI,Roboto,Arial,sans-serif;margin:2rem;color:#333} .card{border:1px solid #ddd;border-radius:8px;padding:1.5rem;max-width:860px} .bad{color:#b00020} code{background:#f6f8fa;padding:2px 4px;border-radius:4px} </style>"+
+      "</head><body><div class='card'><h2 class='bad'>Navigation blocked</h2>"+
+      "<p>This extension currently allows only <code>https://google.com</code> (testing mode).</p>"+
+      "<p>Attempted URL:</p><pre><code>"+ safe +"</code></pre>"+
+      "</div></body></html>";
+  }
+
+  private static String legacyEncode(String s){
+    StringBuilder out = new StringBuilder(s.length()*2);
+    for(char c : s.toCharArray()){
+      if(c <= 0x20 || c >= 0x7f || c=='%' || c=='#' || c=='?' || c=='&'){
+        out.append('%');
+        out.append(String.format("%02X", (int)c));
+      }else{
+        out.append(c);
+      }
+    }
+    return out.toString();
+  }
+}
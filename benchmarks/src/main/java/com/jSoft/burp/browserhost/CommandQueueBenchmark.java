@@ -0,0 +1,81 @@
+package com.jSoft.burp.browserhost;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host command queue overhead with commands that complete at once, so only
+ * the queue is measured. "roundTrip" submits one command and waits for it:
+ * the hand-off to a parked drain thread and back, what a lone toolbar click
+ * costs. "burst" submits 64 and waits for the last, the per-command cost
+ * while the drain thread is kept busy. The queue's own counters (depth,
+ * wait percentiles, since the start of the fork) are reported as secondary
+ * results after every iteration (see QueueStats).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class CommandQueueBenchmark {
+  private static final int BURST = 64;
+
+  private CommandQueue queue;
+
+  @Setup
+  public void setup(){
+    queue = new CommandQueue();
+  }
+
+  /** CommandQueue.stats read at the end of each iteration; EVENTS counters are reported as is. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class QueueStats {
+    public long maxDepth;
+    public long waitP50Micros;
+    public long waitP99Micros;
+    public long waitMaxMicros;
+
+    @TearDown(Level.Iteration)
+    public void read(CommandQueueBenchmark b){
+      Map<String, Long> s = b.queue.stats();
+      maxDepth = s.get("maxDepth");
+      waitP50Micros = s.get("waitP50Micros");
+      waitP99Micros = s.get("waitP99Micros");
+      waitMaxMicros = s.get("waitMaxMicros");
+    }
+  }
+
+  @Benchmark
+  public Integer roundTrip(QueueStats stats){
+    return queue.<Integer>submit(r -> r.complete(1)).join();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public Integer burst(QueueStats stats){
+    CompletableFuture<Integer> last = null;
+    for(int i = 0; i < BURST; i++){
+      int n = i;
+      last = queue.submit(r -> r.complete(n));
+    }
+    return last.join();
+  }
+}
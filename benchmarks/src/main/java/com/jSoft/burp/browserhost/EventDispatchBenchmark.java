@@ -0,0 +1,76 @@
+package com.jSoft.burp.browserhost;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fan-out from the CEF display/load handler adapters through the event
+ * pipeline to an EDT subscriber, wired the way BrowserPanel wires its
+ * toolbar. Each operation fires a burst of loading-state and address events
+ * and waits until the EDT has seen the last address; the time is dominated
+ * by the batch interval, the burst size should barely matter. Runs headless;
+ * no Chromium is involved.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class EventDispatchBenchmark {
+  @Param({"1", "100"})
+  public int burst;
+
+  @Param({"1", "16"})
+  public int intervalMillis;
+
+  private final Host.DisplayHandler display = new Host.DisplayHandler();
+  private final Host.LoadHandler    load    = new Host.LoadHandler();
+  private final AtomicLong          seen    = new AtomicLong();
+  private long                      sent;
+  private Runnable                  unsubscribe;
+  private volatile boolean          sink;
+
+  @Setup
+  public void setup(){
+    Host.setEventBatchInterval(intervalMillis);
+    unsubscribe = Host.subscribeEvents(batch -> {
+      for(Map<String, Object> ev : batch){
+        if("navState".equals(ev.get("type"))) sink = Boolean.TRUE.equals(ev.get("loading"));
+        else if("address".equals(ev.get("type"))) seen.incrementAndGet();
+      }
+    }, true);
+  }
+
+  @TearDown
+  public void tearDown(){
+    unsubscribe.run();
+    Host.setEventBatchInterval(16);
+  }
+
+  @Benchmark
+  public void handlerToEdt(){
+    for(int i = 0; i < burst; i++){
+      load.onLoadingStateChange(null, (i & 1) == 0, true, false);
+      display.onAddressChange(null, null, "https://www.google.com/search?q=" + i);
+    }
+    sent += burst;
+    while(seen.get() < sent){
+      Thread.onSpinWait();
+    }
+  }
+}
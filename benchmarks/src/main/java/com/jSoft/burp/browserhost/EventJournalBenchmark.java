@@ -0,0 +1,75 @@
+package com.jSoft.burp.browserhost;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The event journal with default segment sizes over a temporary directory.
+ * "record" is one address change as the display handler records it, rolls
+ * and page faults of fresh segment pages included. "queryMillisecond" reads
+ * back the events of one millisecond in the middle of a million recorded
+ * ones (a few thousand, given how fast they were written), so it measures
+ * the checkpoint search plus decoding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class EventJournalBenchmark {
+  private static final int PREFILL = 1_000_000;
+
+  private Path         dir;
+  private EventJournal journal;
+  private long         middle;
+  private int          n;
+
+  @Setup
+  public void setup() throws IOException{
+    dir = Files.createTempDirectory("event-journal-bench");
+    journal = new EventJournal();
+    journal.open(dir, EventJournal.DEFAULT_SEGMENT_BYTES, EventJournal.DEFAULT_MAX_BYTES);
+    for(int i = 0; i < PREFILL; i++){
+      journal.address("tab-" + (i & 7), "https://www.host-" + (i % 3000) + ".example/p/" + i);
+      if(i == PREFILL / 2) middle = System.currentTimeMillis();
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException{
+    journal.close();
+    try(Stream<Path> files = Files.walk(dir)){
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void record(){
+    journal.address("tab-1", (n++ & 1) == 0 ? "https://www.google.com/search?q=burp" : "https://www.google.com/");
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public List<Map<String, Object>> queryMillisecond(){
+    return journal.query(middle, middle, Integer.MAX_VALUE);
+  }
+}
@@ -0,0 +1,87 @@
+package com.jSoft.burp.browserhost;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host.isAllowed as seen from onBeforeBrowse, with an allowlist shaped like a
+ * real engagement scope: a few hundred in-scope hosts, wildcard subdomains,
+ * port/scheme constrained entries and explicit denies. The "regex" mode runs
+ * the same scope through setUrlAllowRegex for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HostPolicyBenchmark {
+  @Param({"rules", "regex"})
+  public String mode;
+
+  @Param({"300"})
+  public int scope;
+
+  private String[] urls;
+  private int      next;
+
+  @Setup
+  public void setup(){
+    List<String> rules = new ArrayList<>();
+    StringBuilder regex = new StringBuilder("^https?://(");
+    rules.add("deny *.ads.target-0.example");
+    for(int i = 0; i < scope; i++){
+      if(i % 10 == 0){
+        rules.add("allow https://admin.target-" + i + ".example:8443");
+      }else if(i % 3 == 0){
+        rules.add("allow https://*.target-" + i + ".example");
+      }else{
+        rules.add("allow *.target-" + i + ".example");
+      }
+      if(i > 0) regex.append('|');
+      regex.append("([^./]+\\.)*target-").append(i).append("\\.example");
+    }
+    regex.append(")(?::\\d+)?(/.*)?$");
+
+    if(mode.equals("rules")) Host.setNavigationRules(rules);
+    else Host.setUrlAllowRegex(regex.toString());
+
+    Random rnd = new Random(7);
+    String[] offScope = {"https://fonts.gstatic.com/s/roboto.woff2", "https://www.googletagmanager.com/gtm.js",
+      "https://cdn.jsdelivr.net/npm/lib.js", "https://accounts.thirdparty.example/login"};
+    urls = new String[2048];
+    for(int i = 0; i < urls.length; i++){
+      int n = rnd.nextInt(scope);
+      urls[i] = (i % 5 == 0)
+        ? offScope[i % offScope.length]
+        : "https://app" + (i % 7) + ".target-" + n + ".example/api/v1/items?id=" + i;
+    }
+  }
+
+  @TearDown
+  public void tearDown(){
+    Host.setNavigationRules(null);
+    Host.setUrlAllowRegex(null);
+  }
+
+  @Benchmark
+  public boolean isAllowed(){
+    next = (next + 1) & (urls.length - 1);
+    return Host.isNavigationAllowed(urls[next]);
+  }
+}
@@ -0,0 +1,57 @@
+package com.jSoft.burp.browserhost;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one memory sample from /proc (Linux only), with helpers child
+ * processes standing in for CEF's: "sleep" processes, matched by name. A
+ * sample walks every process to find the descendants, then reads one statm
+ * per helper; roles are cached after the first sample as in production.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class MemoryMonitorBenchmark {
+  @Param({"4", "16"})
+  public int helpers;
+
+  private final List<Process> children = new ArrayList<>();
+  private MemoryMonitor monitor;
+
+  @Setup
+  public void setup() throws IOException{
+    for(int i = 0; i < helpers; i++) children.add(new ProcessBuilder("sleep", "600").start());
+    monitor = new MemoryMonitor(Path.of("/proc"), "sleep");
+    if(monitor.sample().procs.size() != helpers) throw new IllegalStateException("helpers not found in /proc");
+  }
+
+  @TearDown
+  public void tearDown(){
+    for(Process p : children) p.destroyForcibly();
+  }
+
+  @Benchmark
+  public long sample(){
+    return monitor.sample().totalBytes;
+  }
+}
@@ -0,0 +1,88 @@
+package com.jSoft.burp.browserhost;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Decision latency of the navigation policy against a generated allowlist,
+ * compared with the single alternation regex it replaces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NavigationPolicyBenchmark {
+  @Param({"100", "10000"})
+  public int rules;
+
+  private NavigationPolicy cached;
+  private NavigationPolicy uncached;
+  private Pattern          regex;
+  private String[]         urls;
+  private int              next;
+
+  @Setup
+  public void setup(){
+    List<String> list = new ArrayList<>(rules);
+    StringBuilder alternation = new StringBuilder("^https?://([^./]+\\.)*(");
+    for(int i = 0; i < rules; i++){
+      switch(i % 4){
+        case 0: list.add("allow *.app" + i + ".example.com"); break;
+        case 1: list.add("allow https://api" + i + ".example.net:8443"); break;
+        case 2: list.add("deny http://*.legacy" + i + ".example.org"); break;
+        default: list.add("allow portal" + i + ".example.io"); break;
+      }
+      if(i > 0) alternation.append('|');
+      alternation.append("app").append(i).append("\\.example\\.com");
+    }
+    alternation.append(")(?::\\d+)?(/.*)?$");
+
+    cached   = NavigationPolicy.compile(list);
+    uncached = NavigationPolicy.compile(list, 0);
+    regex    = Pattern.compile(alternation.toString());
+
+    Random rnd = new Random(42);
+    urls = new String[4096];
+    for(int i = 0; i < urls.length; i++){
+      int n = rnd.nextInt(rules * 2); // roughly half miss every rule
+      urls[i] = (n % 3 == 0 ? "http://" : "https://") + "www.app" + n + ".example.com/path/" + i + "?q=" + n;
+    }
+  }
+
+  private String nextUrl(){
+    next = (next + 1) & (urls.length - 1);
+    return urls[next];
+  }
+
+  @Benchmark
+  public boolean policyCached(){
+    return cached.isAllowed(nextUrl());
+  }
+
+  @Benchmark
+  public boolean policyUncached(){
+    return uncached.isAllowed(nextUrl());
+  }
+
+  @Benchmark
+  public boolean regexMatches(){
+    return regex.matcher(nextUrl()).matches();
+  }
+}
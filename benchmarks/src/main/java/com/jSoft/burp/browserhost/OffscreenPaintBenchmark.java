@@ -0,0 +1,64 @@
+package com.jSoft.burp.browserhost;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.cef.handler.CefRenderHandler;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one off-screen paint callback for a 1920x1080 frame: a blinking
+ * caret, a repainted region (e.g. an animated banner) and a full frame. Only
+ * the dirty rows are copied into the view's image, so the first two should
+ * be a small fraction of the full copy. Runs headless; the view is never
+ * shown, so repaint requests are dropped.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class OffscreenPaintBenchmark {
+  private static final int WIDTH  = 1920;
+  private static final int HEIGHT = 1080;
+
+  @Param({"caret", "region", "full"})
+  public String dirty;
+
+  private CefRenderHandler handler;
+  private ByteBuffer       buffer;
+  private Rectangle[]      rects;
+
+  @Setup
+  public void setup(){
+    OffscreenView view = new OffscreenView();
+    handler = view.handler();
+    buffer = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4).order(ByteOrder.nativeOrder());
+    for(int i = 0; i < WIDTH * HEIGHT; i++) buffer.putInt(i * 4, 0xff000000 | i);
+    // First paint allocates the image
+    handler.onPaint(null, false, new Rectangle[]{new Rectangle(0, 0, WIDTH, HEIGHT)}, buffer, WIDTH, HEIGHT);
+    switch(dirty){
+      case "caret":  rects = new Rectangle[]{new Rectangle(640, 400, 2, 20)}; break;
+      case "region": rects = new Rectangle[]{new Rectangle(100, 100, 728, 90), new Rectangle(1400, 300, 300, 250)}; break;
+      default:       rects = new Rectangle[]{new Rectangle(0, 0, WIDTH, HEIGHT)}; break;
+    }
+  }
+
+  @Benchmark
+  public void paint(){
+    handler.onPaint(null, false, rects, buffer, WIDTH, HEIGHT);
+  }
+}
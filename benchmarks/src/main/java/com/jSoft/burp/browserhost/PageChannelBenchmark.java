@@ -0,0 +1,76 @@
+package com.jSoft.burp.browserhost;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java side of a page channel crossing: the batch is encoded the way
+ * pagechannel.js does it, dispatched to an echo handler (one virtual thread
+ * per message), and the answers are decoded. "messages" is the number of
+ * queries sharing one crossing; divide by it for the per-query cost, which
+ * should drop sharply as batches grow since the parse, the completion and
+ * the single answer string are shared. The renderer/IPC hop itself needs a
+ * live Chromium and is not included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class PageChannelBenchmark {
+  @Param({"1", "16", "64"})
+  public int messages;
+
+  private PageChannel channel;
+  private Runnable    unregister;
+  private String      request;
+
+  private static final PageChannel.Caller CALLER = new PageChannel.Caller("bench", "https://bench.example/page", true);
+
+  @Setup
+  public void setup(){
+    channel = new PageChannel();
+    channel.setMaxInFlight(1024);
+    channel.setAllowedOrigins(List.of("https://bench.example"));
+    unregister = channel.register("echo", (browser, payload) -> payload);
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < messages; i++){
+      PageChannel.netstring(sb, String.valueOf(i + 1));
+      PageChannel.netstring(sb, "echo");
+      PageChannel.netstring(sb, "{\"selector\":\"#item-" + i + "\",\"attr\":\"href\"}");
+    }
+    request = sb.toString();
+  }
+
+  @TearDown
+  public void tearDown(){
+    unregister.run();
+  }
+
+  @Benchmark
+  public List<String> roundTrip() throws Exception{
+    CompletableFuture<String> answer = new CompletableFuture<>();
+    channel.dispatch(0, CALLER, request, answer::complete);
+    return PageChannel.parse(answer.get());
+  }
+
+  @Benchmark
+  public List<String> parseBatch(){
+    return PageChannel.parse(request);
+  }
+}
@@ -0,0 +1,137 @@
+package com.jSoft.burp.browserhost;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A JS bundle served by a local HTTP server: full network fetch vs. a
+ * conditional request answered 304 from the cache vs. a fresh cache hit
+ * (lookup, mmap, chunked copy as in readResponse). Also checks the store /
+ * revalidate round trip against the server before measuring.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResourceCacheBenchmark {
+  @Param({"65536", "1048576"})
+  public int size;
+
+  private static final String ETAG = "\"bundle-v1\"";
+
+  private HttpServer   server;
+  private HttpClient   client;
+  private URI          uri;
+  private Path         dir;
+  private ContentCache cache;
+  private String       key;
+  private final byte[] chunk = new byte[64 * 1024];
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception{
+    byte[] bundle = new byte[size];
+    new Random(7).nextBytes(bundle);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/static/app.js", ex -> {
+      if(ETAG.equals(ex.getRequestHeaders().getFirst("If-None-Match"))){
+        ex.sendResponseHeaders(304, -1);
+      }else{
+        ex.getResponseHeaders().add("Content-Type", "text/javascript");
+        ex.getResponseHeaders().add("ETag", ETAG);
+        ex.getResponseHeaders().add("Cache-Control", "max-age=60");
+        ex.sendResponseHeaders(200, bundle.length);
+        try(OutputStream out = ex.getResponseBody()){
+          out.write(bundle);
+        }
+      }
+      ex.close();
+    });
+    server.start();
+    client = HttpClient.newHttpClient();
+    uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/static/app.js");
+    key = uri.toString();
+
+    dir = Files.createTempDirectory("resource-cache-bench");
+    cache = new ContentCache(dir, ContentCache.DEFAULT_MAX_BYTES);
+
+    // Round trip as the interceptor does it: 200 -> store, then 304 -> serve from cache
+    HttpResponse<byte[]> first = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofByteArray());
+    Map<String, String> headers = Map.of("Content-Type", "text/javascript", "ETag", ETAG);
+    if(!ResourceInterceptor.storable(first.statusCode(), headers)) throw new IllegalStateException("not storable");
+    ContentCache.Entry e = cache.store(key, first.statusCode(), "text/javascript", headers, first.body(), first.body().length);
+    if(e == null || e.size != size) throw new IllegalStateException("store failed");
+    if(conditionalFetchStatus() != 304) throw new IllegalStateException("server did not revalidate");
+    ByteBuffer mapped = cache.open(cache.lookup(key));
+    if(mapped == null || mapped.remaining() != size) throw new IllegalStateException("mapped size mismatch");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException{
+    server.stop(0);
+    try(Stream<Path> files = Files.walk(dir)){
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  private int conditionalFetchStatus() throws Exception{
+    HttpRequest req = HttpRequest.newBuilder(uri).header("If-None-Match", ETAG).build();
+    return client.send(req, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+
+  private int drain(ByteBuffer body){
+    int total = 0;
+    while(body.hasRemaining()){
+      int n = Math.min(chunk.length, body.remaining());
+      body.get(chunk, 0, n);
+      total += n;
+    }
+    return total;
+  }
+
+  @Benchmark
+  public int networkFetch() throws Exception{
+    return client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofByteArray()).body().length;
+  }
+
+  @Benchmark
+  public int revalidated304() throws Exception{
+    if(conditionalFetchStatus() != 304) return -1;
+    return drain(cache.open(cache.lookup(key)));
+  }
+
+  @Benchmark
+  public int cacheHit(){
+    return drain(cache.open(cache.lookup(key)));
+  }
+}
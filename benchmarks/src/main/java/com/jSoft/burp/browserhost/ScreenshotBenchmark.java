@@ -0,0 +1,126 @@
+package com.jSoft.burp.browserhost;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Screenshots per second through the pipeline, from a synthetic 1280x800
+ * frame that looks like a page (white background, dark text-like runs, a
+ * coloured header and an image block) to encoded bytes. Each operation
+ * captures 16 frames the way a bulk capture does: copies on the calling
+ * thread, encoding on the pool, with the in-flight limit pacing the copies.
+ * The pipeline's peak pixel buffer bytes and the heap's peak use during the
+ * iteration are reported as the secondary results peakBufferMiB and
+ * peakHeapMiB (see Peaks), so they reach the JSON results too.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx512m"})
+@State(Scope.Benchmark)
+public class ScreenshotBenchmark {
+  private static final int WIDTH  = 1280;
+  private static final int HEIGHT = 800;
+  private static final int BURST  = 16;
+
+  @Param({"png", "jpeg"})
+  public String format;
+
+  private ScreenshotPipeline pipeline;
+  private int[]              page;
+
+  @Setup
+  public void setup(){
+    pipeline = new ScreenshotPipeline();
+    page = new int[WIDTH * HEIGHT];
+    Random r = new Random(42);
+    Arrays.fill(page, 0xffffffff);
+    for(int y = 0; y < 64; y++){
+      for(int x = 0; x < WIDTH; x++) page[y * WIDTH + x] = 0xff1a73e8;
+    }
+    for(int y = 96; y + 12 < HEIGHT; y += 20){ // lines of "words"
+      int x = 40;
+      while(x < WIDTH - 300){
+        int word = 20 + r.nextInt(60);
+        for(int dy = 0; dy < 12; dy++){
+          for(int dx = 0; dx < word; dx++) if(r.nextInt(3) != 0) page[(y + dy) * WIDTH + x + dx] = 0xff202124;
+        }
+        x += word + 8;
+      }
+    }
+    for(int y = 120; y < 420; y++){ // photo-like block
+      for(int x = WIDTH - 280; x < WIDTH - 40; x++) page[y * WIDTH + x] = 0xff000000 | r.nextInt(0x1000000);
+    }
+  }
+
+  /**
+   * Peaks of the current iteration, read after every burst. EVENTS counters
+   * are reported as is rather than divided by time; a run shows their mean
+   * over iterations.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Peaks {
+    public long peakBufferMiB;
+    public long peakHeapMiB;
+
+    @Setup(Level.Iteration)
+    public void reset(){
+      peakBufferMiB = 0;
+      peakHeapMiB = 0;
+      for(MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()){
+        if(p.getType() == MemoryType.HEAP) p.resetPeakUsage();
+      }
+    }
+
+    void read(ScreenshotPipeline pipeline){
+      long heap = 0;
+      for(MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()){
+        if(p.getType() == MemoryType.HEAP) heap += p.getPeakUsage().getUsed();
+      }
+      peakBufferMiB = Math.max(peakBufferMiB, pipeline.stats().get("peakBufferBytes") >> 20);
+      peakHeapMiB = Math.max(peakHeapMiB, heap >> 20);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public long captureBurst(Peaks peaks) throws Exception{
+    List<CompletableFuture<Map<String, Object>>> shots = new ArrayList<>(BURST);
+    for(int i = 0; i < BURST; i++){
+      shots.add(pipeline.capture(pool -> {
+        int[] px = pool.acquire(WIDTH * HEIGHT);
+        System.arraycopy(page, 0, px, 0, WIDTH * HEIGHT);
+        return new ScreenshotPipeline.Frame(px, WIDTH, HEIGHT);
+      }, format, null));
+    }
+    long bytes = 0;
+    for(CompletableFuture<Map<String, Object>> f : shots) bytes += ((byte[])f.get().get(ScreenshotPipeline.IMAGE)).length;
+    peaks.read(pipeline);
+    return bytes;
+  }
+}
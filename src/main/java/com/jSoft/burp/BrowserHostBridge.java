@@ -2,14 +2,25 @@ package com.jSoft.burp;
 
 import javax.swing.SwingUtilities;
 import java.awt.Component;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
- * Minimal reflective bridge to a host-side helper that runs in Burp's
- * classloader and manages the built-in JCEF browser. This allows rendering
- * and control without loading JCEF classes in the extension classloader.
+ * Minimal bridge to a host-side helper that runs in Burp's classloader and
+ * manages the built-in JCEF browser. This allows rendering and control
+ * without loading JCEF classes in the extension classloader.
  *
  * Expected host class contract (to be provided on Burp's main classpath or via agent):
  *   package com.jSoft.burp.browserhost;
@@ -18,219 +29,1287 @@ import java.util.function.Consumer;
  *     public static void navigate(String url);
  *     public static void dispose();
  *   }
+ *
+ * The contract is resolved once into MethodHandles (see Op) and invoked with
+ * invokeExact, so calls across the classloader boundary avoid reflection,
+ * boxing and varargs arrays. Optional methods the host lacks are recorded at
+ * bind time; failed calls are counted per method and shown in diagnostics().
  */
 final class BrowserHostBridge {
   private static final String HOST_CLASS = "com.jSoft.burp.browserhost.Host";
 
-  private static volatile Class<?> hostClass;
-  private static volatile Method   mGetOrCreate;
-  private static volatile Method   mNavigate;
-  private static volatile Method   mDispose;
-  private static volatile Method   mReload;
-  private static volatile Method   mSetAddr;
-  private static volatile Method   mSetTitle;
-  private static volatile Method   mSetConsole;
-  private static volatile Method   mDiagnostics;
-  private static volatile Method   mSetEventLog;
-  private static volatile Method   mSetUrlAllowRegex;
-  private static volatile Method   mSetLoading;
-  private static volatile Method   mSetCanBack;
-  private static volatile Method   mSetCanFwd;
-  private static volatile Method   mGoBack;
-  private static volatile Method   mGoForward;
-  private static volatile Method   mStop;
-  private static volatile Method   mSetHomeUrl;
-  private static volatile Method   mHome;
+  /** Host methods bound by the bridge. Only GET_OR_CREATE is required. */
+  private enum Op {
+    GET_OR_CREATE         ("getOrCreateBrowserComponent", true,  Component.class, String.class),
+    NAVIGATE              ("navigate",             false, void.class, String.class),
+    DISPOSE               ("dispose",              false, void.class),
+    RELOAD                ("reload",               false, void.class),
+    SET_ON_ADDRESS_CHANGE ("setOnAddressChange",   false, void.class, Consumer.class),
+    SET_ON_TITLE_CHANGE   ("setOnTitleChange",     false, void.class, Consumer.class),
+    SET_ON_CONSOLE_MESSAGE("setOnConsoleMessage",  false, void.class, Consumer.class),
+    DIAGNOSTICS           ("diagnostics",          false, String.class),
+    SET_ON_EVENT_LOG      ("setOnEventLog",        false, void.class, Consumer.class),
+    SET_URL_ALLOW_REGEX   ("setUrlAllowRegex",     false, void.class, String.class),
+    SET_NAVIGATION_RULES  ("setNavigationRules",   false, void.class, List.class),
+    IS_NAVIGATION_ALLOWED ("isNavigationAllowed",  false, boolean.class, String.class),
+    SET_ON_LOADING        ("setOnLoading",         false, void.class, Consumer.class),
+    SET_ON_CAN_GO_BACK    ("setOnCanGoBack",       false, void.class, Consumer.class),
+    SET_ON_CAN_GO_FORWARD ("setOnCanGoForward",    false, void.class, Consumer.class),
+    GO_BACK               ("goBack",               false, void.class),
+    GO_FORWARD            ("goForward",            false, void.class),
+    STOP                  ("stop",                 false, void.class),
+    SET_HOME_URL          ("setHomeUrl",           false, void.class, String.class),
+    NAVIGATE_HOME         ("navigateHome",         false, void.class),
+    CREATE_BROWSER        ("createBrowser",        false, Component.class, String.class, String.class),
+    GET_BROWSER_COMPONENT ("getBrowserComponent",  false, Component.class, String.class),
+    CLOSE_BROWSER         ("closeBrowser",         false, boolean.class, String.class),
+    LIST_BROWSERS         ("listBrowsers",         false, List.class),
+    SELECT_BROWSER        ("selectBrowser",        false, void.class, String.class),
+    SET_MAX_BROWSERS      ("setMaxBrowsers",       false, void.class, int.class),
+    SET_POOL_SIZE         ("setPoolSize",          false, void.class, int.class),
+    SUBSCRIBE_EVENTS      ("subscribeEvents",      false, Runnable.class, Consumer.class, boolean.class),
+    SET_EVENT_BATCH_INTERVAL("setEventBatchInterval", false, void.class, int.class),
+    START_INITIALIZATION  ("startInitialization",  false, CompletableFuture.class),
+    WHEN_READY            ("whenReady",            false, CompletableFuture.class),
+    INTERNAL_PAGE_URL     ("internalPageUrl",      false, String.class, String.class),
+    SET_RESOURCE_CACHE_ENABLED  ("setResourceCacheEnabled",  false, void.class, boolean.class),
+    SET_RESOURCE_CACHE_RULES    ("setResourceCacheRules",    false, void.class, List.class),
+    SET_RESOURCE_CACHE_MAX_BYTES("setResourceCacheMaxBytes", false, void.class, long.class),
+    CLEAR_RESOURCE_CACHE        ("clearResourceCache",       false, void.class),
+    RESOURCE_CACHE_STATS        ("resourceCacheStats",       false, Map.class),
+    SET_CAPTURE_ENABLED         ("setCaptureEnabled",        false, void.class, boolean.class),
+    SET_CAPTURE_MAX_BODY_BYTES  ("setCaptureMaxBodyBytes",   false, void.class, int.class),
+    SET_CAPTURE_BODIES_ENABLED  ("setCaptureBodiesEnabled",  false, void.class, boolean.class),
+    SUBSCRIBE_CAPTURE           ("subscribeCapture",         false, Runnable.class, Consumer.class),
+    CAPTURE_STATS               ("captureStats",             false, Map.class),
+    SET_RENDERING_MODE          ("setRenderingMode",         false, void.class, String.class),
+    GET_RENDERING_MODE          ("getRenderingMode",         false, String.class),
+    SET_MAX_FRAME_RATE          ("setMaxFrameRate",          false, void.class, int.class),
+    SET_BROWSERS_VISIBLE        ("setBrowsersVisible",       false, void.class, boolean.class),
+    NAVIGATE_ALL                ("navigateAll",              false, Stream.class, Stream.class, int.class, long.class, boolean.class),
+    LOAD_TIMING_STATS           ("loadTimingStats",          false, List.class),
+    RECENT_LOAD_TIMINGS         ("recentLoadTimings",        false, List.class),
+    RESET_LOAD_TIMINGS          ("resetLoadTimings",         false, void.class),
+    REGISTER_PAGE_HANDLER       ("registerPageHandler",      false, Runnable.class, String.class, BiFunction.class),
+    REGISTER_PAGE_QUERY_HANDLER ("registerPageQueryHandler", false, Runnable.class, String.class, Function.class),
+    SET_PAGE_CHANNEL_ORIGINS    ("setPageChannelOrigins",    false, void.class, List.class),
+    SET_MAX_IN_FLIGHT_QUERIES   ("setMaxInFlightQueries",    false, void.class, int.class),
+    EVALUATE                    ("evaluate",                 false, CompletableFuture.class, String.class, String.class, long.class),
+    PAGE_CHANNEL_SCRIPT         ("pageChannelScript",        false, String.class),
+    PAGE_CHANNEL_STATS          ("pageChannelStats",         false, Map.class),
+    PAGE_CONTENT                ("pageContent",              false, Flow.Publisher.class, String.class, String.class, long.class),
+    STREAM_PAGE_CONTENT         ("streamPageContent",        false, CompletableFuture.class, String.class, String.class, long.class, Consumer.class),
+    CREATE_BROWSER_IN_PROFILE   ("createBrowser",            false, Component.class, String.class, String.class, String.class),
+    GET_BROWSER_PROFILE         ("getBrowserProfile",        false, String.class, String.class),
+    CREATE_PROFILE              ("createProfile",            false, boolean.class, String.class),
+    CLOSE_PROFILE               ("closeProfile",             false, boolean.class, String.class),
+    LIST_PROFILES               ("listProfiles",             false, List.class),
+    SET_PROFILE_DIRECTORY       ("setProfileDirectory",      false, void.class, String.class),
+    GET_PROFILE_DIRECTORY       ("getProfileDirectory",      false, String.class),
+    SET_DISK_CACHE_MAX_BYTES    ("setDiskCacheMaxBytes",     false, void.class, long.class),
+    SET_PERSIST_SESSION_COOKIES ("setPersistSessionCookies", false, void.class, boolean.class),
+    SET_COOKIE_SYNC_ENABLED     ("setCookieSyncEnabled",     false, void.class, boolean.class),
+    SUBSCRIBE_COOKIE_CHANGES    ("subscribeCookieChanges",   false, Runnable.class, Consumer.class),
+    APPLY_COOKIE_CHANGES        ("applyCookieChanges",       false, CompletableFuture.class, List.class),
+    SET_COOKIE_CONFLICT_RULE    ("setCookieConflictRule",    false, void.class, String.class),
+    COOKIE_SYNC_STATS           ("cookieSyncStats",          false, Map.class),
+    SET_JOURNAL_ENABLED         ("setJournalEnabled",        false, void.class, boolean.class),
+    SET_JOURNAL_DIRECTORY       ("setJournalDirectory",      false, void.class, String.class),
+    SET_JOURNAL_MAX_BYTES       ("setJournalMaxBytes",       false, void.class, long.class),
+    QUERY_JOURNAL               ("queryJournal",             false, List.class, long.class, long.class, int.class),
+    REPLAY_JOURNAL              ("replayJournal",            false, long.class, long.class, long.class, Consumer.class),
+    JOURNAL_STATS               ("journalStats",             false, Map.class),
+    CAPTURE_SCREENSHOT          ("captureScreenshot",        false, CompletableFuture.class, String.class, String.class),
+    CAPTURE_SCREENSHOTS         ("captureScreenshots",       false, Stream.class, Stream.class, int.class, long.class, String.class),
+    SCREENSHOT_STATS            ("screenshotStats",          false, Map.class),
+    CREATE_BROWSER_ASYNC        ("createBrowserAsync",       false, CompletableFuture.class, String.class, String.class, String.class),
+    CLOSE_BROWSER_ASYNC         ("closeBrowserAsync",        false, CompletableFuture.class, String.class),
+    CREATE_PROFILE_ASYNC        ("createProfileAsync",       false, CompletableFuture.class, String.class),
+    CLOSE_PROFILE_ASYNC         ("closeProfileAsync",        false, CompletableFuture.class, String.class),
+    NAVIGATE_ASYNC              ("navigateAsync",            false, CompletableFuture.class, String.class, String.class),
+    RELOAD_ASYNC                ("reloadAsync",              false, CompletableFuture.class, String.class),
+    GO_BACK_ASYNC               ("goBackAsync",              false, CompletableFuture.class, String.class),
+    GO_FORWARD_ASYNC            ("goForwardAsync",           false, CompletableFuture.class, String.class),
+    STOP_ASYNC                  ("stopAsync",                false, CompletableFuture.class, String.class),
+    DISPOSE_ASYNC               ("disposeAsync",             false, CompletableFuture.class),
+    COMMAND_STATS               ("commandStats",             false, Map.class),
+    SET_MEMORY_BUDGET           ("setMemoryBudget",          false, void.class, long.class, long.class),
+    MEMORY_STATS                ("memoryStats",              false, Map.class),
+    MEMORY_PROCESSES            ("memoryProcesses",          false, List.class),
+    DISCARD_BROWSER             ("discardBrowser",           false, CompletableFuture.class, String.class);
+
+    final String     method;
+    final boolean    required;
+    final MethodType type;
+    final LongAdder  failures = new LongAdder();
+
+    Op(String method, boolean required, Class<?> ret, Class<?>... params){
+      this.method = method;
+      this.required = required;
+      this.type = MethodType.methodType(ret, params);
+    }
+  }
+
+  /** Immutable result of binding the host contract. */
+  private static final class Binding {
+    final MethodHandle[] handles;  // indexed by Op.ordinal(); null = missing
+    final List<String>   missing;
+    final boolean        complete; // all required methods bound
+
+    Binding(MethodHandle[] handles, List<String> missing){
+      this.handles = handles;
+      this.missing = missing;
+      boolean ok = true;
+      for(Op op : Op.values()){
+        if(op.required && handles[op.ordinal()] == null) ok = false;
+      }
+      this.complete = ok;
+    }
+  }
+
+  private static volatile Binding binding;
+  private static volatile String  lastFailure;
 
   private BrowserHostBridge(){}
 
   static boolean isAvailable(){
-    try{
-      ensureLoaded();
-      return hostClass != null && mGetOrCreate != null;
-    }catch(Throwable ignored){
-      return false;
-    }
+    Binding b = binding;
+    if(b == null) b = bind();
+    return b != null && b.complete;
+  }
+
+  /** Optional host methods that were not found at bind time (empty until bound). */
+  static List<String> missingMethods(){
+    Binding b = binding;
+    return b == null ? List.of() : b.missing;
   }
 
   static Component getOrCreateBrowserComponent(String startUrl) throws Throwable{
-    ensureLoaded();
-    if(mGetOrCreate == null){
+    MethodHandle h = handle(Op.GET_OR_CREATE);
+    if(h == null){
       throw new IllegalStateException("Browser host not available");
     }
-    Object comp = mGetOrCreate.invoke(null, startUrl);
-    if(!(comp instanceof Component)){
-      throw new IllegalStateException("Host returned non-Component: " + (comp == null ? "null" : comp.getClass()));
+    try{
+      Component comp = (Component)h.invokeExact(startUrl);
+      if(comp == null){
+        throw new IllegalStateException("Host returned null component");
+      }
+      return comp;
+    }catch(Throwable t){
+      failed(Op.GET_OR_CREATE, t);
+      throw t;
     }
-    return (Component)comp;
   }
 
   static void navigate(String url){
-    try{
-      ensureLoaded();
-      if(mNavigate != null){
-        mNavigate.invoke(null, url);
-      }
-    }catch(Throwable ignored){
-      // best-effort only; fall back silently
-    }
+    MethodHandle h = handle(Op.NAVIGATE);
+    if(h == null) return;
+    try{ h.invokeExact(url); }catch(Throwable t){ failed(Op.NAVIGATE, t); }
   }
 
   static void reload(){
-    try{
-      ensureLoaded();
-      if(mReload != null){
-        mReload.invoke(null);
-      }
-    }catch(Throwable ignored){}
+    run(Op.RELOAD);
   }
 
   // DevTools hook is optional; Host may not implement it depending on JCEF version.
 
   static void setOnAddressChange(Consumer<String> c){
-    try{
-      ensureLoaded();
-      if(mSetAddr != null){
-        mSetAddr.invoke(null, c);
-      }
-    }catch(Throwable ignored){}
+    accept(Op.SET_ON_ADDRESS_CHANGE, c);
   }
 
   static void setOnTitleChange(Consumer<String> c){
-    try{
-      ensureLoaded();
-      if(mSetTitle != null){
-        mSetTitle.invoke(null, c);
-      }
-    }catch(Throwable ignored){}
+    accept(Op.SET_ON_TITLE_CHANGE, c);
   }
 
   static void setOnConsoleMessage(Consumer<String> c){
-    try{
-      ensureLoaded();
-      if(mSetConsole != null){
-        mSetConsole.invoke(null, c);
-      }
-    }catch(Throwable ignored){}
+    accept(Op.SET_ON_CONSOLE_MESSAGE, c);
   }
 
+  /** Host diagnostics followed by the bridge's binding and failure counters. */
   static String diagnostics(){
-    try{
-      ensureLoaded();
-      if(mDiagnostics != null){
-        Object o = mDiagnostics.invoke(null);
-        return (o == null) ? "" : String.valueOf(o);
+    StringBuilder sb = new StringBuilder();
+    MethodHandle h = handle(Op.DIAGNOSTICS);
+    if(h != null){
+      try{
+        String s = (String)h.invokeExact();
+        if(s != null) sb.append(s);
+      }catch(Throwable t){
+        failed(Op.DIAGNOSTICS, t);
+      }
+    }
+    Binding b = binding;
+    if(b == null){
+      return sb.toString();
+    }
+    if(sb.length() > 0 && sb.charAt(sb.length() - 1) != '\n') sb.append('\n');
+    sb.append("Bridge: bound ").append(Op.values().length - b.missing.size())
+      .append('/').append(Op.values().length).append(" host methods\n");
+    if(!b.missing.isEmpty()){
+      sb.append("Bridge missing: ").append(String.join(", ", b.missing)).append('\n');
+    }
+    StringBuilder failures = new StringBuilder();
+    for(Op op : Op.values()){
+      long n = op.failures.sum();
+      if(n > 0){
+        if(failures.length() > 0) failures.append(", ");
+        failures.append(op.method).append('=').append(n);
       }
-    }catch(Throwable ignored){}
-    return "";
+    }
+    sb.append("Bridge failed calls: ").append(failures.length() == 0 ? "none" : failures).append('\n');
+    String last = lastFailure;
+    if(last != null){
+      sb.append("Bridge last failure: ").append(last).append('\n');
+    }
+    return sb.toString();
   }
 
   static void setOnEventLog(Consumer<String> c){
-    try{
-      ensureLoaded();
-      if(mSetEventLog != null){
-        mSetEventLog.invoke(null, c);
-      }
-    }catch(Throwable ignored){}
+    accept(Op.SET_ON_EVENT_LOG, c);
   }
 
   static void setUrlAllowRegex(String regex){
+    MethodHandle h = handle(Op.SET_URL_ALLOW_REGEX);
+    if(h == null) return;
+    try{ h.invokeExact(regex); }catch(Throwable t){ failed(Op.SET_URL_ALLOW_REGEX, t); }
+  }
+
+  /** Returns false if the host does not support rule lists or rejected them. */
+  static boolean setNavigationRules(List<String> rules){
+    MethodHandle h = handle(Op.SET_NAVIGATION_RULES);
+    if(h == null) return false;
     try{
-      ensureLoaded();
-      if(mSetUrlAllowRegex != null){
-        mSetUrlAllowRegex.invoke(null, regex);
-      }
-    }catch(Throwable ignored){}
+      h.invokeExact(rules);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_NAVIGATION_RULES, t);
+      return false;
+    }
   }
 
-  static void setOnLoading(Consumer<Boolean> c){
+  static boolean isNavigationAllowed(String url){
+    MethodHandle h = handle(Op.IS_NAVIGATION_ALLOWED);
+    if(h == null) return false;
     try{
-      ensureLoaded();
-      if(mSetLoading != null){
-        mSetLoading.invoke(null, c);
-      }
-    }catch(Throwable ignored){}
+      return (boolean)h.invokeExact(url);
+    }catch(Throwable t){
+      failed(Op.IS_NAVIGATION_ALLOWED, t);
+      return false;
+    }
+  }
+
+  static void setOnLoading(Consumer<Boolean> c){
+    accept(Op.SET_ON_LOADING, c);
   }
 
   static void setOnCanGoBack(Consumer<Boolean> c){
-    try{
-      ensureLoaded();
-      if(mSetCanBack != null){
-        mSetCanBack.invoke(null, c);
-      }
-    }catch(Throwable ignored){}
+    accept(Op.SET_ON_CAN_GO_BACK, c);
   }
 
   static void setOnCanGoForward(Consumer<Boolean> c){
+    accept(Op.SET_ON_CAN_GO_FORWARD, c);
+  }
+
+  static void goBack(){ run(Op.GO_BACK); }
+  static void goForward(){ run(Op.GO_FORWARD); }
+  static void stop(){ run(Op.STOP); }
+  static void setHomeUrl(String url){
+    MethodHandle h = handle(Op.SET_HOME_URL);
+    if(h == null) return;
+    try{ h.invokeExact(url); }catch(Throwable t){ failed(Op.SET_HOME_URL, t); }
+  }
+  static void home(){ run(Op.NAVIGATE_HOME); }
+
+  /** URL of a host-served internal page (e.g. "start"); null if the host has none. */
+  static String internalPageUrl(String page){
+    MethodHandle h = handle(Op.INTERNAL_PAGE_URL);
+    if(h == null) return null;
     try{
-      ensureLoaded();
-      if(mSetCanFwd != null){
-        mSetCanFwd.invoke(null, c);
-      }
-    }catch(Throwable ignored){}
+      return (String)h.invokeExact(page);
+    }catch(Throwable t){
+      failed(Op.INTERNAL_PAGE_URL, t);
+      return null;
+    }
   }
 
-  static void goBack(){
-    try{ ensureLoaded(); if(mGoBack != null) mGoBack.invoke(null); }catch(Throwable ignored){}
+  /** True if the host supports multiple browsers keyed by id. */
+  static boolean supportsMultipleBrowsers(){
+    return handle(Op.CREATE_BROWSER) != null && handle(Op.SELECT_BROWSER) != null;
   }
-  static void goForward(){
-    try{ ensureLoaded(); if(mGoForward != null) mGoForward.invoke(null); }catch(Throwable ignored){}
+
+  /** Returns the browser for id, creating it if needed; null if unsupported. */
+  static Component createBrowser(String id, String startUrl) throws Throwable{
+    MethodHandle h = handle(Op.CREATE_BROWSER);
+    if(h == null) return null;
+    try{
+      return (Component)h.invokeExact(id, startUrl);
+    }catch(Throwable t){
+      failed(Op.CREATE_BROWSER, t);
+      throw t;
+    }
   }
-  static void stop(){
-    try{ ensureLoaded(); if(mStop != null) mStop.invoke(null); }catch(Throwable ignored){}
+
+  /**
+   * Loads urls in up to concurrency extra browsers and streams one result
+   * map per URL (see Host.navigateAll); close the stream to cancel. Null if
+   * the host has no batch navigation.
+   */
+  @SuppressWarnings("unchecked")
+  static Stream<Map<String, Object>> navigateAll(Stream<String> urls, int concurrency, long timeoutMillis, boolean waitForNetworkIdle) throws Throwable{
+    MethodHandle h = handle(Op.NAVIGATE_ALL);
+    if(h == null) return null;
+    try{
+      return (Stream<Map<String, Object>>)(Stream<?>)h.invokeExact((Stream<?>)urls, concurrency, timeoutMillis, waitForNetworkIdle);
+    }catch(Throwable t){
+      failed(Op.NAVIGATE_ALL, t);
+      throw t;
+    }
   }
-  static void setHomeUrl(String url){
-    try{ ensureLoaded(); if(mSetHomeUrl != null) mSetHomeUrl.invoke(null, url); }catch(Throwable ignored){}
+
+  static Component getBrowserComponent(String id){
+    MethodHandle h = handle(Op.GET_BROWSER_COMPONENT);
+    if(h == null) return null;
+    try{
+      return (Component)h.invokeExact(id);
+    }catch(Throwable t){
+      failed(Op.GET_BROWSER_COMPONENT, t);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the browser for id in the named profile ("default" or null for
+   * the shared one), replacing a browser of another profile; null if the
+   * host has no profiles.
+   */
+  static Component createBrowser(String id, String startUrl, String profile) throws Throwable{
+    MethodHandle h = handle(Op.CREATE_BROWSER_IN_PROFILE);
+    if(h == null) return null;
+    try{
+      return (Component)h.invokeExact(id, startUrl, profile);
+    }catch(Throwable t){
+      failed(Op.CREATE_BROWSER_IN_PROFILE, t);
+      throw t;
+    }
+  }
+
+  /** Profile of browser id; "default" if the host has no profiles, null if it does not exist. */
+  static String getBrowserProfile(String id){
+    MethodHandle h = handle(Op.GET_BROWSER_PROFILE);
+    if(h == null) return "default";
+    try{
+      return (String)h.invokeExact(id);
+    }catch(Throwable t){
+      failed(Op.GET_BROWSER_PROFILE, t);
+      return null;
+    }
+  }
+
+  /** Creates an isolated profile; false if it existed, failed or is unsupported. */
+  static boolean createProfile(String name){
+    MethodHandle h = handle(Op.CREATE_PROFILE);
+    if(h == null) return false;
+    try{
+      return (boolean)h.invokeExact(name);
+    }catch(Throwable t){
+      failed(Op.CREATE_PROFILE, t);
+      return false;
+    }
+  }
+
+  /** Closes a profile's browsers and drops its cookies and storage. */
+  static boolean closeProfile(String name){
+    MethodHandle h = handle(Op.CLOSE_PROFILE);
+    if(h == null) return false;
+    try{
+      return (boolean)h.invokeExact(name);
+    }catch(Throwable t){
+      failed(Op.CLOSE_PROFILE, t);
+      return false;
+    }
+  }
+
+  /** name, browsers, persistent and createMicros per profile; empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static List<Map<String, Object>> listProfiles(){
+    MethodHandle h = handle(Op.LIST_PROFILES);
+    if(h == null) return List.of();
+    try{
+      return (List<Map<String, Object>>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.LIST_PROFILES, t);
+      return List.of();
+    }
+  }
+
+  /**
+   * Sets the persistent profile directory; only before CEF is initialized.
+   * Returns false if unsupported or too late.
+   */
+  static boolean setProfileDirectory(String dir){
+    MethodHandle h = handle(Op.SET_PROFILE_DIRECTORY);
+    if(h == null) return false;
+    try{
+      h.invokeExact(dir);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_PROFILE_DIRECTORY, t);
+      return false;
+    }
+  }
+
+  /** The persistent profile directory in use; null if in memory, not initialized or unsupported. */
+  static String getProfileDirectory(){
+    MethodHandle h = handle(Op.GET_PROFILE_DIRECTORY);
+    if(h == null) return null;
+    try{
+      return (String)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.GET_PROFILE_DIRECTORY, t);
+      return null;
+    }
   }
-  static void home(){
-    try{ ensureLoaded(); if(mHome != null) mHome.invoke(null); }catch(Throwable ignored){}
+
+  /** Caps Chromium's disk cache; only before CEF is initialized. Returns false if unsupported or too late. */
+  static boolean setDiskCacheMaxBytes(long bytes){
+    MethodHandle h = handle(Op.SET_DISK_CACHE_MAX_BYTES);
+    if(h == null) return false;
+    try{
+      h.invokeExact(bytes);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_DISK_CACHE_MAX_BYTES, t);
+      return false;
+    }
+  }
+
+  /** Keeps session cookies across restarts; only before CEF is initialized. Returns false if unsupported or too late. */
+  static boolean setPersistSessionCookies(boolean persist){
+    MethodHandle h = handle(Op.SET_PERSIST_SESSION_COOKIES);
+    if(h == null) return false;
+    try{
+      h.invokeExact(persist);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_PERSIST_SESSION_COOKIES, t);
+      return false;
+    }
+  }
+
+  static boolean closeBrowser(String id){
+    MethodHandle h = handle(Op.CLOSE_BROWSER);
+    if(h == null) return false;
+    try{
+      return (boolean)h.invokeExact(id);
+    }catch(Throwable t){
+      failed(Op.CLOSE_BROWSER, t);
+      return false;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static List<String> listBrowsers(){
+    MethodHandle h = handle(Op.LIST_BROWSERS);
+    if(h == null) return List.of();
+    try{
+      return (List<String>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.LIST_BROWSERS, t);
+      return List.of();
+    }
+  }
+
+  static void selectBrowser(String id){
+    MethodHandle h = handle(Op.SELECT_BROWSER);
+    if(h == null) return;
+    try{ h.invokeExact(id); }catch(Throwable t){ failed(Op.SELECT_BROWSER, t); }
+  }
+
+  static void setMaxBrowsers(int max){
+    MethodHandle h = handle(Op.SET_MAX_BROWSERS);
+    if(h == null) return;
+    try{ h.invokeExact(max); }catch(Throwable t){ failed(Op.SET_MAX_BROWSERS, t); }
+  }
+
+  static void setPoolSize(int size){
+    MethodHandle h = handle(Op.SET_POOL_SIZE);
+    if(h == null) return;
+    try{ h.invokeExact(size); }catch(Throwable t){ failed(Op.SET_POOL_SIZE, t); }
+  }
+
+  /**
+   * Subscribes to batched host events (see Host.subscribeEvents). Returns the
+   * unsubscribe action, or null if the host has no event pipeline.
+   */
+  static Runnable subscribeEvents(Consumer<List<Map<String, Object>>> subscriber, boolean onEdt){
+    MethodHandle h = handle(Op.SUBSCRIBE_EVENTS);
+    if(h == null) return null;
+    try{
+      return (Runnable)h.invokeExact((Consumer<?>)subscriber, onEdt);
+    }catch(Throwable t){
+      failed(Op.SUBSCRIBE_EVENTS, t);
+      return null;
+    }
+  }
+
+  static void setEventBatchInterval(int millis){
+    MethodHandle h = handle(Op.SET_EVENT_BATCH_INTERVAL);
+    if(h == null) return;
+    try{ h.invokeExact(millis); }catch(Throwable t){ failed(Op.SET_EVENT_BATCH_INTERVAL, t); }
+  }
+
+  /**
+   * Starts CEF initialization on the host (a no-op if the agent already did)
+   * and returns a future completed when browsers can be created; null if the
+   * host predates readiness futures.
+   */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Void> startInitialization(){
+    MethodHandle h = handle(Op.START_INITIALIZATION);
+    if(h == null) return null;
+    try{
+      return (CompletableFuture<Void>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.START_INITIALIZATION, t);
+      return null;
+    }
+  }
+
+  /** Future completed once the host's CEF client exists; null if unsupported. */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Void> whenReady(){
+    MethodHandle h = handle(Op.WHEN_READY);
+    if(h == null) return null;
+    try{
+      return (CompletableFuture<Void>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.WHEN_READY, t);
+      return null;
+    }
+  }
+
+  /** Enables or bypasses the host's subresource cache; false if the host has none. */
+  static boolean setResourceCacheEnabled(boolean enabled){
+    MethodHandle h = handle(Op.SET_RESOURCE_CACHE_ENABLED);
+    if(h == null) return false;
+    try{
+      h.invokeExact(enabled);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_RESOURCE_CACHE_ENABLED, t);
+      return false;
+    }
+  }
+
+  /** Returns false if the host has no cache or rejected the rules. */
+  static boolean setResourceCacheRules(List<String> rules){
+    MethodHandle h = handle(Op.SET_RESOURCE_CACHE_RULES);
+    if(h == null) return false;
+    try{
+      h.invokeExact(rules);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_RESOURCE_CACHE_RULES, t);
+      return false;
+    }
+  }
+
+  static void setResourceCacheMaxBytes(long bytes){
+    MethodHandle h = handle(Op.SET_RESOURCE_CACHE_MAX_BYTES);
+    if(h == null) return;
+    try{ h.invokeExact(bytes); }catch(Throwable t){ failed(Op.SET_RESOURCE_CACHE_MAX_BYTES, t); }
+  }
+
+  static void clearResourceCache(){ run(Op.CLEAR_RESOURCE_CACHE); }
+
+  /** Cache counters (hits, misses, bytesSaved, ...); empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static Map<String, Long> resourceCacheStats(){
+    MethodHandle h = handle(Op.RESOURCE_CACHE_STATS);
+    if(h == null) return Map.of();
+    try{
+      return (Map<String, Long>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.RESOURCE_CACHE_STATS, t);
+      return Map.of();
+    }
+  }
+
+  /** Starts or stops recording browser traffic; false if the host cannot capture. */
+  static boolean setCaptureEnabled(boolean enabled){
+    MethodHandle h = handle(Op.SET_CAPTURE_ENABLED);
+    if(h == null) return false;
+    try{
+      h.invokeExact(enabled);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_CAPTURE_ENABLED, t);
+      return false;
+    }
+  }
+
+  /** Lets the host fetch static subresources itself to record their bodies; false if unsupported. */
+  static boolean setCaptureBodiesEnabled(boolean enabled){
+    MethodHandle h = handle(Op.SET_CAPTURE_BODIES_ENABLED);
+    if(h == null) return false;
+    try{
+      h.invokeExact(enabled);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_CAPTURE_BODIES_ENABLED, t);
+      return false;
+    }
+  }
+
+  static void setCaptureMaxBodyBytes(int bytes){
+    MethodHandle h = handle(Op.SET_CAPTURE_MAX_BODY_BYTES);
+    if(h == null) return;
+    try{ h.invokeExact(bytes); }catch(Throwable t){ failed(Op.SET_CAPTURE_MAX_BODY_BYTES, t); }
+  }
+
+  /**
+   * Sets the consumer of captured request/response batches (see
+   * Host.subscribeCapture). Returns the unsubscribe action, or null if the
+   * host cannot capture.
+   */
+  static Runnable subscribeCapture(Consumer<List<Map<String, Object>>> subscriber){
+    MethodHandle h = handle(Op.SUBSCRIBE_CAPTURE);
+    if(h == null) return null;
+    try{
+      return (Runnable)h.invokeExact((Consumer<?>)subscriber);
+    }catch(Throwable t){
+      failed(Op.SUBSCRIBE_CAPTURE, t);
+      return null;
+    }
+  }
+
+  /** Capture counters (captured, delivered, parked, dropped, ...); empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static Map<String, Long> captureStats(){
+    MethodHandle h = handle(Op.CAPTURE_STATS);
+    if(h == null) return Map.of();
+    try{
+      return (Map<String, Long>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.CAPTURE_STATS, t);
+      return Map.of();
+    }
+  }
+
+  /** Turns the host's cookie sync on or off; false if unsupported. */
+  static boolean setCookieSyncEnabled(boolean enabled){
+    MethodHandle h = handle(Op.SET_COOKIE_SYNC_ENABLED);
+    if(h == null) return false;
+    try{
+      h.invokeExact(enabled);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_COOKIE_SYNC_ENABLED, t);
+      return false;
+    }
+  }
+
+  /**
+   * Sets the subscriber of the browser's cookie changes (batches of maps, see
+   * Host.subscribeCookieChanges). Returns the unsubscribe action, or null if
+   * the host has no cookie sync.
+   */
+  static Runnable subscribeCookieChanges(Consumer<List<Map<String, Object>>> subscriber){
+    MethodHandle h = handle(Op.SUBSCRIBE_COOKIE_CHANGES);
+    if(h == null) return null;
+    try{
+      return (Runnable)h.invokeExact((Consumer<?>)subscriber);
+    }catch(Throwable t){
+      failed(Op.SUBSCRIBE_COOKIE_CHANGES, t);
+      return null;
+    }
+  }
+
+  /** Applies cookie changes to the browser; completes with the number applied. */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Integer> applyCookieChanges(List<Map<String, Object>> changes){
+    MethodHandle h = handle(Op.APPLY_COOKIE_CHANGES);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException("applyCookieChanges"));
+    try{
+      return (CompletableFuture<Integer>)h.invokeExact((List<?>)changes);
+    }catch(Throwable t){
+      failed(Op.APPLY_COOKIE_CHANGES, t);
+      return CompletableFuture.failedFuture(t);
+    }
+  }
+
+  /** "browser", "burp" or "newest"; false if unsupported or unknown. */
+  static boolean setCookieConflictRule(String rule){
+    MethodHandle h = handle(Op.SET_COOKIE_CONFLICT_RULE);
+    if(h == null) return false;
+    try{
+      h.invokeExact(rule);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_COOKIE_CONFLICT_RULE, t);
+      return false;
+    }
+  }
+
+  /** Cookie sync counters and latency (see Host.cookieSyncStats); empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static Map<String, Long> cookieSyncStats(){
+    MethodHandle h = handle(Op.COOKIE_SYNC_STATS);
+    if(h == null) return Map.of();
+    try{
+      return (Map<String, Long>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.COOKIE_SYNC_STATS, t);
+      return Map.of();
+    }
+  }
+
+  /**
+   * Turns the host's event journal on or off. Returns false if unsupported
+   * or the journal directory could not be opened.
+   */
+  static boolean setJournalEnabled(boolean enabled){
+    MethodHandle h = handle(Op.SET_JOURNAL_ENABLED);
+    if(h == null) return false;
+    try{
+      h.invokeExact(enabled);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_JOURNAL_ENABLED, t);
+      return false;
+    }
+  }
+
+  /** Journal directory for the next enable; null restores the default. False if unsupported. */
+  static boolean setJournalDirectory(String dir){
+    MethodHandle h = handle(Op.SET_JOURNAL_DIRECTORY);
+    if(h == null) return false;
+    try{
+      h.invokeExact(dir);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_JOURNAL_DIRECTORY, t);
+      return false;
+    }
+  }
+
+  /** Disk space the journal may take; false if unsupported. */
+  static boolean setJournalMaxBytes(long bytes){
+    MethodHandle h = handle(Op.SET_JOURNAL_MAX_BYTES);
+    if(h == null) return false;
+    try{
+      h.invokeExact(bytes);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_JOURNAL_MAX_BYTES, t);
+      return false;
+    }
+  }
+
+  /** Up to limit journal events in the time range (see Host.queryJournal); empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static List<Map<String, Object>> queryJournal(long fromMillis, long toMillis, int limit){
+    MethodHandle h = handle(Op.QUERY_JOURNAL);
+    if(h == null) return List.of();
+    try{
+      return (List<Map<String, Object>>)h.invokeExact(fromMillis, toMillis, limit);
+    }catch(Throwable t){
+      failed(Op.QUERY_JOURNAL, t);
+      return List.of();
+    }
+  }
+
+  /** Hands the journal events in the time range to sink; returns their number, -1 if unsupported or failed. */
+  static long replayJournal(long fromMillis, long toMillis, Consumer<Map<String, Object>> sink){
+    MethodHandle h = handle(Op.REPLAY_JOURNAL);
+    if(h == null) return -1;
+    try{
+      return (long)h.invokeExact(fromMillis, toMillis, (Consumer<?>)sink);
+    }catch(Throwable t){
+      failed(Op.REPLAY_JOURNAL, t);
+      return -1;
+    }
+  }
+
+  /** Journal counters (see Host.journalStats); empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static Map<String, Long> journalStats(){
+    MethodHandle h = handle(Op.JOURNAL_STATS);
+    if(h == null) return Map.of();
+    try{
+      return (Map<String, Long>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.JOURNAL_STATS, t);
+      return Map.of();
+    }
+  }
+
+  /**
+   * Screenshot of browser id (null = selected) as "png" or "jpeg" (see
+   * Host.captureScreenshot). Blocks while the encoders are behind.
+   */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Map<String, Object>> captureScreenshot(String id, String format){
+    MethodHandle h = handle(Op.CAPTURE_SCREENSHOT);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException("captureScreenshot"));
+    try{
+      return (CompletableFuture<Map<String, Object>>)h.invokeExact(id, format);
+    }catch(Throwable t){
+      failed(Op.CAPTURE_SCREENSHOT, t);
+      return CompletableFuture.failedFuture(t);
+    }
+  }
+
+  /**
+   * Loads urls like navigateAll and adds a screenshot to every loaded page's
+   * result (see Host.captureScreenshots); null if the host cannot.
+   */
+  @SuppressWarnings("unchecked")
+  static Stream<Map<String, Object>> captureScreenshots(Stream<String> urls, int concurrency, long timeoutMillis, String format) throws Throwable{
+    MethodHandle h = handle(Op.CAPTURE_SCREENSHOTS);
+    if(h == null) return null;
+    try{
+      return (Stream<Map<String, Object>>)(Stream<?>)h.invokeExact((Stream<?>)urls, concurrency, timeoutMillis, format);
+    }catch(Throwable t){
+      failed(Op.CAPTURE_SCREENSHOTS, t);
+      throw t;
+    }
+  }
+
+  /** Screenshot counters (see Host.screenshotStats); empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static Map<String, Long> screenshotStats(){
+    MethodHandle h = handle(Op.SCREENSHOT_STATS);
+    if(h == null) return Map.of();
+    try{
+      return (Map<String, Long>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.SCREENSHOT_STATS, t);
+      return Map.of();
+    }
+  }
+
+  /**
+   * Selects "windowed" or "offscreen" rendering for browsers created from now
+   * on. Returns false if the host has no such setting or rejected the mode
+   * (offscreen after a windowed initialization).
+   */
+  static boolean setRenderingMode(String mode){
+    MethodHandle h = handle(Op.SET_RENDERING_MODE);
+    if(h == null) return false;
+    try{
+      h.invokeExact(mode);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_RENDERING_MODE, t);
+      return false;
+    }
+  }
+
+  /** The host's rendering mode; "windowed" for hosts that only support that. */
+  static String getRenderingMode(){
+    MethodHandle h = handle(Op.GET_RENDERING_MODE);
+    if(h == null) return "windowed";
+    try{
+      return (String)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.GET_RENDERING_MODE, t);
+      return "windowed";
+    }
+  }
+
+  static void setMaxFrameRate(int fps){
+    MethodHandle h = handle(Op.SET_MAX_FRAME_RATE);
+    if(h == null) return;
+    try{ h.invokeExact(fps); }catch(Throwable t){ failed(Op.SET_MAX_FRAME_RATE, t); }
+  }
+
+  /** Per-host load latency percentiles (see Host.loadTimingStats); empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static List<Map<String, Object>> loadTimingStats(){
+    MethodHandle h = handle(Op.LOAD_TIMING_STATS);
+    if(h == null) return List.of();
+    try{
+      return (List<Map<String, Object>>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.LOAD_TIMING_STATS, t);
+      return List.of();
+    }
+  }
+
+  /** The host's last navigations with their timings, newest first; empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static List<Map<String, Object>> recentLoadTimings(){
+    MethodHandle h = handle(Op.RECENT_LOAD_TIMINGS);
+    if(h == null) return List.of();
+    try{
+      return (List<Map<String, Object>>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.RECENT_LOAD_TIMINGS, t);
+      return List.of();
+    }
+  }
+
+  static void resetLoadTimings(){
+    MethodHandle h = handle(Op.RESET_LOAD_TIMINGS);
+    if(h == null) return;
+    try{ h.invokeExact(); }catch(Throwable t){ failed(Op.RESET_LOAD_TIMINGS, t); }
+  }
+
+  static boolean supportsLoadTimings(){
+    return handle(Op.LOAD_TIMING_STATS) != null;
+  }
+
+  /**
+   * Handles page messages on channel (see Host.registerPageHandler): handler
+   * gets (browser id, payload) and returns the answer; only internal pages and
+   * the origins of setPageChannelOrigins reach it. Returns the action that
+   * removes it, or null if the host has no page channel.
+   */
+  static Runnable registerPageHandler(String channel, BiFunction<String, String, String> handler){
+    MethodHandle h = handle(Op.REGISTER_PAGE_HANDLER);
+    if(h == null) return null;
+    try{
+      return (Runnable)h.invokeExact(channel, (BiFunction<?, ?, ?>)handler);
+    }catch(Throwable t){
+      failed(Op.REGISTER_PAGE_HANDLER, t);
+      return null;
+    }
+  }
+
+  /**
+   * Handles page messages on channel from any frame (see
+   * Host.registerPageQueryHandler): handler gets the caller's browser, origin,
+   * frameUrl and mainFrame with the payload and filters on them. Returns the
+   * action that removes it, or null if the host does not support it.
+   */
+  static Runnable registerPageQueryHandler(String channel, Function<Map<String, String>, String> handler){
+    MethodHandle h = handle(Op.REGISTER_PAGE_QUERY_HANDLER);
+    if(h == null) return null;
+    try{
+      return (Runnable)h.invokeExact(channel, (Function<?, ?>)handler);
+    }catch(Throwable t){
+      failed(Op.REGISTER_PAGE_QUERY_HANDLER, t);
+      return null;
+    }
+  }
+
+  /** Origins whose frames may call registerPageHandler handlers ("*" = any); false if unsupported. */
+  static boolean setPageChannelOrigins(List<String> origins){
+    MethodHandle h = handle(Op.SET_PAGE_CHANNEL_ORIGINS);
+    if(h == null) return false;
+    try{
+      h.invokeExact(origins);
+      return true;
+    }catch(Throwable t){
+      failed(Op.SET_PAGE_CHANNEL_ORIGINS, t);
+      return false;
+    }
+  }
+
+  static void setMaxInFlightQueries(int max){
+    MethodHandle h = handle(Op.SET_MAX_IN_FLIGHT_QUERIES);
+    if(h == null) return;
+    try{ h.invokeExact(max); }catch(Throwable t){ failed(Op.SET_MAX_IN_FLIGHT_QUERIES, t); }
+  }
+
+  /** Value of a JS expression in browser id (null = selected); fails if unsupported or on timeout. */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<String> evaluate(String id, String expression, long timeoutMillis){
+    MethodHandle h = handle(Op.EVALUATE);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException("evaluate"));
+    try{
+      return (CompletableFuture<String>)h.invokeExact(id, expression, timeoutMillis);
+    }catch(Throwable t){
+      failed(Op.EVALUATE, t);
+      return CompletableFuture.failedFuture(t);
+    }
+  }
+
+  /** Script defining window.burpBridge in a page; null if unsupported. */
+  static String pageChannelScript(){
+    MethodHandle h = handle(Op.PAGE_CHANNEL_SCRIPT);
+    if(h == null) return null;
+    try{
+      return (String)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.PAGE_CHANNEL_SCRIPT, t);
+      return null;
+    }
+  }
+
+  /** Page channel counters (crossings, messages, busy, ...); empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static Map<String, Long> pageChannelStats(){
+    MethodHandle h = handle(Op.PAGE_CHANNEL_STATS);
+    if(h == null) return Map.of();
+    try{
+      return (Map<String, Long>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.PAGE_CHANNEL_STATS, t);
+      return Map.of();
+    }
+  }
+
+  /**
+   * Page source ("source") or text ("text") of browser id in chunks, pulled
+   * as the subscriber requests them; null if unsupported.
+   */
+  @SuppressWarnings("unchecked")
+  static Flow.Publisher<String> pageContent(String id, String kind, long maxChars){
+    MethodHandle h = handle(Op.PAGE_CONTENT);
+    if(h == null) return null;
+    try{
+      return (Flow.Publisher<String>)h.invokeExact(id, kind, maxChars);
+    }catch(Throwable t){
+      failed(Op.PAGE_CONTENT, t);
+      return null;
+    }
+  }
+
+  /** Feeds page source or text to sink chunk by chunk; completes with length/delivered/chunks/truncated. */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Map<String, Object>> streamPageContent(String id, String kind, long maxChars, Consumer<CharSequence> sink){
+    MethodHandle h = handle(Op.STREAM_PAGE_CONTENT);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException("streamPageContent"));
+    try{
+      return (CompletableFuture<Map<String, Object>>)h.invokeExact(id, kind, maxChars, (Consumer<?>)sink);
+    }catch(Throwable t){
+      failed(Op.STREAM_PAGE_CONTENT, t);
+      return CompletableFuture.failedFuture(t);
+    }
+  }
+
+  /**
+   * Creates browser id as a host command (see Host.createBrowserAsync);
+   * completes with its component without blocking the caller.
+   */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Component> createBrowserAsync(String id, String startUrl, String profile){
+    MethodHandle h = handle(Op.CREATE_BROWSER_ASYNC);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException("createBrowserAsync"));
+    try{
+      return (CompletableFuture<Component>)h.invokeExact(id, startUrl, profile);
+    }catch(Throwable t){
+      failed(Op.CREATE_BROWSER_ASYNC, t);
+      return CompletableFuture.failedFuture(t);
+    }
+  }
+
+  /** Closes browser id as a host command (see Host.closeBrowserAsync); completes false if it did not exist. */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Boolean> closeBrowserAsync(String id){
+    MethodHandle h = handle(Op.CLOSE_BROWSER_ASYNC);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException("closeBrowserAsync"));
+    try{
+      return (CompletableFuture<Boolean>)h.invokeExact(id);
+    }catch(Throwable t){
+      failed(Op.CLOSE_BROWSER_ASYNC, t);
+      return CompletableFuture.failedFuture(t);
+    }
+  }
+
+  static boolean supportsCloseBrowserAsync(){
+    return handle(Op.CLOSE_BROWSER_ASYNC) != null;
+  }
+
+  /** Creates an isolated profile as a host command, initializing CEF there if needed; completes false if it existed. */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Boolean> createProfileAsync(String name){
+    MethodHandle h = handle(Op.CREATE_PROFILE_ASYNC);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException("createProfileAsync"));
+    try{
+      return (CompletableFuture<Boolean>)h.invokeExact(name);
+    }catch(Throwable t){
+      failed(Op.CREATE_PROFILE_ASYNC, t);
+      return CompletableFuture.failedFuture(t);
+    }
+  }
+
+  /** Closes a profile's browsers and drops its cookies and storage as a host command. */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Boolean> closeProfileAsync(String name){
+    MethodHandle h = handle(Op.CLOSE_PROFILE_ASYNC);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException("closeProfileAsync"));
+    try{
+      return (CompletableFuture<Boolean>)h.invokeExact(name);
+    }catch(Throwable t){
+      failed(Op.CLOSE_PROFILE_ASYNC, t);
+      return CompletableFuture.failedFuture(t);
+    }
+  }
+
+  /**
+   * Loads url in browser id (null = selected); completes with the main
+   * frame's HTTP status when the page ends loading (see Host.navigateAsync).
+   */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Integer> navigateAsync(String id, String url){
+    MethodHandle h = handle(Op.NAVIGATE_ASYNC);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException("navigateAsync"));
+    try{
+      return (CompletableFuture<Integer>)h.invokeExact(id, url);
+    }catch(Throwable t){
+      failed(Op.NAVIGATE_ASYNC, t);
+      return CompletableFuture.failedFuture(t);
+    }
+  }
+
+  static CompletableFuture<Integer> reloadAsync(String id){ return loadCommand(Op.RELOAD_ASYNC, id); }
+  static CompletableFuture<Integer> goBackAsync(String id){ return loadCommand(Op.GO_BACK_ASYNC, id); }
+  static CompletableFuture<Integer> goForwardAsync(String id){ return loadCommand(Op.GO_FORWARD_ASYNC, id); }
+
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Void> stopAsync(String id){
+    MethodHandle h = handle(Op.STOP_ASYNC);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException("stopAsync"));
+    try{
+      return (CompletableFuture<Void>)h.invokeExact(id);
+    }catch(Throwable t){
+      failed(Op.STOP_ASYNC, t);
+      return CompletableFuture.failedFuture(t);
+    }
+  }
+
+  /** Host command queue counters (see Host.commandStats); empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static Map<String, Long> commandStats(){
+    MethodHandle h = handle(Op.COMMAND_STATS);
+    if(h == null) return Map.of();
+    try{
+      return (Map<String, Long>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.COMMAND_STATS, t);
+      return Map.of();
+    }
+  }
+
+  /** Memory budget of the helper processes (0 = never discard) and minimum idle time before a discard. */
+  static void setMemoryBudget(long bytes, long minIdleMillis){
+    MethodHandle h = handle(Op.SET_MEMORY_BUDGET);
+    if(h == null) return;
+    try{ h.invokeExact(bytes, minIdleMillis); }catch(Throwable t){ failed(Op.SET_MEMORY_BUDGET, t); }
+  }
+
+  /** Helper process memory and discard counters (see Host.memoryStats); empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static Map<String, Long> memoryStats(){
+    MethodHandle h = handle(Op.MEMORY_STATS);
+    if(h == null) return Map.of();
+    try{
+      return (Map<String, Long>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.MEMORY_STATS, t);
+      return Map.of();
+    }
+  }
+
+  /** Helper processes of the latest memory sample (pid, role, rssBytes); empty if unsupported. */
+  @SuppressWarnings("unchecked")
+  static List<Map<String, Object>> memoryProcesses(){
+    MethodHandle h = handle(Op.MEMORY_PROCESSES);
+    if(h == null) return List.of();
+    try{
+      return (List<Map<String, Object>>)h.invokeExact();
+    }catch(Throwable t){
+      failed(Op.MEMORY_PROCESSES, t);
+      return List.of();
+    }
+  }
+
+  /** Discards an unselected browser now; it comes back on its next createBrowser. */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<Boolean> discardBrowser(String id){
+    MethodHandle h = handle(Op.DISCARD_BROWSER);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException("discardBrowser"));
+    try{
+      return (CompletableFuture<Boolean>)h.invokeExact(id);
+    }catch(Throwable t){
+      failed(Op.DISCARD_BROWSER, t);
+      return CompletableFuture.failedFuture(t);
+    }
+  }
+
+  static void setBrowsersVisible(boolean visible){
+    MethodHandle h = handle(Op.SET_BROWSERS_VISIBLE);
+    if(h == null) return;
+    try{ h.invokeExact(visible); }catch(Throwable t){ failed(Op.SET_BROWSERS_VISIBLE, t); }
   }
 
   static void dispose(){
+    MethodHandle q = handle(Op.DISPOSE_ASYNC);
+    if(q != null){
+      // Queued on the host's command thread; nothing waits for it here
+      try{ CompletableFuture<?> queued = (CompletableFuture<?>)q.invokeExact(); }catch(Throwable t){ failed(Op.DISPOSE_ASYNC, t); }
+      return;
+    }
+    MethodHandle h = handle(Op.DISPOSE);
+    if(h == null) return;
+    // dispose must run on EDT if it manipulates Swing
+    Runnable r = () -> {
+      try{ h.invokeExact(); }catch(Throwable t){ failed(Op.DISPOSE, t); }
+    };
+    if(SwingUtilities.isEventDispatchThread()) r.run();
+    else SwingUtilities.invokeLater(r);
+  }
+
+  //-----------------------------------------------------------------------------
+  @SuppressWarnings("unchecked")
+  private static CompletableFuture<Integer> loadCommand(Op op, String id){
+    MethodHandle h = handle(op);
+    if(h == null) return CompletableFuture.failedFuture(new UnsupportedOperationException(op.method));
     try{
-      ensureLoaded();
-      if(mDispose != null){
-        // dispose must run on EDT if it manipulates Swing
-        Runnable r = () -> {
-          try{
-            mDispose.invoke(null);
-          }catch(IllegalAccessException | InvocationTargetException ignored){}
-        };
-        if(SwingUtilities.isEventDispatchThread()) r.run();
-        else SwingUtilities.invokeLater(r);
-      }
-    }catch(Throwable ignored){
-      // ignore
+      return (CompletableFuture<Integer>)h.invokeExact(id);
+    }catch(Throwable t){
+      failed(op, t);
+      return CompletableFuture.failedFuture(t);
     }
   }
 
-  private static void ensureLoaded() throws ClassNotFoundException, NoSuchMethodException{
-    if(hostClass != null) return;
+  private static void run(Op op){
+    MethodHandle h = handle(op);
+    if(h == null) return;
+    try{ h.invokeExact(); }catch(Throwable t){ failed(op, t); }
+  }
+
+  private static void accept(Op op, Consumer<?> c){
+    MethodHandle h = handle(op);
+    if(h == null) return;
+    try{ h.invokeExact(c); }catch(Throwable t){ failed(op, t); }
+  }
+
+  private static void failed(Op op, Throwable t){
+    op.failures.increment();
+    lastFailure = op.method + ": " + t;
+  }
+
+  private static MethodHandle handle(Op op){
+    Binding b = binding;
+    if(b == null) b = bind();
+    return b == null ? null : b.handles[op.ordinal()];
+  }
+
+  /** Resolves the host contract once; returns null (and retries later) while Host is not visible. */
+  private static Binding bind(){
     synchronized(BrowserHostBridge.class){
-      if(hostClass != null) return;
-      ClassLoader sys = ClassLoader.getSystemClassLoader();
-      hostClass = Class.forName(HOST_CLASS, false, sys);
-      // Required method: Component getOrCreateBrowserComponent(String)
-      mGetOrCreate = hostClass.getMethod("getOrCreateBrowserComponent", String.class);
-      // Optional helpers:
-      try{ mNavigate  = hostClass.getMethod("navigate", String.class); }catch(NoSuchMethodException ignored){}
-      try{ mDispose   = hostClass.getMethod("dispose"); }catch(NoSuchMethodException ignored){}
-      try{ mReload    = hostClass.getMethod("reload"); }catch(NoSuchMethodException ignored){}
-      // no devtools method by default
-      try{ mSetAddr   = hostClass.getMethod("setOnAddressChange", Consumer.class); }catch(NoSuchMethodException ignored){}
-      try{ mSetTitle  = hostClass.getMethod("setOnTitleChange", Consumer.class); }catch(NoSuchMethodException ignored){}
-      try{ mSetConsole= hostClass.getMethod("setOnConsoleMessage", Consumer.class); }catch(NoSuchMethodException ignored){}
-      try{ mDiagnostics= hostClass.getMethod("diagnostics"); }catch(NoSuchMethodException ignored){}
-      try{ mSetEventLog = hostClass.getMethod("setOnEventLog", Consumer.class); }catch(NoSuchMethodException ignored){}
-      try{ mSetUrlAllowRegex = hostClass.getMethod("setUrlAllowRegex", String.class); }catch(NoSuchMethodException ignored){}
-      try{ mSetLoading = hostClass.getMethod("setOnLoading", Consumer.class); }catch(NoSuchMethodException ignored){}
-      try{ mSetCanBack = hostClass.getMethod("setOnCanGoBack", Consumer.class); }catch(NoSuchMethodException ignored){}
-      try{ mSetCanFwd  = hostClass.getMethod("setOnCanGoForward", Consumer.class); }catch(NoSuchMethodException ignored){}
-      try{ mGoBack     = hostClass.getMethod("goBack"); }catch(NoSuchMethodException ignored){}
-      try{ mGoForward  = hostClass.getMethod("goForward"); }catch(NoSuchMethodException ignored){}
-      try{ mStop       = hostClass.getMethod("stop"); }catch(NoSuchMethodException ignored){}
-      try{ mSetHomeUrl = hostClass.getMethod("setHomeUrl", String.class); }catch(NoSuchMethodException ignored){}
-      try{ mHome       = hostClass.getMethod("navigateHome"); }catch(NoSuchMethodException ignored){}
+      if(binding != null) return binding;
+      final Class<?> hostClass;
+      try{
+        hostClass = Class.forName(HOST_CLASS, false, ClassLoader.getSystemClassLoader());
+      }catch(ClassNotFoundException | LinkageError e){
+        return null;
+      }
+      final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      final MethodHandle[] handles = new MethodHandle[Op.values().length];
+      final List<String> missing = new ArrayList<>();
+      for(Op op : Op.values()){
+        try{
+          handles[op.ordinal()] = lookup.findStatic(hostClass, op.method, op.type);
+        }catch(NoSuchMethodException | IllegalAccessException e){
+          missing.add(op.method + op.type);
+        }
+      }
+      binding = new Binding(handles, Collections.unmodifiableList(missing));
+      return binding;
     }
   }
 }
@@ -1,16 +1,14 @@
 package com.jSoft.burp;
 
 import burp.api.montoya.MontoyaApi;
-import me.friwi.jcefmaven.CefAppBuilder;
+import com.jSoft.burp.browserhost.LocalBrowser;
 import me.friwi.jcefmaven.CefInitializationException;
 import me.friwi.jcefmaven.UnsupportedPlatformException;
-import org.cef.CefApp;
-import org.cef.CefClient;
-import org.cef.browser.CefBrowser;
 
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
 import javax.swing.JTextField;
@@ -23,13 +21,21 @@ import javax.swing.KeyStroke;
 import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.Container;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 ///////////////////////////////////////////////////////////////////////////////
 // CLASS BrowserPanel
@@ -61,6 +67,49 @@ public void unload(){
     catch(InterruptedException ignored){}
   }
 
+  for(final Runnable unsubscribe : _unsubscribers){
+    unsubscribe.run();
+  }
+  _unsubscribers.clear();
+  if(_usingHost){
+    // Host outlives this extension generation; drop callbacks into this classloader
+    BrowserHostBridge.setOnAddressChange(null);
+    BrowserHostBridge.setOnEventLog(null);
+    BrowserHostBridge.setOnLoading(null);
+    BrowserHostBridge.setOnCanGoBack(null);
+    BrowserHostBridge.setOnCanGoForward(null);
+    BrowserHostBridge.setCaptureEnabled(false);
+    BrowserHostBridge.setCaptureBodiesEnabled(false);
+    BrowserHostBridge.setCookieSyncEnabled(false);
+    final Map<String, Long> journal = BrowserHostBridge.journalStats();
+    BrowserHostBridge.setJournalEnabled(false);
+    if(!journal.isEmpty() && _api != null) _api.logging().logToOutput("[Embedded Browser] Journal: " + journal);
+    final Map<String, Long> commands = BrowserHostBridge.commandStats();
+    if(!commands.isEmpty() && _api != null) _api.logging().logToOutput("[Embedded Browser] Host commands: " + commands);
+    final Map<String, Long> memory = BrowserHostBridge.memoryStats();
+    if(!memory.isEmpty() && _api != null) _api.logging().logToOutput("[Embedded Browser] Helper memory: " + memory);
+  }
+
+  final EventLogSink sink = _logSink;
+  if(sink != null){
+    sink.close();
+    if(_api != null) _api.logging().logToOutput("[Embedded Browser] " + sink.stats());
+  }
+  final UrlHistory history = _history;
+  if(history != null){
+    history.close();
+    if(_api != null) _api.logging().logToOutput("[Embedded Browser] " + history.stats());
+  }
+  final SiteMapRecorder recorder = _siteMapRecorder;
+  if(recorder != null && _api != null){
+    _api.logging().logToOutput("[Embedded Browser] " + recorder.stats());
+  }
+  final CookieJarSync cookies = _cookieSync;
+  if(cookies != null){
+    cookies.close();
+    if(_api != null) _api.logging().logToOutput("[Embedded Browser] " + cookies.stats());
+  }
+
   _disposeJcef();
 }//end unload()
 
@@ -68,7 +117,20 @@ public void unload(){
 // PRIVATE
 //////////////
 private static final String        START_URL = "https://www.google.com";
-private static final String        UI_KEY_BROWSER_COMPONENT = "com.jSoft.burp.jcef.component";
+private static final List<String>  NAVIGATION_RULES = List.of("allow *.google.com");
+// See CacheRules; empty = nothing cached. Cached subresources are fetched
+// with the browser's credentials, so only list hosts of shared static assets.
+private static final List<String>  RESOURCE_CACHE_RULES = List.of();
+private static final int           CAPTURE_MAX_BODY_BYTES = 2 * 1024 * 1024;
+// Opt-in, with -D<property>=true: each changes what the browser sends to targets
+private static final String        CAPTURE_PROPERTY        = "embeddedBrowser.siteMapCapture";
+private static final String        CAPTURE_BODIES_PROPERTY = "embeddedBrowser.captureBodies";
+private static final String        COOKIE_SYNC_PROPERTY    = "embeddedBrowser.cookieSync";
+// Opt-in: writes every URL visited to disk
+private static final String        JOURNAL_PROPERTY        = "embeddedBrowser.journal";
+private static final String        DEFAULT_TAB_ID = "default"; // Host.DEFAULT_BROWSER_ID
+private static final String        TAB_ID_KEY = "com.jSoft.burp.tabId";
+private static final String        TAB_SHOWN_KEY = "com.jSoft.burp.tabShown";
 private static final ThreadFactory _TF = new ThreadFactory(){
   @Override
   public Thread newThread(Runnable r){
@@ -83,12 +145,21 @@ private final MontoyaApi     _api;
 private final AtomicBoolean   _unloading = new AtomicBoolean(false);
 private final ExecutorService _initExecSvc;
 private final Future<?>       _initTask;
+private final List<Runnable>  _unsubscribers = new CopyOnWriteArrayList<>();
 
-private volatile CefApp     _cefApp;
-private volatile CefClient  _cefClient;
-private volatile CefBrowser _cefBrowser;
+private volatile LocalBrowser _local; // null when using the host
 private volatile Component  _browserUi;
 private volatile boolean    _usingHost;
+private volatile EventLogSink _logSink;
+private volatile SiteMapRecorder _siteMapRecorder;
+private volatile CookieJarSync _cookieSync;
+private volatile UrlHistory _history;
+private JTabbedPane         _tabs;   // EDT only; null unless the host supports multiple browsers
+private int                 _tabSeq; // EDT only
+private final Map<Object, String>  _pageUrls     = new HashMap<>(); // EDT only; per browser id
+private final Map<Object, String>  _pageTitles   = new HashMap<>(); // EDT only
+private final Map<Object, Boolean> _pageLoading  = new HashMap<>(); // EDT only
+private final Map<Object, String>  _recordedUrls = new HashMap<>(); // EDT only; last visit counted
 
 //-----------------------------------------------------------------------------
 private void _initJcefAndAttachBrowser(){
@@ -96,47 +167,27 @@ private void _initJcefAndAttachBrowser(){
 
   // First preference: if a host-side Burp JCEF bridge is available, use it.
   try{
-    // Attempt to ensure our agent is installed so Host is visible to system loader
+    // Attempt to ensure our agent is installed so Host is visible to system loader.
+    // agentmain runs inside loadAgent, so Host is visible now or not at all.
     SelfAttach.ensureAgentInstalled();
-    // Give the agent a brief moment; then check availability
-    boolean hostReady = BrowserHostBridge.isAvailable();
-    if(!hostReady){
-      for(int i=0;i<10 && !hostReady;i++){
-        try{ Thread.sleep(100); }catch(InterruptedException ignored){}
-        hostReady = BrowserHostBridge.isAvailable();
-      }
-    }
-    if(hostReady){
-      _browserUi = BrowserHostBridge.getOrCreateBrowserComponent(START_URL);
-      if(_api != null){
-        _api.logging().logToOutput("[Embedded Browser] Using Burp's built-in JCEF via host bridge.");
+    if(BrowserHostBridge.isAvailable()){
+      final CompletableFuture<Void> ready = BrowserHostBridge.startInitialization();
+      if(ready != null){
+        // Attach the moment CEF is up; immediately if the agent pre-initialized it
+        ready.whenCompleteAsync((ignored, failure) -> {
+          if(_unloading.get()) return;
+          if(failure != null){
+            if(_api != null){
+              _api.logging().logToError("[Embedded Browser] Host initialization failed: " + failure);
+            }
+          }else if(_attachHostBrowser()){
+            return;
+          }
+          _initLocalJcef();
+        }, _initExecSvc);
+        return;
       }
-      // Sample debug listeners
-      BrowserHostBridge.setOnAddressChange(url -> {
-        if(_api != null) _api.logging().logToOutput("[Browser] Location: " + url);
-      });
-      BrowserHostBridge.setOnEventLog(ev -> {
-        if(_api != null) _api.logging().logToOutput("[Event] " + ev);
-      });
-      // Allow only hosts under google.com (any scheme, any subdomain)
-      BrowserHostBridge.setUrlAllowRegex("^[a-zA-Z][a-zA-Z0-9+.-]*://([^.*/]+\\.)*google\\.com(?::\\d+)?(/.*)?$");
-      _usingHost = true;
-      if(_api != null){
-        final String diag = BrowserHostBridge.diagnostics();
-        if(!diag.isEmpty()){
-          _api.logging().logToOutput("[Host Diagnostics]\n" + diag);
-        }
-      }
-      SwingUtilities.invokeLater(() -> {
-        this.removeAll();
-        if(_usingHost){
-          this.add(_buildToolbar(), BorderLayout.NORTH);
-        }
-        this.add(_browserUi, BorderLayout.CENTER);
-        this.revalidate();
-        this.repaint();
-      });
-      return;
+      if(_attachHostBrowser()) return;
     }
   }catch(final Throwable t){
     // If anything fails, log and fall back to local JCEF initialization
@@ -145,35 +196,125 @@ private void _initJcefAndAttachBrowser(){
     }
   }
 
-  // Reuse existing JCEF component across extension reloads to avoid
-  // reloading native libraries in a new classloader.
-  final Object existing = UIManager.getDefaults().get(UI_KEY_BROWSER_COMPONENT);
-  if(existing instanceof Component){
-    _browserUi = (Component)existing;
+  _initLocalJcef();
+}//end _initJcefAndAttachBrowser()
+
+//-----------------------------------------------------------------------------
+private boolean _attachHostBrowser(){
+  try{
+    _browserUi = BrowserHostBridge.getOrCreateBrowserComponent(_hostStartUrl());
     if(_api != null){
-      _api.logging().logToOutput("[Embedded Browser] Reusing existing JCEF component from previous load.");
+      _api.logging().logToOutput("[Embedded Browser] Using Burp's built-in JCEF via host bridge ("
+        + BrowserHostBridge.getRenderingMode() + " rendering).");
+      final List<String> missing = BrowserHostBridge.missingMethods();
+      if(!missing.isEmpty()){
+        _api.logging().logToOutput("[Embedded Browser] Host does not provide: " + String.join(", ", missing));
+      }
     }
-    SwingUtilities.invokeLater(() -> {
-      final Container parent = _browserUi.getParent();
-      if(parent != null){
-        parent.remove(_browserUi);
-        parent.revalidate();
-        parent.repaint();
+    // Browser events go to the output tab through the batched log sink,
+    // never from the CEF or dispatcher thread directly.
+    if(_api != null){
+      final EventLogSink sink = new EventLogSink(_api.logging());
+      _logSink = sink;
+      final Runnable unsubscribe = BrowserHostBridge.subscribeEvents(sink::accept, false);
+      if(unsubscribe != null){
+        _unsubscribers.add(unsubscribe);
+      }else{
+        BrowserHostBridge.setOnAddressChange(url -> sink.log(EventLogSink.Kind.LOCATION, EventLogSink.Level.INFO, url));
+        BrowserHostBridge.setOnEventLog(ev -> sink.log(EventLogSink.Kind.HOST, EventLogSink.Level.INFO, ev));
+      }
+    }
+    // Allow only hosts under google.com (any scheme, any subdomain); older
+    // hosts without rule support get the equivalent regex.
+    if(!BrowserHostBridge.setNavigationRules(NAVIGATION_RULES)){
+      BrowserHostBridge.setUrlAllowRegex("^[a-zA-Z][a-zA-Z0-9+.-]*://([^.*/]+\\.)*google\\.com(?::\\d+)?(/.*)?$");
+    }
+    // Opt-in: answer unchanged scripts/styles/images of the listed hosts from
+    // the local cache; off while RESOURCE_CACHE_RULES is empty.
+    if(!RESOURCE_CACHE_RULES.isEmpty() && BrowserHostBridge.setResourceCacheRules(RESOURCE_CACHE_RULES)){
+      BrowserHostBridge.setResourceCacheEnabled(true);
+    }
+    // Opt-in: browser traffic goes into the site map without routing it
+    // through the proxy, from headers only unless bodies are enabled too
+    if(_api != null && Boolean.getBoolean(CAPTURE_PROPERTY)){
+      final SiteMapRecorder recorder = new SiteMapRecorder(_api.siteMap());
+      BrowserHostBridge.setCaptureMaxBodyBytes(CAPTURE_MAX_BODY_BYTES);
+      final Runnable unsubscribe = BrowserHostBridge.subscribeCapture(recorder::accept);
+      if(unsubscribe != null){
+        _siteMapRecorder = recorder;
+        _unsubscribers.add(unsubscribe);
+        BrowserHostBridge.setCaptureBodiesEnabled(Boolean.getBoolean(CAPTURE_BODIES_PROPERTY));
+        BrowserHostBridge.setCaptureEnabled(true);
+      }
+    }
+    // Opt-in: logins in the browser reach Burp's cookie jar, and jar changes
+    // (session handling rules, other tools' responses) the browser
+    if(_api != null && Boolean.getBoolean(COOKIE_SYNC_PROPERTY) && BrowserHostBridge.setCookieSyncEnabled(true)){
+      final CookieJarSync cookies = new CookieJarSync(_api);
+      final Runnable unsubscribe = BrowserHostBridge.subscribeCookieChanges(cookies::accept);
+      if(unsubscribe != null){
+        _cookieSync = cookies;
+        _unsubscribers.add(unsubscribe);
+        cookies.start();
+      }else{
+        BrowserHostBridge.setCookieSyncEnabled(false);
       }
+    }
+    // Opt-in: audit trail of every browser's navigation, kept across restarts
+    if(Boolean.getBoolean(JOURNAL_PROPERTY)){
+      BrowserHostBridge.setJournalEnabled(true); // failures show in the bridge diagnostics
+    }
+    _usingHost = true;
+    if(_api != null){
+      final String diag = BrowserHostBridge.diagnostics();
+      if(!diag.isEmpty()){
+        _api.logging().logToOutput("[Host Diagnostics]\n" + diag);
+      }
+    }
+    final boolean tabs = BrowserHostBridge.supportsMultipleBrowsers();
+    SwingUtilities.invokeLater(() -> {
       this.removeAll();
-      this.add(_browserUi, BorderLayout.CENTER);
+      final Component center = tabs ? _buildTabs() : _browserUi;
+      if(_usingHost){
+        this.add(_buildToolbar(), BorderLayout.NORTH);
+        _trackShowing();
+      }
+      this.add(center, BorderLayout.CENTER);
       this.revalidate();
       this.repaint();
     });
+    return true;
+  }catch(final Throwable t){
+    if(_api != null){
+      _api.logging().logToError("[Embedded Browser] Host bridge failed: " + t);
+    }
+    return false;
+  }
+}//end _attachHostBrowser()
+
+//-----------------------------------------------------------------------------
+private void _initLocalJcef(){
+  // A browser left by an earlier extension generation: reattach it with its
+  // history, navigation rules and handlers instead of initializing CEF again.
+  final LocalBrowser previous = LocalBrowser.attach();
+  if(previous != null){
+    _attachLocal(previous);
     return;
   }
 
-  final CefAppBuilder builder = new CefAppBuilder();
-  builder.addJcefArgs("--disable-gpu-vsync"); //minimize jitter in some setups
-  builder.getCefSettings().windowless_rendering_enabled = false; // use AWT component
+  // Generations before the handoff only left the bare component
+  final Object existing = UIManager.getDefaults().get(LocalBrowser.COMPONENT_KEY);
+  if(existing instanceof Component){
+    _browserUi = (Component)existing;
+    if(_api != null){
+      _api.logging().logToOutput("[Embedded Browser] Reusing existing JCEF component from previous load.");
+    }
+    SwingUtilities.invokeLater(() -> _showBrowser(null));
+    return;
+  }
 
   try{
-    _cefApp = builder.build();
+    _attachLocal(LocalBrowser.create(START_URL));
   }
   catch(final IOException | UnsupportedPlatformException | InterruptedException | CefInitializationException e){
     SwingUtilities.invokeLater(() -> {
@@ -185,77 +326,234 @@ private void _initJcefAndAttachBrowser(){
     if(_api != null){
       _api.logging().logToError("[Embedded Browser] Initialization failed: " + e);
     }
-    return;
   }
   catch(final UnsatisfiedLinkError e){
-    // If natives are already loaded in another classloader, try reusing a
-    // previously created component; otherwise inform the user.
-    final Object comp = UIManager.getDefaults().get(UI_KEY_BROWSER_COMPONENT);
-    if(comp instanceof Component){
-      _browserUi = (Component)comp;
-      if(_api != null){
-        _api.logging().logToOutput("[Embedded Browser] Native libs already loaded; reusing existing JCEF component.");
-      }
-      SwingUtilities.invokeLater(() -> {
-        final Container parent = _browserUi.getParent();
-        if(parent != null){
-          parent.remove(_browserUi);
-          parent.revalidate();
-          parent.repaint();
-        }
-        this.removeAll();
-        this.add(_browserUi, BorderLayout.CENTER);
-        this.revalidate();
-        this.repaint();
-      });
+    // Natives loaded by another classloader that published neither a
+    // handoff nor a component
+    SwingUtilities.invokeLater(() -> {
+      this.removeAll();
+      this.add(new JScrollPane(new JTextArea("Browser can only be initialized once per Burp JVM session:\n\n" + e)), BorderLayout.CENTER);
+      this.revalidate();
+      this.repaint();
+    });
+    if(_api != null){
+      _api.logging().logToError("[Embedded Browser] Native libs already loaded in another classloader; no existing browser to reuse.");
+    }
+  }
+}//end _initLocalJcef()
+
+//-----------------------------------------------------------------------------
+// Takes over the local browser: this generation's rules and event handlers,
+// then the toolbar. The browser keeps its page and history.
+private void _attachLocal(final LocalBrowser local){
+  _local = local;
+  _browserUi = local.component();
+  if(!local.setNavigationRules(NAVIGATION_RULES) && _api != null){
+    _api.logging().logToError("[Embedded Browser] Invalid navigation rules; keeping " + local.state().get("navigationRules"));
+  }
+  if(_api != null){
+    final EventLogSink sink = new EventLogSink(_api.logging());
+    _logSink = sink;
+    _unsubscribers.add(local.subscribeEvents(sink::accept, false));
+    if(local.isOwner()){
+      _api.logging().logToOutput("[Embedded Browser] Using local JCEF (handoff v" + local.handoffVersion() + ").");
     }else{
+      final Map<String, Object> state = local.state();
+      _api.logging().logToOutput(String.format("[Embedded Browser] Reattached local browser in %.3f ms"
+          + " (generation %d, handoff v%d): %s, %d history entries.",
+        local.attachMicros() / 1000.0, local.generation(), local.handoffVersion(),
+        state.get("url"), ((List<?>)state.get("history")).size()));
+    }
+  }
+  SwingUtilities.invokeLater(() -> _showBrowser(_buildToolbar()));
+}//end _attachLocal()
+
+//-----------------------------------------------------------------------------
+// Moves the browser component here from the panel of an earlier generation
+// (EDT only).
+private void _showBrowser(final Component toolbar){
+  final Container parent = _browserUi.getParent();
+  if(parent != null){
+    parent.remove(_browserUi);
+    parent.revalidate();
+    parent.repaint();
+  }
+  this.removeAll();
+  if(toolbar != null) this.add(toolbar, BorderLayout.NORTH);
+  this.add(_browserUi, BorderLayout.CENTER);
+  this.revalidate();
+  this.repaint();
+}//end _showBrowser()
+
+//-----------------------------------------------------------------------------
+private void _disposeJcef(){
+  // The local browser stays alive for the next extension generation (Burp's
+  // JVM cannot unload the natives per classloader anyway); this generation's
+  // subscriptions are gone with _unsubscribers.
+  _local = null;
+}//end _disposeJcef()
+
+//-----------------------------------------------------------------------------
+// Tells the host whether the suite tab is on screen so it can throttle the
+// browsers while it is not. Called on the EDT; the host is called off it.
+private void _trackShowing(){
+  final HierarchyListener l = e -> {
+    if((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) _reportShowing();
+  };
+  this.addHierarchyListener(l);
+  _unsubscribers.add(() -> SwingUtilities.invokeLater(() -> this.removeHierarchyListener(l)));
+  _reportShowing();
+}//end _trackShowing()
+
+//-----------------------------------------------------------------------------
+private void _reportShowing(){
+  final boolean showing = this.isShowing();
+  if(_unloading.get()) return;
+  _initExecSvc.submit(() -> BrowserHostBridge.setBrowsersVisible(showing));
+}//end _reportShowing()
+
+//-----------------------------------------------------------------------------
+private JTabbedPane _buildTabs(){
+  _tabs = new JTabbedPane();
+  final JPanel first = _newTabHolder(DEFAULT_TAB_ID);
+  first.putClientProperty(TAB_SHOWN_KEY, Boolean.TRUE);
+  first.add(_browserUi, BorderLayout.CENTER);
+  _tabs.addTab("Tab 1", first);
+  _tabSeq = 1;
+  _tabs.addChangeListener(e -> _onTabShown());
+  return _tabs;
+}//end _buildTabs()
+
+//-----------------------------------------------------------------------------
+private JPanel _newTabHolder(final String id){
+  final JPanel holder = new JPanel(new BorderLayout());
+  holder.putClientProperty(TAB_ID_KEY, id);
+  return holder;
+}//end _newTabHolder()
+
+//-----------------------------------------------------------------------------
+private void _openTab(){
+  if(_tabs == null) return;
+  _tabSeq++;
+  final JPanel holder = _newTabHolder("tab-" + _tabSeq);
+  holder.add(new JLabel("Opening..."), BorderLayout.CENTER);
+  _tabs.addTab("Tab " + _tabSeq, holder);
+  _tabs.setSelectedComponent(holder); // browser is created by _onTabShown
+}//end _openTab()
+
+//-----------------------------------------------------------------------------
+private void _closeTab(){
+  if(_tabs == null || _tabs.getTabCount() <= 1) return;
+  final Component holder = _tabs.getSelectedComponent();
+  if(!(holder instanceof JPanel)) return;
+  final String id = (String)((JPanel)holder).getClientProperty(TAB_ID_KEY);
+  _tabs.remove(holder);
+  if(BrowserHostBridge.supportsCloseBrowserAsync()) BrowserHostBridge.closeBrowserAsync(id); // queued on the host, never waits
+  else _initExecSvc.submit(() -> BrowserHostBridge.closeBrowser(id));
+}//end _closeTab()
+
+//-----------------------------------------------------------------------------
+// Creates the tab's browser the first time it is shown (or again after the
+// host evicted it), then makes it the target of the toolbar.
+private void _onTabShown(){
+  final Component sel = _tabs.getSelectedComponent();
+  if(!(sel instanceof JPanel)) return;
+  final JPanel holder = (JPanel)sel;
+  final String id = (String)holder.getClientProperty(TAB_ID_KEY);
+  final boolean firstShow = holder.getClientProperty(TAB_SHOWN_KEY) == null;
+  holder.putClientProperty(TAB_SHOWN_KEY, Boolean.TRUE);
+
+  _initExecSvc.submit(() -> {
+    try{
+      // null start URL lets the host restore the last URL of an evicted browser
+      final Component comp = BrowserHostBridge.createBrowser(id, firstShow ? _hostStartUrl() : null);
+      BrowserHostBridge.selectBrowser(id);
+      if(comp == null) return;
       SwingUtilities.invokeLater(() -> {
-        this.removeAll();
-        this.add(new JScrollPane(new JTextArea("Browser can only be initialized once per Burp JVM session:\n\n" + e)), BorderLayout.CENTER);
-        this.revalidate();
-        this.repaint();
+        if(holder.getComponentCount() == 1 && holder.getComponent(0) == comp) return;
+        holder.removeAll();
+        holder.add(comp, BorderLayout.CENTER);
+        holder.revalidate();
+        holder.repaint();
       });
+    }catch(final Throwable t){
       if(_api != null){
-        _api.logging().logToError("[Embedded Browser] Native libs already loaded in another classloader; no existing component to reuse.");
+        _api.logging().logToError("[Embedded Browser] Failed to open tab " + id + ": " + t);
       }
     }
-    return;
-  }
-
-  _cefClient = _cefApp.createClient();
-  _cefBrowser = _cefClient.createBrowser(START_URL, false, false);
-  _browserUi = _cefBrowser.getUIComponent();
-  UIManager.getDefaults().put(UI_KEY_BROWSER_COMPONENT, _browserUi);
-
-  SwingUtilities.invokeLater(() -> {
-    this.removeAll();
-    this.add(_browserUi, BorderLayout.CENTER);
-    this.revalidate();
-    this.repaint();
   });
-}//end _initJcefAndAttachBrowser()
+}//end _onTabShown()
 
 //-----------------------------------------------------------------------------
-private void _disposeJcef(){
-  // Keep JCEF alive across extension reloads for reuse; only clear references
-  // here. Burp JVM cannot unload native libraries per classloader anyway.
-  // If someone removed the shared UI component from UIManager, fall back to
-  // disposing in the future if necessary.
-  if(_cefBrowser != null){
-    // intentionally not closing to allow reuse across reloads
-    _cefBrowser = null;
+private static void _showAddress(final JTextField url, final String current){
+  if(current == null) return;
+  // Older hosts render their error pages as data: URIs; keep the typed URL
+  if(current.startsWith("data:")) return;
+  if(!current.equals(url.getText())){
+    url.setText(current);
   }
+}//end _showAddress()
 
-  if(_cefClient != null){
-    // intentionally not disposing to allow reuse across reloads
-    _cefClient = null;
+//-----------------------------------------------------------------------------
+// Feeds the URL history from browser events (on the EDT): a visit is counted
+// when a page finishes loading, or when the address changes without a load
+// (same-document navigation), once per URL in a row. Batch navigation
+// browsers are not the user's browsing and are skipped.
+private void _feedHistory(final Map<String, Object> ev){
+  final UrlHistory history = _history;
+  final Object id = ev.get("browser");
+  if(history == null || (id instanceof String && ((String)id).startsWith("batch-"))) return;
+  final Object type = ev.get("type");
+  if("address".equals(type)){
+    final String url = (String)ev.get("url");
+    if(url == null || url.equals(_pageUrls.put(id, url))) return;
+    _pageTitles.remove(id);
+    if(!Boolean.TRUE.equals(_pageLoading.get(id))) _recordVisit(history, id);
+  }else if("navState".equals(type)){
+    final boolean loading = Boolean.TRUE.equals(ev.get("loading"));
+    if(Boolean.TRUE.equals(_pageLoading.put(id, loading)) && !loading) _recordVisit(history, id);
+  }else if("title".equals(type)){
+    final String title = (String)ev.get("title");
+    _pageTitles.put(id, title);
+    history.recordTitle(_pageUrls.get(id), title);
   }
+}//end _feedHistory()
+
+//-----------------------------------------------------------------------------
+private void _recordVisit(final UrlHistory history, final Object id){
+  final String url = _pageUrls.get(id);
+  if(url == null || url.equals(_recordedUrls.get(id))) return;
+  _recordedUrls.put(id, url);
+  history.recordVisit(url, _pageTitles.get(id));
+}//end _recordVisit()
 
-  if(_cefApp != null){
-    // intentionally not disposing to allow reuse across reloads
-    _cefApp = null;
+//-----------------------------------------------------------------------------
+private static String _hostStartUrl(){
+  // The host's internal start page when it serves one
+  final String internal = BrowserHostBridge.internalPageUrl("start");
+  return internal != null ? internal : START_URL;
+}//end _hostStartUrl()
+
+//-----------------------------------------------------------------------------
+private String _selectedTabId(){
+  if(_tabs == null) return null;
+  final Component sel = _tabs.getSelectedComponent();
+  return (sel instanceof JPanel) ? (String)((JPanel)sel).getClientProperty(TAB_ID_KEY) : null;
+}//end _selectedTabId()
+
+//-----------------------------------------------------------------------------
+private void _setTabTitle(final Object id, final String title){
+  if(_tabs == null || title == null) return;
+  final String shortTitle = title.length() > 24 ? title.substring(0, 23) + "\u2026" : title;
+  for(int i = 0; i < _tabs.getTabCount(); i++){
+    final Component c = _tabs.getComponentAt(i);
+    final Object tabId = (c instanceof JPanel) ? ((JPanel)c).getClientProperty(TAB_ID_KEY) : null;
+    if(id == null ? i == _tabs.getSelectedIndex() : id.equals(tabId)){
+      _tabs.setTitleAt(i, shortTitle);
+      return;
+    }
   }
-}//end _disposeJcef()
+}//end _setTabTitle()
 
 //-----------------------------------------------------------------------------
 private JToolBar _buildToolbar(){
@@ -278,32 +576,72 @@ private JToolBar _buildToolbar(){
   reload.setToolTipText("Reload (Ctrl+R)");
   home.setToolTipText("Home (Alt+Home)");
 
+  final JButton newTab = new JButton("+");
+  final JButton closeTab = new JButton("\u2715"); // ✕
+  for(JButton b : new JButton[]{newTab,closeTab}){
+    b.setFocusable(false);
+    b.setBorderPainted(false);
+    b.setOpaque(false);
+  }
+  newTab.setToolTipText("New tab (Ctrl+T)");
+  closeTab.setToolTipText("Close tab (Ctrl+W)");
+
+  final JButton timings = new JButton("\u23F1"); // ⏱
+  timings.setFocusable(false);
+  timings.setBorderPainted(false);
+  timings.setOpaque(false);
+  timings.setToolTipText("Page load timings per host");
+
   final JTextField url = new JTextField(60);
   url.setToolTipText("Enter URL and press Enter (Ctrl+L to focus)");
+  // History is read on first use, on its own thread
+  _history = new UrlHistory(UrlHistory.defaultFile());
+  new UrlSuggestions(url, _history);
 
   // Actions
-  back.addActionListener(e -> BrowserHostBridge.goBack());
-  fwd.addActionListener(e -> BrowserHostBridge.goForward());
-  stop.addActionListener(e -> BrowserHostBridge.stop());
-  reload.addActionListener(e -> BrowserHostBridge.reload());
-  home.addActionListener(e -> BrowserHostBridge.home());
-  url.addActionListener(e -> BrowserHostBridge.navigate(url.getText().trim()));
-
-  // Reflect host nav state into UI
-  BrowserHostBridge.setOnCanGoBack(enabled -> SwingUtilities.invokeLater(() -> back.setEnabled(enabled != null && enabled)));
-  BrowserHostBridge.setOnCanGoForward(enabled -> SwingUtilities.invokeLater(() -> fwd.setEnabled(enabled != null && enabled)));
-  BrowserHostBridge.setOnLoading(loading -> SwingUtilities.invokeLater(() -> {
-    boolean l = loading != null && loading;
-    stop.setEnabled(l);
-  }));
-  BrowserHostBridge.setOnAddressChange(current -> SwingUtilities.invokeLater(() -> {
-    if(current == null) return;
-    // Avoid replacing the URL bar with data: URIs for internal error pages
-    if(current.startsWith("data:")) return;
-    if(!current.equals(url.getText())){
-      url.setText(current);
+  back.addActionListener(e -> _goBack());
+  fwd.addActionListener(e -> _goForward());
+  stop.addActionListener(e -> _stop());
+  reload.addActionListener(e -> _reload());
+  home.addActionListener(e -> _home());
+  url.addActionListener(e -> _navigate(url.getText().trim()));
+  newTab.addActionListener(e -> _openTab());
+  closeTab.addActionListener(e -> _closeTab());
+  timings.addActionListener(e -> new LoadStatsView(_initExecSvc).showDialog(this));
+
+  // Reflect nav state into UI: one batch per repaint interval, already on the EDT
+  final Runnable unsubscribe = _subscribeEvents(batch -> {
+    final String selectedId = _selectedTabId();
+    for(final Map<String, Object> ev : batch){
+      _feedHistory(ev);
+      final Object type = ev.get("type");
+      final Object id   = ev.get("browser");
+      if("title".equals(type)){
+        _setTabTitle(id, (String)ev.get("title"));
+        continue;
+      }
+      if(id != null && selectedId != null && !selectedId.equals(id)) continue;
+      if("navState".equals(type)){
+        back.setEnabled(Boolean.TRUE.equals(ev.get("canGoBack")));
+        fwd.setEnabled(Boolean.TRUE.equals(ev.get("canGoForward")));
+        stop.setEnabled(Boolean.TRUE.equals(ev.get("loading")));
+      }else if("address".equals(type)){
+        _showAddress(url, (String)ev.get("url"));
+      }
     }
-  }));
+  }, true);
+  if(unsubscribe != null){
+    _unsubscribers.add(unsubscribe);
+  }else{
+    // Host without event pipeline: single-slot callbacks
+    BrowserHostBridge.setOnCanGoBack(enabled -> SwingUtilities.invokeLater(() -> back.setEnabled(enabled != null && enabled)));
+    BrowserHostBridge.setOnCanGoForward(enabled -> SwingUtilities.invokeLater(() -> fwd.setEnabled(enabled != null && enabled)));
+    BrowserHostBridge.setOnLoading(loading -> SwingUtilities.invokeLater(() -> stop.setEnabled(loading != null && loading)));
+    BrowserHostBridge.setOnAddressChange(current -> SwingUtilities.invokeLater(() -> {
+      _showAddress(url, current);
+      _feedHistory(Map.of("type", "address", "url", current == null ? "" : current));
+    }));
+  }
 
   // Keyboard shortcuts on the toolbar panel
   // Ctrl+L -> focus URL, Alt+Left/Right -> back/forward, Ctrl+R -> reload, Esc -> stop, Alt+Home -> home
@@ -319,6 +657,10 @@ private JToolBar _buildToolbar(){
   bar.getActionMap().put("stop", new AbstractAction(){ public void actionPerformed(java.awt.event.ActionEvent e){ stop.doClick(); }});
   bar.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("alt HOME"), "home");
   bar.getActionMap().put("home", new AbstractAction(){ public void actionPerformed(java.awt.event.ActionEvent e){ home.doClick(); }});
+  bar.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("control T"), "newTab");
+  bar.getActionMap().put("newTab", new AbstractAction(){ public void actionPerformed(java.awt.event.ActionEvent e){ _openTab(); }});
+  bar.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("control W"), "closeTab");
+  bar.getActionMap().put("closeTab", new AbstractAction(){ public void actionPerformed(java.awt.event.ActionEvent e){ _closeTab(); }});
 
   // Layout
   bar.add(back);
@@ -328,8 +670,67 @@ private JToolBar _buildToolbar(){
   bar.add(home);
   bar.addSeparator();
   bar.add(url);
+  if(_tabs != null){
+    bar.addSeparator();
+    bar.add(newTab);
+    bar.add(closeTab);
+  }
+  if(_local == null && BrowserHostBridge.supportsLoadTimings()){
+    bar.addSeparator();
+    bar.add(timings);
+  }
   return bar;
-}
+}//end _buildToolbar()
+
+//-----------------------------------------------------------------------------
+// Toolbar targets: the local browser when there is one, else the host's
+// selected browser.
+private void _goBack(){
+  final LocalBrowser local = _local;
+  if(local != null) local.goBack();
+  else BrowserHostBridge.goBack();
+}//end _goBack()
+
+//-----------------------------------------------------------------------------
+private void _goForward(){
+  final LocalBrowser local = _local;
+  if(local != null) local.goForward();
+  else BrowserHostBridge.goForward();
+}//end _goForward()
+
+//-----------------------------------------------------------------------------
+private void _stop(){
+  final LocalBrowser local = _local;
+  if(local != null) local.stop();
+  else BrowserHostBridge.stop();
+}//end _stop()
+
+//-----------------------------------------------------------------------------
+private void _reload(){
+  final LocalBrowser local = _local;
+  if(local != null) local.reload();
+  else BrowserHostBridge.reload();
+}//end _reload()
+
+//-----------------------------------------------------------------------------
+private void _home(){
+  final LocalBrowser local = _local;
+  if(local != null) local.navigate(START_URL);
+  else BrowserHostBridge.home();
+}//end _home()
+
+//-----------------------------------------------------------------------------
+private void _navigate(final String target){
+  final LocalBrowser local = _local;
+  if(local != null) local.navigate(target);
+  else BrowserHostBridge.navigate(target);
+}//end _navigate()
+
+//-----------------------------------------------------------------------------
+private Runnable _subscribeEvents(final Consumer<List<Map<String, Object>>> listener, final boolean onEdt){
+  final LocalBrowser local = _local;
+  return local != null ? local.subscribeEvents(listener, onEdt) : BrowserHostBridge.subscribeEvents(listener, onEdt);
+}//end _subscribeEvents()
 }
 ///////////////////////////////////////////////////////////////////////////////
 // END CLASS BrowserPanel
@@ -0,0 +1,235 @@
+package com.jSoft.burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.Registration;
+import burp.api.montoya.http.handler.HttpHandler;
+import burp.api.montoya.http.handler.HttpRequestToBeSent;
+import burp.api.montoya.http.handler.HttpResponseReceived;
+import burp.api.montoya.http.handler.RequestToBeSentAction;
+import burp.api.montoya.http.handler.ResponseReceivedAction;
+import burp.api.montoya.http.message.Cookie;
+import burp.api.montoya.http.sessions.CookieJar;
+import burp.api.montoya.proxy.http.InterceptedResponse;
+import burp.api.montoya.proxy.http.ProxyResponseHandler;
+import burp.api.montoya.proxy.http.ProxyResponseReceivedAction;
+import burp.api.montoya.proxy.http.ProxyResponseToBeSentAction;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Burp's side of the host's cookie sync. Browser changes arrive in batches on
+// the host's sync thread and are written straight into the cookie jar.
+// Montoya has no jar listener, so jar changes are found by diffing the jar
+// against what was last exchanged: DEBOUNCE_MS after a response with
+// Set-Cookie passes through Burp (HTTP handler or proxy), and every
+// RECONCILE_MS for edits made elsewhere. Only the differences go to the host,
+// which resolves conflicts. The first diff is sent with an unknown age, so
+// the browser's cookie is kept where both sides differ at startup. The jar
+// has no delete: a cookie deleted in the browser is written already expired.
+// The jar has no host-only flag either and matches its cookies on
+// subdomains, so a jar cookie goes to the browser as a domain cookie
+// (leading dot); one that came from the browser goes back in the form it
+// came in.
+final class CookieJarSync {
+  static final long DEBOUNCE_MS  = 200;
+  static final long RECONCILE_MS = 30_000;
+
+  private record Known(String name, String domain, String path, String state){} // domain as the browser has it
+
+  private final CookieJar jar;
+  private final MontoyaApi api;
+  private final ScheduledThreadPoolExecutor exec;
+  private final Map<String, Known> exchanged = new HashMap<>(); // guarded by this; jar as last exchanged
+  private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+  private final AtomicBoolean queued = new AtomicBoolean();
+  private volatile long       triggeredNanos; // first trigger of the queued diff
+
+  private final LongAdder  fromBrowser = new LongAdder();
+  private final LongAdder  toBrowser   = new LongAdder();
+  private final LongAdder  sent        = new LongAdder(); // changes sent, applied or not
+  private final LongAdder  diffs       = new LongAdder();
+  private final LongAdder  triggers    = new LongAdder();
+  private final LongAdder  failures    = new LongAdder();
+  private final LongAdder  latencySum  = new LongAdder();
+  private final LongAdder  latencyN    = new LongAdder();
+  private final AtomicLong latencyMax  = new AtomicLong();
+
+  CookieJarSync(MontoyaApi api){
+    this.api = api;
+    this.jar = api.http().cookieJar();
+    exec = new ScheduledThreadPoolExecutor(1, r -> Thread.ofPlatform().daemon().name("cookie-jar-sync").unstarted(r));
+    exec.setRemoveOnCancelPolicy(true);
+  }
+
+  /** Registers the response watchers and sends the jar once. */
+  void start(){
+    registrations.add(api.http().registerHttpHandler(new HttpHandler(){
+      @Override public RequestToBeSentAction handleHttpRequestToBeSent(HttpRequestToBeSent request){
+        return RequestToBeSentAction.continueWith(request);
+      }
+      @Override public ResponseReceivedAction handleHttpResponseReceived(HttpResponseReceived response){
+        if(response.hasHeader("Set-Cookie")) trigger();
+        return ResponseReceivedAction.continueWith(response);
+      }
+    }));
+    registrations.add(api.proxy().registerResponseHandler(new ProxyResponseHandler(){
+      @Override public ProxyResponseReceivedAction handleResponseReceived(InterceptedResponse response){
+        if(response.hasHeader("Set-Cookie")) trigger();
+        return ProxyResponseReceivedAction.continueWith(response);
+      }
+      @Override public ProxyResponseToBeSentAction handleResponseToBeSent(InterceptedResponse response){
+        return ProxyResponseToBeSentAction.continueWith(response);
+      }
+    }));
+    triggeredNanos = System.nanoTime();
+    exec.execute(() -> diff(0));
+    exec.scheduleWithFixedDelay(this::trigger, RECONCILE_MS, RECONCILE_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /** Subscriber for BrowserHostBridge.subscribeCookieChanges. */
+  void accept(List<Map<String, Object>> batch){
+    synchronized(this){
+      for(Map<String, Object> c : batch){
+        try{
+          final String name = (String)c.get("name");
+          final String browserDomain = c.get("domain") instanceof String d ? d.toLowerCase(Locale.ROOT) : "";
+          final String domain = stripDot(browserDomain);
+          final String path = c.get("path") instanceof String p && !p.isEmpty() ? p : "/";
+          final String key = keyOf(domain, path, name);
+          if(Boolean.TRUE.equals(c.get("deleted"))){
+            jar.setCookie(name, "", path, domain, ZonedDateTime.now(ZoneOffset.UTC).minusDays(1));
+            exchanged.remove(key);
+          }else{
+            final String value = c.get("value") instanceof String v ? v : "";
+            final long expires = c.get("expires") instanceof Number n ? n.longValue() : 0;
+            jar.setCookie(name, value, path, domain,
+              expires == 0 ? null : ZonedDateTime.ofInstant(Instant.ofEpochMilli(expires), ZoneOffset.UTC));
+            exchanged.put(key, new Known(name, browserDomain, path, stateOf(value, expires)));
+          }
+          fromBrowser.increment();
+        }catch(Throwable t){
+          failures.increment();
+        }
+      }
+    }
+  }
+
+  void close(){
+    for(Registration r : registrations){
+      try{ r.deregister(); }catch(Throwable ignored){}
+    }
+    registrations.clear();
+    exec.shutdownNow();
+  }
+
+  String stats(){
+    final long n = latencyN.sum();
+    return "Cookie sync: from browser=" + fromBrowser.sum()
+      + " to browser=" + toBrowser.sum() + "/" + sent.sum()
+      + " jar diffs=" + diffs.sum()
+      + " triggers=" + triggers.sum()
+      + " latency mean=" + (n == 0 ? 0 : latencySum.sum() / n) + "ms max=" + latencyMax.get() + "ms"
+      + " failures=" + failures.sum();
+  }
+
+  //---------------------------------------------------------------------------
+  private void trigger(){
+    triggers.increment();
+    if(!queued.compareAndSet(false, true)) return;
+    triggeredNanos = System.nanoTime();
+    try{
+      exec.schedule(() -> diff(System.currentTimeMillis()), DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+    }catch(Throwable t){
+      queued.set(false); // closed
+    }
+  }
+
+  /** Sends what changed in the jar since the last exchange; time stamps the changes (0 = unknown). */
+  private void diff(long time){
+    queued.set(false);
+    final long since = triggeredNanos;
+    final List<Map<String, Object>> changes = new ArrayList<>();
+    synchronized(this){
+      diffs.increment();
+      final long now = System.currentTimeMillis();
+      final Map<String, Known> current = new HashMap<>();
+      for(Cookie c : jar.cookies()){
+        final long expires = c.expiration().map(z -> z.toInstant().toEpochMilli()).orElse(0L);
+        if(expires != 0 && expires <= now) continue; // expired counts as gone
+        final String domain = stripDot(c.domain());
+        final String path = c.path() == null || c.path().isEmpty() ? "/" : c.path();
+        final String key = keyOf(domain, path, c.name());
+        final Known before = exchanged.get(key);
+        final Known k = new Known(c.name(), before != null ? before.domain() : domainCookie(domain), path, stateOf(c.value(), expires));
+        current.put(key, k);
+        if(before == null || !before.state().equals(k.state())) changes.add(change(k, c.value(), expires, false, time));
+      }
+      for(Iterator<Map.Entry<String, Known>> it = exchanged.entrySet().iterator(); it.hasNext();){
+        final Map.Entry<String, Known> e = it.next();
+        if(current.containsKey(e.getKey())) continue;
+        changes.add(change(e.getValue(), "", 0, true, time));
+        it.remove();
+      }
+      exchanged.putAll(current);
+    }
+    if(changes.isEmpty()) return;
+    sent.add(changes.size());
+    BrowserHostBridge.applyCookieChanges(changes).whenComplete((applied, failure) -> {
+      if(failure != null){
+        failures.increment();
+        return;
+      }
+      toBrowser.add(applied);
+      final long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+      latencySum.add(ms);
+      latencyN.increment();
+      latencyMax.accumulateAndGet(ms, Math::max);
+    });
+  }
+
+  private static Map<String, Object> change(Known k, String value, long expires, boolean deleted, long time){
+    final Map<String, Object> m = new LinkedHashMap<>();
+    m.put("name", k.name());
+    m.put("value", value);
+    m.put("domain", k.domain());
+    m.put("path", k.path());
+    m.put("expires", expires == 0 ? null : expires);
+    m.put("deleted", deleted);
+    m.put("time", time);
+    return m;
+  }
+
+  /** Same as the host's: value and expiry to the second. */
+  private static String stateOf(String value, long expires){
+    return expires / 1000 + ":" + (value == null ? "" : value);
+  }
+
+  private static String keyOf(String domain, String path, String name){
+    return domain + '\t' + path + '\t' + name;
+  }
+
+  /** Domain cookie for a jar cookie, except on single-label hosts and IP literals, which cannot have one. */
+  private static String domainCookie(String domain){
+    if(domain.isEmpty() || domain.indexOf('.') < 0 || domain.indexOf(':') >= 0 || domain.matches("[0-9.]+")) return domain;
+    return "." + domain;
+  }
+
+  private static String stripDot(String domain){
+    if(domain == null) return "";
+    return (domain.startsWith(".") ? domain.substring(1) : domain).toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,273 @@
+package com.jSoft.burp;
+
+import burp.api.montoya.logging.Logging;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Logging stage between host events and Burp's output tab. Callers only
+// filter and enqueue a small record; formatting and the (slow) Montoya
+// logging calls happen on one background virtual thread that writes each
+// drained batch as a single logToOutput/logToError call. Each kind of event
+// has its own level, 1-in-N sampling and per-second rate limit; everything
+// that is not written is counted.
+//
+// Levels and limits can be overridden with system properties of the form
+//   -DembeddedBrowser.log.<kind>=<level>[:<sampleEvery>[:<maxPerSecond>]]
+// e.g. -DembeddedBrowser.log.navigation=debug:1:50
+final class EventLogSink implements AutoCloseable {
+  static final String PROPERTY_PREFIX = "embeddedBrowser.log.";
+  static final int    QUEUE_CAPACITY  = 1024;
+  static final int    MAX_BATCH       = 256;
+
+  enum Level { OFF, ERROR, INFO, DEBUG }
+
+  enum Kind {
+    LOCATION  ("[Browser] Location: ", Level.INFO,  1, 20),
+    NAVIGATION("[Event] ",             Level.INFO,  1, 20), // allowed = DEBUG, blocked = INFO
+    LOAD      ("[Event] ",             Level.OFF,   1, 10),
+    TITLE     ("[Event] ",             Level.OFF,   1, 10),
+    HOST      ("[Event] ",             Level.INFO,  1, 50),
+    CONSOLE   ("[Console] ",           Level.INFO,  1, 20); // warnings/errors = INFO, rest = DEBUG
+
+    final String prefix;
+    final Level  defaultLevel;
+    final int    defaultSampleEvery;
+    final int    defaultMaxPerSecond;
+
+    Kind(String prefix, Level level, int sampleEvery, int maxPerSecond){
+      this.prefix = prefix;
+      this.defaultLevel = level;
+      this.defaultSampleEvery = sampleEvery;
+      this.defaultMaxPerSecond = maxPerSecond;
+    }
+  }
+
+  private final Logging               logging;
+  private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final Map<Kind, Limits>     limits = new EnumMap<>(Kind.class);
+  private final Thread                writer;
+  private volatile boolean            closed;
+
+  private final LongAdder written     = new LongAdder();
+  private final LongAdder batches     = new LongAdder();
+  private final LongAdder filtered    = new LongAdder();
+  private final LongAdder sampled     = new LongAdder();
+  private final LongAdder rateLimited = new LongAdder();
+  private final LongAdder queueFull   = new LongAdder();
+  private final LongAdder failures    = new LongAdder();
+
+  EventLogSink(Logging logging){
+    this.logging = logging;
+    for(Kind k : Kind.values()){
+      Limits l = new Limits(k.defaultLevel, k.defaultSampleEvery, k.defaultMaxPerSecond);
+      l.parse(System.getProperty(PROPERTY_PREFIX + k.name().toLowerCase(Locale.ROOT)));
+      limits.put(k, l);
+    }
+    this.writer = Thread.ofVirtual().name("embedded-browser-log").start(this::writeLoop);
+  }
+
+  //---------------------------------------------------------------------------
+  // Producers
+
+  /** Subscriber for host event batches (BrowserHostBridge.subscribeEvents, not on the EDT). */
+  void accept(List<Map<String, Object>> batch){
+    for(Map<String, Object> ev : batch){
+      Object type = ev.get("type");
+      if("address".equals(type)){
+        log(Kind.LOCATION, Level.INFO, ev.get("url"));
+      }else if("navigation".equals(type)){
+        boolean allowed = Boolean.TRUE.equals(ev.get("allowed"));
+        log(Kind.NAVIGATION, allowed ? Level.DEBUG : Level.INFO, ev);
+      }else if("navState".equals(type)){
+        log(Kind.LOAD, Level.DEBUG, ev);
+      }else if("title".equals(type)){
+        log(Kind.TITLE, Level.DEBUG, ev.get("title"));
+      }else if("log".equals(type)){
+        log(Kind.HOST, Level.INFO, ev.get("message"));
+      }else if("console".equals(type)){
+        boolean severe = Boolean.TRUE.equals(ev.get("severe"));
+        log(Kind.CONSOLE, severe ? Level.INFO : Level.DEBUG, ev.get("message") + " (" + ev.get("source") + ")");
+      }
+    }
+  }
+
+  /** Enqueues payload unless filtered, sampled out or rate limited; never blocks. */
+  void log(Kind kind, Level level, Object payload){
+    if(closed) return;
+    Limits l = limits.get(kind);
+    if(level == Level.OFF || level.compareTo(l.level) > 0){
+      filtered.increment();
+      return;
+    }
+    if(!l.sample()){
+      sampled.increment();
+      return;
+    }
+    if(!l.acquire()){
+      rateLimited.increment();
+      return;
+    }
+    if(!queue.offer(new Record(kind, level, payload))){
+      queueFull.increment();
+    }
+  }
+
+  //---------------------------------------------------------------------------
+  long dropped(){
+    return sampled.sum() + rateLimited.sum() + queueFull.sum();
+  }
+
+  String stats(){
+    return "Log sink: written=" + written.sum()
+      + " batches=" + batches.sum()
+      + " filtered=" + filtered.sum()
+      + " dropped=" + dropped()
+      + " sampled=" + sampled.sum()
+      + " rateLimited=" + rateLimited.sum()
+      + " queueFull=" + queueFull.sum()
+      + " failures=" + failures.sum()
+      + " queued=" + queue.size();
+  }
+
+  /** Stops accepting records, writes what is queued and stops the writer. */
+  @Override
+  public void close(){
+    if(closed) return;
+    closed = true;
+    writer.interrupt();
+    try{
+      writer.join(TimeUnit.SECONDS.toMillis(1));
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  //---------------------------------------------------------------------------
+  private void writeLoop(){
+    List<Record> batch = new ArrayList<>(MAX_BATCH);
+    while(!closed){
+      try{
+        batch.add(queue.take());
+      }catch(InterruptedException e){
+        break;
+      }
+      queue.drainTo(batch, MAX_BATCH - 1);
+      write(batch);
+      batch.clear();
+    }
+    // Final drain on close
+    while(queue.drainTo(batch, MAX_BATCH) > 0){
+      write(batch);
+      batch.clear();
+    }
+  }
+
+  private void write(List<Record> batch){
+    StringBuilder out = new StringBuilder(batch.size() * 64);
+    StringBuilder err = null;
+    for(Record r : batch){
+      StringBuilder sb = out;
+      if(r.level == Level.ERROR){
+        if(err == null) err = new StringBuilder();
+        sb = err;
+      }
+      if(sb.length() > 0) sb.append('\n');
+      r.appendTo(sb);
+    }
+    try{
+      if(out.length() > 0) logging.logToOutput(out.toString());
+      if(err != null) logging.logToError(err.toString());
+      written.add(batch.size());
+      batches.increment();
+    }catch(Throwable t){
+      failures.increment();
+    }
+  }
+
+  //---------------------------------------------------------------------------
+  private static final class Record {
+    final Kind   kind;
+    final Level  level;
+    final Object payload;
+
+    Record(Kind kind, Level level, Object payload){
+      this.kind = kind;
+      this.level = level;
+      this.payload = payload;
+    }
+
+    void appendTo(StringBuilder sb){
+      sb.append(kind.prefix);
+      if(payload instanceof Map){
+        Map<?, ?> ev = (Map<?, ?>)payload;
+        if(kind == Kind.NAVIGATION){
+          sb.append("onBeforeBrowse url=").append(ev.get("url")).append(" allowed=").append(ev.get("allowed"));
+          if(Boolean.TRUE.equals(ev.get("redirect"))) sb.append(" redirect");
+        }else{
+          sb.append("loading=").append(ev.get("loading"))
+            .append(" canGoBack=").append(ev.get("canGoBack"))
+            .append(" canGoForward=").append(ev.get("canGoForward"));
+        }
+        Object browser = ev.get("browser");
+        if(browser != null) sb.append(" browser=").append(browser);
+      }else{
+        sb.append(payload);
+      }
+    }
+  }
+
+  // Per-kind settings (fixed once parsed) plus the sampling counter and a
+  // one-second token window.
+  private static final class Limits {
+    Level level;
+    int   sampleEvery; // keep one of every n (1 keeps all)
+    int   maxPerSecond; // 0 = no limit
+
+    private final AtomicLong seen   = new AtomicLong();
+    private final AtomicLong window = new AtomicLong(); // (second << 32) | used
+
+    Limits(Level level, int sampleEvery, int maxPerSecond){
+      this.level = level;
+      this.sampleEvery = sampleEvery;
+      this.maxPerSecond = maxPerSecond;
+    }
+
+    void parse(String spec){
+      if(spec == null || spec.isBlank()) return;
+      String[] parts = spec.trim().split(":");
+      try{
+        level = Level.valueOf(parts[0].trim().toUpperCase(Locale.ROOT));
+        if(parts.length > 1) sampleEvery = Math.max(1, Integer.parseInt(parts[1].trim()));
+        if(parts.length > 2) maxPerSecond = Math.max(0, Integer.parseInt(parts[2].trim()));
+      }catch(IllegalArgumentException ignored){
+        // keep defaults for a malformed property
+      }
+    }
+
+    boolean sample(){
+      int n = sampleEvery;
+      return n <= 1 || seen.getAndIncrement() % n == 0;
+    }
+
+    boolean acquire(){
+      int max = maxPerSecond;
+      if(max <= 0) return true;
+      long second = (System.nanoTime() / 1_000_000_000L) & 0x7fffffffL;
+      while(true){
+        long cur = window.get();
+        long used = (cur >>> 32) == second ? (cur & 0xffffffffL) : 0;
+        if(used >= max) return false;
+        if(window.compareAndSet(cur, (second << 32) | (used + 1))) return true;
+      }
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.jSoft.burp;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableModel;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.Window;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+// Page load timings collected by the host (BrowserHostBridge.loadTimingStats
+// and recentLoadTimings): one row per target host with percentiles of commit,
+// DOMContentLoaded and load time, slowest first, and the most recent
+// navigations below. Refreshes every few seconds while open; the host calls
+// run on the given executor, never on the EDT.
+final class LoadStatsView extends JPanel {
+  static final int REFRESH_MILLIS = 3000;
+
+  private static final String[] HOST_COLUMNS = {
+    "Host", "Loads", "Errors", "4xx", "5xx",
+    "Commit p50", "Commit p90", "DCL p50", "DCL p90", "Load p50", "Load p90", "Load p99", "Load max"};
+  private static final String[] RECENT_COLUMNS = {
+    "Time", "Tab", "URL", "Status", "Commit", "DCL", "Load", "Error"};
+  private static final Set<String> TEXT_COLUMNS = Set.of("Host", "Time", "Tab", "URL", "Error");
+
+  private final Executor executor;
+  private final DefaultTableModel hosts  = readOnlyModel(HOST_COLUMNS);
+  private final DefaultTableModel recent = readOnlyModel(RECENT_COLUMNS);
+  private final JLabel summary = new JLabel(" ");
+  private final Timer  timer   = new Timer(REFRESH_MILLIS, e -> refresh());
+
+  LoadStatsView(Executor executor){
+    super(new BorderLayout());
+    this.executor = executor;
+
+    final JTable hostTable = new JTable(hosts);
+    hostTable.setAutoCreateRowSorter(true);
+    final JTable recentTable = new JTable(recent);
+    recentTable.setAutoCreateRowSorter(true);
+    final JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(hostTable), new JScrollPane(recentTable));
+    split.setResizeWeight(0.5);
+
+    final JButton refresh = new JButton("Refresh");
+    refresh.addActionListener(e -> refresh());
+    final JButton reset = new JButton("Reset");
+    reset.addActionListener(e -> executor.execute(() -> {
+      BrowserHostBridge.resetLoadTimings();
+      refresh();
+    }));
+    final JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+    buttons.add(refresh);
+    buttons.add(reset);
+
+    final JPanel south = new JPanel(new BorderLayout());
+    south.setBorder(BorderFactory.createEmptyBorder(0, 6, 0, 0));
+    south.add(summary, BorderLayout.CENTER);
+    south.add(buttons, BorderLayout.EAST);
+
+    add(split, BorderLayout.CENTER);
+    add(south, BorderLayout.SOUTH);
+  }
+
+  /** Shows the view in a non-modal dialog over owner; it stops refreshing when closed. */
+  void showDialog(Component owner){
+    final Window window = owner == null ? null : SwingUtilities.getWindowAncestor(owner);
+    final JDialog dialog = new JDialog(window, "Embedded browser: page load timings");
+    dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+    dialog.setContentPane(this);
+    dialog.setSize(1000, 600);
+    dialog.setLocationRelativeTo(owner);
+    dialog.addWindowListener(new WindowAdapter(){
+      @Override public void windowClosed(WindowEvent e){ timer.stop(); }
+    });
+    timer.start();
+    refresh();
+    dialog.setVisible(true);
+  }
+
+  //---------------------------------------------------------------------------
+  private void refresh(){
+    try{
+      executor.execute(() -> {
+        final List<Map<String, Object>> h = BrowserHostBridge.loadTimingStats();
+        final List<Map<String, Object>> r = BrowserHostBridge.recentLoadTimings();
+        SwingUtilities.invokeLater(() -> show(h, r));
+      });
+    }catch(RejectedExecutionException e){
+      timer.stop(); // extension unloaded
+    }
+  }
+
+  private void show(List<Map<String, Object>> h, List<Map<String, Object>> r){
+    hosts.setRowCount(0);
+    long loads = 0, errors = 0;
+    for(final Map<String, Object> m : h){
+      hosts.addRow(new Object[]{
+        m.get("host"), m.get("loads"), m.get("errors"), m.get("4xx"), m.get("5xx"),
+        m.get("commitP50"), m.get("commitP90"), m.get("domContentLoadedP50"), m.get("domContentLoadedP90"),
+        m.get("loadP50"), m.get("loadP90"), m.get("loadP99"), m.get("loadMax")});
+      final Long l = asLong(m.get("loads"));
+      final Long e = asLong(m.get("errors"));
+      loads += l == null ? 0 : l;
+      errors += e == null ? 0 : e;
+    }
+    recent.setRowCount(0);
+    final SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss");
+    for(final Map<String, Object> m : r){
+      final Object t = m.get("time");
+      recent.addRow(new Object[]{
+        t instanceof Long ? time.format(new Date((Long)t)) : "", m.get("browser"), m.get("url"), asLong(m.get("status")),
+        m.get("commitMillis"), m.get("domContentLoadedMillis"), m.get("loadMillis"), m.get("error")});
+    }
+    summary.setText(h.size() + " hosts, " + loads + " loads, " + errors + " errors (times in ms from navigation start)");
+  }
+
+  private static Long asLong(Object o){
+    return o instanceof Number ? ((Number)o).longValue() : null;
+  }
+
+  private static DefaultTableModel readOnlyModel(String[] columns){
+    return new DefaultTableModel(columns, 0){
+      @Override public boolean isCellEditable(int row, int column){ return false; }
+      @Override public Class<?> getColumnClass(int column){
+        return TEXT_COLUMNS.contains(columns[column]) ? String.class : Long.class;
+      }
+    };
+  }
+}
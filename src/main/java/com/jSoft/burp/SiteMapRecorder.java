@@ -0,0 +1,85 @@
+package com.jSoft.burp;
+
+import burp.api.montoya.core.Annotations;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.sitemap.SiteMap;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Capture subscriber that adds the browser's traffic to Burp's site map.
+// Batches arrive on the host's capture thread with the raw HTTP messages
+// already assembled, so this only wraps them in Montoya objects; a slow
+// site map holds the host's queue (and with it the browser) back rather than
+// piling up copies here.
+final class SiteMapRecorder {
+  static final String NOTE = "Embedded browser";
+
+  private final SiteMap siteMap;
+
+  private final LongAdder added     = new LongAdder();
+  private final LongAdder truncated = new LongAdder();
+  private final LongAdder skipped   = new LongAdder();
+  private final LongAdder failures  = new LongAdder();
+
+  SiteMapRecorder(SiteMap siteMap){
+    this.siteMap = siteMap;
+  }
+
+  /** Subscriber for BrowserHostBridge.subscribeCapture. */
+  void accept(List<Map<String, Object>> batch){
+    for(Map<String, Object> ex : batch){
+      try{
+        final HttpRequestResponse rr = toRequestResponse(ex);
+        if(rr == null){
+          skipped.increment();
+          continue;
+        }
+        siteMap.add(rr);
+        added.increment();
+      }catch(Throwable t){
+        failures.increment();
+      }
+    }
+  }
+
+  String stats(){
+    return "Site map recorder: added=" + added.sum()
+      + " truncated=" + truncated.sum()
+      + " skipped=" + skipped.sum()
+      + " failures=" + failures.sum();
+  }
+
+  //---------------------------------------------------------------------------
+  private HttpRequestResponse toRequestResponse(Map<String, Object> ex){
+    final Object url = ex.get("url");
+    final Object request = ex.get("request");
+    if(!(url instanceof String) || !(request instanceof byte[])) return null;
+    final URI uri = URI.create((String)url);
+    final boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+    if(uri.getHost() == null) return null;
+    final int port = uri.getPort() > 0 ? uri.getPort() : secure ? 443 : 80;
+    final HttpService service = HttpService.httpService(uri.getHost(), port, secure);
+
+    final HttpRequest req = HttpRequest.httpRequest(service, ByteArray.byteArray((byte[])request));
+    final Object response = ex.get("response");
+    final HttpResponse resp = response instanceof byte[] ? HttpResponse.httpResponse(ByteArray.byteArray((byte[])response)) : null;
+
+    String note = NOTE;
+    if(Boolean.TRUE.equals(ex.get("truncated"))){
+      truncated.increment();
+      note += " (body truncated)";
+    }else if("headers".equals(ex.get("source"))){
+      note += " (headers only)";
+    }else if("cache".equals(ex.get("source"))){
+      note += " (from local cache)";
+    }
+    return HttpRequestResponse.httpRequestResponse(req, resp, Annotations.annotations(note));
+  }
+}
@@ -0,0 +1,628 @@
+package com.jSoft.burp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// URL bar history: pages visited in the browser, ranked by frecency (visit
+// count weighted by how recently the page was last seen) and matched by
+// prefix against the URL with and without its scheme and "www.", so
+// "exa", "www.exa" and "https://exa" all find https://www.example.com/.
+//
+// State lives on one worker thread; callers get futures and never block.
+// Lookups binary-search a sorted array of (entry, offset) keys and rank the
+// matching range, or, when a short prefix matches much of the index, walk
+// the entries in frecency order until nothing further can rank higher. New
+// and revisited entries are scanned linearly until a few hundred have
+// gathered, then merged in (only their keys are sorted), so typing never
+// waits for a full re-sort; that happens only on load and when the history
+// is trimmed.
+//
+// The file is read on first use. Writes go through a snapshot handed to a
+// separate writer thread a few seconds after a change and on close. Entries
+// are stored front-coded in key order: each URL as the length it shares with
+// the previous one plus the rest.
+final class UrlHistory {
+  static final String FILE_PROPERTY     = "embeddedBrowser.historyFile";
+  static final int    MAX_ENTRIES       = 200_000; // trimmed to 90% by frecency beyond this
+  static final int    MAX_URL_CHARS     = 4096;
+  static final int    MAX_TITLE_CHARS   = 512;
+  static final long   SAVE_DELAY_MILLIS = 5_000;
+
+  private static final int  MAGIC         = 0x55484931; // "UHI1"
+  private static final int  PENDING_LIMIT = 256;        // new/revisited entries before a merge
+  private static final int  SCAN_LIMIT    = 2048;       // matching keys ranked directly
+  private static final long DAY_MILLIS    = TimeUnit.DAYS.toMillis(1);
+  private static final Comparator<Entry> BY_SCORE = (a, b) -> Long.compare(b.score, a.score);
+
+  /** One suggestion; immutable copy of a history entry. */
+  static final class Suggestion {
+    final String url;
+    final String title;
+    final int    visits;
+    final long   lastVisit; // epoch millis
+
+    Suggestion(String url, String title, int visits, long lastVisit){
+      this.url = url;
+      this.title = title;
+      this.visits = visits;
+      this.lastVisit = lastVisit;
+    }
+  }
+
+  private static final class Entry {
+    final String url;
+    final String lower;
+    String  title = "";
+    int     visits;
+    long    lastVisit;
+    long    score;   // as of the last merge; never below the current score unless pending
+    boolean pending; // in fresh or touched
+
+    Entry(String url){
+      this.url = url;
+      final String l = url.toLowerCase(Locale.ROOT);
+      this.lower = l.equals(url) ? url : l;
+    }
+  }
+
+  private final Path file;
+  private final ScheduledThreadPoolExecutor worker = new ScheduledThreadPoolExecutor(1, r ->
+    Thread.ofPlatform().daemon().name("url-history").unstarted(r));
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(r ->
+    Thread.ofPlatform().daemon().name("url-history-writer").unstarted(r));
+
+  // worker thread only
+  private final Map<String, Entry> byUrl = new HashMap<>();
+  private final List<Entry> fresh   = new ArrayList<>(); // not in the index yet
+  private final List<Entry> touched = new ArrayList<>(); // indexed, visited since the last merge
+  private Entry[] indexed = new Entry[0];
+  private long[]  keys    = new long[0]; // indexed entry << 16 | offset into its lower
+  private Entry[] byScore = new Entry[0];
+  private boolean loaded;
+  private boolean dirty;
+  private ScheduledFuture<?> pendingSave;
+
+  private final LongAdder visits     = new LongAdder();
+  private final LongAdder queries    = new LongAdder();
+  private final LongAdder queryNanos = new LongAdder();
+  private final LongAdder errors     = new LongAdder();
+
+  UrlHistory(Path file){
+    this.file = file;
+    worker.setRemoveOnCancelPolicy(true); // a cancelled save must not hold up close
+  }
+
+  static Path defaultFile(){
+    final String configured = System.getProperty(FILE_PROPERTY);
+    if(configured != null && !configured.isBlank()) return Path.of(configured);
+    return Path.of(System.getProperty("user.home"), ".burp-embedded-browser", "history", "urls");
+  }
+
+  /** True for pages worth remembering (http, https, file). */
+  static boolean recordable(String url){
+    if(url == null || url.isEmpty() || url.length() > MAX_URL_CHARS) return false;
+    final String l = url.substring(0, Math.min(8, url.length())).toLowerCase(Locale.ROOT);
+    return l.startsWith("http://") || l.startsWith("https://") || l.startsWith("file:");
+  }
+
+  /** Counts a visit to url (now); title may be null. */
+  void recordVisit(String url, String title){
+    if(!recordable(url)) return;
+    final long now = System.currentTimeMillis();
+    run(() -> {
+      Entry e = byUrl.get(url);
+      if(e == null){
+        e = new Entry(url);
+        byUrl.put(url, e);
+        e.pending = true;
+        fresh.add(e);
+      }else if(!e.pending){
+        e.pending = true;
+        touched.add(e);
+      }
+      e.visits++;
+      e.lastVisit = now;
+      if(title != null && !title.isBlank()) e.title = clip(title, MAX_TITLE_CHARS);
+      visits.increment();
+      changed();
+      if(fresh.size() + touched.size() >= PENDING_LIMIT) merge();
+    });
+  }
+
+  /** Sets the title of url if it is in the history. */
+  void recordTitle(String url, String title){
+    if(!recordable(url) || title == null || title.isBlank()) return;
+    run(() -> {
+      final Entry e = byUrl.get(url);
+      if(e == null || e.title.equals(title)) return;
+      e.title = clip(title, MAX_TITLE_CHARS);
+      changed();
+    });
+  }
+
+  /**
+   * Up to limit entries matching text as a prefix, best first; the most
+   * frecent entries for blank text. Completes on the worker thread.
+   */
+  CompletableFuture<List<Suggestion>> suggest(String text, int limit){
+    try{
+      return CompletableFuture.supplyAsync(() -> {
+        ensureLoaded();
+        final long t0 = System.nanoTime();
+        try{
+          return query(text == null ? "" : text.trim().toLowerCase(Locale.ROOT), Math.max(1, limit), System.currentTimeMillis());
+        }finally{
+          queries.increment();
+          queryNanos.add(System.nanoTime() - t0);
+        }
+      }, worker);
+    }catch(RejectedExecutionException e){
+      return CompletableFuture.completedFuture(List.of());
+    }
+  }
+
+  /** Writes pending changes and stops both threads (waits a few seconds at most). */
+  void close(){
+    try{
+      worker.execute(() -> {
+        if(pendingSave != null) pendingSave.cancel(false);
+        save();
+      });
+    }catch(RejectedExecutionException ignored){
+      return;
+    }
+    worker.shutdown();
+    try{
+      worker.awaitTermination(5, TimeUnit.SECONDS);
+      writer.shutdown();
+      writer.awaitTermination(5, TimeUnit.SECONDS);
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  String stats(){
+    final long q = queries.sum();
+    return "URL history: visits=" + visits.sum() + " queries=" + q
+      + (q == 0 ? "" : " (avg " + queryNanos.sum() / q / 1000 + "us)") + " errors=" + errors.sum();
+  }
+
+  //---------------------------------------------------------------------------
+  private void run(Runnable task){
+    try{
+      worker.execute(() -> {
+        ensureLoaded();
+        task.run();
+      });
+    }catch(RejectedExecutionException ignored){
+      // closed
+    }
+  }
+
+  private void changed(){
+    dirty = true;
+    if(pendingSave == null) pendingSave = worker.schedule(this::save, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private List<Suggestion> query(String q, int limit, long now){
+    final Entry[] best = new Entry[limit];
+    final long[]  bestScore = new long[limit];
+    final int lo = q.isEmpty() ? 0 : bound(q, false);
+    final int hi = q.isEmpty() ? keys.length : bound(q, true);
+    if(hi - lo <= SCAN_LIMIT){
+      for(int i = lo; i < hi; i++) offer(best, bestScore, indexed[(int)(keys[i] >>> 16)], now);
+    }else{
+      // Scores only drop with age, so once the list is full and the next
+      // entry's merge-time score is no better than the worst kept, stop.
+      for(final Entry e : byScore){
+        if(best[limit - 1] != null && e.score <= bestScore[limit - 1]) break;
+        if(q.isEmpty() || matches(e, q)) offer(best, bestScore, e, now);
+      }
+    }
+    for(final Entry e : fresh){
+      if(q.isEmpty() || matches(e, q)) offer(best, bestScore, e, now);
+    }
+    for(final Entry e : touched){
+      if(q.isEmpty() || matches(e, q)) offer(best, bestScore, e, now);
+    }
+    final List<Suggestion> out = new ArrayList<>(limit);
+    for(final Entry e : best){
+      if(e == null) break;
+      out.add(new Suggestion(e.url, e.title, e.visits, e.lastVisit));
+    }
+    return Collections.unmodifiableList(out);
+  }
+
+  /** Inserts e into the top list (sorted by score, descending) unless already there or too low. */
+  private static void offer(Entry[] best, long[] bestScore, Entry e, long now){
+    final long s = score(e, now);
+    final int n = best.length;
+    if(best[n - 1] != null && s <= bestScore[n - 1]) return;
+    for(final Entry b : best){
+      if(b == e) return;
+      if(b == null) break;
+    }
+    int i = n - 1;
+    while(i > 0 && (best[i - 1] == null || bestScore[i - 1] < s)){
+      best[i] = best[i - 1];
+      bestScore[i] = bestScore[i - 1];
+      i--;
+    }
+    best[i] = e;
+    bestScore[i] = s;
+  }
+
+  /** Visits weighted by the age of the last one; ties go to the more recent (by the minute). */
+  static long score(int visits, long lastVisit, long now){
+    final long age = now - lastVisit;
+    final int weight = age <= DAY_MILLIS ? 100 : age <= 7 * DAY_MILLIS ? 70 : age <= 30 * DAY_MILLIS ? 50 : age <= 90 * DAY_MILLIS ? 30 : 10;
+    return (long)Math.min(visits, 1000) * weight << 32 | (lastVisit / 60_000 & 0xFFFFFFFFL);
+  }
+
+  private static long score(Entry e, long now){
+    return score(e.visits, e.lastVisit, now);
+  }
+
+  private static boolean matches(Entry e, String q){
+    final String l = e.lower;
+    if(l.startsWith(q)) return true;
+    final int s = schemeEnd(l);
+    if(s > 0 && l.startsWith(q, s)) return true;
+    return s > 0 && l.startsWith("www.", s) && l.startsWith(q, s + 4);
+  }
+
+  /** Offset after "://" (or after "file:"), -1 if neither. */
+  private static int schemeEnd(String l){
+    final int i = l.indexOf("://");
+    if(i > 0 && i < 16) return i + 3;
+    return l.startsWith("file:") ? 5 : -1;
+  }
+
+  /** First key index whose text (cut to q's length) is >= q, or > q when after. */
+  private int bound(String q, boolean after){
+    int lo = 0;
+    int hi = keys.length;
+    while(lo < hi){
+      final int mid = (lo + hi) >>> 1;
+      final long k = keys[mid];
+      final int c = comparePrefix(indexed[(int)(k >>> 16)].lower, (int)(k & 0xFFFF), q);
+      if(after ? c <= 0 : c < 0) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
+  }
+
+  /** s from off, cut to q's length, compared with q. */
+  private static int comparePrefix(String s, int off, String q){
+    final int n = Math.min(s.length() - off, q.length());
+    for(int i = 0; i < n; i++){
+      final int d = s.charAt(off + i) - q.charAt(i);
+      if(d != 0) return d;
+    }
+    return n - q.length();
+  }
+
+  //---------------------------------------------------------------------------
+  /** Rebuilds the key index and frecency order; trims the history when over MAX_ENTRIES. */
+  private void rebuild(){
+    final long now = System.currentTimeMillis();
+    final Entry[] all = byUrl.values().toArray(new Entry[0]);
+    for(final Entry e : all){
+      e.score = score(e, now);
+      e.pending = false;
+    }
+    Arrays.sort(all, BY_SCORE);
+    Entry[] kept = all;
+    if(all.length > MAX_ENTRIES){
+      kept = Arrays.copyOf(all, MAX_ENTRIES * 9 / 10);
+      for(int i = kept.length; i < all.length; i++) byUrl.remove(all[i].url);
+      dirty = true;
+    }
+    long[] k = new long[kept.length * 3];
+    int n = 0;
+    for(int i = 0; i < kept.length; i++) n = addKeys(k, n, kept[i].lower, i);
+    k = Arrays.copyOf(k, n);
+    sortKeys(k, 0, n, 0, kept);
+    indexed = kept;
+    keys = k;
+    byScore = kept;
+    fresh.clear();
+    touched.clear();
+  }
+
+  /**
+   * Indexes the new entries (only their keys are sorted, then placed by
+   * binary search) and moves new and revisited ones to their place in the
+   * frecency order.
+   */
+  private void merge(){
+    if(byUrl.size() > MAX_ENTRIES){
+      rebuild();
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    final int base = indexed.length;
+    final Entry[] ix = Arrays.copyOf(indexed, base + fresh.size());
+    final long[] add = new long[fresh.size() * 3];
+    int n = 0;
+    for(int i = 0; i < fresh.size(); i++){
+      ix[base + i] = fresh.get(i);
+      n = addKeys(add, n, ix[base + i].lower, base + i);
+    }
+    sortKeys(add, 0, n, 0, ix);
+    final long[] merged = new long[keys.length + n];
+    int from = 0;
+    int o = 0;
+    for(int j = 0; j < n; j++){
+      final int at = insertionPoint(ix, add[j], from);
+      System.arraycopy(keys, from, merged, o, at - from);
+      o += at - from;
+      from = at;
+      merged[o++] = add[j];
+    }
+    System.arraycopy(keys, from, merged, o, keys.length - from);
+
+    final List<Entry> moved = new ArrayList<>(fresh.size() + touched.size());
+    moved.addAll(fresh);
+    moved.addAll(touched);
+    for(final Entry e : moved) e.score = score(e, now);
+    moved.sort(BY_SCORE);
+    final Entry[] scored = new Entry[byScore.length + fresh.size()];
+    int i = 0;
+    int j = 0;
+    o = 0;
+    while(i < byScore.length || j < moved.size()){
+      if(i < byScore.length && byScore[i].pending){
+        i++; // re-inserted from moved
+      }else if(j == moved.size() || (i < byScore.length && byScore[i].score >= moved.get(j).score)){
+        scored[o++] = byScore[i++];
+      }else{
+        scored[o++] = moved.get(j++);
+      }
+    }
+    for(final Entry e : moved) e.pending = false;
+
+    indexed = ix;
+    keys = merged;
+    byScore = scored;
+    fresh.clear();
+    touched.clear();
+  }
+
+  /** First index in keys[from..] whose key sorts after key. */
+  private int insertionPoint(Entry[] entries, long key, int from){
+    int lo = from;
+    int hi = keys.length;
+    while(lo < hi){
+      final int mid = (lo + hi) >>> 1;
+      if(compareKeys(entries, keys[mid], key, 0) <= 0) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
+  }
+
+  /** Keys of one entry: the whole URL, after the scheme, and after "www." if any. */
+  private static int addKeys(long[] out, int n, String l, int index){
+    final long base = (long)index << 16;
+    out[n++] = base;
+    final int s = schemeEnd(l);
+    if(s > 0){
+      out[n++] = base | s;
+      if(l.startsWith("www.", s)) out[n++] = base | (s + 4);
+    }
+    return n;
+  }
+
+  private static int charAt(Entry[] entries, long key, int depth){
+    final String l = entries[(int)(key >>> 16)].lower;
+    final int i = (int)(key & 0xFFFF) + depth;
+    return i < l.length() ? l.charAt(i) : -1;
+  }
+
+  /** Compares two keys whose first depth chars are known to be equal. */
+  private static int compareKeys(Entry[] entries, long a, long b, int depth){
+    final String sa = entries[(int)(a >>> 16)].lower;
+    final String sb = entries[(int)(b >>> 16)].lower;
+    final int ao = (int)(a & 0xFFFF) + depth;
+    final int bo = (int)(b & 0xFFFF) + depth;
+    final int n = Math.min(sa.length() - ao, sb.length() - bo);
+    for(int i = 0; i < n; i++){
+      final int d = sa.charAt(ao + i) - sb.charAt(bo + i);
+      if(d != 0) return d;
+    }
+    return (sa.length() - ao) - (sb.length() - bo);
+  }
+
+  /**
+   * Three-way radix quicksort of k[lo, hi), whose first depth chars are
+   * equal. URLs share long prefixes ("https://www.host/..."), which a
+   * comparison sort would compare again on every step.
+   */
+  private static void sortKeys(long[] k, int lo, int hi, int depth, Entry[] entries){
+    while(hi - lo > 12){
+      final int pivot = charAt(entries, k[(lo + hi) >>> 1], depth);
+      int lt = lo;
+      int gt = hi - 1;
+      int i = lo;
+      while(i <= gt){
+        final int c = charAt(entries, k[i], depth);
+        if(c < pivot) swap(k, lt++, i++);
+        else if(c > pivot) swap(k, i, gt--);
+        else i++;
+      }
+      sortKeys(k, lo, lt, depth, entries);
+      sortKeys(k, gt + 1, hi, depth, entries);
+      if(pivot < 0) return; // the middle part all ended here: equal
+      lo = lt;
+      hi = gt + 1;
+      depth++;
+    }
+    for(int i = lo + 1; i < hi; i++){
+      final long v = k[i];
+      int j = i;
+      while(j > lo && compareKeys(entries, k[j - 1], v, depth) > 0){
+        k[j] = k[j - 1];
+        j--;
+      }
+      k[j] = v;
+    }
+  }
+
+  private static void swap(long[] k, int a, int b){
+    final long t = k[a];
+    k[a] = k[b];
+    k[b] = t;
+  }
+
+  //---------------------------------------------------------------------------
+  private void ensureLoaded(){
+    if(loaded) return;
+    loaded = true;
+    try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))){
+      if(in.readInt() != MAGIC) throw new IOException("not a history file");
+      final int n = in.readInt();
+      String prev = "";
+      for(int i = 0; i < n; i++){
+        final int shared = readVarint(in);
+        final String url = prev.substring(0, Math.min(shared, prev.length())) + in.readUTF();
+        final Entry e = new Entry(url);
+        e.title = in.readUTF();
+        e.visits = readVarint(in);
+        e.lastVisit = in.readLong();
+        byUrl.put(url, e);
+        prev = url;
+      }
+    }catch(NoSuchFileException e){
+      return;
+    }catch(IOException | RuntimeException e){
+      // Keep the unreadable file aside rather than overwriting it on the next save
+      errors.increment();
+      byUrl.clear();
+      try{
+        move(file, file.resolveSibling(file.getFileName() + ".bad"));
+      }catch(IOException ignored){}
+    }
+    rebuild();
+  }
+
+  /** Snapshots the entries in key order (new ones last) and hands them to the writer. */
+  private void save(){
+    pendingSave = null;
+    if(!dirty) return;
+    dirty = false;
+    final int n = byUrl.size();
+    final String[] urls   = new String[n];
+    final String[] titles = new String[n];
+    final int[]    counts = new int[n];
+    final long[]   times  = new long[n];
+    int o = 0;
+    for(final long k : keys){
+      if((k & 0xFFFF) != 0) continue;
+      final Entry e = indexed[(int)(k >>> 16)];
+      urls[o] = e.url;
+      titles[o] = e.title;
+      counts[o] = e.visits;
+      times[o++] = e.lastVisit;
+    }
+    for(final Entry e : fresh){
+      urls[o] = e.url;
+      titles[o] = e.title;
+      counts[o] = e.visits;
+      times[o++] = e.lastVisit;
+    }
+    final int count = o;
+    try{
+      writer.execute(() -> write(urls, titles, counts, times, count));
+    }catch(RejectedExecutionException e){
+      errors.increment();
+    }
+  }
+
+  private void write(String[] urls, String[] titles, int[] counts, long[] times, int n){
+    try{
+      Files.createDirectories(file.getParent());
+      final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))){
+        out.writeInt(MAGIC);
+        out.writeInt(n);
+        String prev = "";
+        for(int i = 0; i < n; i++){
+          final int shared = sharedPrefix(prev, urls[i]);
+          writeVarint(out, shared);
+          out.writeUTF(urls[i].substring(shared));
+          out.writeUTF(titles[i]);
+          writeVarint(out, counts[i]);
+          out.writeLong(times[i]);
+          prev = urls[i];
+        }
+      }
+      move(tmp, file);
+    }catch(IOException e){
+      errors.increment();
+      try{
+        worker.execute(this::changed); // try again later
+      }catch(RejectedExecutionException ignored){}
+    }
+  }
+
+  private static int sharedPrefix(String a, String b){
+    final int n = Math.min(a.length(), b.length());
+    int i = 0;
+    while(i < n && a.charAt(i) == b.charAt(i)) i++;
+    return i;
+  }
+
+  private static void writeVarint(DataOutputStream out, int v) throws IOException{
+    while((v & ~0x7F) != 0){
+      out.writeByte((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte(v);
+  }
+
+  private static int readVarint(DataInputStream in) throws IOException{
+    int v = 0;
+    for(int shift = 0; shift < 32; shift += 7){
+      final int b = in.readUnsignedByte();
+      v |= (b & 0x7F) << shift;
+      if((b & 0x80) == 0) return v;
+    }
+    throw new IOException("bad varint");
+  }
+
+  private static String clip(String s, int max){
+    return s.length() <= max ? s : s.substring(0, max);
+  }
+
+  private static void move(Path from, Path to) throws IOException{
+    try{
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }catch(AtomicMoveNotSupportedException e){
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.jSoft.burp;
+
+import javax.swing.AbstractAction;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.JPopupMenu;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+
+// Drop-down of UrlHistory suggestions under the URL field. Every edit asks
+// the history (on its worker thread) and only the answer to the latest edit
+// is shown; the EDT never waits for it. Up/Down walk the list and put the
+// selected URL into the field, so Enter navigates to it; Escape closes the
+// list, and is left to the toolbar's Stop binding while the list is closed.
+final class UrlSuggestions {
+  static final int MAX_SUGGESTIONS = 8;
+
+  private final JTextField field;
+  private final UrlHistory history;
+  private final JPopupMenu popup = new JPopupMenu();
+  private final JList<UrlHistory.Suggestion> list = new JList<>();
+  private final JScrollPane scroll = new JScrollPane(list);
+  private int     seq;       // EDT only; latest edit
+  private boolean adjusting; // EDT only; the field is being set from the list
+
+  UrlSuggestions(JTextField field, UrlHistory history){
+    this.field = field;
+    this.history = history;
+
+    list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    list.setFocusable(false);
+    list.setCellRenderer(new DefaultListCellRenderer(){
+      @Override
+      public Component getListCellRendererComponent(JList<?> l, Object value, int index, boolean selected, boolean focused){
+        final UrlHistory.Suggestion s = (UrlHistory.Suggestion)value;
+        final String text = s.title.isEmpty() ? s.url : s.title + "  —  " + s.url;
+        return super.getListCellRendererComponent(l, text, index, selected, focused);
+      }
+    });
+    list.addMouseListener(new MouseAdapter(){
+      @Override public void mouseClicked(MouseEvent e){
+        final int i = list.locationToIndex(e.getPoint());
+        if(i < 0) return;
+        list.setSelectedIndex(i);
+        choose();
+        field.postActionEvent();
+      }
+    });
+    scroll.setBorder(null);
+    popup.add(scroll);
+    popup.setFocusable(false);
+
+    field.getDocument().addDocumentListener(new DocumentListener(){
+      @Override public void insertUpdate(DocumentEvent e){ edited(); }
+      @Override public void removeUpdate(DocumentEvent e){ edited(); }
+      @Override public void changedUpdate(DocumentEvent e){}
+    });
+    field.addFocusListener(new FocusAdapter(){
+      @Override public void focusLost(FocusEvent e){ hide(); }
+    });
+    field.addActionListener(e -> hide());
+    bind("DOWN", "suggestNext", () -> move(1));
+    bind("UP", "suggestPrevious", () -> move(-1));
+    bind("ESCAPE", "suggestHide", this::hide);
+  }
+
+  //---------------------------------------------------------------------------
+  /** Binds key on the field, active only while the list is showing. */
+  private void bind(String key, String name, Runnable action){
+    field.getInputMap(JComponent.WHEN_FOCUSED).put(KeyStroke.getKeyStroke(key), name);
+    field.getActionMap().put(name, new AbstractAction(){
+      @Override public void actionPerformed(ActionEvent e){ action.run(); }
+      @Override public boolean isEnabled(){ return popup.isVisible(); }
+    });
+  }
+
+  private void edited(){
+    if(adjusting || !field.isFocusOwner()) return;
+    final int mine = ++seq;
+    history.suggest(field.getText(), MAX_SUGGESTIONS).thenAccept(found ->
+      SwingUtilities.invokeLater(() -> {
+        if(mine == seq && field.isFocusOwner()) show(found);
+      }));
+  }
+
+  private void show(List<UrlHistory.Suggestion> found){
+    if(found.isEmpty() || (found.size() == 1 && found.get(0).url.equals(field.getText()))){
+      hide();
+      return;
+    }
+    list.setListData(found.toArray(new UrlHistory.Suggestion[0]));
+    list.clearSelection();
+    list.setVisibleRowCount(found.size());
+    final Dimension size = list.getPreferredScrollableViewportSize();
+    scroll.setPreferredSize(new Dimension(Math.max(field.getWidth(), Math.min(size.width, 2 * field.getWidth())), size.height + 4));
+    if(popup.isVisible()) popup.pack();
+    else popup.show(field, 0, field.getHeight());
+  }
+
+  private void hide(){
+    seq++; // drop answers still on their way
+    popup.setVisible(false);
+  }
+
+  private void move(int delta){
+    final int n = list.getModel().getSize();
+    if(n == 0) return;
+    final int sel = list.getSelectedIndex();
+    final int i = sel < 0 ? (delta > 0 ? 0 : n - 1) : Math.floorMod(sel + delta, n);
+    list.setSelectedIndex(i);
+    list.ensureIndexIsVisible(i);
+    choose();
+  }
+
+  private void choose(){
+    final UrlHistory.Suggestion s = list.getSelectedValue();
+    if(s == null) return;
+    adjusting = true;
+    try{
+      field.setText(s.url);
+    }finally{
+      adjusting = false;
+    }
+  }
+}
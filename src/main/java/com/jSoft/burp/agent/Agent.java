@@ -7,23 +7,40 @@ import java.net.URISyntaxException;
 import java.security.CodeSource;
 import java.util.jar.JarFile;
 
+/**
+ * Appends this jar to the system classloader so the host shim is visible to
+ * every extension generation.
+ *
+ * Agent arguments (comma separated), e.g. -javaagent:ext.jar=preinit:
+ *   preinit  start native extraction and CefApp/CefClient creation in the
+ *            background right away, so the Burp tab finds the browser ready.
+ */
 public final class Agent {
+  private static final String HOST_CLASS = "com.jSoft.burp.browserhost.Host";
+
   private static volatile boolean installed;
+  private static volatile long    attachBeginNanos;
+  private static volatile long    attachEndNanos;
 
   public static void premain(String agentArgs, Instrumentation inst){
     install(inst);
+    if(hasArg(agentArgs, "preinit")) preinit();
   }
 
   public static void agentmain(String agentArgs, Instrumentation inst){
     install(inst);
+    if(hasArg(agentArgs, "preinit")) preinit();
   }
 
   private static synchronized void install(Instrumentation inst){
     if(installed) return;
+    long begin = System.nanoTime();
     try{
       File self = getThisJar();
       if(self != null && self.isFile()){
         inst.appendToSystemClassLoaderSearch(new JarFile(self));
+        attachBeginNanos = begin;
+        attachEndNanos = System.nanoTime();
         installed = true;
       }
     }catch(IOException ignored){
@@ -34,6 +51,40 @@ public final class Agent {
     return installed;
   }
 
+  /** nanoTime when install began, 0 if the agent is not installed. */
+  public static long attachBeginNanos(){
+    return attachBeginNanos;
+  }
+
+  /** nanoTime when install finished, 0 if the agent is not installed. */
+  public static long attachEndNanos(){
+    return attachEndNanos;
+  }
+
+  // Loading Host runs its static initializer, which links JCEF classes and
+  // starts Host's executors, so both that and startInitialization run on a
+  // daemon thread of their own and premain returns at once. A failure there
+  // is the same one the panel would meet loading Host.
+  private static void preinit(){
+    if(!installed) return;
+    Thread.ofPlatform().daemon().name("jcef-preinit").start(() -> {
+      try{
+        Class<?> host = Class.forName(HOST_CLASS, true, ClassLoader.getSystemClassLoader());
+        host.getMethod("startInitialization").invoke(null);
+      }catch(ReflectiveOperationException | LinkageError ignored){
+        // the panel initializes on demand
+      }
+    });
+  }
+
+  private static boolean hasArg(String agentArgs, String name){
+    if(agentArgs == null) return false;
+    for(String a : agentArgs.split(",")){
+      if(a.trim().equalsIgnoreCase(name)) return true;
+    }
+    return false;
+  }
+
   private static File getThisJar(){
     try{
       CodeSource cs = Agent.class.getProtectionDomain().getCodeSource();
@@ -44,4 +95,3 @@ public final class Agent {
     }
   }
 }
-
@@ -0,0 +1,366 @@
+package com.jSoft.burp.browserhost;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Loads a stream of URLs in up to N browsers at once and streams one result
+ * per URL, in completion order.
+ *
+ * A coordinator virtual thread pulls URLs lazily and hands each to a free
+ * page (created on demand, at most N); each visit runs on its own virtual
+ * thread, waits for the page to stop loading (and, optionally, for
+ * IDLE_MILLIS without a new request) within the per-URL timeout, and puts
+ * its result on a bounded queue. A visit keeps its page until the result is
+ * taken, so a slow consumer slows the batch down instead of piling up
+ * results. Closing the returned stream cancels the batch; the pages are
+ * closed when it ends either way.
+ *
+ * A Finisher can extend the result of every page that loaded while the
+ * visit still holds the page (screenshots copy its frame). It returns a
+ * future, so slow work such as encoding finishes after the page was handed
+ * the next URL; the stream waits for it in place of the result.
+ *
+ * Pages are abstract so the orchestration does not depend on CEF; Host
+ * backs them with browsers and feeds their Slot from its handlers.
+ */
+final class BatchNavigator {
+  static final int  MAX_CONCURRENCY = 16;
+  static final long IDLE_MILLIS     = 500;
+
+  // Map keys of results
+  static final String URL          = "url";
+  static final String FINAL_URL    = "finalUrl";
+  static final String STATUS       = "status";
+  static final String OUTCOME      = "outcome";
+  static final String ERROR        = "error";
+  static final String LOAD_MILLIS  = "loadMillis";  // until the page stopped loading
+  static final String TOTAL_MILLIS = "totalMillis"; // including the wait for network idle
+  static final String PAGE         = "page";
+
+  // Outcomes
+  static final String OUTCOME_LOADED    = "loaded";
+  static final String OUTCOME_IDLE      = "idle";
+  static final String OUTCOME_TIMEOUT   = "timeout";
+  static final String OUTCOME_ERROR     = "error";
+  static final String OUTCOME_BLOCKED   = "blocked";
+  static final String OUTCOME_CANCELLED = "cancelled";
+
+  private static final Object END = new Object();
+  private static final AtomicInteger pageSeq = new AtomicInteger();
+
+  /** A browser driven by a batch. */
+  interface Page {
+    void load(String url);
+    void stop();
+    String url();
+    void close();
+  }
+
+  /** Completes the result of a loaded page (outcome loaded or idle); runs on the visit's thread. */
+  interface Finisher {
+    CompletableFuture<Map<String, Object>> finish(Slot slot, Map<String, Object> result) throws InterruptedException;
+  }
+
+  /** Load state of one page; fed from the browser's handlers on CEF threads. */
+  static final class Slot {
+    final String id = "batch-" + pageSeq.incrementAndGet();
+    Page page;
+
+    private CompletableFuture<Void> done = new CompletableFuture<>();
+    private boolean started;
+    private int     status;
+    private String  error;
+    private boolean blocked;
+    private volatile long lastRequestNanos;
+
+    /** Resets the state for the next URL; returns the future completed when it stops loading. */
+    synchronized CompletableFuture<Void> begin(){
+      done = new CompletableFuture<>();
+      started = false;
+      status = 0;
+      error = null;
+      blocked = false;
+      lastRequestNanos = System.nanoTime();
+      return done;
+    }
+
+    synchronized void loadingChanged(boolean loading){
+      if(loading) started = true;
+      else if(started) done.complete(null);
+    }
+
+    /** Main frame finished with this HTTP status. */
+    synchronized void loadEnd(int httpStatus){
+      status = httpStatus;
+    }
+
+    /** Main frame failed; the loading state change that follows ends the visit. */
+    synchronized void loadError(String text){
+      error = text;
+    }
+
+    /** Navigation refused by the policy; nothing will load. */
+    synchronized void blocked(){
+      blocked = true;
+      done.complete(null);
+    }
+
+    void requestStarted(){
+      lastRequestNanos = System.nanoTime();
+    }
+
+    synchronized int status(){ return status; }
+    synchronized String error(){ return error; }
+    synchronized boolean isBlocked(){ return blocked; }
+    long lastRequestNanos(){ return lastRequestNanos; }
+  }
+
+  private final Function<Slot, Page> pages;
+  private final Consumer<String>     log;
+
+  final LongAdder batches  = new LongAdder();
+  final LongAdder visited  = new LongAdder();
+  final LongAdder timeouts = new LongAdder();
+  final LongAdder errors   = new LongAdder();
+
+  /** pages opens a page bound to the given slot; log gets one line per batch. */
+  BatchNavigator(Function<Slot, Page> pages, Consumer<String> log){
+    this.pages = pages;
+    this.log = log;
+  }
+
+  /**
+   * Starts loading urls (blank entries are skipped) with the given
+   * concurrency (1..MAX_CONCURRENCY) and per-URL timeout. The stream ends
+   * after the last result; it throws IllegalStateException if the URL stream
+   * or page creation failed.
+   */
+  Stream<Map<String, Object>> run(Stream<String> urls, int concurrency, long timeoutMillis, boolean waitForNetworkIdle){
+    return run(urls, concurrency, timeoutMillis, waitForNetworkIdle, null);
+  }
+
+  /** As run, with finisher (may be null) completing the result of every page that loaded. */
+  Stream<Map<String, Object>> run(Stream<String> urls, int concurrency, long timeoutMillis, boolean waitForNetworkIdle,
+      Finisher finisher){
+    Batch batch = new Batch(urls, Math.max(1, Math.min(MAX_CONCURRENCY, concurrency)),
+      TimeUnit.MILLISECONDS.toNanos(Math.max(1, timeoutMillis)), waitForNetworkIdle, finisher);
+    batches.increment();
+    batch.start();
+    return StreamSupport.stream(batch.results(), false).onClose(batch::cancel);
+  }
+
+  String diagnostics(){
+    return "Batch navigation: batches=" + batches.sum() + " visited=" + visited.sum()
+      + " timeouts=" + timeouts.sum() + " errors=" + errors.sum() + "\n";
+  }
+
+  //-----------------------------------------------------------------------------
+  private final class Batch {
+    private final Stream<String> urls;
+    private final int     concurrency;
+    private final long    timeoutNanos;
+    private final boolean waitForIdle;
+    private final Finisher finisher;
+
+    private final BlockingQueue<Slot>   idle    = new LinkedBlockingQueue<>();
+    private final List<Slot>            opened  = new ArrayList<>(); // coordinator only
+    private final BlockingQueue<Object> queue;
+    private final ExecutorService visits = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("browser-batch-", 1).factory());
+    private volatile Thread  coordinator;
+    private volatile boolean cancelled;
+    private final long startNanos = System.nanoTime();
+
+    Batch(Stream<String> urls, int concurrency, long timeoutNanos, boolean waitForIdle, Finisher finisher){
+      this.urls = urls;
+      this.concurrency = concurrency;
+      this.timeoutNanos = timeoutNanos;
+      this.waitForIdle = waitForIdle;
+      this.finisher = finisher;
+      this.queue = new ArrayBlockingQueue<>(concurrency + 1); // + the end marker
+    }
+
+    void start(){
+      coordinator = Thread.ofVirtual().name("browser-batch").start(this::coordinate);
+    }
+
+    void cancel(){
+      if(cancelled) return;
+      cancelled = true;
+      Thread c = coordinator;
+      if(c != null) c.interrupt();
+      visits.shutdownNow();
+    }
+
+    Spliterator<Map<String, Object>> results(){
+      return new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL){
+        private boolean finished;
+
+        @SuppressWarnings("unchecked")
+        @Override public boolean tryAdvance(Consumer<? super Map<String, Object>> action){
+          if(finished) return false;
+          Object o;
+          try{
+            o = queue.take();
+          }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            cancel();
+            finished = true;
+            return false;
+          }
+          if(o == END){
+            finished = true;
+            return false;
+          }
+          if(o instanceof Throwable){
+            finished = true;
+            throw new IllegalStateException("batch navigation failed", (Throwable)o);
+          }
+          if(o instanceof CompletableFuture<?> f) o = f.join(); // finished result
+          action.accept((Map<String, Object>)o);
+          return true;
+        }
+      };
+    }
+
+    private void coordinate(){
+      Object last = END;
+      int count = 0;
+      try(urls){
+        Iterator<String> it = urls.iterator();
+        while(!cancelled && it.hasNext()){
+          String url = it.next();
+          if(url == null || url.isBlank()) continue;
+          Slot slot = acquire();
+          count++;
+          visits.execute(() -> visit(slot, url.trim()));
+        }
+        // Every page back means every visit delivered its result
+        for(int i = 0; i < opened.size(); i++) idle.take();
+      }catch(InterruptedException e){
+        // cancelled
+      }catch(Throwable t){
+        last = t;
+      }finally{
+        visits.shutdownNow();
+        for(Slot slot : opened){
+          try{ slot.page.close(); }catch(Throwable ignored){}
+        }
+        if(!cancelled){
+          try{ queue.put(last); }catch(InterruptedException ignored){}
+        }
+        log.accept("batch navigation " + (cancelled ? "cancelled" : last == END ? "done" : "failed")
+          + ": " + count + " URLs, " + opened.size() + " pages, "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms");
+      }
+    }
+
+    /** A free page; opens another while below the concurrency, else waits for one. */
+    private Slot acquire() throws InterruptedException{
+      Slot slot = idle.poll();
+      if(slot != null) return slot;
+      if(opened.size() < concurrency){
+        slot = new Slot();
+        slot.page = pages.apply(slot);
+        opened.add(slot);
+        return slot;
+      }
+      return idle.take();
+    }
+
+    private void visit(Slot slot, String url){
+      try{
+        Map<String, Object> result;
+        try{
+          result = navigate(slot, url);
+        }catch(InterruptedException e){
+          slot.page.stop();
+          result = result(slot, url, OUTCOME_CANCELLED, 0, 0);
+        }
+        Object out = result;
+        Object outcome = result.get(OUTCOME);
+        if(finisher != null && !cancelled && (OUTCOME_LOADED.equals(outcome) || OUTCOME_IDLE.equals(outcome))){
+          out = finisher.finish(slot, result);
+        }
+        visited.increment();
+        if(!cancelled) queue.put(out); // holds the page until there is room
+      }catch(InterruptedException ignored){
+        // cancelled while waiting for the consumer
+      }finally{
+        idle.offer(slot);
+      }
+    }
+
+    private Map<String, Object> navigate(Slot slot, String url) throws InterruptedException{
+      long t0 = System.nanoTime();
+      long deadline = t0 + timeoutNanos;
+      CompletableFuture<Void> done = slot.begin();
+      slot.page.load(url);
+      try{
+        done.get(timeoutNanos, TimeUnit.NANOSECONDS);
+      }catch(TimeoutException e){
+        slot.page.stop();
+        timeouts.increment();
+        return result(slot, url, OUTCOME_TIMEOUT, System.nanoTime() - t0, System.nanoTime() - t0);
+      }catch(ExecutionException e){
+        // never completed exceptionally
+      }
+      long loadNanos = System.nanoTime() - t0;
+      if(slot.isBlocked()) return result(slot, url, OUTCOME_BLOCKED, loadNanos, loadNanos);
+      if(slot.error() != null){
+        errors.increment();
+        return result(slot, url, OUTCOME_ERROR, loadNanos, loadNanos);
+      }
+      if(!waitForIdle) return result(slot, url, OUTCOME_LOADED, loadNanos, loadNanos);
+
+      while(true){
+        long now = System.nanoTime();
+        long quietAt = slot.lastRequestNanos() + TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS);
+        if(now >= quietAt) return result(slot, url, OUTCOME_IDLE, loadNanos, now - t0);
+        if(now >= deadline){
+          slot.page.stop();
+          timeouts.increment();
+          return result(slot, url, OUTCOME_TIMEOUT, loadNanos, now - t0);
+        }
+        TimeUnit.NANOSECONDS.sleep(Math.min(quietAt, deadline) - now);
+      }
+    }
+
+    private Map<String, Object> result(Slot slot, String url, String outcome, long loadNanos, long totalNanos){
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put(URL, url);
+      String finalUrl = null;
+      try{ finalUrl = slot.page.url(); }catch(Throwable ignored){}
+      m.put(FINAL_URL, finalUrl != null && !finalUrl.isEmpty() ? finalUrl : url);
+      m.put(STATUS, slot.status());
+      m.put(OUTCOME, outcome);
+      String error = slot.error();
+      if(error != null) m.put(ERROR, error);
+      m.put(LOAD_MILLIS, TimeUnit.NANOSECONDS.toMillis(loadNanos));
+      m.put(TOTAL_MILLIS, TimeUnit.NANOSECONDS.toMillis(totalNanos));
+      m.put(PAGE, slot.id);
+      return Collections.unmodifiableMap(m);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.jSoft.burp.browserhost;
+
+import org.cef.browser.CefBrowser;
+
+import java.awt.Component;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One browser owned by Host, keyed by a caller-chosen id. All instances share
+ * Host's CefClient; the handlers map a CefBrowser back to its instance.
+ * profile is the BrowserProfiles name of its request context (null = default).
+ * A navigation started by a command waits here for its load to end.
+ * history and the page's JS heap are what Host keeps and shows of it; see
+ * NavigationHistory and MemoryMonitor.
+ */
+final class BrowserInstance {
+  final String     id;
+  final CefBrowser browser;
+  final Component  ui;
+  final String     profile;
+  final NavigationHistory history = new NavigationHistory();
+
+  private volatile long   lastUsedNanos;
+  private volatile String lastUrl;
+  private volatile boolean shown = true; // see BrowserThrottle
+  private final AtomicReference<CompletableFuture<Integer>> pendingLoad = new AtomicReference<>();
+  private volatile boolean loadStarted; // the main frame started loading since pendingLoad was set
+  private volatile long    jsHeapBytes = -1; // last MemoryMonitor report, -1 = unknown
+
+  BrowserInstance(String id, CefBrowser browser){
+    this(id, browser, null);
+  }
+
+  BrowserInstance(String id, CefBrowser browser, String profile){
+    this.id = id;
+    this.browser = browser;
+    this.ui = browser.getUIComponent();
+    this.profile = profile;
+    touch();
+  }
+
+  void touch(){
+    lastUsedNanos = System.nanoTime();
+  }
+
+  long lastUsedNanos(){
+    return lastUsedNanos;
+  }
+
+  String lastUrl(){
+    return lastUrl;
+  }
+
+  void setLastUrl(String url){
+    lastUrl = url;
+  }
+
+  long jsHeapBytes(){
+    return jsHeapBytes;
+  }
+
+  void setJsHeapBytes(long bytes){
+    jsHeapBytes = bytes;
+  }
+
+  boolean isShown(){
+    return shown;
+  }
+
+  void setShown(boolean shown){
+    this.shown = shown;
+  }
+
+  /** Registers the load a command is about to start; one still waiting is cancelled. */
+  void expectLoad(CompletableFuture<Integer> result){
+    loadStarted = false;
+    CompletableFuture<Integer> old = pendingLoad.getAndSet(result);
+    if(old != null) old.cancel(false);
+  }
+
+  /** Main frame load start; a load end before it belongs to an earlier navigation. */
+  void loadStarted(){
+    if(pendingLoad.get() != null) loadStarted = true;
+  }
+
+  void loadEnded(int httpStatus){
+    CompletableFuture<Integer> f = pendingLoad.get();
+    if(f != null && loadStarted && pendingLoad.compareAndSet(f, null)) f.complete(httpStatus);
+  }
+
+  void loadFailed(Throwable t){
+    CompletableFuture<Integer> f = pendingLoad.getAndSet(null);
+    if(f != null) f.completeExceptionally(t);
+  }
+
+  /** Stopped, replaced or closed: the waiting load, if any, is cancelled. */
+  void cancelLoad(){
+    CompletableFuture<Integer> f = pendingLoad.getAndSet(null);
+    if(f != null) f.cancel(false);
+  }
+
+  /** A copy of this (pooled) instance under a new id; the CefBrowser is reused. */
+  BrowserInstance claim(String newId){
+    return new BrowserInstance(newId, browser, profile);
+  }
+}
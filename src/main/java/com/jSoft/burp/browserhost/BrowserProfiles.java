@@ -0,0 +1,204 @@
+package com.jSoft.burp.browserhost;
+
+import me.friwi.jcefmaven.CefAppBuilder;
+import org.cef.CefSettings;
+import org.cef.browser.CefRequestContext;
+import org.cef.handler.CefRequestContextHandlerAdapter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Where browsers keep their cookies, storage and HTTP cache.
+ *
+ * The default profile is CEF's global request context. configure points it
+ * at a directory that survives restarts (root_cache_path) and caps
+ * Chromium's disk cache with --disk-cache-size. Session cookies (logins
+ * meant to end with the browser) are only written there when
+ * setPersistSessionCookies or PERSIST_SESSION_PROPERTY asks for it.
+ * The directory is locked for the life of the JVM; a second Burp on the same
+ * directory runs with CEF's in-memory defaults instead of fighting Chromium's
+ * process singleton for it.
+ *
+ * Named profiles are extra request contexts, one per name, created on first
+ * use: cookies, local storage and the HTTP cache are their own and nothing
+ * is written to disk (JCEF has no per-context cache path), so creating one
+ * is a single in-process call. They never get the ContentCache, whose
+ * entries were fetched with the default profile's cookies. A browser's
+ * context is fixed when it is created.
+ */
+final class BrowserProfiles {
+  static final String DEFAULT = "default";
+  static final String DIR_PROPERTY        = "embeddedBrowser.profileDir";
+  static final String DISK_CACHE_PROPERTY = "embeddedBrowser.diskCacheBytes";
+  static final String PERSIST_SESSION_PROPERTY = "embeddedBrowser.persistSessionCookies";
+  static final long   DEFAULT_DISK_CACHE_BYTES = 512L * 1024 * 1024;
+  static final String LOCK_FILE = ".host.lock";
+
+  private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+  /** A named profile; context is never the global one. */
+  static final class Profile {
+    final String            name;
+    final CefRequestContext context;
+    final long              createNanos;
+
+    Profile(String name, CefRequestContext context, long createNanos){
+      this.name = name;
+      this.context = context;
+      this.createNanos = createNanos;
+    }
+  }
+
+  private final Map<String, Profile> named = new LinkedHashMap<>(); // guarded by this
+  private volatile String dirSetting = System.getProperty(DIR_PROPERTY);
+  private volatile long   diskCacheBytes = Long.getLong(DISK_CACHE_PROPERTY, DEFAULT_DISK_CACHE_BYTES);
+  private volatile boolean persistSessionCookies = Boolean.getBoolean(PERSIST_SESSION_PROPERTY);
+  private volatile Path   dir;         // in use; null = in-memory defaults
+  private volatile String description = "not configured";
+  private FileChannel lockChannel;     // held for the life of the JVM
+  private FileLock    lock;
+
+  /**
+   * Persistent directory of the default profile; null or empty restores the
+   * default (~/.burp-embedded-browser/profile). Read by configure only.
+   */
+  void setDirectory(String path){
+    dirSetting = path;
+  }
+
+  /** Chromium's disk cache cap for the default profile; 0 leaves Chromium's own limit. */
+  void setDiskCacheBytes(long bytes){
+    diskCacheBytes = Math.max(0, bytes);
+  }
+
+  /** Writes session cookies of the default profile to its directory too (off by default). Read by configure only. */
+  void setPersistSessionCookies(boolean persist){
+    persistSessionCookies = persist;
+  }
+
+  /** The directory the default profile lives in, or null when it is in memory. */
+  Path directory(){
+    return dir;
+  }
+
+  /** Sets up the default profile on builder, before CEF is built. Never throws. */
+  synchronized void configure(CefAppBuilder builder){
+    Path d = configuredDir();
+    try{
+      Files.createDirectories(d);
+      if(lock != null && !d.equals(dir)) closeLock(); // directory changed since the last init
+      if(lock == null){
+        lockChannel = FileChannel.open(d.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock = lockChannel.tryLock();
+        if(lock == null){
+          closeLock();
+          dir = null;
+          description = "in memory (" + d + " is used by another process)";
+          return;
+        }
+      }
+    }catch(OverlappingFileLockException e){
+      closeLock();
+      dir = null;
+      description = "in memory (" + d + " is used by another classloader)";
+      return;
+    }catch(IOException e){
+      closeLock();
+      dir = null;
+      description = "in memory (" + e + ")";
+      return;
+    }
+    CefSettings settings = builder.getCefSettings();
+    settings.root_cache_path = d.toString();
+    settings.cache_path = d.resolve(DEFAULT).toString(); // must lie inside root_cache_path
+    settings.persist_session_cookies = persistSessionCookies;
+    long cap = diskCacheBytes;
+    if(cap > 0) builder.addJcefArgs("--disk-cache-size=" + cap);
+    dir = d;
+    description = d + (cap > 0 ? " (disk cache " + (cap >> 20) + " MiB)" : "") + (persistSessionCookies ? " (session cookies persisted)" : "");
+  }
+
+  /**
+   * The request context for profile (see nameOf), created on first use;
+   * null for the default profile. CEF must be initialized.
+   */
+  synchronized CefRequestContext context(String profile){
+    if(profile == null) return null;
+    Profile p = named.get(profile);
+    if(p == null){
+      long start = System.nanoTime();
+      CefRequestContext ctx = CefRequestContext.createContext(new CefRequestContextHandlerAdapter(){});
+      if(ctx == null) throw new IllegalStateException("could not create request context for profile " + profile);
+      p = new Profile(profile, ctx, System.nanoTime() - start);
+      named.put(profile, p);
+    }
+    return p.context;
+  }
+
+  synchronized boolean exists(String profile){
+    return profile == null || named.containsKey(profile);
+  }
+
+  /** Drops a named profile and its cookies and storage; its browsers must be closed first. */
+  synchronized boolean remove(String profile){
+    Profile p = profile == null ? null : named.remove(profile);
+    if(p == null) return false;
+    try{ p.context.dispose(); }catch(Throwable ignored){}
+    return true;
+  }
+
+  synchronized void disposeAll(){
+    for(Profile p : named.values()){
+      try{ p.context.dispose(); }catch(Throwable ignored){}
+    }
+    named.clear();
+  }
+
+  synchronized List<Profile> named(){
+    return new ArrayList<>(named.values());
+  }
+
+  String diagnostics(){
+    StringBuilder sb = new StringBuilder("Profiles: default ").append(description);
+    for(Profile p : named()){
+      sb.append(", ").append(p.name).append(" (").append(TimeUnit.NANOSECONDS.toMicros(p.createNanos)).append("us)");
+    }
+    return sb.append('\n').toString();
+  }
+
+  //-----------------------------------------------------------------------------
+  /**
+   * The registry key of a profile name: null for the default profile (null,
+   * empty or "default"), the name otherwise. Names are 1-64 letters, digits,
+   * '.', '_' or '-'.
+   */
+  static String nameOf(String profile){
+    if(profile == null || profile.isEmpty() || DEFAULT.equals(profile)) return null;
+    if(!NAME.matcher(profile).matches()) throw new IllegalArgumentException("invalid profile name: " + profile);
+    return profile;
+  }
+
+  private Path configuredDir(){
+    String configured = dirSetting;
+    if(configured != null && !configured.isBlank()) return Path.of(configured);
+    return Path.of(System.getProperty("user.home"), ".burp-embedded-browser", "profile");
+  }
+
+  private void closeLock(){
+    try{ if(lockChannel != null) lockChannel.close(); }catch(IOException ignored){}
+    lockChannel = null;
+    lock = null;
+  }
+}
@@ -0,0 +1,147 @@
+package com.jSoft.burp.browserhost;
+
+import org.cef.browser.CefBrowser;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Slows browsers down while nobody can see them.
+ *
+ * A browser is shown when Burp's tab is visible and it is the selected one;
+ * every other browser is hidden. In every mode a page script pauses playing
+ * media and animations and holds requestAnimationFrame callbacks (as
+ * Chromium does for hidden documents); only the main frame is scripted.
+ * Besides that, off-screen browsers drop to HIDDEN_FRAME_RATE, and windowed
+ * ones are marked hidden to Chromium on macOS only: CEF's
+ * setWindowVisibility has no effect elsewhere, so on Linux and Windows a
+ * hidden windowed browser keeps rendering and its timers run at full rate.
+ * Showing undoes exactly what was paused. diagnostics() counts hides per
+ * mechanism.
+ *
+ * Also keeps the CPU and wall time spent while the tab was visible and
+ * hidden. CPU is this process (CEF's browser process runs in it) plus its
+ * jcef_helper subprocesses (renderer, GPU, utility), sampled at each
+ * transition; helpers that exit between samples take their share with them.
+ */
+final class BrowserThrottle {
+  static final int HIDDEN_FRAME_RATE = 1;
+
+  private static final String SUSPEND_JS =
+    "(function(w,d){if(w.__burpSuspended)return;"
+    + "var s=w.__burpSuspended={media:[],anims:[],queue:[],raf:w.requestAnimationFrame,caf:w.cancelAnimationFrame};"
+    + "d.querySelectorAll('video,audio').forEach(function(m){if(!m.paused){m.pause();s.media.push(m);}});"
+    + "if(d.getAnimations)d.getAnimations().forEach(function(a){if(a.playState==='running'){a.pause();s.anims.push(a);}});"
+    + "w.requestAnimationFrame=function(cb){return -s.queue.push(cb);};"
+    + "w.cancelAnimationFrame=function(id){if(id<0)s.queue[-id-1]=null;else s.caf.call(w,id);};"
+    + "})(window,document);";
+  private static final String RESUME_JS =
+    "(function(w){var s=w.__burpSuspended;if(!s)return;delete w.__burpSuspended;"
+    + "w.requestAnimationFrame=s.raf;w.cancelAnimationFrame=s.caf;"
+    + "s.media.forEach(function(m){var p=m.play();if(p)p.catch(function(){});});"
+    + "s.anims.forEach(function(a){a.play();});"
+    + "s.queue.forEach(function(cb){if(cb)w.requestAnimationFrame(cb);});"
+    + "})(window);";
+
+  private static final boolean MAC = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("mac");
+
+  private final LongAdder hides = new LongAdder();
+  private final LongAdder shows = new LongAdder();
+  private final LongAdder frameRateHides  = new LongAdder(); // off-screen
+  private final LongAdder windowHides     = new LongAdder(); // windowed, macOS
+  private final LongAdder scriptOnlyHides = new LongAdder(); // windowed elsewhere
+
+  // Visibility of the tab, guarded by this
+  private boolean visible = true;
+  private long    sinceNanos = System.nanoTime();
+  private long    cpuAtTransition = cpuNanos();
+  private final long[] wallNanos = new long[2]; // [hidden, visible]
+  private final long[] cpuTotal  = new long[2];
+
+  /** Records a tab visibility change; returns false if nothing changed. */
+  synchronized boolean setVisible(boolean v){
+    if(v == visible) return false;
+    account();
+    visible = v;
+    return true;
+  }
+
+  synchronized boolean isVisible(){
+    return visible;
+  }
+
+  /** Shows or hides one browser; a no-op if it already is. */
+  void apply(BrowserInstance inst, boolean shown, int maxFrameRate){
+    if(inst.isShown() == shown) return;
+    inst.setShown(shown);
+    boolean offscreen = inst.ui instanceof OffscreenView;
+    if(shown){
+      shows.increment();
+    }else{
+      hides.increment();
+      (offscreen ? frameRateHides : MAC ? windowHides : scriptOnlyHides).increment();
+    }
+    CefBrowser b = inst.browser;
+    try{
+      if(offscreen) b.setWindowlessFrameRate(shown ? maxFrameRate : HIDDEN_FRAME_RATE);
+      else if(MAC) b.setWindowVisibility(shown);
+      b.executeJavaScript(shown ? RESUME_JS : SUSPEND_JS, "", 0);
+    }catch(Throwable ignored){
+      // Browser closing
+    }
+  }
+
+  /** Re-suspends a hidden browser's page after it navigated (the new document runs freely). */
+  void pageLoaded(BrowserInstance inst){
+    if(inst.isShown()) return;
+    try{
+      inst.browser.executeJavaScript(SUSPEND_JS, "", 0);
+    }catch(Throwable ignored){}
+  }
+
+  synchronized String diagnostics(){
+    account();
+    return "Visibility: " + (visible ? "visible" : "hidden")
+      + " (visible " + span(1) + ", hidden " + span(0)
+      + "; browsers hidden " + hides.sum() + "x, shown " + shows.sum() + "x)"
+      + " hidden by: frame rate " + frameRateHides.sum() + "x, window visibility " + windowHides.sum()
+      + "x, page script only " + scriptOnlyHides.sum() + "x\n";
+  }
+
+  //-----------------------------------------------------------------------------
+  private void account(){
+    long now = System.nanoTime();
+    long cpu = cpuNanos();
+    int i = visible ? 1 : 0;
+    wallNanos[i] += now - sinceNanos;
+    cpuTotal[i] += Math.max(0, cpu - cpuAtTransition);
+    sinceNanos = now;
+    cpuAtTransition = cpu;
+  }
+
+  private String span(int i){
+    long wall = wallNanos[i] / 1_000_000;
+    long cpu = cpuTotal[i] / 1_000_000;
+    return (wall / 1000) + "s wall / " + (cpu / 1000) + '.' + (cpu % 1000 / 100) + "s cpu"
+      + (wall == 0 ? "" : " (" + cpu * 100 / wall + "%)");
+  }
+
+  /** CPU time of this process and its CEF helper processes. */
+  private static long cpuNanos(){
+    long total = cpuOf(ProcessHandle.current());
+    try{
+      total += ProcessHandle.current().descendants()
+        .filter(p -> p.info().command().map(c -> c.contains("jcef_helper")).orElse(false))
+        .mapToLong(BrowserThrottle::cpuOf)
+        .sum();
+    }catch(SecurityException | UnsupportedOperationException ignored){}
+    return total;
+  }
+
+  private static long cpuOf(ProcessHandle p){
+    Optional<Duration> d = p.info().totalCpuDuration();
+    return d.map(Duration::toNanos).orElse(0L);
+  }
+}
@@ -0,0 +1,49 @@
+package com.jSoft.burp.browserhost;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size byte[] chunks for response bodies received on the CEF IO
+ * thread. Up to maxPooled released chunks are kept for reuse; beyond that
+ * they are left to the GC and acquire() allocates.
+ */
+final class BufferPool {
+  static final int CHUNK_SIZE = 16 * 1024;
+
+  private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooled = new AtomicInteger();
+  private final int maxPooled;
+
+  final LongAdder reused    = new LongAdder();
+  final LongAdder allocated = new LongAdder();
+
+  BufferPool(int maxPooled){
+    this.maxPooled = Math.max(0, maxPooled);
+  }
+
+  byte[] acquire(){
+    byte[] chunk = free.poll();
+    if(chunk != null){
+      pooled.decrementAndGet();
+      reused.increment();
+      return chunk;
+    }
+    allocated.increment();
+    return new byte[CHUNK_SIZE];
+  }
+
+  void release(byte[] chunk){
+    if(chunk == null || chunk.length != CHUNK_SIZE) return;
+    if(pooled.incrementAndGet() <= maxPooled){
+      free.offer(chunk);
+    }else{
+      pooled.decrementAndGet();
+    }
+  }
+
+  int pooled(){
+    return pooled.get();
+  }
+}
@@ -0,0 +1,133 @@
+package com.jSoft.burp.browserhost;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Per-host validation rules for the resource cache.
+ *
+ * Rule syntax, one rule per string, first match wins:
+ *   cache      host [ttlSeconds]   serve without network for ttl (default
+ *                                  3600), then revalidate
+ *   revalidate host                always ask the server (If-None-Match /
+ *                                  If-Modified-Since); a 304 is served from cache
+ *   bypass     host                never cached
+ *
+ *   host: "*", "*.example.com" (example.com and subdomains) or an exact host
+ *
+ * Hosts without a matching rule are not cached.
+ */
+final class CacheRules {
+  enum Mode { CACHE, REVALIDATE, BYPASS }
+
+  static final long DEFAULT_TTL_SECONDS = 3600;
+
+  /** Result of a lookup; BYPASS_RULE when nothing matches. */
+  static final class Rule {
+    final Mode   mode;
+    final long   ttlMillis;
+    final String host;      // "" for "*"
+    final boolean subdomains;
+
+    Rule(Mode mode, long ttlMillis, String host, boolean subdomains){
+      this.mode = mode;
+      this.ttlMillis = ttlMillis;
+      this.host = host;
+      this.subdomains = subdomains;
+    }
+
+    boolean matches(String h){
+      if(host.isEmpty()) return true;
+      if(h.equals(host)) return true;
+      return subdomains && h.length() > host.length() && h.endsWith(host) && h.charAt(h.length() - host.length() - 1) == '.';
+    }
+  }
+
+  static final Rule BYPASS_RULE = new Rule(Mode.BYPASS, 0, "", false);
+
+  private final List<String> source;
+  private final Rule[]       rules;
+
+  private CacheRules(List<String> source, Rule[] rules){
+    this.source = source;
+    this.rules = rules;
+  }
+
+  /** Compiles rules; throws IllegalArgumentException on a malformed rule. */
+  static CacheRules compile(List<String> lines){
+    if(lines == null) throw new IllegalArgumentException("rules == null");
+    List<Rule> compiled = new ArrayList<>(lines.size());
+    for(String line : lines){
+      String[] parts = line == null ? new String[0] : line.trim().split("\\s+");
+      if(parts.length < 2 || parts.length > 3) throw new IllegalArgumentException("bad cache rule: " + line);
+      Mode mode;
+      try{
+        mode = Mode.valueOf(parts[0].toUpperCase(Locale.ROOT));
+      }catch(IllegalArgumentException e){
+        throw new IllegalArgumentException("bad cache rule mode: " + line);
+      }
+      long ttl = mode == Mode.CACHE ? DEFAULT_TTL_SECONDS : 0;
+      if(parts.length == 3){
+        if(mode != Mode.CACHE) throw new IllegalArgumentException("only cache rules take a ttl: " + line);
+        try{
+          ttl = Long.parseLong(parts[2]);
+        }catch(NumberFormatException e){
+          throw new IllegalArgumentException("bad cache rule ttl: " + line);
+        }
+        if(ttl < 0) throw new IllegalArgumentException("bad cache rule ttl: " + line);
+      }
+      String host = parts[1].toLowerCase(Locale.ROOT);
+      boolean sub = false;
+      if(host.equals("*")){
+        host = "";
+      }else if(host.startsWith("*.")){
+        host = host.substring(2);
+        sub = true;
+      }
+      if(host.indexOf('*') >= 0 || host.indexOf('/') >= 0) throw new IllegalArgumentException("bad cache rule host: " + line);
+      compiled.add(new Rule(mode, ttl * 1000L, host, sub));
+    }
+    return new CacheRules(Collections.unmodifiableList(new ArrayList<>(lines)), compiled.toArray(new Rule[0]));
+  }
+
+  List<String> rules(){
+    return source;
+  }
+
+  /** The first rule matching the URL's host; BYPASS_RULE for non-http(s) URLs or no match. */
+  Rule match(String url){
+    String host = hostOf(url);
+    if(host == null) return BYPASS_RULE;
+    for(Rule r : rules){
+      if(r.matches(host)) return r;
+    }
+    return BYPASS_RULE;
+  }
+
+  static String hostOf(String url){
+    if(url == null) return null;
+    int start;
+    if(url.regionMatches(true, 0, "https://", 0, 8)) start = 8;
+    else if(url.regionMatches(true, 0, "http://", 0, 7)) start = 7;
+    else return null;
+    int end = start;
+    while(end < url.length()){
+      char c = url.charAt(end);
+      if(c == '/' || c == '?' || c == '#') break;
+      end++;
+    }
+    int at = url.lastIndexOf('@', end - 1);
+    if(at >= start) start = at + 1;
+    int hostEnd = end;
+    if(start < end && url.charAt(start) == '['){
+      int close = url.indexOf(']', start);
+      if(close > 0 && close < end) hostEnd = close + 1;
+    }else{
+      int colon = url.indexOf(':', start);
+      if(colon >= 0 && colon < end) hostEnd = colon;
+    }
+    return url.substring(start, hostEnd).toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,174 @@
+package com.jSoft.burp.browserhost;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Browser commands (create, navigate, reload, dispose, ...) run one at a time
+ * on a single host thread.
+ *
+ * Callers on any thread, the EDT included, append to an unbounded lock-free
+ * list (multi-producer, single-consumer: one getAndSet on the tail per
+ * command) and get a future back at once. The "jcef-commands" thread drains
+ * it in order. A command only starts its work and completes its future
+ * either right away or later from a CEF callback (a navigation on load end),
+ * so the drain thread never waits for a page. JCEF posts browser calls to
+ * CEF's own UI thread; running them here keeps them ordered and off the EDT.
+ *
+ * A command submitted from the drain thread runs inline, so blocking
+ * wrappers called from within a command cannot deadlock.
+ */
+final class CommandQueue {
+  /** Starts the work and completes result now or later; throwing fails it. */
+  interface Command<T> {
+    void start(CompletableFuture<T> result) throws Throwable;
+  }
+
+  private static final class Node {
+    Runnable      task; // cleared once taken
+    volatile Node next;
+
+    Node(Runnable task){
+      this.task = task;
+    }
+  }
+
+  private final AtomicReference<Node> tail;
+  private Node head; // drain thread only; its task has run
+
+  private final AtomicBoolean pending = new AtomicBoolean();
+  private final AtomicInteger depth    = new AtomicInteger();
+  private final AtomicInteger maxDepth = new AtomicInteger();
+  private volatile Thread     drainer;
+
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder executed  = new LongAdder();
+  private final LongAdder inline    = new LongAdder();
+  private final LongAdder failed    = new LongAdder();
+  private final LatencyHistogram waitMicros = new LatencyHistogram(); // submitted -> started
+  private final LatencyHistogram doneMillis = new LatencyHistogram(); // submitted -> completed
+
+  CommandQueue(){
+    head = new Node(null);
+    tail = new AtomicReference<>(head);
+  }
+
+  /** Queues command and returns its future; never blocks. */
+  <T> CompletableFuture<T> submit(Command<T> command){
+    CompletableFuture<T> result = new CompletableFuture<>();
+    long t0 = System.nanoTime();
+    result.whenComplete((v, t) -> {
+      doneMillis.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+      if(t != null) failed.increment();
+    });
+    Runnable task = () -> {
+      waitMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0));
+      try{
+        command.start(result);
+      }catch(Throwable t){
+        result.completeExceptionally(t);
+      }
+    };
+    submitted.increment();
+    if(Thread.currentThread() == drainer){
+      inline.increment();
+      task.run();
+      return result;
+    }
+    int d = depth.incrementAndGet();
+    int m;
+    while(d > (m = maxDepth.get()) && !maxDepth.compareAndSet(m, d)){}
+    Node n = new Node(task);
+    tail.getAndSet(n).next = n;
+    signal();
+    return result;
+  }
+
+  /** True on the thread that runs the commands. */
+  boolean isDrainThread(){
+    return Thread.currentThread() == drainer;
+  }
+
+  int depth(){
+    return depth.get();
+  }
+
+  Map<String, Long> stats(){
+    Map<String, Long> m = new LinkedHashMap<>();
+    m.put("submitted", submitted.sum());
+    m.put("executed", executed.sum());
+    m.put("inline", inline.sum());
+    m.put("failed", failed.sum());
+    m.put("depth", (long)depth.get());
+    m.put("maxDepth", (long)maxDepth.get());
+    m.put("waitP50Micros", waitMicros.percentile(0.5));
+    m.put("waitP99Micros", waitMicros.percentile(0.99));
+    m.put("waitMaxMicros", waitMicros.max());
+    m.put("completeP50Millis", doneMillis.percentile(0.5));
+    m.put("completeP99Millis", doneMillis.percentile(0.99));
+    m.put("completeMaxMillis", doneMillis.max());
+    return Collections.unmodifiableMap(m);
+  }
+
+  String diagnostics(){
+    return "Commands: submitted=" + submitted.sum() + " inline=" + inline.sum() + " failed=" + failed.sum()
+      + " depth=" + depth.get() + " (max " + maxDepth.get() + ")"
+      + " wait p50=" + waitMicros.percentile(0.5) + "us p99=" + waitMicros.percentile(0.99) + "us"
+      + " complete p50=" + doneMillis.percentile(0.5) + "ms p99=" + doneMillis.percentile(0.99) + "ms\n";
+  }
+
+  //-----------------------------------------------------------------------------
+  // Drain thread
+
+  private void signal(){
+    if(pending.compareAndSet(false, true)){
+      Thread t = drainer;
+      if(t != null) LockSupport.unpark(t);
+      else ensureDrainer();
+    }
+  }
+
+  private void ensureDrainer(){
+    if(drainer != null) return;
+    synchronized(this){
+      if(drainer != null) return;
+      Thread t = Thread.ofPlatform().daemon().name("jcef-commands").unstarted(this::drainLoop);
+      drainer = t; // before it runs anything, for isDrainThread
+      t.start();
+    }
+  }
+
+  private void drainLoop(){
+    while(true){
+      while(!pending.get()){
+        LockSupport.park(this);
+      }
+      // Cleared before draining: a producer that links a node afterwards sets it again
+      pending.set(false);
+      Node n;
+      while((n = poll()) != null){
+        depth.decrementAndGet();
+        executed.increment();
+        Runnable task = n.task;
+        n.task = null;
+        task.run(); // failures complete the command's future
+      }
+    }
+  }
+
+  /** Next command, or null if none is linked yet (its producer then signals again). */
+  private Node poll(){
+    Node next = head.next;
+    if(next == null) return null;
+    head = next;
+    return next;
+  }
+}
@@ -0,0 +1,371 @@
+package com.jSoft.burp.browserhost;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * On-disk, content-addressed store for cacheable subresources.
+ *
+ * Bodies live in objects/xx/&lt;sha-256&gt; and are shared by every URL with
+ * identical content; hits are served from a read-only memory mapping. The
+ * URL index is kept in access order for LRU eviction against a byte cap
+ * (counted once per object) and is written to disk in the background a few
+ * seconds after it changes, so the cache survives Burp restarts.
+ *
+ * Thread-safe; index operations are short and synchronized, file I/O for
+ * stores happens outside the lock.
+ */
+final class ContentCache {
+  static final long   DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+  static final String DIR_PROPERTY      = "embeddedBrowser.cacheDir";
+
+  private static final String INDEX          = "index";
+  private static final String INDEX_VERSION  = "v1";
+  private static final long   SAVE_DELAY_MILLIS = 2000;
+
+  /** One cached URL. Immutable except for the validation time. */
+  static final class Entry {
+    final String key;
+    final String hash;
+    final long   size;
+    final int    status;
+    final String mime;
+    final Map<String, String> headers;
+    final long   storedMillis;
+    volatile long validatedMillis;
+
+    Entry(String key, String hash, long size, int status, String mime, Map<String, String> headers, long storedMillis, long validatedMillis){
+      this.key = key;
+      this.hash = hash;
+      this.size = size;
+      this.status = status;
+      this.mime = mime;
+      this.headers = headers;
+      this.storedMillis = storedMillis;
+      this.validatedMillis = validatedMillis;
+    }
+
+    String header(String name){
+      for(Map.Entry<String, String> h : headers.entrySet()){
+        if(h.getKey().equalsIgnoreCase(name)) return h.getValue();
+      }
+      return null;
+    }
+  }
+
+  private final Path dir;
+  private final Path objects;
+  private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(256, 0.75f, true); // guarded by this
+  private final Map<String, Integer> refs = new HashMap<>();                                 // guarded by this
+  private long totalBytes;                                                                   // guarded by this
+  private volatile long maxBytes;
+  private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+  final LongAdder hits          = new LongAdder();
+  final LongAdder misses        = new LongAdder();
+  final LongAdder revalidated   = new LongAdder(); // 304 served from cache
+  final LongAdder stores        = new LongAdder();
+  final LongAdder evictions     = new LongAdder();
+  final LongAdder bypassed      = new LongAdder();
+  final LongAdder errors        = new LongAdder();
+  final LongAdder bytesSaved    = new LongAdder();
+
+  ContentCache(Path dir, long maxBytes){
+    this.dir = dir;
+    this.objects = dir.resolve("objects");
+    this.maxBytes = Math.max(0, maxBytes);
+    load();
+  }
+
+  static Path defaultDir(){
+    String configured = System.getProperty(DIR_PROPERTY);
+    if(configured != null && !configured.isBlank()) return Path.of(configured);
+    return Path.of(System.getProperty("user.home"), ".burp-embedded-browser", "cache");
+  }
+
+  /** The entry for key (marked most recently used), or null. */
+  synchronized Entry lookup(String key){
+    return index.get(key);
+  }
+
+  /** Maps the body of e read-only; null (and the entry dropped) if its object is gone. */
+  ByteBuffer open(Entry e){
+    Path p = objectPath(e.hash);
+    try(FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)){
+      if(e.size == 0) return ByteBuffer.allocate(0);
+      return ch.map(FileChannel.MapMode.READ_ONLY, 0, e.size);
+    }catch(IOException ex){
+      errors.increment();
+      remove(e.key);
+      return null;
+    }
+  }
+
+  /**
+   * Stores body[0, length) for key and returns the new entry. The object is
+   * written only if no other URL already has the same content.
+   */
+  Entry store(String key, int status, String mime, Map<String, String> headers, byte[] body, int length){
+    return store(key, status, mime, headers, ByteBuffer.wrap(body, 0, length));
+  }
+
+  /** As above for a body held in several buffers (see PooledBody); their positions are not changed. */
+  Entry store(String key, int status, String mime, Map<String, String> headers, ByteBuffer... body){
+    long length = 0;
+    for(ByteBuffer b : body) length += b.remaining();
+    String hash = sha256(body);
+    Path p = objectPath(hash);
+    try{
+      if(!Files.exists(p)){
+        Files.createDirectories(p.getParent());
+        Path tmp = p.resolveSibling(hash + ".tmp" + Thread.currentThread().threadId());
+        try(FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+          ByteBuffer[] bufs = new ByteBuffer[body.length];
+          for(int i = 0; i < bufs.length; i++) bufs[i] = body[i].duplicate();
+          long written = 0;
+          while(written < length) written += ch.write(bufs);
+        }
+        move(tmp, p);
+      }
+    }catch(IOException e){
+      errors.increment();
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    Entry entry = new Entry(key, hash, length, status, mime, Collections.unmodifiableMap(new LinkedHashMap<>(headers)), now, now);
+    synchronized(this){
+      Entry old = index.put(key, entry);
+      if(old != null) release(old.hash, old.size);
+      Integer n = refs.get(hash);
+      refs.put(hash, n == null ? 1 : n + 1);
+      if(n == null) totalBytes += length;
+      evictLocked();
+    }
+    stores.increment();
+    scheduleSave();
+    return entry;
+  }
+
+  /** A conditional request confirmed e; restarts its ttl. */
+  void revalidated(Entry e){
+    e.validatedMillis = System.currentTimeMillis();
+    scheduleSave();
+  }
+
+  synchronized void remove(String key){
+    Entry old = index.remove(key);
+    if(old != null){
+      release(old.hash, old.size);
+      scheduleSave();
+    }
+  }
+
+  void setMaxBytes(long bytes){
+    maxBytes = Math.max(0, bytes);
+    synchronized(this){
+      evictLocked();
+    }
+    scheduleSave();
+  }
+
+  long maxBytes(){
+    return maxBytes;
+  }
+
+  synchronized void clear(){
+    for(Entry e : List.copyOf(index.values())){
+      index.remove(e.key);
+      release(e.hash, e.size);
+    }
+    scheduleSave();
+  }
+
+  Map<String, Long> stats(){
+    Map<String, Long> m = new LinkedHashMap<>();
+    m.put("hits", hits.sum());
+    m.put("misses", misses.sum());
+    m.put("revalidated", revalidated.sum());
+    m.put("stores", stores.sum());
+    m.put("evictions", evictions.sum());
+    m.put("bypassed", bypassed.sum());
+    m.put("errors", errors.sum());
+    m.put("bytesSaved", bytesSaved.sum());
+    synchronized(this){
+      m.put("entries", (long)index.size());
+      m.put("objects", (long)refs.size());
+      m.put("bytes", totalBytes);
+    }
+    m.put("maxBytes", maxBytes);
+    return Collections.unmodifiableMap(m);
+  }
+
+  String diagnostics(){
+    Map<String, Long> s = stats();
+    return "Resource cache: " + s.get("entries") + " urls, " + s.get("objects") + " objects, "
+      + s.get("bytes") / 1024 + "/" + s.get("maxBytes") / 1024 + " KiB"
+      + " hits=" + s.get("hits") + " misses=" + s.get("misses") + " revalidated=" + s.get("revalidated")
+      + " evictions=" + s.get("evictions") + " saved=" + s.get("bytesSaved") / 1024 + "KiB"
+      + " errors=" + s.get("errors") + " dir=" + dir + "\n";
+  }
+
+  //-----------------------------------------------------------------------------
+  private void evictLocked(){
+    Iterator<Entry> it = index.values().iterator();
+    while(totalBytes > maxBytes && it.hasNext()){
+      Entry e = it.next(); // eldest first (access order)
+      it.remove();
+      release(e.hash, e.size);
+      evictions.increment();
+    }
+  }
+
+  private void release(String hash, long size){
+    Integer n = refs.get(hash);
+    if(n == null) return;
+    if(n > 1){
+      refs.put(hash, n - 1);
+      return;
+    }
+    refs.remove(hash);
+    totalBytes -= size;
+    try{
+      Files.deleteIfExists(objectPath(hash));
+    }catch(IOException ignored){
+      // still mapped on some platforms; the next store of this hash reuses it
+    }
+  }
+
+  private Path objectPath(String hash){
+    return objects.resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  private void scheduleSave(){
+    if(!saveScheduled.compareAndSet(false, true)) return;
+    Thread.ofVirtual().name("resource-cache-index").start(() -> {
+      try{
+        Thread.sleep(SAVE_DELAY_MILLIS);
+      }catch(InterruptedException ignored){
+      }
+      saveScheduled.set(false);
+      save();
+    });
+  }
+
+  /** Writes the index atomically; entries whose objects are missing are dropped on the next load. */
+  void save(){
+    StringBuilder sb = new StringBuilder(INDEX_VERSION).append('\n');
+    synchronized(this){
+      for(Entry e : index.values()){
+        sb.append(enc(e.key)).append('\t').append(e.hash).append('\t').append(e.size)
+          .append('\t').append(e.status).append('\t').append(enc(e.mime))
+          .append('\t').append(e.storedMillis).append('\t').append(e.validatedMillis).append('\t');
+        boolean first = true;
+        for(Map.Entry<String, String> h : e.headers.entrySet()){
+          if(!first) sb.append('&');
+          first = false;
+          sb.append(enc(h.getKey())).append('=').append(enc(h.getValue()));
+        }
+        sb.append('\n');
+      }
+    }
+    try{
+      Files.createDirectories(dir);
+      Path tmp = dir.resolve(INDEX + ".tmp");
+      Files.writeString(tmp, sb, StandardCharsets.UTF_8);
+      move(tmp, dir.resolve(INDEX));
+    }catch(IOException e){
+      errors.increment();
+    }
+  }
+
+  private void load(){
+    List<String> lines;
+    try{
+      lines = Files.readAllLines(dir.resolve(INDEX), StandardCharsets.UTF_8);
+    }catch(NoSuchFileException e){
+      return;
+    }catch(IOException e){
+      errors.increment();
+      return;
+    }
+    if(lines.isEmpty() || !INDEX_VERSION.equals(lines.get(0))) return;
+    synchronized(this){
+      for(int i = 1; i < lines.size(); i++){
+        String[] f = lines.get(i).split("\t", -1);
+        if(f.length != 8) continue;
+        try{
+          String hash = f[1];
+          long size = Long.parseLong(f[2]);
+          if(hash.length() < 2 || !Files.isRegularFile(objectPath(hash)) || Files.size(objectPath(hash)) != size) continue;
+          Map<String, String> headers = new LinkedHashMap<>();
+          if(!f[7].isEmpty()){
+            for(String kv : f[7].split("&")){
+              int eq = kv.indexOf('=');
+              if(eq > 0) headers.put(dec(kv.substring(0, eq)), dec(kv.substring(eq + 1)));
+            }
+          }
+          Entry e = new Entry(dec(f[0]), hash, size, Integer.parseInt(f[3]), dec(f[4]),
+            Collections.unmodifiableMap(headers), Long.parseLong(f[5]), Long.parseLong(f[6]));
+          index.put(e.key, e);
+          Integer n = refs.get(hash);
+          refs.put(hash, n == null ? 1 : n + 1);
+          if(n == null) totalBytes += size;
+        }catch(IOException | IllegalArgumentException ignored){
+          // skip damaged line
+        }
+      }
+      evictLocked();
+    }
+  }
+
+  private static void move(Path from, Path to) throws IOException{
+    try{
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }catch(AtomicMoveNotSupportedException e){
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static String sha256(ByteBuffer[] body){
+    try{
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      for(ByteBuffer b : body) md.update(b.duplicate());
+      byte[] d = md.digest();
+      StringBuilder sb = new StringBuilder(64);
+      for(byte b : d){
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+    }catch(NoSuchAlgorithmException e){
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String enc(String s){
+    return s == null ? "" : URLEncoder.encode(s, StandardCharsets.UTF_8);
+  }
+
+  private static String dec(String s){
+    return URLDecoder.decode(s, StandardCharsets.UTF_8);
+  }
+}
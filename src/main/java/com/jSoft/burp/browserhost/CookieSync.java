@@ -0,0 +1,607 @@
+package com.jSoft.burp.browserhost;
+
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.callback.CefCookieVisitor;
+import org.cef.handler.CefCookieAccessFilter;
+import org.cef.handler.CefCookieAccessFilterAdapter;
+import org.cef.handler.CefResourceHandler;
+import org.cef.handler.CefResourceRequestHandler;
+import org.cef.handler.CefResourceRequestHandlerAdapter;
+import org.cef.misc.BoolRef;
+import org.cef.misc.StringRef;
+import org.cef.network.CefCookie;
+import org.cef.network.CefCookieManager;
+import org.cef.network.CefRequest;
+import org.cef.network.CefResponse;
+import org.cef.network.CefURLRequest;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Incremental two-way cookie sync between the browsers of the default profile
+ * and one subscriber outside the host (the extension, which mirrors Burp's
+ * cookie jar).
+ *
+ * Browser to subscriber: cookies saved from responses the browser loads
+ * itself are seen one by one in a CefCookieAccessFilter, without visiting
+ * any. Cookies that arrive another way (responses re-issued through
+ * CefURLRequest by the ResourceInterceptor, document.cookie writes) mark
+ * their URL dirty, as does every finished page load. A dirty URL is settled
+ * by visiting the cookies of that URL only, once per host and directory per
+ * batch window; a complete visit also shows which of its cookies are gone.
+ * All cookies are visited once, when sync is enabled.
+ *
+ * Changes are coalesced per cookie (latest wins) and handed to the
+ * subscriber on the sync thread, at most one batch of MAX_BATCH per
+ * BATCH_WINDOW_MS. Subscriber to browser: apply sets or deletes cookies in
+ * the global cookie manager. Per cookie the state last exchanged is kept,
+ * so applied changes are not echoed back. A cookie whose browser change is
+ * still unsent when the subscriber changes it is a conflict, resolved by the
+ * Rule (newest change wins by default).
+ *
+ * All state is confined to the single sync thread.
+ */
+final class CookieSync {
+  static final int  BATCH_WINDOW_MS  = 50;
+  static final int  MAX_BATCH        = 256;
+  static final long VISIT_TIMEOUT_MS = 1_000; // a URL without cookies is never visited back
+
+  // Keys of a change map, both directions
+  static final String NAME      = "name";
+  static final String VALUE     = "value";
+  static final String DOMAIN    = "domain";  // leading dot = domain cookie, else host-only
+  static final String PATH      = "path";
+  static final String EXPIRES   = "expires"; // epoch millis; absent or null = session cookie
+  static final String SECURE    = "secure";
+  static final String HTTP_ONLY = "httpOnly";
+  static final String DELETED   = "deleted";
+  static final String TIME      = "time";    // when the change was seen, epoch millis; 0 = unknown
+
+  /** Who wins when both sides changed a cookie since it was last exchanged. */
+  enum Rule { BROWSER, BURP, NEWEST }
+
+  private static final class Entry {
+    final String key;
+    final String name;
+    final String path;
+    String  domain;
+    String  state;         // value and expiry in the browser; null = absent
+    String  value;
+    long    expires;       // epoch millis, 0 = session
+    boolean secure;
+    boolean httpOnly;
+    String  exchanged;     // state last sent to or received from the subscriber
+    long    changedMillis; // when the browser's state last changed
+    long    pendingNanos;  // when the oldest unsent change was seen; 0 = none
+
+    Entry(String key, String name, String path){
+      this.key = key;
+      this.name = name;
+      this.path = path;
+    }
+  }
+
+  private final Supplier<CefCookieManager> manager;
+  private final ScheduledThreadPoolExecutor exec;
+
+  // Sync thread only
+  private final Map<String, Entry>  known    = new HashMap<>();
+  private final Map<String, Entry>  pending  = new LinkedHashMap<>();
+  private final Map<String, String> dirty    = new LinkedHashMap<>(); // scope -> url
+  private final Set<String>         visiting = new HashSet<>();
+  private List<Runnable>     held; // applies waiting for the initial visit; null = not seeding
+  private ScheduledFuture<?> tick;
+  private long               generation; // bumped on disable; stale visits are dropped
+
+  private volatile boolean enabled;
+  private volatile Rule    rule = Rule.NEWEST;
+  private volatile Consumer<List<Map<String, Object>>> subscriber;
+
+  private final CefCookieAccessFilter filter = new CefCookieAccessFilterAdapter(){
+    @Override
+    public boolean canSaveCookie(CefBrowser b, CefFrame f, CefRequest r, CefResponse response, CefCookie cookie){
+      if(enabled && cookie != null){
+        filtered.increment();
+        long seen = System.nanoTime();
+        exec.execute(() -> observe(cookie, System.currentTimeMillis(), seen));
+      }
+      return true;
+    }
+  };
+  private final Watch watchOnly = new Watch(null);
+
+  final LongAdder toBurp      = new LongAdder();
+  final LongAdder toBrowser   = new LongAdder();
+  final LongAdder batches     = new LongAdder();
+  final LongAdder filtered    = new LongAdder(); // cookies seen in the access filter
+  final LongAdder visits      = new LongAdder();
+  final LongAdder conflicts   = new LongAdder();
+  final LongAdder browserWon  = new LongAdder();
+  final LongAdder failures    = new LongAdder();
+  private volatile long maxBatch;
+  private final LatencyHistogram latency = new LatencyHistogram(); // seen -> handed to the subscriber
+
+  CookieSync(Supplier<CefCookieManager> manager){
+    this.manager = manager;
+    exec = new ScheduledThreadPoolExecutor(1, r -> Thread.ofPlatform().daemon().name("cookie-sync").unstarted(r));
+    exec.setRemoveOnCancelPolicy(true);
+  }
+
+  /** On: visits every cookie once and starts watching; off: forgets everything. */
+  void setEnabled(boolean on){
+    enabled = on;
+    exec.execute(() -> {
+      generation++;
+      known.clear();
+      pending.clear();
+      dirty.clear();
+      visiting.clear();
+      if(on) seed();
+      else releaseHeld();
+    });
+  }
+
+  boolean isEnabled(){
+    return enabled;
+  }
+
+  void setRule(Rule r){
+    rule = r;
+  }
+
+  Rule rule(){
+    return rule;
+  }
+
+  /** Sets the single subscriber; batches wait while there is none. The Runnable unsubscribes. */
+  Runnable subscribe(Consumer<List<Map<String, Object>>> s){
+    subscriber = s;
+    exec.execute(this::scheduleTick);
+    return () -> {
+      if(subscriber == s) subscriber = null;
+    };
+  }
+
+  /**
+   * The resource request handler for a request of a synced browser: delegate
+   * (may be null) plus the cookie access filter.
+   */
+  CefResourceRequestHandler watch(CefResourceRequestHandler delegate){
+    return delegate == null ? watchOnly : new Watch(delegate);
+  }
+
+  /** Cookies for url may have changed without passing the access filter. Any thread. */
+  void dirty(String url){
+    if(!enabled || url == null) return;
+    String scope = scopeOf(url);
+    if(scope == null) return;
+    exec.execute(() -> {
+      dirty.putIfAbsent(scope, url);
+      scheduleTick();
+    });
+  }
+
+  /**
+   * Applies subscriber changes (maps keyed NAME, VALUE, ...) to the browser;
+   * completes with the number applied, i.e. not already equal and not lost
+   * to a conflict. Held back until the initial visit has finished.
+   */
+  CompletableFuture<Integer> apply(List<Map<String, Object>> changes){
+    CompletableFuture<Integer> done = new CompletableFuture<>();
+    exec.execute(() -> {
+      Runnable r = () -> {
+        try{
+          done.complete(applyNow(changes));
+        }catch(Throwable t){
+          done.completeExceptionally(t);
+        }
+      };
+      if(held != null) held.add(r);
+      else r.run();
+    });
+    return done;
+  }
+
+  Map<String, Long> stats(){
+    Map<String, Long> m = new LinkedHashMap<>();
+    m.put("enabled", enabled ? 1L : 0L);
+    m.put("toBurp", toBurp.sum());
+    m.put("toBrowser", toBrowser.sum());
+    m.put("batches", batches.sum());
+    m.put("maxBatch", maxBatch);
+    m.put("filtered", filtered.sum());
+    m.put("visits", visits.sum());
+    m.put("conflicts", conflicts.sum());
+    m.put("conflictsBrowserWon", browserWon.sum());
+    m.put("failures", failures.sum());
+    m.put("latencyP50Millis", latency.percentile(0.5));
+    m.put("latencyP99Millis", latency.percentile(0.99));
+    m.put("latencyMaxMillis", latency.max());
+    return Collections.unmodifiableMap(m);
+  }
+
+  String diagnostics(){
+    long b = batches.sum();
+    return "Cookie sync: " + (enabled ? "on" : "off") + " (rule " + rule.name().toLowerCase(Locale.ROOT) + ")"
+      + " to Burp " + toBurp.sum() + " in " + b + " batches (mean " + (b == 0 ? 0 : toBurp.sum() / b) + ", max " + maxBatch + ")"
+      + ", to browser " + toBrowser.sum()
+      + ", conflicts " + conflicts.sum() + " (browser won " + browserWon.sum() + ")"
+      + ", filtered " + filtered.sum() + ", url visits " + visits.sum()
+      + "; latency p50 " + latency.percentile(0.5) + " p99 " + latency.percentile(0.99) + " max " + latency.max() + " ms\n";
+  }
+
+  //-----------------------------------------------------------------------------
+  private void seed(){
+    CefCookieManager m = manager.get();
+    if(m == null) return; // CEF not up; Host enables again once it is
+    held = new ArrayList<>();
+    long gen = generation;
+    long seen = System.nanoTime();
+    visit(m, null, (cookies, complete) -> {
+      if(gen != generation) return;
+      for(CefCookie c : cookies) observe(c, creationOf(c), seen);
+      releaseHeld();
+    });
+  }
+
+  private void releaseHeld(){
+    List<Runnable> h = held;
+    held = null;
+    if(h != null) h.forEach(Runnable::run);
+    scheduleTick();
+  }
+
+  /**
+   * Visits the cookies of url (all cookies for null) and hands them to done
+   * on the sync thread, complete unless the visit timed out.
+   */
+  private void visit(CefCookieManager m, String url, VisitResult done){
+    List<CefCookie> found = Collections.synchronizedList(new ArrayList<>());
+    AtomicBoolean finished = new AtomicBoolean();
+    ScheduledFuture<?> timeout = exec.schedule(() -> {
+      if(finished.compareAndSet(false, true)) done.accept(snapshot(found), false);
+    }, VISIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    CefCookieVisitor visitor = (cookie, count, total, delete) -> {
+      if(cookie != null) found.add(cookie);
+      if(count + 1 >= total && finished.compareAndSet(false, true)){
+        timeout.cancel(false);
+        List<CefCookie> all = snapshot(found);
+        exec.execute(() -> done.accept(all, true));
+      }
+      return true;
+    };
+    visits.increment();
+    boolean started = url == null ? m.visitAllCookies(visitor) : m.visitUrlCookies(url, true, visitor);
+    if(!started && finished.compareAndSet(false, true)){
+      timeout.cancel(false);
+      done.accept(List.of(), false);
+    }
+  }
+
+  private interface VisitResult {
+    void accept(List<CefCookie> cookies, boolean complete);
+  }
+
+  /** A cookie as the browser has it now (from the filter or a visit). */
+  private void observe(CefCookie c, long changedMillis, long seenNanos){
+    if(!enabled) return;
+    String path = c.path == null || c.path.isEmpty() ? "/" : c.path;
+    String key = keyOf(c.domain, path, c.name);
+    Entry e = known.get(key);
+    long expires = c.hasExpires && c.expires != null ? c.expires.getTime() : 0;
+    String state = expires != 0 && expires <= System.currentTimeMillis() ? null : stateOf(c.value, expires);
+    if(e != null && Objects.equals(e.state, state) && (state == null || (e.secure == c.secure && e.httpOnly == c.httponly))) return;
+    if(e == null){
+      if(state == null) return; // deleted before we ever saw it
+      e = new Entry(key, c.name, path);
+      known.put(key, e);
+    }
+    e.domain = c.domain == null ? "" : c.domain;
+    e.state = state;
+    e.value = c.value;
+    e.expires = expires;
+    e.secure = c.secure;
+    e.httpOnly = c.httponly;
+    e.changedMillis = changedMillis;
+    markPending(e, seenNanos);
+  }
+
+  private void gone(Entry e, long seenNanos){
+    e.state = null;
+    e.changedMillis = System.currentTimeMillis();
+    markPending(e, seenNanos);
+  }
+
+  private void markPending(Entry e, long seenNanos){
+    if(Objects.equals(e.state, e.exchanged)){
+      unpend(e);
+      return;
+    }
+    if(e.pendingNanos == 0) e.pendingNanos = seenNanos;
+    pending.put(e.key, e);
+    scheduleTick();
+  }
+
+  private void unpend(Entry e){
+    pending.remove(e.key);
+    e.pendingNanos = 0;
+  }
+
+  private void scheduleTick(){
+    if(tick == null || tick.isDone()) tick = exec.schedule(this::tick, BATCH_WINDOW_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /** Settles dirty URLs and hands one batch to the subscriber. */
+  private void tick(){
+    tick = null;
+    CefCookieManager m = manager.get();
+    if(m != null && enabled){
+      for(Iterator<Map.Entry<String, String>> it = dirty.entrySet().iterator(); it.hasNext();){
+        Map.Entry<String, String> d = it.next();
+        if(!visiting.add(d.getKey())) continue; // visited again once the running visit is back
+        it.remove();
+        String scope = d.getKey();
+        String url = d.getValue();
+        long gen = generation;
+        long seen = System.nanoTime();
+        visit(m, url, (cookies, complete) -> {
+          if(gen != generation) return;
+          visiting.remove(scope);
+          settle(url, cookies, complete, seen);
+          if(dirty.containsKey(scope)) scheduleTick();
+        });
+      }
+    }
+    Consumer<List<Map<String, Object>>> s = subscriber;
+    if(s == null || held != null || pending.isEmpty()) return;
+
+    List<Map<String, Object>> batch = new ArrayList<>(Math.min(pending.size(), MAX_BATCH));
+    long now = System.nanoTime();
+    for(Iterator<Entry> it = pending.values().iterator(); it.hasNext() && batch.size() < MAX_BATCH;){
+      Entry e = it.next();
+      it.remove();
+      batch.add(changeOf(e));
+      e.exchanged = e.state;
+      latency.record(TimeUnit.NANOSECONDS.toMillis(now - e.pendingNanos));
+      e.pendingNanos = 0;
+    }
+    try{
+      s.accept(Collections.unmodifiableList(batch));
+    }catch(Throwable t){
+      failures.increment();
+    }
+    toBurp.add(batch.size());
+    batches.increment();
+    if(batch.size() > maxBatch) maxBatch = batch.size();
+    if(!pending.isEmpty()) scheduleTick();
+  }
+
+  /** Cookies of url after a visit; a complete visit also tells which known ones are gone. */
+  private void settle(String url, List<CefCookie> cookies, boolean complete, long seenNanos){
+    Set<String> present = new HashSet<>();
+    for(CefCookie c : cookies){
+      observe(c, System.currentTimeMillis(), seenNanos);
+      present.add(keyOf(c.domain, c.path == null || c.path.isEmpty() ? "/" : c.path, c.name));
+    }
+    if(!complete) return;
+    URI u;
+    try{
+      u = URI.create(url);
+    }catch(IllegalArgumentException ex){
+      return;
+    }
+    List<Entry> missing = new ArrayList<>();
+    for(Entry e : known.values()){
+      if(e.state != null && !present.contains(e.key) && matches(e, u)) missing.add(e);
+    }
+    for(Entry e : missing) gone(e, seenNanos);
+  }
+
+  private int applyNow(List<Map<String, Object>> changes){
+    CefCookieManager m = manager.get();
+    if(m == null || changes == null || !enabled) return 0;
+    int applied = 0;
+    long now = System.currentTimeMillis();
+    for(Map<String, Object> c : changes){
+      String name = string(c.get(NAME));
+      String domain = string(c.get(DOMAIN));
+      if(name == null || domain == null || domain.isEmpty()) continue;
+      String path = string(c.get(PATH));
+      if(path == null || path.isEmpty()) path = "/";
+      boolean deleted = Boolean.TRUE.equals(c.get(DELETED));
+      String value = deleted ? null : Objects.toString(c.get(VALUE), "");
+      long expires = c.get(EXPIRES) instanceof Number n ? n.longValue() : 0;
+      long time = c.get(TIME) instanceof Number t ? t.longValue() : now;
+      String state = deleted || (expires != 0 && expires <= now) ? null : stateOf(value, expires);
+      String key = keyOf(domain, path, name);
+      Entry e = known.get(key);
+
+      if(e != null && Objects.equals(e.state, state)){
+        e.exchanged = state; // both sides agree
+        unpend(e);
+        continue;
+      }
+      if(e == null && state == null) continue; // deleting what the browser does not have
+      if(e != null && pending.containsKey(key)){
+        conflicts.increment();
+        Rule r = rule;
+        boolean burpWins = r == Rule.BURP || (r == Rule.NEWEST && time > e.changedMillis);
+        if(!burpWins){
+          browserWon.increment();
+          continue; // the browser's change goes out with the next batch
+        }
+      }
+      if(e == null){
+        e = new Entry(key, name, path);
+        e.domain = domain;
+        e.secure = Boolean.TRUE.equals(c.get(SECURE));
+        e.httpOnly = Boolean.TRUE.equals(c.get(HTTP_ONLY));
+        known.put(key, e);
+      }else{
+        if(c.get(SECURE) instanceof Boolean s) e.secure = s;
+        if(c.get(HTTP_ONLY) instanceof Boolean h) e.httpOnly = h;
+      }
+      String host = e.domain.startsWith(".") ? e.domain.substring(1) : e.domain;
+      String url = (e.secure ? "https://" : "http://") + host + path;
+      boolean ok;
+      if(state == null){
+        ok = m.deleteCookies(url, name);
+      }else{
+        Date created = new Date(now);
+        // An empty domain makes a host-only cookie; a dotted one covers subdomains
+        ok = m.setCookie(url, new CefCookie(name, value, e.domain.startsWith(".") ? e.domain : "", path, e.secure, e.httpOnly,
+          created, created, expires != 0, expires != 0 ? new Date(expires) : null));
+      }
+      if(!ok){
+        failures.increment();
+        continue;
+      }
+      e.state = state;
+      e.value = value;
+      e.expires = expires;
+      e.exchanged = state;
+      e.changedMillis = time;
+      unpend(e);
+      toBrowser.increment();
+      applied++;
+    }
+    return applied;
+  }
+
+  private static Map<String, Object> changeOf(Entry e){
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put(NAME, e.name);
+    m.put(VALUE, e.state == null ? "" : e.value);
+    m.put(DOMAIN, e.domain);
+    m.put(PATH, e.path);
+    m.put(EXPIRES, e.expires == 0 ? null : e.expires);
+    m.put(SECURE, e.secure);
+    m.put(HTTP_ONLY, e.httpOnly);
+    m.put(DELETED, e.state == null);
+    m.put(TIME, e.changedMillis);
+    return Collections.unmodifiableMap(m);
+  }
+
+  /** Host-only and domain cookies of the same name and path share a key. */
+  static String keyOf(String domain, String path, String name){
+    String d = domain == null ? "" : domain.startsWith(".") ? domain.substring(1) : domain;
+    return d.toLowerCase(Locale.ROOT) + '\t' + path + '\t' + name;
+  }
+
+  /** Value and expiry, to the second (Burp's cookie jar keeps no more). */
+  private static String stateOf(String value, long expires){
+    return expires / 1000 + ":" + (value == null ? "" : value);
+  }
+
+  /** Host plus directory of url: URLs sharing it see the same cookies but for deeper paths. */
+  static String scopeOf(String url){
+    try{
+      URI u = URI.create(url);
+      String host = u.getHost();
+      if(host == null || u.getScheme() == null) return null;
+      String path = u.getRawPath() == null || u.getRawPath().isEmpty() ? "/" : u.getRawPath();
+      return u.getScheme().toLowerCase(Locale.ROOT) + "://" + host.toLowerCase(Locale.ROOT) + path.substring(0, path.lastIndexOf('/') + 1);
+    }catch(IllegalArgumentException e){
+      return null;
+    }
+  }
+
+  /** Whether the browser would send e with a request to u (RFC 6265 domain and path match). */
+  static boolean matches(String domain, String cookiePath, boolean secure, URI u){
+    String host = u.getHost();
+    if(host == null || domain == null) return false;
+    host = host.toLowerCase(Locale.ROOT);
+    boolean dotted = domain.startsWith(".");
+    String d = (dotted ? domain.substring(1) : domain).toLowerCase(Locale.ROOT);
+    if(!host.equals(d) && !(dotted && host.endsWith("." + d))) return false;
+    if(secure && !"https".equalsIgnoreCase(u.getScheme())) return false;
+    String p = u.getRawPath() == null || u.getRawPath().isEmpty() ? "/" : u.getRawPath();
+    if(!p.startsWith(cookiePath)) return false;
+    return p.length() == cookiePath.length() || cookiePath.endsWith("/") || p.charAt(cookiePath.length()) == '/';
+  }
+
+  private static boolean matches(Entry e, URI u){
+    return matches(e.domain, e.path, e.secure, u);
+  }
+
+  private static long creationOf(CefCookie c){
+    return c.creation == null ? 0 : c.creation.getTime();
+  }
+
+  private static List<CefCookie> snapshot(List<CefCookie> found){
+    synchronized(found){
+      return new ArrayList<>(found);
+    }
+  }
+
+  private static String string(Object o){
+    return o instanceof String s ? s : null;
+  }
+
+  //-----------------------------------------------------------------------------
+  /** Passes everything to the delegate (may be null) and adds the cookie access filter. */
+  private final class Watch extends CefResourceRequestHandlerAdapter {
+    private final CefResourceRequestHandler delegate;
+
+    Watch(CefResourceRequestHandler delegate){
+      this.delegate = delegate;
+    }
+
+    @Override
+    public CefCookieAccessFilter getCookieAccessFilter(CefBrowser b, CefFrame f, CefRequest r){
+      return filter;
+    }
+
+    @Override
+    public boolean onBeforeResourceLoad(CefBrowser b, CefFrame f, CefRequest r){
+      return delegate != null && delegate.onBeforeResourceLoad(b, f, r);
+    }
+
+    @Override
+    public CefResourceHandler getResourceHandler(CefBrowser b, CefFrame f, CefRequest r){
+      return delegate == null ? null : delegate.getResourceHandler(b, f, r);
+    }
+
+    @Override
+    public void onResourceRedirect(CefBrowser b, CefFrame f, CefRequest r, CefResponse response, StringRef newUrl){
+      if(delegate != null) delegate.onResourceRedirect(b, f, r, response, newUrl);
+    }
+
+    @Override
+    public boolean onResourceResponse(CefBrowser b, CefFrame f, CefRequest r, CefResponse response){
+      return delegate != null && delegate.onResourceResponse(b, f, r, response);
+    }
+
+    @Override
+    public void onResourceLoadComplete(CefBrowser b, CefFrame f, CefRequest r, CefResponse response,
+        CefURLRequest.Status status, long receivedContentLength){
+      if(delegate != null) delegate.onResourceLoadComplete(b, f, r, response, status, receivedContentLength);
+    }
+
+    @Override
+    public void onProtocolExecution(CefBrowser b, CefFrame f, CefRequest r, BoolRef allowOsExecution){
+      if(delegate != null) delegate.onProtocolExecution(b, f, r, allowOsExecution);
+    }
+  }
+}
@@ -0,0 +1,584 @@
+package com.jSoft.burp.browserhost;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Append-only audit trail of what the browsers did: address changes,
+ * navigation decisions, loading state and titles, every one of them (the
+ * event pipeline coalesces, the journal does not).
+ *
+ * Events are written in binary straight into a memory-mapped segment file,
+ * encoding strings char by char, so recording allocates nothing and costs a
+ * lock and a few dozen stores on the CEF thread. A segment is rolled when the
+ * next record might not fit; the next file is created and mapped ahead of
+ * time on the journal thread, which also flushes full segments to disk and
+ * deletes the oldest ones beyond the size limit. Until then the OS writes
+ * pages back on its own, so a crash of Burp loses nothing, a crash of the
+ * machine may lose the last seconds.
+ *
+ * Times are epoch millis, never decreasing within a journal (a clock set back
+ * holds time still), so a time range is found from the segment headers: each
+ * keeps its first and last time and up to 60 checkpoints (time, offset) at
+ * even spacing, which the reader binary-searches before scanning forward.
+ *
+ * Segment layout (little-endian): a 1 KiB header (magic, version, sequence,
+ * first time, last time, end offset, checkpoint count, checkpoints), then
+ * records of
+ *
+ *   int length, byte type, byte flags, short browser bytes, long time,
+ *   int url bytes, int text bytes, browser, url and text in UTF-8, padding to 8
+ *
+ * The length is written last, so a torn record reads as the end of data.
+ * Reading back yields the maps of the event pipeline (type, browser, time,
+ * url, title, allowed, redirect, loading, canGoBack, canGoForward).
+ */
+final class EventJournal {
+  static final String DIR_PROPERTY         = "embeddedBrowser.journalDir";
+  static final int    DEFAULT_SEGMENT_BYTES = 16 << 20;
+  static final long   DEFAULT_MAX_BYTES     = 256L << 20;
+  static final int    MAX_ID_CHARS   = 256;
+  static final int    MAX_TEXT_CHARS = 4096; // longer URLs and titles are cut
+
+  static final byte ADDRESS    = 1;
+  static final byte TITLE      = 2;
+  static final byte NAV_STATE  = 3;
+  static final byte NAVIGATION = 4;
+
+  private static final int    MAGIC       = 0x314a4242; // "BBJ1"
+  private static final int    VERSION     = 1;
+  private static final int    HEADER      = 1024;
+  private static final int    CHECKPOINTS = 60;
+  private static final int    RECORD      = 24;         // fixed part of a record
+  private static final String SUFFIX      = ".journal";
+
+  // Header offsets
+  private static final int H_MAGIC = 0, H_VERSION = 4, H_SEQ = 8, H_FIRST = 16, H_LAST = 24, H_END = 32, H_COUNT = 36,
+    H_CHECKPOINTS = 64;
+
+  /** One segment file; the writable buffer of the active one, a read-only one mapped on demand otherwise. */
+  private static final class Segment {
+    final long seq;
+    final Path path;
+    MappedByteBuffer buf;     // guarded by the journal, published through end
+    volatile int  end = HEADER;
+    volatile long firstTime;  // 0 = empty
+    volatile long lastTime;
+    int  checkpoints;         // writer only
+    int  nextCheckpoint;      // data offset of the next checkpoint; writer only
+
+    Segment(long seq, Path path){
+      this.seq = seq;
+      this.path = path;
+    }
+  }
+
+  private final ExecutorService worker = Executors.newSingleThreadExecutor(r ->
+    Thread.ofPlatform().daemon().name("jcef-journal").unstarted(r));
+  private final List<Segment> segments = new ArrayList<>(); // guarded by this, oldest first
+  private Path    dir;          // guarded by this; null = closed
+  private Segment active;       // guarded by this
+  private Segment spare;        // guarded by this; mapped ahead by the worker
+  private boolean spareQueued;  // guarded by this
+  private long    nextSeq;      // guarded by this; never reused, so a late spare cannot clash with a roll
+  private long    lastTime;     // guarded by this
+  private int     segmentBytes = DEFAULT_SEGMENT_BYTES;
+  private int     checkpointSpacing;
+  private volatile long   maxBytes = DEFAULT_MAX_BYTES;
+  private volatile String failure;
+
+  final LongAdder recorded = new LongAdder();
+  final LongAdder dropped  = new LongAdder(); // while failed
+  final LongAdder rolls    = new LongAdder();
+  final LongAdder deleted  = new LongAdder();
+
+  /**
+   * Opens the journal in dir, continuing the newest segment found there.
+   * Segments are segmentBytes long (at least 64 KiB); the oldest are deleted
+   * once all of them take more than maxBytes.
+   */
+  synchronized void open(Path dir, int segmentBytes, long maxBytes) throws IOException{
+    close();
+    Files.createDirectories(dir);
+    this.segmentBytes = Math.max(64 << 10, segmentBytes);
+    this.checkpointSpacing = (this.segmentBytes - HEADER) / CHECKPOINTS;
+    this.maxBytes = maxBytes;
+    List<Segment> found = new ArrayList<>();
+    try(DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)){
+      for(Path p : files){
+        String name = p.getFileName().toString();
+        try{
+          found.add(new Segment(Long.parseUnsignedLong(name.substring(0, name.length() - SUFFIX.length()), 16), p));
+        }catch(NumberFormatException ignored){
+          // not ours
+        }
+      }
+    }
+    found.sort((a, b) -> Long.compareUnsigned(a.seq, b.seq));
+    for(Segment s : found){
+      if(readHeader(s)) segments.add(s);
+    }
+    this.dir = dir;
+    failure = null;
+    Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    nextSeq = last == null ? 1 : last.seq + 1;
+    if(last != null && Files.size(last.path) == this.segmentBytes){
+      resume(last);
+    }else{
+      activate(create(dir, nextSeq++, this.segmentBytes));
+    }
+    prepareSpare();
+  }
+
+  synchronized boolean isOpen(){
+    return dir != null;
+  }
+
+  /** Flushes and closes the journal; recording is a no-op afterwards. */
+  synchronized void close(){
+    if(dir == null) return;
+    try{
+      if(active != null) active.buf.force();
+    }catch(Throwable ignored){
+      // best effort
+    }
+    if(spare != null){
+      try{ Files.deleteIfExists(spare.path); }catch(IOException ignored){}
+    }
+    segments.clear();
+    active = null;
+    spare = null;
+    dir = null;
+  }
+
+  //-----------------------------------------------------------------------------
+  // Recording (CEF threads). Never throws, never allocates.
+
+  void address(String browser, String url){
+    append(ADDRESS, 0, browser, url, null);
+  }
+
+  void title(String browser, String title){
+    append(TITLE, 0, browser, null, title);
+  }
+
+  void navigation(String browser, String url, boolean allowed, boolean redirect){
+    append(NAVIGATION, (allowed ? 1 : 0) | (redirect ? 2 : 0), browser, url, null);
+  }
+
+  void navState(String browser, boolean loading, boolean canGoBack, boolean canGoForward){
+    append(NAV_STATE, (loading ? 1 : 0) | (canGoBack ? 2 : 0) | (canGoForward ? 4 : 0), browser, null, null);
+  }
+
+  private synchronized void append(byte type, int flags, String browser, String a, String b){
+    Segment s = active;
+    if(s == null){
+      if(dir != null) dropped.increment();
+      return;
+    }
+    int idChars = chars(browser, MAX_ID_CHARS);
+    int aChars = chars(a, MAX_TEXT_CHARS);
+    int bChars = chars(b, MAX_TEXT_CHARS);
+    int pos = s.end;
+    if(pos + RECORD + 3 * (idChars + aChars + bChars) + 7 > segmentBytes){
+      s = roll();
+      if(s == null){
+        dropped.increment();
+        return;
+      }
+      pos = s.end;
+    }
+    MappedByteBuffer buf = s.buf;
+    long now = System.currentTimeMillis();
+    long time = now > lastTime ? now : lastTime;
+    lastTime = time;
+
+    int idBytes = encode(buf, pos + RECORD, browser, idChars);
+    int aBytes = encode(buf, pos + RECORD + idBytes, a, aChars);
+    int bBytes = encode(buf, pos + RECORD + idBytes + aBytes, b, bChars);
+    int length = (RECORD + idBytes + aBytes + bBytes + 7) & ~7;
+    buf.put(pos + 4, type);
+    buf.put(pos + 5, (byte)flags);
+    buf.putShort(pos + 6, (short)idBytes);
+    buf.putLong(pos + 8, time);
+    buf.putInt(pos + 16, aBytes);
+    buf.putInt(pos + 20, bBytes);
+    buf.putInt(pos, length);
+
+    if(s.firstTime == 0){
+      s.firstTime = time;
+      buf.putLong(H_FIRST, time);
+    }
+    if(pos - HEADER >= s.nextCheckpoint && s.checkpoints < CHECKPOINTS){
+      int c = H_CHECKPOINTS + 16 * s.checkpoints;
+      buf.putLong(c, time);
+      buf.putLong(c + 8, pos);
+      buf.putInt(H_COUNT, ++s.checkpoints);
+      s.nextCheckpoint = s.checkpoints * checkpointSpacing;
+    }
+    buf.putLong(H_LAST, time);
+    buf.putInt(H_END, pos + length);
+    s.lastTime = time;
+    s.end = pos + length; // publishes the record to readers
+    recorded.increment();
+  }
+
+  /** Switches to the next segment; null when the journal failed. Caller holds the lock. */
+  private Segment roll(){
+    Segment full = active;
+    Segment next = spare;
+    spare = null;
+    try{
+      if(next == null) next = create(dir, nextSeq++, segmentBytes);
+    }catch(IOException | UncheckedIOException e){
+      fail(e);
+      return null;
+    }
+    activate(next);
+    rolls.increment();
+    MappedByteBuffer written = full.buf;
+    try{
+      worker.execute(() -> {
+        try{ written.force(); }catch(Throwable ignored){}
+      });
+    }catch(RejectedExecutionException ignored){
+      // shutting down
+    }
+    prepareSpare();
+    return next;
+  }
+
+  private void activate(Segment s){
+    s.checkpoints = 0;
+    s.nextCheckpoint = 0;
+    segments.add(s);
+    active = s;
+  }
+
+  /** Continues a segment left by an earlier run, after its last complete record. */
+  private void resume(Segment s) throws IOException{
+    try(FileChannel ch = FileChannel.open(s.path, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+      s.buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+    }
+    s.buf.order(ByteOrder.LITTLE_ENDIAN);
+    int pos = s.end;
+    long t = s.lastTime;
+    int len;
+    while(pos + RECORD <= segmentBytes && (len = s.buf.getInt(pos)) >= RECORD && (len & 7) == 0 && pos + len <= segmentBytes){
+      t = s.buf.getLong(pos + 8);
+      pos += len; // written after the header was last updated
+    }
+    if(pos + 4 <= segmentBytes) s.buf.putInt(pos, 0);
+    s.end = pos;
+    s.lastTime = t;
+    s.buf.putInt(H_END, pos);
+    s.buf.putLong(H_LAST, t);
+    s.checkpoints = s.buf.getInt(H_COUNT);
+    s.nextCheckpoint = s.checkpoints * checkpointSpacing;
+    lastTime = Math.max(lastTime, t);
+    active = s;
+  }
+
+  /** Maps the next segment and trims old ones, on the worker. Caller holds the lock. */
+  private void prepareSpare(){
+    if(spareQueued || active == null) return;
+    spareQueued = true;
+    final Path d = dir;
+    final long seq = nextSeq++;
+    final int bytes = segmentBytes;
+    try{
+      worker.execute(() -> {
+        Segment s = null;
+        try{
+          s = create(d, seq, bytes);
+        }catch(IOException | UncheckedIOException e){
+          // roll creates one inline
+        }
+        synchronized(this){
+          spareQueued = false;
+          if(s != null && dir == d && active != null && s.seq > active.seq){
+            spare = s;
+          }else if(s != null){
+            try{ Files.deleteIfExists(s.path); }catch(IOException ignored){} // closed, or rolled past it
+          }
+          if(dir == d) trim();
+        }
+      });
+    }catch(RejectedExecutionException e){
+      spareQueued = false;
+    }
+  }
+
+  /** Creates and maps segment seq in d with an empty header. */
+  private static Segment create(Path d, long seq, int bytes) throws IOException{
+    Segment s = new Segment(seq, d.resolve(String.format("%016x", seq) + SUFFIX));
+    try(FileChannel ch = FileChannel.open(s.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)){
+      s.buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+    }
+    s.buf.order(ByteOrder.LITTLE_ENDIAN);
+    s.buf.putInt(H_MAGIC, MAGIC);
+    s.buf.putInt(H_VERSION, VERSION);
+    s.buf.putLong(H_SEQ, seq);
+    s.buf.putInt(H_END, HEADER);
+    return s;
+  }
+
+  /** Deletes the oldest segments beyond maxBytes; the active one stays. Caller holds the lock. */
+  private void trim(){
+    long total = (long)segments.size() * segmentBytes;
+    while(total > maxBytes && segments.size() > 1){
+      Segment oldest = segments.get(0);
+      try{
+        Files.deleteIfExists(oldest.path);
+      }catch(IOException e){
+        break; // still mapped by a reader on some platforms; next roll tries again
+      }
+      segments.remove(0);
+      oldest.buf = null;
+      total -= segmentBytes;
+      deleted.increment();
+    }
+  }
+
+  private void fail(Exception e){
+    failure = String.valueOf(e);
+    active = null;
+  }
+
+  //-----------------------------------------------------------------------------
+  // Reading (any thread)
+
+  /**
+   * Calls sink with every event between fromMillis and toMillis (inclusive),
+   * oldest first, until it returns false. Returns the number of events read.
+   */
+  long replay(long fromMillis, long toMillis, Predicate<Map<String, Object>> sink){
+    List<Segment> snapshot;
+    synchronized(this){
+      snapshot = new ArrayList<>(segments);
+    }
+    long n = 0;
+    for(Segment s : snapshot){
+      int end = s.end; // before reading the buffer
+      if(s.firstTime == 0 || s.lastTime < fromMillis) continue;
+      if(s.firstTime > toMillis) break;
+      MappedByteBuffer buf;
+      try{
+        buf = map(s);
+      }catch(IOException e){
+        continue; // deleted meanwhile
+      }
+      int pos = start(buf, fromMillis);
+      int len;
+      while(pos + RECORD <= end && (len = buf.getInt(pos)) >= RECORD && pos + len <= end){
+        long time = buf.getLong(pos + 8);
+        if(time > toMillis) return n;
+        if(time >= fromMillis){
+          n++;
+          if(!sink.test(decode(buf, pos, time))) return n;
+        }
+        pos += len;
+      }
+    }
+    return n;
+  }
+
+  /** Up to limit events between fromMillis and toMillis, oldest first. */
+  List<Map<String, Object>> query(long fromMillis, long toMillis, int limit){
+    List<Map<String, Object>> out = new ArrayList<>();
+    if(limit <= 0) return out;
+    replay(fromMillis, toMillis, e -> {
+      out.add(e);
+      return out.size() < limit;
+    });
+    return out;
+  }
+
+  /** The first record offset that may lie at or after fromMillis: the last checkpoint before it. */
+  private static int start(MappedByteBuffer buf, long fromMillis){
+    int lo = 0, hi = buf.getInt(H_COUNT) - 1, found = -1;
+    while(lo <= hi){
+      int mid = (lo + hi) >>> 1;
+      if(buf.getLong(H_CHECKPOINTS + 16 * mid) < fromMillis){
+        found = mid;
+        lo = mid + 1;
+      }else{
+        hi = mid - 1;
+      }
+    }
+    return found < 0 ? HEADER : (int)buf.getLong(H_CHECKPOINTS + 16 * found + 8);
+  }
+
+  private static Map<String, Object> decode(MappedByteBuffer buf, int pos, long time){
+    int type = buf.get(pos + 4);
+    int flags = buf.get(pos + 5);
+    int idBytes = buf.getShort(pos + 6) & 0xffff;
+    int aBytes = buf.getInt(pos + 16);
+    int bBytes = buf.getInt(pos + 20);
+    String browser = string(buf, pos + RECORD, idBytes);
+    String a = string(buf, pos + RECORD + idBytes, aBytes);
+    String b = string(buf, pos + RECORD + idBytes + aBytes, bBytes);
+    Map<String, Object> m = new HashMap<>(8);
+    if(browser != null) m.put(EventPipeline.BROWSER, browser);
+    m.put(EventPipeline.TIME, time);
+    switch(type){
+      case ADDRESS:
+        m.put(EventPipeline.TYPE, EventPipeline.TYPE_ADDRESS);
+        if(a != null) m.put(EventPipeline.URL, a);
+        break;
+      case TITLE:
+        m.put(EventPipeline.TYPE, EventPipeline.TYPE_TITLE);
+        if(b != null) m.put(EventPipeline.TITLE, b);
+        break;
+      case NAVIGATION:
+        m.put(EventPipeline.TYPE, EventPipeline.TYPE_NAVIGATION);
+        if(a != null) m.put(EventPipeline.URL, a);
+        m.put(EventPipeline.ALLOWED, (flags & 1) != 0);
+        m.put(EventPipeline.REDIRECT, (flags & 2) != 0);
+        break;
+      case NAV_STATE:
+        m.put(EventPipeline.TYPE, EventPipeline.TYPE_NAV);
+        m.put(EventPipeline.LOADING, (flags & 1) != 0);
+        m.put(EventPipeline.CAN_GO_BACK, (flags & 2) != 0);
+        m.put(EventPipeline.CAN_GO_FORWARD, (flags & 4) != 0);
+        break;
+      default:
+        m.put(EventPipeline.TYPE, "unknown");
+        break;
+    }
+    return Collections.unmodifiableMap(m);
+  }
+
+  private static String string(MappedByteBuffer buf, int pos, int bytes){
+    if(bytes == 0) return null;
+    byte[] b = new byte[bytes];
+    buf.get(pos, b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  /** The segment's buffer, mapping it read-only if it is from an earlier run. */
+  private MappedByteBuffer map(Segment s) throws IOException{
+    synchronized(this){
+      if(s.buf != null) return s.buf;
+    }
+    MappedByteBuffer b;
+    try(FileChannel ch = FileChannel.open(s.path, StandardOpenOption.READ)){
+      b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()); // outside the lock, recording goes on
+    }
+    b.order(ByteOrder.LITTLE_ENDIAN);
+    synchronized(this){
+      if(s.buf == null) s.buf = b;
+      return s.buf;
+    }
+  }
+
+  /** Reads the header of a segment of an earlier run; false if it is not a journal segment. */
+  private boolean readHeader(Segment s){
+    try(FileChannel ch = FileChannel.open(s.path, StandardOpenOption.READ)){
+      if(ch.size() < HEADER) return false;
+      ByteBuffer h = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+      ch.read(h, 0);
+      if(h.getInt(H_MAGIC) != MAGIC || h.getInt(H_VERSION) != VERSION) return false;
+      s.firstTime = h.getLong(H_FIRST);
+      s.lastTime = h.getLong(H_LAST);
+      s.end = Math.max(HEADER, (int)Math.min(h.getInt(H_END), ch.size()));
+      lastTime = Math.max(lastTime, s.lastTime);
+      return true;
+    }catch(IOException e){
+      return false;
+    }
+  }
+
+  //-----------------------------------------------------------------------------
+  /** Characters of s that are recorded: at most max, never ending inside a surrogate pair. */
+  private static int chars(String s, int max){
+    if(s == null) return 0;
+    int n = Math.min(s.length(), max);
+    if(n > 0 && n < s.length() && Character.isHighSurrogate(s.charAt(n - 1))) n--;
+    return n;
+  }
+
+  /** Writes the first n chars of s as UTF-8 at pos; returns the byte count. */
+  private static int encode(MappedByteBuffer buf, int pos, String s, int n){
+    int p = pos;
+    for(int i = 0; i < n; i++){
+      char c = s.charAt(i);
+      if(c < 0x80){
+        buf.put(p++, (byte)c);
+      }else if(c < 0x800){
+        buf.put(p++, (byte)(0xc0 | c >> 6));
+        buf.put(p++, (byte)(0x80 | c & 0x3f));
+      }else if(Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))){
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        buf.put(p++, (byte)(0xf0 | cp >> 18));
+        buf.put(p++, (byte)(0x80 | cp >> 12 & 0x3f));
+        buf.put(p++, (byte)(0x80 | cp >> 6 & 0x3f));
+        buf.put(p++, (byte)(0x80 | cp & 0x3f));
+      }else if(Character.isSurrogate(c)){
+        buf.put(p++, (byte)'?');
+      }else{
+        buf.put(p++, (byte)(0xe0 | c >> 12));
+        buf.put(p++, (byte)(0x80 | c >> 6 & 0x3f));
+        buf.put(p++, (byte)(0x80 | c & 0x3f));
+      }
+    }
+    return p - pos;
+  }
+
+  //-----------------------------------------------------------------------------
+  /** Counters: open (0/1), recorded, dropped, rolls, deleted, segments, bytes. */
+  Map<String, Long> stats(){
+    Map<String, Long> m = new LinkedHashMap<>();
+    synchronized(this){
+      m.put("open", dir != null ? 1L : 0L);
+      m.put("segments", (long)segments.size());
+      m.put("bytes", segments.isEmpty() ? 0L : (long)(segments.size() - 1) * segmentBytes + (active == null ? 0 : active.end));
+    }
+    m.put("recorded", recorded.sum());
+    m.put("dropped", dropped.sum());
+    m.put("rolls", rolls.sum());
+    m.put("deleted", deleted.sum());
+    return Collections.unmodifiableMap(m);
+  }
+
+  String diagnostics(){
+    Path d;
+    int n;
+    synchronized(this){
+      d = dir;
+      n = segments.size();
+    }
+    String f = failure;
+    if(d == null) return "Journal: off\n";
+    return "Journal: " + d + " segments=" + n + " recorded=" + recorded.sum() + " dropped=" + dropped.sum()
+      + " rolls=" + rolls.sum() + " deleted=" + deleted.sum() + (f == null ? "" : " failed: " + f) + "\n";
+  }
+
+  /** ~/.burp-embedded-browser/journal unless overridden by the system property. */
+  static Path defaultDirectory(){
+    String configured = System.getProperty(DIR_PROPERTY);
+    if(configured != null && !configured.isBlank()) return Path.of(configured);
+    return Path.of(System.getProperty("user.home"), ".burp-embedded-browser", "journal");
+  }
+}
@@ -0,0 +1,393 @@
+package com.jSoft.burp.browserhost;
+
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Typed event pipeline from the CEF handler threads to subscribers.
+ *
+ * Producers append to a bounded lock-free ring (dropping when full) or, for
+ * navigation state, overwrite the latest snapshot of their browser so bursts
+ * of onLoadingStateChange collapse into one event. A single dispatcher thread
+ * drains both once per batch interval, merges them in the order they were
+ * published (a collapsed nav state takes the place of its latest update),
+ * and hands each subscriber one batch:
+ * background subscribers on the dispatcher thread, Swing subscribers in one
+ * shared EDT runnable that is never queued twice.
+ *
+ * Batches cross the classloader boundary as List&lt;Map&lt;String,Object&gt;&gt;
+ * using the key constants below.
+ */
+final class EventPipeline {
+  static final String TYPE          = "type";
+  static final String BROWSER       = "browser";
+  static final String TIME          = "time";      // epoch millis
+  static final String URL           = "url";
+  static final String TITLE         = "title";
+  static final String LOADING       = "loading";
+  static final String CAN_GO_BACK   = "canGoBack";
+  static final String CAN_GO_FORWARD= "canGoForward";
+  static final String MESSAGE       = "message";
+  static final String ALLOWED       = "allowed";
+  static final String REDIRECT      = "redirect";
+  static final String SOURCE        = "source";
+  static final String SEVERE        = "severe";    // console warning or error
+
+  static final String TYPE_ADDRESS  = "address";
+  static final String TYPE_TITLE    = "title";
+  static final String TYPE_NAV      = "navState";
+  static final String TYPE_LOG      = "log";
+  static final String TYPE_NAVIGATION = "navigation"; // onBeforeBrowse decision
+  static final String TYPE_CONSOLE  = "console";
+
+  static final int DEFAULT_INTERVAL_MILLIS = 16;
+  static final int DEFAULT_CAPACITY        = 4096;
+
+  private static final Comparator<Event> BY_TIME = Comparator.comparingLong(ev -> ev.nanos);
+
+  private final Ring ring;
+  private final Map<String, Event> latestNav = new ConcurrentHashMap<>();
+  private final Set<String>        dirtyNav  = ConcurrentHashMap.newKeySet();
+  private final List<Subscriber>   subscribers = new CopyOnWriteArrayList<>();
+
+  private final AtomicBoolean pending    = new AtomicBoolean();
+  private final AtomicBoolean edtQueued  = new AtomicBoolean();
+  private final Object        edtLock    = new Object();
+  private List<Map<String, Object>> edtBatch = new ArrayList<>(); // guarded by edtLock
+
+  private volatile long   intervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INTERVAL_MILLIS);
+  private volatile Thread dispatcher;
+
+  private final LongAdder  published  = new LongAdder();
+  private final LongAdder  coalesced  = new LongAdder();
+  private final LongAdder  dropped    = new LongAdder();
+  private final LongAdder  batches    = new LongAdder();
+  private final LongAdder  edtBatches = new LongAdder();
+  private final LongAdder  failures   = new LongAdder();
+  private final AtomicLong maxLagNanos  = new AtomicLong();
+  private volatile long    lastLagNanos;
+
+  EventPipeline(){
+    this(DEFAULT_CAPACITY);
+  }
+
+  EventPipeline(int capacity){
+    this.ring = new Ring(capacity);
+  }
+
+  //-----------------------------------------------------------------------------
+  // Producers (CEF threads)
+
+  void address(String browser, String url){
+    offer(new Event(TYPE_ADDRESS, browser, url, null, false, false, false));
+  }
+
+  void title(String browser, String title){
+    offer(new Event(TYPE_TITLE, browser, null, title, false, false, false));
+  }
+
+  void log(String browser, String message){
+    offer(new Event(TYPE_LOG, browser, null, message, false, false, false));
+  }
+
+  /** Page console message; source is "url:line", the first flag marks warnings and errors. */
+  void console(String browser, String message, String source, boolean severe){
+    offer(new Event(TYPE_CONSOLE, browser, source, message, severe, false, false));
+  }
+
+  /** Navigation decision; flags reuse the nav-state slots (allowed, redirect). */
+  void navigation(String browser, String url, boolean allowed, boolean redirect){
+    offer(new Event(TYPE_NAVIGATION, browser, url, null, allowed, redirect, false));
+  }
+
+  /** Drops the navigation state kept for browser; call when its id is closed or reused. */
+  void forget(String browser){
+    String key = browser == null ? "" : browser;
+    dirtyNav.remove(key);
+    latestNav.remove(key);
+  }
+
+  /** Replaces the pending navigation state of browser; only the latest one is delivered. */
+  void navState(String browser, boolean loading, boolean canGoBack, boolean canGoForward){
+    published.increment();
+    String key = browser == null ? "" : browser;
+    latestNav.put(key, new Event(TYPE_NAV, browser, null, null, loading, canGoBack, canGoForward));
+    if(!dirtyNav.add(key)) coalesced.increment(); // an undelivered state was overwritten
+    signal();
+  }
+
+  private void offer(Event e){
+    published.increment();
+    if(!ring.offer(e)){
+      dropped.increment();
+      return;
+    }
+    signal();
+  }
+
+  //-----------------------------------------------------------------------------
+  // Subscribers
+
+  /** Adds a subscriber; returns a Runnable that removes it. */
+  Runnable subscribe(Consumer<List<Map<String, Object>>> consumer, boolean onEdt){
+    if(consumer == null) throw new IllegalArgumentException("consumer == null");
+    Subscriber s = new Subscriber(consumer, onEdt);
+    subscribers.add(s);
+    ensureDispatcher();
+    return () -> subscribers.remove(s);
+  }
+
+  void setIntervalMillis(int millis){
+    intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, millis));
+  }
+
+  int subscriberCount(){
+    return subscribers.size();
+  }
+
+  String diagnostics(){
+    return "Events: published=" + published.sum()
+      + " coalesced=" + coalesced.sum()
+      + " dropped=" + dropped.sum()
+      + " batches=" + batches.sum()
+      + " edtBatches=" + edtBatches.sum()
+      + " subscriberFailures=" + failures.sum()
+      + " subscribers=" + subscribers.size()
+      + " lastLag=" + TimeUnit.NANOSECONDS.toMicros(lastLagNanos) + "us"
+      + " maxLag=" + TimeUnit.NANOSECONDS.toMicros(maxLagNanos.get()) + "us"
+      + " interval=" + TimeUnit.NANOSECONDS.toMillis(intervalNanos) + "ms\n";
+  }
+
+  //-----------------------------------------------------------------------------
+  // Dispatcher
+
+  private void signal(){
+    if(pending.compareAndSet(false, true)){
+      Thread t = dispatcher;
+      if(t != null) LockSupport.unpark(t);
+      else ensureDispatcher();
+    }
+  }
+
+  private void ensureDispatcher(){
+    if(dispatcher != null) return;
+    synchronized(this){
+      if(dispatcher != null) return;
+      dispatcher = Thread.ofPlatform().daemon().name("jcef-events").start(this::dispatchLoop);
+    }
+  }
+
+  private void dispatchLoop(){
+    long lastFlush = System.nanoTime() - intervalNanos;
+    while(true){
+      while(!pending.get()){
+        LockSupport.park(this);
+      }
+      // At most one batch per interval: wait out the rest of it
+      long wait = lastFlush + intervalNanos - System.nanoTime();
+      while(wait > 0){
+        LockSupport.parkNanos(this, wait);
+        wait = lastFlush + intervalNanos - System.nanoTime();
+      }
+      pending.set(false);
+      lastFlush = System.nanoTime();
+      try{
+        flush();
+      }catch(Throwable t){
+        failures.increment();
+      }
+    }
+  }
+
+  private void flush(){
+    List<Event> events = new ArrayList<>();
+    Event e;
+    while((e = ring.poll()) != null) events.add(e);
+    for(String key : dirtyNav){
+      dirtyNav.remove(key);
+      Event nav = latestNav.get(key);
+      if(nav != null) events.add(nav);
+    }
+    if(events.isEmpty() || subscribers.isEmpty()) return;
+    events.sort(BY_TIME); // stable: ring order among producers that raced
+
+    long now = System.nanoTime();
+    List<Map<String, Object>> batch = new ArrayList<>(events.size());
+    for(Event ev : events){
+      batch.add(ev.toMap());
+      recordLag(now - ev.nanos);
+    }
+    batch = Collections.unmodifiableList(batch);
+    batches.increment();
+
+    boolean anyEdt = false;
+    for(Subscriber s : subscribers){
+      if(s.onEdt){
+        anyEdt = true;
+      }else{
+        deliver(s, batch);
+      }
+    }
+    if(anyEdt){
+      synchronized(edtLock){
+        edtBatch.addAll(batch);
+      }
+      if(edtQueued.compareAndSet(false, true)){
+        SwingUtilities.invokeLater(this::deliverOnEdt);
+      }
+    }
+  }
+
+  private void deliverOnEdt(){
+    // Cleared before the swap: events added after it queue the next run
+    edtQueued.set(false);
+    List<Map<String, Object>> batch;
+    synchronized(edtLock){
+      batch = edtBatch;
+      edtBatch = new ArrayList<>();
+    }
+    if(batch.isEmpty()) return;
+    edtBatches.increment();
+    batch = Collections.unmodifiableList(batch);
+    for(Subscriber s : subscribers){
+      if(s.onEdt) deliver(s, batch);
+    }
+  }
+
+  private void deliver(Subscriber s, List<Map<String, Object>> batch){
+    try{
+      s.consumer.accept(batch);
+    }catch(Throwable t){
+      failures.increment();
+    }
+  }
+
+  private void recordLag(long lag){
+    lastLagNanos = lag;
+    long max;
+    while(lag > (max = maxLagNanos.get()) && !maxLagNanos.compareAndSet(max, lag)){
+      // retry
+    }
+  }
+
+  //-----------------------------------------------------------------------------
+  private static final class Subscriber {
+    final Consumer<List<Map<String, Object>>> consumer;
+    final boolean onEdt;
+
+    Subscriber(Consumer<List<Map<String, Object>>> consumer, boolean onEdt){
+      this.consumer = consumer;
+      this.onEdt = onEdt;
+    }
+  }
+
+  private static final class Event {
+    final String  type;
+    final String  browser;
+    final String  url;
+    final String  text;
+    final boolean loading;
+    final boolean canGoBack;
+    final boolean canGoForward;
+    final long    nanos  = System.nanoTime();
+    final long    millis = System.currentTimeMillis();
+
+    Event(String type, String browser, String url, String text, boolean loading, boolean canGoBack, boolean canGoForward){
+      this.type = type;
+      this.browser = browser;
+      this.url = url;
+      this.text = text;
+      this.loading = loading;
+      this.canGoBack = canGoBack;
+      this.canGoForward = canGoForward;
+    }
+
+    Map<String, Object> toMap(){
+      Map<String, Object> m = new HashMap<>(8);
+      m.put(TYPE, type);
+      if(browser != null) m.put(BROWSER, browser);
+      m.put(TIME, millis);
+      switch(type){
+        case TYPE_ADDRESS: if(url != null) m.put(URL, url); break;
+        case TYPE_TITLE:   if(text != null) m.put(TITLE, text); break;
+        case TYPE_LOG:     if(text != null) m.put(MESSAGE, text); break;
+        case TYPE_CONSOLE:
+          if(text != null) m.put(MESSAGE, text);
+          if(url != null) m.put(SOURCE, url);
+          m.put(SEVERE, loading);
+          break;
+        case TYPE_NAVIGATION:
+          if(url != null) m.put(URL, url);
+          m.put(ALLOWED, loading);
+          m.put(REDIRECT, canGoBack);
+          break;
+        case TYPE_NAV:
+          m.put(LOADING, loading);
+          m.put(CAN_GO_BACK, canGoBack);
+          m.put(CAN_GO_FORWARD, canGoForward);
+          break;
+        default: break;
+      }
+      return Collections.unmodifiableMap(m);
+    }
+  }
+
+  /** Bounded multi-producer/single-consumer ring (Vyukov-style sequence slots). */
+  private static final class Ring {
+    private final Event[]         slots;
+    private final AtomicLongArray sequence;
+    private final AtomicLong      tail = new AtomicLong();
+    private final int             mask;
+    private long                  head; // consumer only
+
+    Ring(int capacity){
+      int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+      slots = new Event[size];
+      sequence = new AtomicLongArray(size);
+      for(int i = 0; i < size; i++) sequence.set(i, i);
+      mask = size - 1;
+    }
+
+    boolean offer(Event e){
+      long t;
+      while(true){
+        t = tail.get();
+        long diff = sequence.get((int)t & mask) - t;
+        if(diff == 0){
+          if(tail.compareAndSet(t, t + 1)) break;
+        }else if(diff < 0){
+          return false; // full
+        }
+      }
+      int i = (int)t & mask;
+      slots[i] = e;
+      sequence.lazySet(i, t + 1);
+      return true;
+    }
+
+    Event poll(){
+      int i = (int)head & mask;
+      if(sequence.get(i) != head + 1) return null;
+      Event e = slots[i];
+      slots[i] = null;
+      sequence.lazySet(i, head + slots.length);
+      head++;
+      return e;
+    }
+  }
+}
@@ -1,11 +1,23 @@
 package com.jSoft.burp.browserhost;
 
+import com.jSoft.burp.agent.Agent;
 import me.friwi.jcefmaven.CefAppBuilder;
 import me.friwi.jcefmaven.CefInitializationException;
+import me.friwi.jcefmaven.MavenCefAppHandlerAdapter;
 import me.friwi.jcefmaven.UnsupportedPlatformException;
 import org.cef.CefApp;
+import org.cef.CefBrowserSettings;
 import org.cef.CefClient;
+import org.cef.CefSettings;
 import org.cef.browser.CefBrowser;
+import org.cef.browser.CefMessageRouter;
+import org.cef.browser.CefRendering;
+import org.cef.browser.CefRequestContext;
+import org.cef.callback.CefSchemeRegistrar;
+import org.cef.handler.CefLoadHandler;
+import org.cef.handler.CefResourceRequestHandler;
+import org.cef.misc.BoolRef;
+import org.cef.network.CefCookieManager;
 import org.cef.handler.CefDisplayHandlerAdapter;
 import org.cef.handler.CefLoadHandlerAdapter;
 import org.cef.handler.CefRequestHandlerAdapter;
@@ -17,121 +29,823 @@ import org.cef.browser.CefFrame;
 import javax.swing.SwingUtilities;
 import java.awt.Component;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 import java.util.regex.Pattern;
 
 /**
  * Lives in Burp's system classloader (via Java agent or classpath) and manages
- * a JCEF browser. Exposes only JDK types across classloader boundaries.
+ * JCEF browsers. Exposes only JDK types across classloader boundaries.
+ *
+ * Browsers are kept per id on one shared CefClient, with a small pool of
+ * pre-created about:blank browsers so opening a new one is instant. The
+ * single-browser methods (navigate, reload, callbacks, ...) act on the
+ * selected browser; see selectBrowser.
+ *
+ * CEF can be initialized ahead of time (startInitialization, also triggered
+ * by the agent's "preinit" argument); callers wait on the returned future
+ * instead of polling.
+ *
+ * Browsers are either windowed (heavyweight native child window) or
+ * off-screen: CEF renders without a window and OffscreenView paints the
+ * dirty rectangles into a lightweight Swing component. See setRenderingMode.
+ *
+ * Cookies, storage and Chromium's HTTP cache persist in a profile directory
+ * across restarts; browsers can also be created in named, isolated profiles
+ * (one identity each). See BrowserProfiles.
+ *
+ * Creating, navigating and disposing browsers are commands run in order on
+ * one host thread (see CommandQueue); the ...Async methods return their
+ * futures, the older void methods queue and return at once.
+ *
+ * CEF's helper processes are sampled for memory (see MemoryMonitor); over
+ * the budget, idle browsers are discarded and come back with their URL and
+ * history the next time they are created (see setMemoryBudget).
  */
 public final class Host {
+  public static final String DEFAULT_BROWSER_ID = "default";
+  public static final String RENDERING_WINDOWED  = "windowed";
+  public static final String RENDERING_OFFSCREEN = "offscreen";
+  static final String        RENDERING_PROPERTY  = "embeddedBrowser.rendering";
+
   private static volatile CefApp app;
   private static volatile CefClient client;
-  private static volatile CefBrowser browser;
-  private static volatile Component browserUi;
   private static volatile String    homeUrl = "https://www.google.com";
 
+  private static final Map<String, BrowserInstance>     instances = new ConcurrentHashMap<>();
+  private static final Map<CefBrowser, BrowserInstance> byBrowser = new ConcurrentHashMap<>();
+  private static final Deque<BrowserInstance>           pool      = new ConcurrentLinkedDeque<>();
+  private static final Map<String, String>              evictedUrls = new ConcurrentHashMap<>();
+  private static final Map<String, String>              evictedProfiles = new ConcurrentHashMap<>();
+  private static final Map<String, NavigationHistory>   evictedHistory = new ConcurrentHashMap<>();
+  private static final Set<String>                      discarded = ConcurrentHashMap.newKeySet(); // evicted for memory
+  private static final BrowserProfiles                  profiles  = new BrowserProfiles();
+  private static final AtomicInteger                    poolSeq   = new AtomicInteger();
+  private static final AtomicBoolean                    refillQueued = new AtomicBoolean();
+  private static final ExecutorService                  poolFiller = Executors.newSingleThreadExecutor(
+    r -> Thread.ofPlatform().daemon().name("jcef-pool").unstarted(r));
+  private static volatile BrowserInstance selected;
+  private static volatile int maxBrowsers = 8;
+  private static volatile int poolSize    = 1;
+
   private static final AtomicReference<Consumer<String>> onAddressChange = new AtomicReference<>();
   private static final AtomicReference<Consumer<String>> onTitleChange   = new AtomicReference<>();
   private static final AtomicReference<Consumer<String>> onEventLog      = new AtomicReference<>();
+  private static final AtomicReference<Consumer<String>> onConsole       = new AtomicReference<>();
   private static final AtomicReference<Consumer<Boolean>> onLoading      = new AtomicReference<>();
   private static final AtomicReference<Consumer<Boolean>> onCanBack      = new AtomicReference<>();
   private static final AtomicReference<Consumer<Boolean>> onCanFwd       = new AtomicReference<>();
+  private static final EventPipeline events = new EventPipeline();
+  static{
+    // Single-slot callbacks (setOnAddressChange, ...) are fed from the pipeline
+    // and only see the selected browser.
+    events.subscribe(Host::dispatchLegacy, false);
+  }
+  private static final StartupTimeline timeline = new StartupTimeline();
+  private static final AtomicBoolean   initStarted = new AtomicBoolean();
+  private static volatile CompletableFuture<Void> ready = new CompletableFuture<>();
+  private static volatile String firstPaintId; // browser whose first load ends FIRST_PAINT
+  private static final InternalPages pages = new InternalPages(Host::describeRules, () -> homeUrl);
+  private static final Object resourceCacheLock = new Object();
+  private static volatile ContentCache        resourceCache;       // created on first enable
+  private static volatile ResourceInterceptor resourceInterceptor; // null = nothing intercepted
+  private static volatile boolean             resourceCacheEnabled;
+  private static volatile TrafficCapture      capture;             // created on first enable
+  private static volatile boolean             captureEnabled;
+  private static volatile boolean             captureBodies;
+  private static final BufferPool             bodyPool = new BufferPool(1024); // 16 MiB of idle chunks
+  private static volatile CacheRules          cacheRules = CacheRules.compile(List.of()); // nothing cached until rules are set
+  private static volatile long                cacheMaxBytes = ContentCache.DEFAULT_MAX_BYTES;
+  private static volatile String  renderingMode = defaultRenderingMode();
+  private static volatile boolean windowlessInitialized; // CEF was built with windowless_rendering_enabled
+  private static volatile int     maxFrameRate = 30;
+  private static final int        BATCH_VIEWPORT_WIDTH  = 1280;
+  private static final int        BATCH_VIEWPORT_HEIGHT = 800;
+  private static final BrowserThrottle throttle = new BrowserThrottle();
+  private static final Map<CefBrowser, BatchNavigator.Slot> batchSlots = new ConcurrentHashMap<>();
+  private static final BatchNavigator batch = new BatchNavigator(Host::openBatchPage, Host::logEvent);
+  private static final LoadTimings    loadTimings = new LoadTimings();
+  private static final PageChannel    pageChannel = new PageChannel();
+  private static final long           PAGE_CONTENT_TIMEOUT_MS = 15_000; // per chunk
+  private static final CookieSync     cookieSync = new CookieSync(() -> client == null ? null : CefCookieManager.getGlobalManager());
+  private static final EventJournal   journal = new EventJournal();
+  private static final ScreenshotPipeline screenshots = new ScreenshotPipeline();
+  private static final CommandQueue   commands = new CommandQueue();
+  private static final MemoryMonitor  memory = new MemoryMonitor();
+  private static volatile String      journalDir;      // null = EventJournal.defaultDirectory()
+  private static volatile long        journalMaxBytes = EventJournal.DEFAULT_MAX_BYTES;
   private static volatile Pattern allowPattern; // null = allow all
+  private static volatile NavigationPolicy navigationPolicy; // takes precedence over allowPattern
 
   private Host(){}
 
-  public static synchronized Component getOrCreateBrowserComponent(String startUrl) throws Throwable{
-    if(browserUi != null) return browserUi;
+  /**
+   * Starts native extraction and CefApp/CefClient creation on a background
+   * thread (once) and returns a future completed when browsers can be
+   * created. A failed attempt fails the future; the next call retries.
+   */
+  public static CompletableFuture<Void> startInitialization(){
+    CompletableFuture<Void> f = ready;
+    if(client == null && initStarted.compareAndSet(false, true)){
+      Thread.ofPlatform().daemon().name("jcef-preinit").start(() -> {
+        try{
+          ensureClient();
+          refillPool(); // the first tab claims a warm browser
+        }catch(Throwable ignored){
+          // ensureClient already failed the future
+        }
+      });
+    }
+    return f.copy();
+  }
+
+  /** Future completed once the CefClient exists; does not start initialization. */
+  public static CompletableFuture<Void> whenReady(){
+    return ready.copy();
+  }
+
+  /**
+   * Creates (once) the default browser and selects it if nothing else is
+   * selected. Waits for the command (and CEF initialization); do not call it
+   * on the EDT.
+   */
+  public static Component getOrCreateBrowserComponent(String startUrl) throws Throwable{
+    return await(commands.submit(result -> {
+      Component ui = createBrowser(DEFAULT_BROWSER_ID, startUrl, null, false);
+      if(selected == null) selectBrowser(DEFAULT_BROWSER_ID);
+      result.complete(ui);
+    }));
+  }
+
+  /**
+   * createBrowser as a command: completes with the component once CEF is
+   * initialized and the browser exists. profile null keeps an existing
+   * browser's profile (or restores an evicted one's), anything else is as in
+   * createBrowser(id, startUrl, profile). Never blocks.
+   */
+  public static CompletableFuture<Component> createBrowserAsync(String id, String startUrl, String profile){
+    return submitCreate(id, startUrl, BrowserProfiles.nameOf(profile), profile != null);
+  }
+
+  /**
+   * Returns the browser for id, creating it from the warm pool if needed.
+   * startUrl may be null to restore the last URL of an evicted browser (or
+   * about:blank). Creating beyond the cap evicts the least recently used
+   * browser that is not selected.
+   */
+  public static Component createBrowser(String id, String startUrl) throws Throwable{
+    return await(submitCreate(id, startUrl, null, false));
+  }
+
+  /**
+   * Like createBrowser(id, startUrl) but in the named profile (null or
+   * "default" for the shared one), creating the profile on first use. An
+   * existing browser of another profile is closed and replaced by a new
+   * one, at startUrl or its last URL, so the caller gets a new component.
+   */
+  public static Component createBrowser(String id, String startUrl, String profile) throws Throwable{
+    return await(submitCreate(id, startUrl, BrowserProfiles.nameOf(profile), true));
+  }
+
+  private static CompletableFuture<Component> submitCreate(String id, String startUrl, String profile, boolean explicit){
+    return commands.submit(result -> result.complete(createBrowser(id, startUrl, profile, explicit)));
+  }
+
+  private static synchronized Component createBrowser(String id, String startUrl, String profile, boolean explicit) throws Throwable{
+    if(id == null || id.isEmpty()) throw new IllegalArgumentException("id is empty");
+    BrowserInstance existing = instances.get(id);
+    boolean reselect = false;
+    if(existing != null){
+      if(!explicit || Objects.equals(existing.profile, profile)){
+        existing.touch();
+        return existing.ui;
+      }
+      // A browser's request context is fixed; switching identity means a new browser
+      instances.remove(id);
+      close(existing);
+      if(startUrl == null) startUrl = existing.lastUrl();
+      reselect = selected == existing;
+      if(reselect) selected = null;
+    }
+    ensureClient();
+
+    if(!explicit) profile = evictedProfiles.get(id);
+    evictedProfiles.remove(id);
+    CefRequestContext context = profiles.context(profile);
+    String url = startUrl != null ? startUrl : evictedUrls.getOrDefault(id, "about:blank");
+    evictedUrls.remove(id);
+    if(firstPaintId == null && !"about:blank".equals(url)){
+      firstPaintId = id;
+      timeline.begin(StartupTimeline.Phase.FIRST_PAINT);
+    }
+
+    BrowserInstance warm = profile == null ? pool.pollFirst() : null; // the pool is in the default profile
+    BrowserInstance inst;
+    if(warm != null){
+      byBrowser.remove(warm.browser);
+      events.forget(warm.id);
+      inst = warm.claim(id);
+    }else{
+      inst = new BrowserInstance(id, newBrowser(client, url, context), profile);
+    }
+    NavigationHistory kept = evictedHistory.remove(id);
+    if(kept != null) inst.history.restore(kept);
+    if(discarded.remove(id)) memory.restored();
+    inst.setLastUrl(url);
+    byBrowser.put(inst.browser, inst); // before the load, so its address change finds the instance
+    if(warm != null && !"about:blank".equals(url)) inst.browser.loadURL(url);
+    instances.put(id, inst);
+    if(reselect) selectBrowser(id);
+    applyVisibility();
+
+    evictIdle();
+    refillPoolAsync();
+    return inst.ui;
+  }
+
+  /** The browser's component, or null if it does not exist (never created, closed or evicted). */
+  public static Component getBrowserComponent(String id){
+    BrowserInstance inst = id == null ? null : instances.get(id);
+    return inst == null ? null : inst.ui;
+  }
+
+  /** closeBrowserAsync, waiting for it. */
+  public static boolean closeBrowser(String id){
+    return closeBrowserAsync(id).join();
+  }
+
+  /**
+   * Closes browser id as a command, after the ones already queued, and
+   * forgets its evicted state; completes false if it did not exist. Never
+   * blocks.
+   */
+  public static CompletableFuture<Boolean> closeBrowserAsync(String id){
+    return commands.submit(result -> result.complete(closeNow(id)));
+  }
+
+  private static synchronized boolean closeNow(String id){
+    BrowserInstance inst = id == null ? null : instances.remove(id);
+    evictedUrls.remove(id);
+    evictedProfiles.remove(id);
+    evictedHistory.remove(id);
+    discarded.remove(id);
+    if(inst == null) return false;
+    close(inst);
+    if(selected == inst) selected = null;
+    return true;
+  }
+
+  /** Profile of browser id ("default" for the shared one), or null if it does not exist. */
+  public static String getBrowserProfile(String id){
+    BrowserInstance inst = id == null ? null : instances.get(id);
+    if(inst == null) return null;
+    return inst.profile == null ? BrowserProfiles.DEFAULT : inst.profile;
+  }
+
+  /**
+   * Creates an isolated profile (own cookies, storage and HTTP cache, kept
+   * in memory) ahead of its first browser; initializes CEF if needed.
+   * Returns false if it already existed. Waits for createProfileAsync.
+   */
+  public static boolean createProfile(String name) throws Throwable{
+    return await(createProfileAsync(name));
+  }
+
+  /** createProfile as a command, so initializing CEF never runs on the caller's thread. Never blocks. */
+  public static CompletableFuture<Boolean> createProfileAsync(String name){
+    return commands.submit(result -> result.complete(createProfileNow(name)));
+  }
+
+  private static synchronized boolean createProfileNow(String name) throws Throwable{
+    String p = BrowserProfiles.nameOf(name);
+    if(p == null) return false;
+    ensureClient();
+    if(profiles.exists(p)) return false;
+    profiles.context(p);
+    return true;
+  }
+
+  /**
+   * Closes the browsers of an isolated profile and drops it with its
+   * cookies and storage. The default profile cannot be closed. Waits for
+   * closeProfileAsync.
+   */
+  public static boolean closeProfile(String name){
+    return closeProfileAsync(name).join();
+  }
+
+  /** closeProfile as a command. Never blocks. */
+  public static CompletableFuture<Boolean> closeProfileAsync(String name){
+    return commands.submit(result -> result.complete(closeProfileNow(name)));
+  }
+
+  private static synchronized boolean closeProfileNow(String name){
+    String p = BrowserProfiles.nameOf(name);
+    if(p == null || !profiles.exists(p)) return false;
+    for(BrowserInstance inst : new ArrayList<>(instances.values())){
+      if(p.equals(inst.profile)) closeNow(inst.id);
+    }
+    evictedProfiles.values().removeIf(p::equals);
+    return profiles.remove(p);
+  }
+
+  /**
+   * One map per profile, the default one first: name, browsers (ids),
+   * persistent (the default profile has a directory) and createMicros (time
+   * to create the request context; 0 for the default profile).
+   */
+  public static List<Map<String, Object>> listProfiles(){
+    List<Map<String, Object>> out = new ArrayList<>();
+    Path dir = profiles.directory();
+    out.add(describeProfile(null, dir != null, 0));
+    for(BrowserProfiles.Profile p : profiles.named()){
+      out.add(describeProfile(p.name, false, p.createNanos / 1000));
+    }
+    return out;
+  }
+
+  /**
+   * Directory of the default profile's cookies, storage and HTTP cache;
+   * null or empty for ~/.burp-embedded-browser/profile (or
+   * -DembeddedBrowser.profileDir). Applies when CEF is initialized, so set it
+   * before startInitialization; afterwards it throws IllegalStateException.
+   */
+  public static synchronized void setProfileDirectory(String dir){
+    if(client != null) throw new IllegalStateException("CEF is already initialized");
+    profiles.setDirectory(dir);
+  }
+
+  /** The default profile's directory in use, or null if it is kept in memory (or CEF is not initialized). */
+  public static String getProfileDirectory(){
+    Path dir = profiles.directory();
+    return client == null || dir == null ? null : dir.toString();
+  }
+
+  /**
+   * Size cap of Chromium's HTTP disk cache in the profile directory (default
+   * 512 MiB, 0 = Chromium's own); set before initialization like
+   * setProfileDirectory.
+   */
+  public static synchronized void setDiskCacheMaxBytes(long bytes){
+    if(client != null) throw new IllegalStateException("CEF is already initialized");
+    profiles.setDiskCacheBytes(bytes);
+  }
+
+  /**
+   * Keeps session cookies of the default profile across restarts (default
+   * off: logins end with Burp); set before initialization like
+   * setProfileDirectory.
+   */
+  public static synchronized void setPersistSessionCookies(boolean persist){
+    if(client != null) throw new IllegalStateException("CEF is already initialized");
+    profiles.setPersistSessionCookies(persist);
+  }
+
+  public static List<String> listBrowsers(){
+    List<String> ids = new ArrayList<>(instances.keySet());
+    Collections.sort(ids);
+    return ids;
+  }
+
+  /**
+   * Makes id the target of navigate/reload/... and of the single-browser
+   * callbacks, and replays its current address and navigation state to them.
+   */
+  public static void selectBrowser(String id){
+    BrowserInstance inst = id == null ? null : instances.get(id);
+    if(inst == null) return;
+    inst.touch();
+    selected = inst;
+    applyVisibility();
+
+    CefBrowser b = inst.browser;
+    String url = b.getURL();
+    events.address(inst.id, url != null && !url.isEmpty() ? url : inst.lastUrl());
+    events.navState(inst.id, b.isLoading(), canGoBack(inst, b.canGoBack()), canGoForward(inst, b.canGoForward()));
+  }
+
+  /** Maximum number of live browsers before LRU eviction (at least 1). */
+  public static synchronized void setMaxBrowsers(int max){
+    maxBrowsers = Math.max(1, max);
+    evictIdle();
+  }
+
+  /** Number of pre-created about:blank browsers kept ready (0 disables the pool). */
+  public static synchronized void setPoolSize(int size){
+    poolSize = Math.max(0, size);
+    while(pool.size() > poolSize){
+      BrowserInstance extra = pool.pollLast();
+      if(extra != null) close(extra);
+    }
+    refillPoolAsync();
+  }
+
+  /**
+   * "windowed" (default) or "offscreen". Off-screen rendering needs no GPU or
+   * native child window and suits headless/VM setups. The mode applies to
+   * browsers created afterwards; selecting "offscreen" after CEF was
+   * initialized windowed throws IllegalStateException, so choose it before
+   * startInitialization (or with -DembeddedBrowser.rendering=offscreen for the
+   * agent's preinit). Warm pooled browsers of the other mode are replaced.
+   */
+  public static synchronized void setRenderingMode(String mode){
+    String m = renderingModeOf(mode);
+    if(m == null) throw new IllegalArgumentException("unknown rendering mode: " + mode);
+    if(RENDERING_OFFSCREEN.equals(m) && client != null && !windowlessInitialized){
+      throw new IllegalStateException("CEF was initialized without windowless rendering; select offscreen before initialization");
+    }
+    if(m.equals(renderingMode)) return;
+    renderingMode = m;
+    BrowserInstance warm;
+    while((warm = pool.pollFirst()) != null) close(warm);
+    refillPoolAsync();
+  }
+
+  public static String getRenderingMode(){
+    return renderingMode;
+  }
 
-    final CefAppBuilder builder = new CefAppBuilder();
-    builder.addJcefArgs("--disable-gpu-vsync");
-    builder.getCefSettings().windowless_rendering_enabled = false;
+  /**
+   * Frame cap of off-screen browsers (1-60 fps, default 30); applied to
+   * existing ones too. Hidden browsers stay at BrowserThrottle.HIDDEN_FRAME_RATE.
+   */
+  public static void setMaxFrameRate(int fps){
+    maxFrameRate = Math.max(1, Math.min(60, fps));
+    for(BrowserInstance inst : instances.values()){
+      if(inst.ui instanceof OffscreenView && inst.isShown()) inst.browser.setWindowlessFrameRate(maxFrameRate);
+    }
+    for(BrowserInstance inst : pool){
+      if(inst.ui instanceof OffscreenView) inst.browser.setWindowlessFrameRate(maxFrameRate);
+    }
+  }
 
+  /**
+   * Whether the UI showing the browsers is visible (e.g. Burp's tab is
+   * selected). While hidden every browser is throttled; when visible only the
+   * selected one runs at full speed. See BrowserThrottle.
+   */
+  public static void setBrowsersVisible(boolean visible){
+    if(!throttle.setVisible(visible)) return;
+    logEvent("browsers " + (visible ? "visible" : "hidden"));
+    applyVisibility();
+  }
+
+  /**
+   * Loads urls in up to concurrency (1-16) extra browsers of their own and
+   * returns one result per URL as it completes: url, finalUrl, status (main
+   * frame HTTP status, 0 if unknown), outcome (loaded, idle, timeout, error,
+   * blocked), error, loadMillis, totalMillis and page. A visit ends when the
+   * page stops loading, or with waitForNetworkIdle once no request started
+   * for 500 ms, and after timeoutMillis at the latest. URLs are pulled as
+   * browsers free up and the navigation policy applies; captured traffic
+   * goes to the capture subscriber as usual. Close the stream to cancel.
+   * Off-screen rendering suits this best: windowed batch browsers have no
+   * visible window.
+   */
+  public static Stream<Map<String, Object>> navigateAll(Stream<String> urls, int concurrency, long timeoutMillis, boolean waitForNetworkIdle) throws Throwable{
+    if(urls == null) throw new IllegalArgumentException("urls is null");
+    ensureClient();
+    return batch.run(urls, concurrency, timeoutMillis, waitForNetworkIdle);
+  }
+
+  /**
+   * Screenshot of browser id (null = the selected one) as format ("png",
+   * the default, or "jpeg"). Off-screen browsers are copied from their last
+   * frame; windowed ones are grabbed from the screen and must be showing.
+   * Completes on an encoder thread with browser, url, format, width, height,
+   * image (the encoded bytes), copyMicros, encodeMillis and time. Waits while
+   * the encoders are behind, so call it off the EDT.
+   */
+  public static CompletableFuture<Map<String, Object>> captureScreenshot(String id, String format){
+    BrowserInstance inst = id == null ? selected : instances.get(id);
+    if(inst == null) return CompletableFuture.failedFuture(new IllegalArgumentException("no browser " + id));
+    if(ScreenshotPipeline.formatOf(format) == null){
+      return CompletableFuture.failedFuture(new IllegalArgumentException("unknown screenshot format: " + format));
+    }
+    Map<String, Object> info = new LinkedHashMap<>();
+    info.put(ScreenshotPipeline.BROWSER, inst.id);
+    info.put(ScreenshotPipeline.URL, inst.lastUrl());
+    Component ui = inst.browser.getUIComponent();
     try{
-      app = builder.build();
-    }catch(IOException | UnsupportedPlatformException | InterruptedException | CefInitializationException e){
-      throw e;
+      if(ui instanceof OffscreenView view) return screenshots.capture(view::snapshot, format, info);
+      return screenshots.capture(pixels -> screenshots.grab(ui, pixels), format, info);
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      return CompletableFuture.failedFuture(e);
     }
+  }
 
-    client = app.createClient();
-    browser = client.createBrowser(startUrl != null ? startUrl : "about:blank", false, false);
-    browserUi = browser.getUIComponent();
+  /**
+   * navigateAll (waiting for network idle) plus a screenshot of every page
+   * that loaded: those results also carry format, width, height, image,
+   * copyMicros and encodeMillis, or screenshotError. A page is copied once
+   * it has not painted for 100 ms (1 s at most) and loads the next URL while
+   * the copy is encoded. Needs off-screen rendering; the viewport is
+   * 1280x800.
+   */
+  public static Stream<Map<String, Object>> captureScreenshots(Stream<String> urls, int concurrency, long timeoutMillis, String format) throws Throwable{
+    if(urls == null) throw new IllegalArgumentException("urls is null");
+    if(ScreenshotPipeline.formatOf(format) == null) throw new IllegalArgumentException("unknown screenshot format: " + format);
+    ensureClient();
+    return batch.run(urls, concurrency, timeoutMillis, true, (slot, result) -> screenshotPage(slot, result, format));
+  }
 
-    // Handlers
-    client.addDisplayHandler(new CefDisplayHandlerAdapter(){
-      @Override public void onAddressChange(CefBrowser b, CefFrame f, String url){
-        Consumer<String> c = onAddressChange.get();
-        if(c != null) c.accept(url);
-      }
-      @Override public void onTitleChange(CefBrowser b, String title){
-        Consumer<String> c = onTitleChange.get();
-        if(c != null) c.accept(title);
-      }
-    });
-    client.addLoadHandler(new CefLoadHandlerAdapter(){
-      @Override public void onLoadingStateChange(CefBrowser b, boolean isLoading, boolean canGoBack, boolean canGoForward){
-        Consumer<Boolean> l = onLoading.get();
-        if(l != null) l.accept(isLoading);
-        Consumer<Boolean> cb = onCanBack.get();
-        if(cb != null) cb.accept(canGoBack);
-        Consumer<Boolean> cf = onCanFwd.get();
-        if(cf != null) cf.accept(canGoForward);
-      }
-    });
+  /**
+   * Screenshot counters: captured, failed, encodedBytes, encodeMillis, waits
+   * (captures that waited for the encoders), inFlight and the pixel buffer
+   * pool (buffersReused, buffersAllocated, bufferBytes, peakBufferBytes).
+   */
+  public static Map<String, Long> screenshotStats(){
+    return screenshots.stats();
+  }
 
-    // Request/navigation policy
-    client.addRequestHandler(new CefRequestHandlerAdapter(){
-      @Override public boolean onBeforeBrowse(CefBrowser b, CefFrame f, org.cef.network.CefRequest req, boolean user_gesture, boolean is_redirect){
-        String url = req != null ? req.getURL() : null;
-        boolean ok = isAllowed(url);
-        Consumer<String> log = onEventLog.get();
-        if(log != null){
-          log.accept("onBeforeBrowse url=" + url + " allowed=" + ok);
-        }
-        if(!ok){
-          // Show a simple error page instead of navigating
-          showBlocked(url);
-          return true; // cancel original navigation
-        }
-        return false;
-      }
-    });
+  /**
+   * Main-frame load latency per host (host[:port]), slowest first: loads,
+   * errors, 1xx..5xx counts and p50/p90/p99/max in ms of commit (response
+   * committed), domContentLoaded and load (load event finished), all measured
+   * from the navigation request. Covers every browser, batch ones included.
+   */
+  public static List<Map<String, Object>> loadTimingStats(){
+    return loadTimings.hostStats();
+  }
 
-    // Other handlers omitted for compatibility; add incrementally if needed
+  /**
+   * The last 100 main-frame navigations, newest first: browser, time, url,
+   * host, status, error, commitMillis, domContentLoadedMillis, loadMillis.
+   */
+  public static List<Map<String, Object>> recentLoadTimings(){
+    return loadTimings.recent();
+  }
 
+  public static void resetLoadTimings(){
+    loadTimings.reset();
+  }
 
-    return browserUi;
+  /**
+   * Handles page messages on channel: handler gets (browser id, payload) and
+   * returns the answer, or throws to fail the query. Page scripts call
+   * burpBridge.query(channel, payload) (a Promise) or send(channel, payload)
+   * once the page script is installed (evaluate does that; pageChannelScript
+   * returns it for injection). Runs on virtual threads. Only internal pages
+   * and the origins set with setPageChannelOrigins reach handler; any other
+   * frame is answered "forbidden". Returns an action that removes the
+   * handler; null handler removes the current one.
+   */
+  public static Runnable registerPageHandler(String channel, BiFunction<String, String, String> handler){
+    return pageChannel.register(channel, handler);
   }
 
-  public static void navigate(String url){
-    if(browser != null && url != null){
-      browser.loadURL(url);
+  /**
+   * Handles page messages on channel from any frame: handler gets a map of
+   * browser, origin (scheme://host[:port], "null" if none), frameUrl,
+   * mainFrame ("true"/"false") and payload, and filters on the caller itself.
+   * Otherwise as registerPageHandler.
+   */
+  public static Runnable registerPageQueryHandler(String channel, Function<Map<String, String>, String> handler){
+    return pageChannel.registerQuery(channel, handler);
+  }
+
+  /**
+   * Origins (scheme://host[:port], or "*" for any) whose frames may call the
+   * handlers of registerPageHandler; none by default. Internal pages always may.
+   */
+  public static void setPageChannelOrigins(List<String> origins){
+    pageChannel.setAllowedOrigins(origins);
+  }
+
+  /** Page messages handled at once (default 64); beyond that queries fail with "busy". */
+  public static void setMaxInFlightQueries(int max){
+    pageChannel.setMaxInFlight(max);
+  }
+
+  /**
+   * Evaluates a JS expression in the main frame of browser id (null = the
+   * selected one) and completes with its value: strings as is, anything else
+   * as JSON, promises awaited. Fails after timeoutMillis, which is also how
+   * syntax errors surface.
+   */
+  public static CompletableFuture<String> evaluate(String id, String expression, long timeoutMillis){
+    BrowserInstance inst = id == null ? selected : instances.get(id);
+    if(inst == null) return CompletableFuture.failedFuture(new IllegalArgumentException("no browser " + id));
+    if(expression == null || expression.isBlank()) return CompletableFuture.failedFuture(new IllegalArgumentException("expression is empty"));
+    return pageChannel.evaluate(inst.browser, inst.id, expression, timeoutMillis);
+  }
+
+  /**
+   * Page source ("source": doctype + documentElement.outerHTML) or text
+   * ("text": body.innerText) of browser id (null = the selected one) as a
+   * publisher of chunks of up to 64K chars. The document is kept in the
+   * renderer and each chunk is fetched when requested, so a slow subscriber
+   * holds no more than one chunk; at most maxChars (<= 0 = all) are
+   * published. Single subscriber; cancelling stops it and frees the copy
+   * held by the page. A navigation meanwhile fails it.
+   */
+  public static Flow.Publisher<String> pageContent(String id, String kind, long maxChars){
+    BrowserInstance inst = id == null ? selected : instances.get(id);
+    if(inst == null) throw new IllegalArgumentException("no browser " + id);
+    return new PageContentStream(expr -> pageChannel.evaluate(inst.browser, inst.id, expr, PAGE_CONTENT_TIMEOUT_MS),
+      kind, maxChars, PageContentStream.CHUNK_CHARS);
+  }
+
+  /**
+   * pageContent fed to sink one chunk at a time (on a virtual thread).
+   * Completes with length (whole document), delivered, chunks and truncated;
+   * cancel the future to stop early.
+   */
+  public static CompletableFuture<Map<String, Object>> streamPageContent(String id, String kind, long maxChars, Consumer<CharSequence> sink){
+    try{
+      return ((PageContentStream)pageContent(id, kind, maxChars)).drain(sink);
+    }catch(IllegalArgumentException e){
+      return CompletableFuture.failedFuture(e);
     }
   }
 
+  /** The page side of the channel (defines window.burpBridge); idempotent. */
+  public static String pageChannelScript(){
+    return PageChannel.clientScript();
+  }
+
+  public static Map<String, Long> pageChannelStats(){
+    return pageChannel.stats();
+  }
+
+  public static void navigate(String url){
+    if(url != null) navigateAsync(null, url);
+  }
+
   public static void reload(){
-    if(browser != null){ browser.reload(); }
+    reloadAsync(null);
   }
 
   public static void goBack(){
-    if(browser != null && browser.canGoBack()) browser.goBack();
+    goBackAsync(null);
   }
 
   public static void goForward(){
-    if(browser != null && browser.canGoForward()) browser.goForward();
+    goForwardAsync(null);
   }
 
   public static void stop(){
-    if(browser != null) browser.stopLoad();
+    stopAsync(null);
+  }
+
+  /**
+   * Loads url in browser id (null = the one selected now) as a command.
+   * Completes with the main frame's HTTP status (0 if none) when the page
+   * ends loading; fails if the load fails or the navigation policy blocks it,
+   * and is cancelled by a later navigation, stop or close of the browser.
+   * Same-document navigations (#fragment) never end a load, so callers
+   * should bound the wait. Never blocks.
+   */
+  public static CompletableFuture<Integer> navigateAsync(String id, String url){
+    if(url == null || url.isBlank()) return CompletableFuture.failedFuture(new IllegalArgumentException("url is empty"));
+    return loadCommand(id, inst -> inst.browser.loadURL(url));
+  }
+
+  /** Reload of browser id (null = the selected one); completes like navigateAsync. */
+  public static CompletableFuture<Integer> reloadAsync(String id){
+    return loadCommand(id, inst -> inst.browser.reload());
+  }
+
+  /**
+   * History back in browser id (null = the selected one); fails at once if
+   * there is no history. A restored browser steps through its kept history.
+   */
+  public static CompletableFuture<Integer> goBackAsync(String id){
+    return loadCommand(id, inst -> step(inst, -1));
+  }
+
+  /** History forward in browser id (null = the selected one); completes like goBackAsync. */
+  public static CompletableFuture<Integer> goForwardAsync(String id){
+    return loadCommand(id, inst -> step(inst, 1));
+  }
+
+  /** Stops loading browser id (null = the selected one); cancels its waiting navigation. */
+  public static CompletableFuture<Void> stopAsync(String id){
+    String target = targetOf(id);
+    return commands.submit(result -> {
+      BrowserInstance inst = commandTarget(target);
+      inst.browser.stopLoad();
+      inst.cancelLoad();
+      result.complete(null);
+    });
+  }
+
+  /**
+   * Command counters: submitted, executed, inline (submitted from a
+   * command), failed (failed or cancelled futures), depth and maxDepth
+   * (queued, not yet started), waitP50/P99/MaxMicros (submitted to started)
+   * and completeP50/P99/MaxMillis (submitted to completed, page loads
+   * included).
+   */
+  public static Map<String, Long> commandStats(){
+    return commands.stats();
+  }
+
+  /**
+   * Memory budget of CEF's helper processes (resident bytes; 0 = never
+   * discard) and how long a browser must have been unused before it may be
+   * discarded. Default off (or -DembeddedBrowser.memoryBudgetMiB) and 5
+   * minutes. Over budget, one unselected browser idle at least that long is
+   * discarded per sample (every 15 s): closed, with its URL, profile and
+   * history kept for the next createBrowser of its id, which restores it.
+   */
+  public static void setMemoryBudget(long bytes, long minIdleMillis){
+    memory.setBudget(bytes, minIdleMillis);
+  }
+
+  /**
+   * Latest memory sample and discard counters: available (1 if /proc can be
+   * read), samples, sampleMicros, processes, totalBytes, renderer/gpu/
+   * utility/otherBytes, peakBytes, budgetBytes, minIdleMillis, discarded,
+   * restored and failures.
+   */
+  public static Map<String, Long> memoryStats(){
+    return memory.stats();
+  }
+
+  /** One map per helper process of the latest sample: pid, role (renderer, gpu, utility, other), rssBytes. */
+  public static List<Map<String, Object>> memoryProcesses(){
+    MemoryMonitor.Sample s = memory.last();
+    if(s == null) return List.of();
+    List<Map<String, Object>> out = new ArrayList<>(s.procs.size());
+    for(MemoryMonitor.Proc p : s.procs){
+      out.add(Map.of("pid", p.pid, "role", p.role, "rssBytes", p.rssBytes));
+    }
+    return out;
+  }
+
+  /**
+   * Discards browser id now as the memory budget would (never the selected
+   * one); false if it does not exist or is selected. Runs as a command.
+   */
+  public static CompletableFuture<Boolean> discardBrowser(String id){
+    return commands.submit(result -> {
+      synchronized(Host.class){
+        BrowserInstance inst = id == null ? null : instances.get(id);
+        if(inst == null || inst == selected){
+          result.complete(false);
+          return;
+        }
+        discard(inst);
+      }
+      logEvent("discarded browser id=" + id);
+      result.complete(true);
+    });
+  }
+
+  /** True if browser id was discarded for memory and not created again since. */
+  public static boolean isBrowserDiscarded(String id){
+    return id != null && discarded.contains(id);
   }
 
   // DevTools support is version-dependent; not implemented for this JCEF version.
 
+  /**
+   * Adds an event subscriber. Events from all browsers arrive in batches of
+   * Map&lt;String,Object&gt; (keys: type, browser, time, url, title, loading,
+   * canGoBack, canGoForward, message, allowed, redirect), at most one batch
+   * per interval;
+   * navigation state is coalesced to the latest per browser. With onEdt the
+   * batch is delivered on the Swing EDT, otherwise on the dispatcher thread.
+   * Returns a Runnable that unsubscribes.
+   */
+  public static Runnable subscribeEvents(Consumer<List<Map<String, Object>>> subscriber, boolean onEdt){
+    return events.subscribe(subscriber, onEdt);
+  }
+
+  /** Batch interval of the event pipeline (default 16 ms, one repaint). */
+  public static void setEventBatchInterval(int millis){
+    events.setIntervalMillis(millis);
+  }
+
   public static void setOnAddressChange(Consumer<String> c){ onAddressChange.set(c); }
   public static void setOnTitleChange(Consumer<String> c){ onTitleChange.set(c); }
   public static void setOnEventLog(Consumer<String> c){ onEventLog.set(c); }
+  public static void setOnConsoleMessage(Consumer<String> c){ onConsole.set(c); }
   public static void setOnLoading(Consumer<Boolean> c){ onLoading.set(c); }
   public static void setOnCanGoBack(Consumer<Boolean> c){ onCanBack.set(c); }
   public static void setOnCanGoForward(Consumer<Boolean> c){ onCanFwd.set(c); }
@@ -142,6 +856,28 @@ public final class Host {
     }else{
       allowPattern = Pattern.compile(regex);
     }
+    navigationPolicy = null;
+  }
+
+  /**
+   * Replaces the navigation policy with ordered allow/deny rules, e.g.
+   * "allow *.google.com" or "deny http://*:8080". First match wins; see
+   * NavigationPolicy for the syntax. Null or empty clears the policy.
+   * Replaces any regex set through setUrlAllowRegex.
+   */
+  public static void setNavigationRules(List<String> rules){
+    NavigationPolicy policy = (rules == null || rules.isEmpty()) ? null : NavigationPolicy.compile(rules);
+    allowPattern = null;
+    navigationPolicy = policy;
+  }
+
+  public static List<String> getNavigationRules(){
+    NavigationPolicy policy = navigationPolicy;
+    return policy == null ? List.of() : policy.rules();
+  }
+
+  public static boolean isNavigationAllowed(String url){
+    return isAllowed(url);
   }
 
   public static void setHomeUrl(String url){
@@ -152,17 +888,279 @@ public final class Host {
     navigate(homeUrl);
   }
 
-  public static synchronized void dispose(){
-    // Only dispose if you know no other components use it. Typically keep alive.
-    try{ if(browser != null){ browser.close(true); } }catch(Throwable ignored){}
-    browser = null; browserUi = null;
+  /**
+   * Turns the subresource cache on or off. Off is a full bypass: requests are
+   * not intercepted at all. The cache directory is opened on first enable.
+   */
+  public static void setResourceCacheEnabled(boolean enabled){
+    synchronized(resourceCacheLock){
+      if(enabled && resourceCache == null) resourceCache = new ContentCache(ContentCache.defaultDir(), cacheMaxBytes);
+      resourceCacheEnabled = enabled;
+      rebuildInterceptor();
+    }
+  }
+
+  /**
+   * Per-host validation rules, e.g. "cache *.cdn.example.com 86400",
+   * "revalidate *", "bypass api.example.com"; see CacheRules. Null or empty
+   * means nothing is cached.
+   */
+  public static void setResourceCacheRules(List<String> rules){
+    CacheRules compiled = CacheRules.compile(rules == null ? List.of() : rules);
+    synchronized(resourceCacheLock){
+      cacheRules = compiled;
+      ResourceInterceptor ri = resourceInterceptor;
+      if(ri != null) ri.setRules(compiled);
+    }
+  }
+
+  public static List<String> getResourceCacheRules(){
+    return cacheRules.rules();
+  }
+
+  /** Size cap of the cache directory; least recently used URLs are evicted beyond it. */
+  public static void setResourceCacheMaxBytes(long bytes){
+    cacheMaxBytes = Math.max(0, bytes);
+    ContentCache c = resourceCache;
+    if(c != null) c.setMaxBytes(cacheMaxBytes);
+  }
+
+  public static void clearResourceCache(){
+    ContentCache c = resourceCache;
+    if(c != null) c.clear();
+  }
+
+  /**
+   * Counters of the resource cache (hits, misses, revalidated, stores,
+   * evictions, bypassed, errors, bytesSaved, entries, objects, bytes,
+   * maxBytes) plus enabled (0/1).
+   */
+  public static Map<String, Long> resourceCacheStats(){
+    ContentCache c = resourceCache;
+    Map<String, Long> m = new LinkedHashMap<>();
+    m.put("enabled", resourceCacheEnabled ? 1L : 0L);
+    if(c != null) m.putAll(c.stats());
+    return Collections.unmodifiableMap(m);
+  }
+
+  /**
+   * Records the browsers' requests and responses for the capture subscriber
+   * (see subscribeCapture), from their headers only unless bodies are
+   * enabled (setCaptureBodiesEnabled).
+   */
+  public static void setCaptureEnabled(boolean enabled){
+    synchronized(resourceCacheLock){
+      if(enabled && capture == null) capture = new TrafficCapture();
+      captureEnabled = enabled;
+      rebuildInterceptor();
+    }
+  }
+
+  /**
+   * Off by default. When on, GET/HEAD scripts, stylesheets, images, fonts and
+   * icons are fetched by the host instead of the browser so their bodies are
+   * recorded; each is buffered completely before the page gets it. XHR/fetch
+   * calls, navigations and other requests are always left to the browser.
+   */
+  public static void setCaptureBodiesEnabled(boolean enabled){
+    synchronized(resourceCacheLock){
+      captureBodies = enabled;
+      rebuildInterceptor();
+    }
+  }
+
+  /** Recorded response and request bodies are cut at this size (default 2 MiB). */
+  public static void setCaptureMaxBodyBytes(int bytes){
+    synchronized(resourceCacheLock){
+      if(capture == null) capture = new TrafficCapture();
+      capture.setMaxBodyBytes(bytes);
+    }
+  }
+
+  /**
+   * Sets the single capture subscriber. It receives batches of
+   * Map&lt;String,Object&gt; (keys: browser, time, method, url, status,
+   * request and response as raw HTTP/1.1 byte[], source, truncated) on the
+   * capture thread. While it is slow the queue fills and fetched responses
+   * are held back. Returns a Runnable that unsubscribes.
+   */
+  public static Runnable subscribeCapture(Consumer<List<Map<String, Object>>> subscriber){
+    synchronized(resourceCacheLock){
+      if(capture == null) capture = new TrafficCapture();
+      return capture.subscribe(subscriber);
+    }
+  }
+
+  /** Capture counters (captured, delivered, batches, parked, dropped, truncated, ...) plus enabled (0/1). */
+  public static Map<String, Long> captureStats(){
+    TrafficCapture c = capture;
+    Map<String, Long> m = new LinkedHashMap<>();
+    m.put("enabled", captureEnabled ? 1L : 0L);
+    m.put("bodies", captureBodies ? 1L : 0L);
+    if(c != null) m.putAll(c.stats());
+    m.put("pooledChunks", (long)bodyPool.pooled());
+    m.put("chunksReused", bodyPool.reused.sum());
+    m.put("chunksAllocated", bodyPool.allocated.sum());
+    return Collections.unmodifiableMap(m);
+  }
+
+  /**
+   * Turns the cookie sync of the default profile on or off (see CookieSync).
+   * Enabling visits every cookie once and hands them to the subscriber;
+   * afterwards only changes are sent. Applies once CEF is initialized.
+   */
+  public static void setCookieSyncEnabled(boolean enabled){
+    cookieSync.setEnabled(enabled);
+  }
+
+  /**
+   * Sets the single subscriber of browser cookie changes. It receives batches
+   * of Map&lt;String,Object&gt; (keys: name, value, domain, path, expires
+   * (epoch millis or null), secure, httpOnly, deleted, time) on the sync
+   * thread. Returns a Runnable that unsubscribes.
+   */
+  public static Runnable subscribeCookieChanges(Consumer<List<Map<String, Object>>> subscriber){
+    return cookieSync.subscribe(subscriber);
+  }
+
+  /**
+   * Applies cookie changes from outside (maps keyed like the subscriber's;
+   * value, expires, secure, httpOnly and time are optional) to the browser.
+   * Completes with the number applied; changes equal to the browser's cookie
+   * or lost to a conflict are not counted.
+   */
+  public static CompletableFuture<Integer> applyCookieChanges(List<Map<String, Object>> changes){
+    return cookieSync.apply(changes);
+  }
+
+  /**
+   * Who wins when a cookie changed on both sides before the browser's change
+   * was sent: "browser", "burp" or "newest" (default; the later change).
+   */
+  public static void setCookieConflictRule(String rule){
+    String r = rule == null ? "" : rule.trim().toUpperCase(Locale.ROOT);
+    try{
+      cookieSync.setRule(CookieSync.Rule.valueOf(r));
+    }catch(IllegalArgumentException e){
+      throw new IllegalArgumentException("unknown cookie conflict rule: " + rule);
+    }
+  }
+
+  /**
+   * Cookie sync counters: toBurp, toBrowser, batches, maxBatch, filtered,
+   * visits, conflicts, conflictsBrowserWon, failures and the latency from
+   * seeing a browser change to handing it over (p50, p99, max in ms).
+   */
+  public static Map<String, Long> cookieSyncStats(){
+    return cookieSync.stats();
+  }
+
+  /**
+   * Turns the event journal on or off (see EventJournal). Enabling opens the
+   * journal directory and continues its newest segment; every address
+   * change, navigation decision, loading state and title of every browser is
+   * recorded from then on. Throws UncheckedIOException if the directory
+   * cannot be used.
+   */
+  public static void setJournalEnabled(boolean enabled){
+    if(!enabled){
+      journal.close();
+      return;
+    }
+    String d = journalDir;
+    try{
+      journal.open(d == null || d.isBlank() ? EventJournal.defaultDirectory() : Path.of(d), EventJournal.DEFAULT_SEGMENT_BYTES, journalMaxBytes);
+    }catch(IOException e){
+      throw new UncheckedIOException("cannot open event journal: " + e.getMessage(), e);
+    }
+  }
+
+  /** Journal directory used by the next setJournalEnabled(true); null or empty restores the default. */
+  public static void setJournalDirectory(String path){
+    journalDir = path;
+  }
+
+  /** Disk space the journal may take before its oldest segments are deleted (default 256 MiB; next enable). */
+  public static void setJournalMaxBytes(long bytes){
+    journalMaxBytes = Math.max(EventJournal.DEFAULT_SEGMENT_BYTES, bytes);
+  }
+
+  /**
+   * Up to limit journal events between fromMillis and toMillis (epoch
+   * millis, inclusive), oldest first, keyed like subscribeEvents.
+   */
+  public static List<Map<String, Object>> queryJournal(long fromMillis, long toMillis, int limit){
+    return journal.query(fromMillis, toMillis, limit);
+  }
+
+  /**
+   * Hands every journal event between fromMillis and toMillis to sink, oldest
+   * first, on the calling thread. Returns the number of events.
+   */
+  public static long replayJournal(long fromMillis, long toMillis, Consumer<Map<String, Object>> sink){
+    return journal.replay(fromMillis, toMillis, e -> {
+      sink.accept(e);
+      return true;
+    });
+  }
+
+  /** Journal counters: open (0/1), segments, bytes, recorded, dropped, rolls, deleted. */
+  public static Map<String, Long> journalStats(){
+    return journal.stats();
+  }
+
+  /** URL of an internal page ("start", "blocked", "error") served under burpbrowser://. */
+  public static String internalPageUrl(String page){
+    return page == null || page.isEmpty() ? null : InternalPages.url(page);
+  }
+
+  /** Queues disposeAsync and returns at once. */
+  public static void dispose(){
+    disposeAsync();
+  }
+
+  /**
+   * Closes every browser and shuts CEF down as a command, after the ones
+   * already queued. Only dispose if you know no other components use it;
+   * typically keep it alive.
+   */
+  public static CompletableFuture<Void> disposeAsync(){
+    return commands.submit(result -> {
+      disposeNow();
+      result.complete(null);
+    });
+  }
+
+  private static synchronized void disposeNow(){
+    for(BrowserInstance inst : instances.values()) close(inst);
+    instances.clear();
+    BrowserInstance warm;
+    while((warm = pool.pollFirst()) != null) close(warm);
+    byBrowser.clear();
+    batchSlots.clear();
+    evictedUrls.clear();
+    evictedProfiles.clear();
+    evictedHistory.clear();
+    discarded.clear();
+    memory.stop();
+    selected = null;
+    profiles.disposeAll();
     try{ if(client != null){ client.dispose(); } }catch(Throwable ignored){}
     client = null;
     try{ if(app != null){ app.dispose(); } }catch(Throwable ignored){}
     app = null;
+    ready = new CompletableFuture<>();
+    initStarted.set(false);
   }
 
   public static String diagnostics(){
+    if(!memory.heapsWanted() && client != null){ // JS heaps shown from the next call on
+      commands.submit(result -> {
+        requestHeaps();
+        result.complete(null);
+      });
+    }
+    memory.wantHeaps();
     StringBuilder sb = new StringBuilder();
     ClassLoader hostCl = Host.class.getClassLoader();
     sb.append("Host CL: ").append(hostCl).append('\n');
@@ -180,60 +1178,593 @@ public final class Host {
     } else {
       sb.append("CefClient: null\n");
     }
-    if(browser != null){
-      sb.append("CefBrowser: ").append(browser.getClass().getName())
-        .append(" @").append(System.identityHashCode(browser))
-        .append(" CL=").append(browser.getClass().getClassLoader()).append('\n');
-    } else {
-      sb.append("CefBrowser: null\n");
+    BrowserInstance sel = selected;
+    sb.append("Browsers: ").append(instances.size()).append('/').append(maxBrowsers)
+      .append(" (pool ").append(pool.size()).append('/').append(poolSize)
+      .append(", evicted ").append(evictedUrls.size()).append(")\n");
+    long now = System.nanoTime();
+    for(String id : listBrowsers()){
+      BrowserInstance inst = instances.get(id);
+      if(inst == null) continue;
+      sb.append("  ").append(inst == sel ? '*' : ' ').append(id)
+        .append(": ").append(inst.browser.getClass().getName())
+        .append(" @").append(System.identityHashCode(inst.browser))
+        .append(" idle=").append((now - inst.lastUsedNanos()) / 1_000_000_000L).append('s')
+        .append(" heap=").append(inst.jsHeapBytes() < 0 ? "?" : (inst.jsHeapBytes() >> 20) + "MiB")
+        .append(" history=").append(inst.history.size())
+        .append(" url=").append(inst.lastUrl()).append('\n');
     }
-    if(browserUi != null){
-      sb.append("BrowserUI: ").append(browserUi.getClass().getName())
-        .append(" @").append(System.identityHashCode(browserUi))
-        .append(" CL=").append(browserUi.getClass().getClassLoader()).append('\n');
-    } else {
-      sb.append("BrowserUI: null\n");
+    if(!discarded.isEmpty()){
+      List<String> ids = new ArrayList<>(discarded);
+      Collections.sort(ids);
+      sb.append("Discarded: ").append(String.join(", ", ids)).append('\n');
+    }
+    sb.append("Rendering: ").append(renderingMode);
+    if(windowlessInitialized){
+      long full = OffscreenView.framePixels.sum();
+      sb.append(" (max ").append(maxFrameRate).append(" fps, frames=").append(OffscreenView.frames.sum())
+        .append(", copied ").append(full == 0 ? 0 : OffscreenView.dirtyPixels.sum() * 100 / full).append("% of frame pixels)");
     }
+    sb.append('\n');
+    sb.append(profiles.diagnostics());
+    sb.append(throttle.diagnostics());
+    sb.append(batch.diagnostics());
+    sb.append(loadTimings.diagnostics());
+    sb.append(pageChannel.diagnostics());
+    sb.append(timeline.diagnostics());
+    sb.append(NativeBundleCache.diagnostics());
+    ContentCache rc = resourceCache;
+    if(rc != null) sb.append(resourceCacheEnabled ? "" : "(bypassed) ").append(rc.diagnostics());
+    TrafficCapture tc = capture;
+    if(tc != null) sb.append(captureEnabled ? "" : "(off) ").append(tc.diagnostics());
+    sb.append(cookieSync.diagnostics());
+    sb.append(journal.diagnostics());
+    sb.append(screenshots.diagnostics());
+    sb.append(commands.diagnostics());
+    sb.append(memory.diagnostics());
+    sb.append(events.diagnostics());
     return sb.toString();
   }
 
   //-----------------------------------------------------------------------------
+  static final class DisplayHandler extends CefDisplayHandlerAdapter {
+    @Override public void onAddressChange(CefBrowser b, CefFrame f, String url){
+      BrowserInstance inst = instanceOf(b);
+      if(f != null && !f.isMain()) return;
+      if(inst != null){
+        inst.setLastUrl(url);
+        inst.history.committed(url);
+      }
+      journal.address(inst == null ? null : inst.id, url);
+      events.address(inst == null ? null : inst.id, url);
+    }
+    @Override public void onTitleChange(CefBrowser b, String title){
+      String id = idOf(b);
+      journal.title(id, title);
+      events.title(id, title);
+    }
+    @Override public boolean onConsoleMessage(CefBrowser b, CefSettings.LogSeverity level, String message, String source, int line){
+      if(loadTimings.domContentLoaded(message)) return true; // our timing reports are not shown
+      Long heap = MemoryMonitor.heapOf(message);
+      if(heap != null){
+        BrowserInstance inst = instanceOf(b);
+        if(inst != null) inst.setJsHeapBytes(heap);
+        return true;
+      }
+      boolean severe = level == CefSettings.LogSeverity.LOGSEVERITY_WARNING || level == CefSettings.LogSeverity.LOGSEVERITY_ERROR
+        || level == CefSettings.LogSeverity.LOGSEVERITY_FATAL;
+      events.console(idOf(b), message, source + ":" + line, severe);
+      return false;
+    }
+  }
+
+  static final class LoadHandler extends CefLoadHandlerAdapter {
+    @Override public void onLoadingStateChange(CefBrowser b, boolean isLoading, boolean canGoBack, boolean canGoForward){
+      String id = idOf(b);
+      // Windowed rendering has no paint callback; the first finished load stands in for it
+      if(!isLoading && id != null && id.equals(firstPaintId)) timeline.end(StartupTimeline.Phase.FIRST_PAINT);
+      BrowserInstance inst = instanceOf(b);
+      if(!isLoading && inst != null) throttle.pageLoaded(inst);
+      canGoBack = canGoBack(inst, canGoBack);
+      canGoForward = canGoForward(inst, canGoForward);
+      journal.navState(id, isLoading, canGoBack, canGoForward);
+      events.navState(id, isLoading, canGoBack, canGoForward);
+      BatchNavigator.Slot slot = b == null ? null : batchSlots.get(b);
+      if(slot != null) slot.loadingChanged(isLoading);
+    }
+    @Override public void onLoadStart(CefBrowser b, CefFrame f, org.cef.network.CefRequest.TransitionType transitionType){
+      if(b == null || (f != null && !f.isMain())) return;
+      loadTimings.commit(b);
+      BrowserInstance inst = instanceOf(b);
+      if(inst != null) inst.loadStarted();
+    }
+    @Override public void onLoadEnd(CefBrowser b, CefFrame f, int httpStatusCode){
+      if(b == null || (f != null && !f.isMain())) return;
+      BrowserInstance inst = instanceOf(b);
+      if(inst != null) inst.loadEnded(httpStatusCode);
+      BatchNavigator.Slot slot = batchSlots.get(b);
+      if(slot != null) slot.loadEnd(httpStatusCode);
+      String dcl = loadTimings.loadEnd(b, httpStatusCode);
+      if(dcl != null) b.executeJavaScript(dcl, "", 0);
+      if(cookieSync.isEnabled() && !isIsolated(b)) cookieSync.dirty(b.getURL()); // document.cookie writes
+    }
+    @Override public void onLoadError(CefBrowser b, CefFrame f, CefLoadHandler.ErrorCode errorCode, String errorText, String failedUrl){
+      // Aborted loads (stop, blocked navigation replaced by our page) are not errors
+      if(b == null || (f != null && !f.isMain()) || errorCode == CefLoadHandler.ErrorCode.ERR_ABORTED) return;
+      loadTimings.failed(b, errorCode + " " + errorText);
+      BrowserInstance inst = instanceOf(b);
+      if(inst != null) inst.loadFailed(new IOException(errorCode + " " + errorText + ": " + failedUrl));
+      BatchNavigator.Slot slot = batchSlots.get(b);
+      if(slot != null){
+        slot.loadError(errorCode + " " + errorText); // reported in the result, no error page
+        return;
+      }
+      if(failedUrl == null || InternalPages.isInternal(failedUrl)) return;
+      b.loadURL(InternalPages.url(InternalPages.PAGE_ERROR,
+        "url", failedUrl, "code", String.valueOf(errorCode), "text", errorText));
+    }
+  }
+
+  static final class RequestHandler extends CefRequestHandlerAdapter {
+    @Override public boolean onBeforeBrowse(CefBrowser b, CefFrame f, org.cef.network.CefRequest req, boolean user_gesture, boolean is_redirect){
+      String url = req != null ? req.getURL() : null;
+      boolean ok = isAllowed(url) && (!InternalPages.isInternal(url) || isInternalAllowed(b, f, req));
+      String id = idOf(b);
+      journal.navigation(id, url, ok, is_redirect);
+      events.navigation(id, url, ok, is_redirect);
+      if(!ok){
+        BrowserInstance inst = instanceOf(b);
+        if(inst != null && (f == null || f.isMain())) inst.loadFailed(new IOException("blocked by the navigation policy: " + url));
+        BatchNavigator.Slot slot = b == null ? null : batchSlots.get(b);
+        if(slot != null){
+          slot.blocked();
+          return true;
+        }
+        // Show a simple error page instead of navigating
+        showBlocked(b, url);
+        return true; // cancel original navigation
+      }
+      if(b != null && (f == null || f.isMain())) loadTimings.start(b, id, url, is_redirect);
+      return false;
+    }
+    @Override public CefResourceRequestHandler getResourceRequestHandler(CefBrowser b, CefFrame f, org.cef.network.CefRequest req,
+        boolean isNavigation, boolean isDownload, String requestInitiator, BoolRef disableDefaultHandling){
+      BatchNavigator.Slot slot = b == null ? null : batchSlots.get(b);
+      if(slot != null) slot.requestStarted();
+      ResourceInterceptor ri = resourceInterceptor;
+      CefResourceRequestHandler h = ri == null ? null : ri.handlerFor(b, req, isNavigation, isDownload);
+      return cookieSync.isEnabled() && !isIsolated(b) ? cookieSync.watch(h) : h;
+    }
+  }
+
+  /** Feeds the single-slot callbacks; events of unselected browsers are skipped (logs are not). */
+  private static void dispatchLegacy(List<Map<String, Object>> batch){
+    BrowserInstance sel = selected;
+    for(Map<String, Object> ev : batch){
+      Object type = ev.get(EventPipeline.TYPE);
+      Object id = ev.get(EventPipeline.BROWSER);
+      if(EventPipeline.TYPE_LOG.equals(type)){
+        Consumer<String> log = onEventLog.get();
+        if(log != null) log.accept((String)ev.get(EventPipeline.MESSAGE));
+        continue;
+      }
+      if(EventPipeline.TYPE_NAVIGATION.equals(type)){
+        Consumer<String> log = onEventLog.get();
+        if(log != null) log.accept("onBeforeBrowse url=" + ev.get(EventPipeline.URL) + " allowed=" + ev.get(EventPipeline.ALLOWED));
+        continue;
+      }
+      if(id != null && sel != null && !sel.id.equals(id)) continue;
+      if(EventPipeline.TYPE_CONSOLE.equals(type)){
+        Consumer<String> c = onConsole.get();
+        if(c != null) c.accept(ev.get(EventPipeline.MESSAGE) + " (" + ev.get(EventPipeline.SOURCE) + ")");
+      }else if(EventPipeline.TYPE_ADDRESS.equals(type)){
+        Consumer<String> c = onAddressChange.get();
+        if(c != null) c.accept((String)ev.get(EventPipeline.URL));
+      }else if(EventPipeline.TYPE_TITLE.equals(type)){
+        Consumer<String> c = onTitleChange.get();
+        if(c != null) c.accept((String)ev.get(EventPipeline.TITLE));
+      }else if(EventPipeline.TYPE_NAV.equals(type)){
+        Consumer<Boolean> l = onLoading.get();
+        if(l != null) l.accept((Boolean)ev.get(EventPipeline.LOADING));
+        Consumer<Boolean> cb = onCanBack.get();
+        if(cb != null) cb.accept((Boolean)ev.get(EventPipeline.CAN_GO_BACK));
+        Consumer<Boolean> cf = onCanFwd.get();
+        if(cf != null) cf.accept((Boolean)ev.get(EventPipeline.CAN_GO_FORWARD));
+      }
+    }
+  }
+
+  /** Replaces the interceptor after the cache or capture was switched; callers hold resourceCacheLock. */
+  private static void rebuildInterceptor(){
+    ContentCache c = resourceCacheEnabled ? resourceCache : null;
+    TrafficCapture t = captureEnabled ? capture : null;
+    resourceInterceptor = (c == null && t == null) ? null : new ResourceInterceptor(c, cacheRules, t, bodyPool, Host::idOf, Host::isIsolated,
+      cookieSync::dirty, captureBodies);
+  }
+
+  private static BrowserInstance instanceOf(CefBrowser b){
+    return b == null ? null : byBrowser.get(b);
+  }
+
+  private static String idOf(CefBrowser b){
+    BrowserInstance inst = instanceOf(b);
+    return inst == null ? null : inst.id;
+  }
+
+  /** True for browsers of a named profile, whose requests must stay in their own context. */
+  private static boolean isIsolated(CefBrowser b){
+    BrowserInstance inst = instanceOf(b);
+    return inst != null && inst.profile != null;
+  }
+
+  private static Map<String, Object> describeProfile(String name, boolean persistent, long createMicros){
+    List<String> ids = new ArrayList<>();
+    for(BrowserInstance inst : instances.values()){
+      if(Objects.equals(inst.profile, name)) ids.add(inst.id);
+    }
+    Collections.sort(ids);
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("name", name == null ? BrowserProfiles.DEFAULT : name);
+    m.put("browsers", ids);
+    m.put("persistent", persistent);
+    m.put("createMicros", createMicros);
+    return Collections.unmodifiableMap(m);
+  }
+
+  /** id, or the id of the browser selected when a command is submitted. */
+  private static String targetOf(String id){
+    BrowserInstance sel = selected;
+    return id != null ? id : sel == null ? null : sel.id;
+  }
+
+  /** The command's browser by the time it runs. */
+  private static BrowserInstance commandTarget(String id){
+    BrowserInstance inst = id == null ? null : instances.get(id);
+    if(inst == null) throw new IllegalArgumentException(id == null ? "no browser selected" : "no browser " + id);
+    return inst;
+  }
+
+  /** A navigation command: registers its future with the browser, then starts the load. */
+  private static CompletableFuture<Integer> loadCommand(String id, Consumer<BrowserInstance> action){
+    String target = targetOf(id);
+    return commands.submit(result -> {
+      BrowserInstance inst = commandTarget(target);
+      inst.touch();
+      inst.expectLoad(result);
+      try{
+        action.accept(inst);
+      }catch(Throwable t){
+        inst.loadFailed(t);
+      }
+    });
+  }
+
+  /** One history step (-1 back, 1 forward); a restored browser loads the kept entry instead. */
+  private static void step(BrowserInstance inst, int delta){
+    CefBrowser b = inst.browser;
+    NavigationHistory h = inst.history;
+    if(h.isRestored()){
+      String url = h.entry(delta);
+      if(url == null) throw new IllegalStateException(delta < 0 ? "cannot go back" : "cannot go forward");
+      h.expectMove(delta);
+      b.loadURL(url);
+      return;
+    }
+    if(delta < 0 ? !b.canGoBack() : !b.canGoForward()) throw new IllegalStateException(delta < 0 ? "cannot go back" : "cannot go forward");
+    h.expectMove(delta);
+    if(delta < 0) b.goBack();
+    else b.goForward();
+  }
+
+  /** Chromium's answer, or the kept history's for a restored browser (Chromium's starts empty). */
+  private static boolean canGoBack(BrowserInstance inst, boolean chromium){
+    return inst != null && inst.history.isRestored() ? inst.history.canGoBack() : chromium;
+  }
+
+  private static boolean canGoForward(BrowserInstance inst, boolean chromium){
+    return inst != null && inst.history.isRestored() ? inst.history.canGoForward() : chromium;
+  }
+
+  /** Waits for the command behind a blocking method and rethrows its failure as is. */
+  private static <T> T await(CompletableFuture<T> f) throws Throwable{
+    try{
+      return f.join();
+    }catch(CompletionException e){
+      throw e.getCause() != null ? e.getCause() : e;
+    }
+  }
+
+  private static synchronized void ensureClient() throws Throwable{
+    if(client != null) return;
+    initStarted.set(true);
+    timeline.record(StartupTimeline.Phase.ATTACH, Agent.attachBeginNanos(), Agent.attachEndNanos());
+
+    try{
+      timeline.begin(StartupTimeline.Phase.CLASS_LOAD);
+      final CefAppBuilder builder = new CefAppBuilder();
+      final boolean offscreen = RENDERING_OFFSCREEN.equals(renderingMode);
+      if(offscreen){
+        // Software rendering into our buffer; no GL context is ever needed
+        builder.addJcefArgs("--disable-gpu", "--disable-gpu-compositing");
+      }else{
+        builder.addJcefArgs("--disable-gpu-vsync");
+      }
+      builder.addJcefArgs("--enable-precise-memory-info"); // current, unrounded performance.memory for MemoryMonitor
+      builder.getCefSettings().windowless_rendering_enabled = offscreen;
+      profiles.configure(builder);
+      builder.setAppHandler(new MavenCefAppHandlerAdapter(){
+        @Override public void onRegisterCustomSchemes(CefSchemeRegistrar registrar){
+          InternalPages.registerScheme(registrar);
+        }
+        @Override public void onContextInitialized(){
+          CefApp.getInstance().registerSchemeHandlerFactory(InternalPages.SCHEME, "", pages);
+        }
+      });
+      timeline.end(StartupTimeline.Phase.CLASS_LOAD);
+
+      timeline.begin(StartupTimeline.Phase.NATIVE_INIT);
+      try(NativeBundleCache natives = NativeBundleCache.prepare(builder)){
+        app = builder.build();
+        natives.commit();
+      }catch(IOException | UnsupportedPlatformException | InterruptedException | CefInitializationException e){
+        throw e;
+      }
+      timeline.end(StartupTimeline.Phase.NATIVE_INIT);
+
+      timeline.begin(StartupTimeline.Phase.CLIENT_CREATION);
+      CefClient c = app.createClient();
+
+      // Handlers
+      c.addDisplayHandler(new DisplayHandler());
+      c.addLoadHandler(new LoadHandler());
+
+      // Request/navigation policy
+      c.addRequestHandler(new RequestHandler());
+
+      // Page JS <-> Java channel (window.burpQuery)
+      CefMessageRouter router = CefMessageRouter.create(
+        new CefMessageRouter.CefMessageRouterConfig(PageChannel.QUERY_FUNCTION, PageChannel.CANCEL_FUNCTION));
+      router.addHandler(pageChannel.routerHandler(Host::idOf), true);
+      c.addMessageRouter(router);
+
+      // Other handlers omitted for compatibility; add incrementally if needed
+
+      windowlessInitialized = offscreen;
+      client = c;
+      if(cookieSync.isEnabled()) cookieSync.setEnabled(true); // enabled before CEF was up
+      memory.start(Host::memorySampled);
+      timeline.end(StartupTimeline.Phase.CLIENT_CREATION);
+    }catch(Throwable t){
+      CompletableFuture<Void> failed = ready;
+      ready = new CompletableFuture<>();
+      initStarted.set(false);
+      failed.completeExceptionally(t);
+      throw t;
+    }
+    ready.complete(null);
+  }
+
+  /** Shows the selected browser if the UI is visible and hides all others. */
+  private static synchronized void applyVisibility(){
+    boolean visible = throttle.isVisible();
+    BrowserInstance sel = selected;
+    for(BrowserInstance inst : instances.values()){
+      throttle.apply(inst, visible && inst == sel, maxFrameRate);
+    }
+  }
+
+  /** Closes the least recently used, unselected browsers until the cap holds; remembers their URLs. */
+  private static synchronized void evictIdle(){
+    while(instances.size() > maxBrowsers){
+      BrowserInstance lru = null;
+      for(BrowserInstance inst : instances.values()){
+        if(inst == selected) continue;
+        if(lru == null || inst.lastUsedNanos() < lru.lastUsedNanos()) lru = inst;
+      }
+      if(lru == null) return;
+      forget(lru);
+      logEvent("evicted browser id=" + lru.id);
+    }
+  }
+
+  /** Closes inst but keeps its URL, profile and history for the next createBrowser of its id. */
+  private static void forget(BrowserInstance inst){
+    instances.remove(inst.id);
+    if(inst.lastUrl() != null) evictedUrls.put(inst.id, inst.lastUrl());
+    if(inst.profile != null) evictedProfiles.put(inst.id, inst.profile);
+    if(inst.history.size() > 0) evictedHistory.put(inst.id, inst.history);
+    close(inst);
+  }
+
+  /**
+   * After every memory sample: asks the pages for their JS heap while
+   * diagnostics want it and, while the helpers are over budget, discards the
+   * longest idle browser (one per sample, so the next one sees what it freed).
+   */
+  private static void memorySampled(MemoryMonitor.Sample s){
+    commands.submit(result -> {
+      if(memory.heapsWanted()) requestHeaps();
+      long budget = memory.budgetBytes();
+      if(budget > 0 && s.totalBytes > budget){
+        String id = discardIdle(memory.minIdleMillis());
+        if(id != null) logEvent("discarded browser id=" + id + " (helpers " + (s.totalBytes >> 20) + " MiB, budget " + (budget >> 20) + " MiB)");
+      }
+      result.complete(null);
+    });
+  }
+
+  /** Runs HEAP_SCRIPT in every page; the reports arrive through onConsoleMessage. */
+  private static void requestHeaps(){
+    for(BrowserInstance inst : instances.values()){
+      try{ inst.browser.executeJavaScript(MemoryMonitor.HEAP_SCRIPT, "", 0); }catch(Throwable ignored){}
+    }
+  }
+
+  /** Discards the unselected browser idle the longest, if idle at least minIdleMillis; returns its id. */
+  private static synchronized String discardIdle(long minIdleMillis){
+    long now = System.nanoTime();
+    BrowserInstance idle = null;
+    for(BrowserInstance inst : instances.values()){
+      if(inst == selected || now - inst.lastUsedNanos() < minIdleMillis * 1_000_000L) continue;
+      if(idle == null || inst.lastUsedNanos() < idle.lastUsedNanos()) idle = inst;
+    }
+    if(idle == null) return null;
+    discard(idle);
+    return idle.id;
+  }
+
+  private static synchronized void discard(BrowserInstance inst){
+    forget(inst);
+    discarded.add(inst.id);
+    memory.discarded();
+  }
+
+  /** Runs refillPool on the one "jcef-pool" thread; requests while one is queued are merged. */
+  private static void refillPoolAsync(){
+    if(client == null || pool.size() >= poolSize || !refillQueued.compareAndSet(false, true)) return;
+    poolFiller.execute(() -> {
+      refillQueued.set(false); // a request from here on queues another pass
+      refillPool();
+    });
+  }
+
+  private static synchronized void refillPool(){
+    CefClient c = client;
+    while(c != null && pool.size() < poolSize){
+      BrowserInstance warm = new BrowserInstance("pool-" + poolSeq.incrementAndGet(), realized(newBrowser(c, "about:blank", null)));
+      byBrowser.put(warm.browser, warm);
+      pool.addLast(warm);
+    }
+  }
+
+  /**
+   * b created now rather than when its component is first shown: windowed
+   * browsers are realized, off-screen ones get the batch viewport until
+   * their view is laid out. A page (or a pooled browser that is claimed) can
+   * then be loaded at once without the load being lost.
+   */
+  private static CefBrowser realized(CefBrowser b){
+    if(b.getUIComponent() instanceof OffscreenView view){
+      view.setSize(BATCH_VIEWPORT_WIDTH, BATCH_VIEWPORT_HEIGHT);
+      b.wasResized(BATCH_VIEWPORT_WIDTH, BATCH_VIEWPORT_HEIGHT);
+    }else{
+      b.createImmediately();
+    }
+    return b;
+  }
+
+  /** A browser for a batch navigation page; not listed, selected or throttled. */
+  private static BatchNavigator.Page openBatchPage(BatchNavigator.Slot slot){
+    CefClient c = client;
+    if(c == null) throw new IllegalStateException("CEF is not initialized");
+    CefBrowser b = realized(newBrowser(c, "about:blank", null));
+    byBrowser.put(b, new BrowserInstance(slot.id, b)); // id for events and capture
+    batchSlots.put(b, slot);
+    return new BatchNavigator.Page(){
+      @Override public void load(String url){ b.loadURL(url); }
+      @Override public void stop(){ b.stopLoad(); }
+      @Override public String url(){ return b.getURL(); }
+      @Override public void close(){
+        batchSlots.remove(b);
+        byBrowser.remove(b);
+        events.forget(slot.id);
+        try{ b.close(true); }catch(Throwable ignored){}
+      }
+    };
+  }
+
+  /** Copies the frame of a loaded batch page once it stopped painting; encoding finishes in the background. */
+  private static CompletableFuture<Map<String, Object>> screenshotPage(BatchNavigator.Slot slot, Map<String, Object> result, String format)
+      throws InterruptedException{
+    OffscreenView view = null;
+    for(Map.Entry<CefBrowser, BatchNavigator.Slot> e : batchSlots.entrySet()){
+      if(e.getValue() == slot && e.getKey().getUIComponent() instanceof OffscreenView v) view = v;
+    }
+    if(view == null) return CompletableFuture.completedFuture(withScreenshotError(result, "screenshots of batch pages need offscreen rendering"));
+    ScreenshotPipeline.settle(view::lastPaintNanos);
+    return screenshots.capture(view::snapshot, format, result).exceptionally(t ->
+      withScreenshotError(result, String.valueOf(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t)));
+  }
+
+  private static Map<String, Object> withScreenshotError(Map<String, Object> result, String error){
+    Map<String, Object> m = new LinkedHashMap<>(result);
+    m.put(ScreenshotPipeline.ERROR, error);
+    return Collections.unmodifiableMap(m);
+  }
+
+  /** A new browser in the current rendering mode; context null = the default profile. */
+  private static CefBrowser newBrowser(CefClient c, String url, CefRequestContext context){
+    if(!RENDERING_OFFSCREEN.equals(renderingMode) || !windowlessInitialized){
+      return c.createBrowser(url, false, false, context);
+    }
+    OffscreenView view = new OffscreenView();
+    CefBrowserSettings settings = new CefBrowserSettings();
+    settings.windowless_frame_rate = maxFrameRate;
+    CefBrowser b = c.createBrowser(url, new CefRendering.CefRenderingWithHandler(view.handler(), view), false, context, settings);
+    view.attach(b);
+    b.createImmediately(); // no native window whose realization would create it
+    return b;
+  }
+
+  private static String defaultRenderingMode(){
+    String m = renderingModeOf(System.getProperty(RENDERING_PROPERTY));
+    return m != null ? m : RENDERING_WINDOWED;
+  }
+
+  private static String renderingModeOf(String mode){
+    if(mode == null) return null;
+    String m = mode.trim().toLowerCase(Locale.ROOT);
+    return RENDERING_WINDOWED.equals(m) || RENDERING_OFFSCREEN.equals(m) ? m : null;
+  }
+
+  private static void close(BrowserInstance inst){
+    inst.cancelLoad();
+    byBrowser.remove(inst.browser);
+    events.forget(inst.id);
+    try{ inst.browser.close(true); }catch(Throwable ignored){}
+  }
+
+  private static void logEvent(String message){
+    events.log(null, message);
+  }
+
   private static boolean isAllowed(String url){
     if(url == null) return false;
-    // Always allow internal/about/data schemes so we can render error pages
-    if(url.startsWith("about:") || url.startsWith("data:")) return true;
+    // Always allow our own pages and about:/data:
+    if(InternalPages.isInternal(url) || url.startsWith("about:") || url.startsWith("data:")) return true;
+    NavigationPolicy policy = navigationPolicy;
+    if(policy != null) return policy.isAllowed(url);
     Pattern p = allowPattern;
     if(p == null) return true;
     return p.matcher(url).matches();
   }
 
-  private static void showBlocked(String attempted){
+  /**
+   * burpbrowser:// only in a main frame, and only when the host or the user
+   * loads it (explicit loads, reloads) or an internal page links to it; never
+   * in a frame or by link, form or script of a web page, which could
+   * otherwise reach the page channel handlers through it.
+   */
+  private static boolean isInternalAllowed(CefBrowser b, CefFrame f, org.cef.network.CefRequest req){
+    if(f != null && !f.isMain()) return false;
+    org.cef.network.CefRequest.TransitionType t = req.getTransitionType();
+    if(t == org.cef.network.CefRequest.TransitionType.TT_EXPLICIT || t == org.cef.network.CefRequest.TransitionType.TT_RELOAD) return true;
+    String current = f != null ? f.getURL() : b != null ? b.getURL() : null;
+    return current == null || current.isEmpty() || current.startsWith("about:") || InternalPages.isInternal(current);
+  }
+
+  private static void showBlocked(CefBrowser browser, String attempted){
     if(browser == null) return;
-    String safe = attempted == null ? "" : attempted.replace("<", "&lt;").replace(">", "&gt;");
-    String html = "<!doctype html><html><head><meta charset='utf-8'><title>Navigation Blocked</title>" +
-      "<style>body{font-family:system-ui,Segoe UI,Roboto,Arial,sans-serif;margin:2rem;color:#333} .card{border:1px solid #ddd;border-radius:8px;padding:1.5rem;max-width:860px} .bad{color:#b00020} code{background:#f6f8fa;padding:2px 4px;border-radius:4px} </style>"+
-      "</head><body><div class='card'><h2 class='bad'>Navigation blocked</h2>"+
-      "<p>This extension currently allows only <code>https://google.com</code> (testing mode).</p>"+
-      "<p>Attempted URL:</p><pre><code>"+ safe +"</code></pre>"+
-      "</div></body></html>";
-    String url = "data:text/html;charset=utf-8," + encodeForDataUrl(html);
     try{
-      browser.loadURL(url);
+      browser.loadURL(InternalPages.url(InternalPages.PAGE_BLOCKED, "url", attempted));
     }catch(Throwable ignored){}
   }
 
-  private static String encodeForDataUrl(String s){
-    StringBuilder out = new StringBuilder(s.length()*2);
-    for(char c : s.toCharArray()){
-      if(c <= 0x20 || c >= 0x7f || c=='%' || c=='#' || c=='?' || c=='&'){
-        out.append('%');
-        out.append(String.format("%02X", (int)c));
-      }else if(c==' '){
-        out.append("%20");
-      }else{
-        out.append(c);
-      }
-    }
-    return out.toString();
+  /** Active rules for the internal pages, one per line. */
+  private static String describeRules(){
+    NavigationPolicy policy = navigationPolicy;
+    if(policy != null) return String.join("\n", policy.rules());
+    Pattern p = allowPattern;
+    return p == null ? "" : "regex " + p.pattern();
   }
 }
@@ -0,0 +1,316 @@
+package com.jSoft.burp.browserhost;
+
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.callback.CefCallback;
+import org.cef.callback.CefSchemeHandlerFactory;
+import org.cef.callback.CefSchemeRegistrar;
+import org.cef.handler.CefResourceHandler;
+import org.cef.handler.CefResourceHandlerAdapter;
+import org.cef.misc.IntRef;
+import org.cef.misc.StringRef;
+import org.cef.network.CefRequest;
+import org.cef.network.CefResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Pages served from memory under burpbrowser:// (blocked, error, start and
+ * their static assets). Templates are read from the classpath once and split
+ * into literal parts and {{name}} slots; rendering only appends the parts and
+ * the HTML-escaped values. Only the page's own values (url, code, text) come
+ * from the query string, since any page can link to an internal URL; home and
+ * rules always come from the context. A slot inside an href or src attribute
+ * is left empty unless its value is an http or https URL.
+ *
+ * The scheme is registered with CEF through onRegisterCustomSchemes and the
+ * handler factory (see Host.ensureClient).
+ */
+final class InternalPages implements CefSchemeHandlerFactory {
+  static final String SCHEME = "burpbrowser";
+  static final String PREFIX = SCHEME + "://";
+
+  static final String PAGE_BLOCKED = "blocked";
+  static final String PAGE_ERROR   = "error";
+  static final String PAGE_START   = "start";
+  static final String ASSETS       = "assets";
+
+  private static final String RESOURCE_DIR = "pages/";
+  private static final String[] PAGES  = { PAGE_BLOCKED, PAGE_ERROR, PAGE_START };
+  private static final String[] ASSET_FILES = { "style.css" };
+  private static final Set<String> QUERY_VALUES = Set.of("url", "code", "text");
+
+  private final Map<String, Template> templates = new HashMap<>();
+  private final Map<String, Response> assets    = new HashMap<>();
+  private final Supplier<String> rules;
+  private final Supplier<String> home;
+
+  InternalPages(Supplier<String> rules, Supplier<String> home){
+    this.rules = rules;
+    this.home = home;
+    for(String page : PAGES){
+      templates.put(page, Template.compile(readResource(RESOURCE_DIR + page + ".html")));
+    }
+    for(String file : ASSET_FILES){
+      byte[] body = readResource(RESOURCE_DIR + file).getBytes(StandardCharsets.UTF_8);
+      assets.put(file, new Response(200, mimeOf(file), body, true));
+    }
+  }
+
+  /** Registers the scheme; call from CefAppHandler.onRegisterCustomSchemes. */
+  static void registerScheme(CefSchemeRegistrar registrar){
+    // standard (host/path parsing), not local, not secure, no CORS/CSP bypass, no fetch
+    registrar.addCustomScheme(SCHEME, true, false, false, false, false, false, false);
+  }
+
+  static boolean isInternal(String url){
+    return url != null && url.startsWith(PREFIX);
+  }
+
+  /** burpbrowser://page/?k=v&amp;... with URL-encoded values; keyValues alternate names and values. */
+  static String url(String page, String... keyValues){
+    StringBuilder sb = new StringBuilder(PREFIX.length() + page.length() + 64).append(PREFIX).append(page).append('/');
+    char sep = '?';
+    for(int i = 0; i + 1 < keyValues.length; i += 2){
+      if(keyValues[i + 1] == null) continue;
+      sb.append(sep).append(keyValues[i]).append('=')
+        .append(URLEncoder.encode(keyValues[i + 1], StandardCharsets.UTF_8));
+      sep = '&';
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public CefResourceHandler create(CefBrowser browser, CefFrame frame, String scheme, CefRequest request){
+    return new Handler(serve(request == null ? null : request.getURL()));
+  }
+
+  /** Resolves an internal URL to a response; unknown pages get a 404 error page. */
+  Response serve(String url){
+    if(!isInternal(url)) return notFound(url);
+    int start = PREFIX.length();
+    int end = start;
+    while(end < url.length() && url.charAt(end) != '/' && url.charAt(end) != '?' && url.charAt(end) != '#') end++;
+    String page = url.substring(start, end);
+
+    if(ASSETS.equals(page)){
+      int q = url.indexOf('?', end);
+      String file = url.substring(Math.min(end + 1, url.length()), q < 0 ? url.length() : q);
+      Response asset = assets.get(file);
+      return asset != null ? asset : notFound(url);
+    }
+    Template t = templates.get(page);
+    if(t == null) return notFound(url);
+    Map<String, String> params = query(url, end);
+    return new Response(200, "text/html", render(t, params), false);
+  }
+
+  byte[] render(String page, Map<String, String> params){
+    Template t = templates.get(page);
+    return t == null ? new byte[0] : render(t, params);
+  }
+
+  //-----------------------------------------------------------------------------
+  private byte[] render(Template t, Map<String, String> params){
+    StringBuilder sb = new StringBuilder(t.length + 256);
+    for(int i = 0; i < t.names.length; i++){
+      sb.append(t.literals[i]);
+      String v = value(t.names[i], params);
+      escapeHtml(sb, t.links[i] && !isWebUrl(v) ? "" : v);
+    }
+    sb.append(t.literals[t.names.length]);
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private String value(String name, Map<String, String> params){
+    if(QUERY_VALUES.contains(name)){
+      String v = params.get(name);
+      return v == null ? "" : v;
+    }
+    if("rules".equals(name)){
+      String r = rules.get();
+      return r == null || r.isEmpty() ? "(none: everything is allowed)" : r;
+    }
+    if("home".equals(name)) return home.get();
+    return "";
+  }
+
+  private Response notFound(String url){
+    Map<String, String> params = new HashMap<>();
+    params.put("code", "404");
+    params.put("text", "No such internal page");
+    params.put("url", url == null ? "" : url);
+    return new Response(404, "text/html", render(templates.get(PAGE_ERROR), params), false);
+  }
+
+  private static Map<String, String> query(String url, int from){
+    Map<String, String> params = new HashMap<>();
+    int q = url.indexOf('?', from);
+    if(q < 0) return params;
+    int hash = url.indexOf('#', q);
+    int stop = hash < 0 ? url.length() : hash;
+    int i = q + 1;
+    while(i < stop){
+      int amp = url.indexOf('&', i);
+      if(amp < 0 || amp > stop) amp = stop;
+      int eq = url.indexOf('=', i);
+      if(eq > i && eq < amp){
+        try{
+          params.put(url.substring(i, eq), URLDecoder.decode(url.substring(eq + 1, amp), StandardCharsets.UTF_8));
+        }catch(IllegalArgumentException ignored){
+          // malformed escape: skip the parameter
+        }
+      }
+      i = amp + 1;
+    }
+    return params;
+  }
+
+  /** http or https, the only schemes an internal page links to. */
+  static boolean isWebUrl(String url){
+    if(url == null) return false;
+    int colon = url.indexOf(':');
+    if(colon < 0) return false;
+    String scheme = url.substring(0, colon).trim();
+    return scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https");
+  }
+
+  static void escapeHtml(StringBuilder sb, String s){
+    if(s == null) return;
+    int last = 0;
+    for(int i = 0, n = s.length(); i < n; i++){
+      String rep;
+      switch(s.charAt(i)){
+        case '&':  rep = "&amp;";  break;
+        case '<':  rep = "&lt;";   break;
+        case '>':  rep = "&gt;";   break;
+        case '"':  rep = "&quot;"; break;
+        case '\'': rep = "&#39;";  break;
+        default: continue;
+      }
+      sb.append(s, last, i).append(rep);
+      last = i + 1;
+    }
+    sb.append(s, last, s.length());
+  }
+
+  private static String mimeOf(String file){
+    if(file.endsWith(".css")) return "text/css";
+    if(file.endsWith(".js")) return "text/javascript";
+    if(file.endsWith(".svg")) return "image/svg+xml";
+    return "text/plain";
+  }
+
+  private static String readResource(String name){
+    try(InputStream in = InternalPages.class.getResourceAsStream(name)){
+      if(in == null) throw new IllegalStateException("missing resource " + name);
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }catch(IOException e){
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  //-----------------------------------------------------------------------------
+  /**
+   * Literal parts around {{name}} slots; literals.length == names.length + 1.
+   * links marks the slots that open an href or src attribute value.
+   */
+  static final class Template {
+    final String[]  literals;
+    final String[]  names;
+    final boolean[] links;
+    final int       length;
+
+    private Template(String[] literals, String[] names, int length){
+      this.literals = literals;
+      this.names = names;
+      this.length = length;
+      this.links = new boolean[names.length];
+      for(int i = 0; i < names.length; i++){
+        String before = literals[i].replace(" ", "").toLowerCase(Locale.ROOT);
+        links[i] = before.endsWith("href=\"") || before.endsWith("src=\"") || before.endsWith("href='") || before.endsWith("src='");
+      }
+    }
+
+    static Template compile(String source){
+      List<String> literals = new ArrayList<>();
+      List<String> names = new ArrayList<>();
+      int pos = 0;
+      while(true){
+        int open = source.indexOf("{{", pos);
+        int close = open < 0 ? -1 : source.indexOf("}}", open + 2);
+        if(close < 0){
+          literals.add(source.substring(pos));
+          break;
+        }
+        literals.add(source.substring(pos, open));
+        names.add(source.substring(open + 2, close).trim());
+        pos = close + 2;
+      }
+      return new Template(literals.toArray(new String[0]), names.toArray(new String[0]), source.length());
+    }
+  }
+
+  static final class Response {
+    final int     status;
+    final String  mime;
+    final byte[]  body;
+    final boolean cacheable;
+
+    Response(int status, String mime, byte[] body, boolean cacheable){
+      this.status = status;
+      this.mime = mime;
+      this.body = body;
+      this.cacheable = cacheable;
+    }
+  }
+
+  /** Streams one in-memory response to CEF. */
+  private static final class Handler extends CefResourceHandlerAdapter {
+    private final Response response;
+    private int offset;
+
+    Handler(Response response){
+      this.response = response;
+    }
+
+    @Override
+    public boolean processRequest(CefRequest request, CefCallback callback){
+      callback.Continue();
+      return true;
+    }
+
+    @Override
+    public void getResponseHeaders(CefResponse r, IntRef length, StringRef redirectUrl){
+      r.setStatus(response.status);
+      r.setMimeType(response.mime);
+      r.setHeaderByName("Cache-Control", response.cacheable ? "max-age=3600" : "no-store", true);
+      length.set(response.body.length);
+    }
+
+    @Override
+    public boolean readResponse(byte[] out, int bytesToRead, IntRef bytesRead, CefCallback callback){
+      int n = Math.min(bytesToRead, response.body.length - offset);
+      if(n <= 0){
+        bytesRead.set(0);
+        return false;
+      }
+      System.arraycopy(response.body, offset, out, 0, n);
+      offset += n;
+      bytesRead.set(n);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.jSoft.burp.browserhost;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of millisecond latencies.
+ *
+ * Values below 8 get a bucket each; above, every power of two is split into
+ * 8 buckets, so a bucket is at most 12.5% wide and recording is a couple of
+ * shifts and one atomic increment. Percentiles report the bucket's upper
+ * bound (capped at the maximum seen). Covers up to about 2^31 ms.
+ */
+final class LatencyHistogram {
+  private static final int SUB_BITS = 3;
+  private static final int SUB      = 1 << SUB_BITS;
+  private static final int BUCKETS  = (32 - SUB_BITS) * SUB;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder  count = new LongAdder();
+  private final LongAdder  sum   = new LongAdder();
+  private final AtomicLong max   = new AtomicLong();
+
+  void record(long millis){
+    long v = Math.max(0, millis);
+    counts.incrementAndGet(indexOf(v));
+    count.increment();
+    sum.add(v);
+    long m;
+    while(v > (m = max.get()) && !max.compareAndSet(m, v)){}
+  }
+
+  long count(){
+    return count.sum();
+  }
+
+  long mean(){
+    long n = count.sum();
+    return n == 0 ? 0 : sum.sum() / n;
+  }
+
+  long max(){
+    return max.get();
+  }
+
+  /** Smallest bucket bound with at least fraction p (0..1) of the values at or below it; 0 if empty. */
+  long percentile(double p){
+    long n = count.sum();
+    if(n == 0) return 0;
+    long target = Math.max(1, (long)Math.ceil(p * n));
+    long seen = 0;
+    for(int i = 0; i < BUCKETS; i++){
+      seen += counts.get(i);
+      if(seen >= target) return Math.min(upperBound(i), max.get());
+    }
+    return max.get();
+  }
+
+  //-----------------------------------------------------------------------------
+  static int indexOf(long v){
+    if(v < SUB) return (int)v;
+    int e = 63 - Long.numberOfLeadingZeros(v); // >= SUB_BITS
+    int i = (e - SUB_BITS + 1) * SUB + (int)((v >>> (e - SUB_BITS)) & (SUB - 1));
+    return Math.min(i, BUCKETS - 1);
+  }
+
+  static long upperBound(int i){
+    if(i < SUB) return i;
+    int e = i / SUB + SUB_BITS - 1;
+    long width = 1L << (e - SUB_BITS);
+    return (1L << e) + (i % SUB + 1) * width - 1;
+  }
+}
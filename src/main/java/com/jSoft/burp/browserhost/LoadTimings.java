@@ -0,0 +1,266 @@
+package com.jSoft.burp.browserhost;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Main-frame navigation timings: start (navigation requested), commit
+ * (response committed, CEF onLoadStart), DOMContentLoaded and load end, with
+ * the HTTP status, fed into per-host latency histograms.
+ *
+ * CEF has no DOMContentLoaded callback; at load end the page is asked for
+ * its Navigation Timing entry (dclScript) and answers with a console message
+ * that the display handler passes to domContentLoaded and suppresses. The
+ * DOMContentLoaded value is relative to the renderer's navigation start.
+ *
+ * Browsers are opaque keys so this stays independent of CEF. Hosts beyond
+ * MAX_HOSTS share one "(other)" entry; the last MAX_RECENT navigations are
+ * kept for the stats view.
+ */
+final class LoadTimings {
+  static final int    MAX_HOSTS  = 256;
+  static final int    MAX_RECENT = 100;
+  static final String OTHER_HOST = "(other)";
+  static final String DCL_PREFIX = "__burpTiming:";
+
+  // Map keys of recent navigations and host stats
+  static final String BROWSER    = "browser";
+  static final String TIME       = "time";
+  static final String URL        = "url";
+  static final String HOST       = "host";
+  static final String STATUS     = "status";
+  static final String ERROR      = "error";
+  static final String COMMIT_MS  = "commitMillis";
+  static final String DCL_MS     = "domContentLoadedMillis";
+  static final String LOAD_MS    = "loadMillis";
+  static final String LOADS      = "loads";
+  static final String ERRORS     = "errors";
+
+  /** One navigation of one browser, from request to load end. */
+  private static final class Navigation {
+    final long   seq;
+    final String browser;
+    final long   time = System.currentTimeMillis();
+    final long   startNanos = System.nanoTime();
+    volatile String url;
+    volatile long   commitNanos;
+    volatile long   loadEndNanos;
+    volatile int    status;
+    volatile String error;
+    volatile long   dclMillis = -1;
+
+    Navigation(long seq, String browser, String url){
+      this.seq = seq;
+      this.browser = browser;
+      this.url = url;
+    }
+  }
+
+  private static final class HostStats {
+    final LatencyHistogram commit = new LatencyHistogram();
+    final LatencyHistogram dcl    = new LatencyHistogram();
+    final LatencyHistogram load   = new LatencyHistogram();
+    final LongAdder   errors      = new LongAdder();
+    final LongAdder[] statusClass = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()}; // 1xx..5xx
+  }
+
+  private final Map<Object, Navigation>  pending  = new ConcurrentHashMap<>(); // by browser
+  private final Map<Long, Navigation>    awaitingDcl = new ConcurrentHashMap<>();
+  private final Map<String, HostStats>   hosts    = new ConcurrentHashMap<>();
+  private final Deque<Navigation>        recent   = new ArrayDeque<>(); // guarded by itself
+  private final AtomicLong seq = new AtomicLong();
+
+  /** A main-frame navigation to url was allowed; a redirect keeps the original start. */
+  void start(Object browser, String browserId, String url, boolean redirect){
+    Navigation n = pending.get(browser);
+    if(redirect && n != null){
+      n.url = url;
+      return;
+    }
+    if(hostOf(url) == null){
+      pending.remove(browser); // internal page, about:, data:
+      return;
+    }
+    pending.put(browser, new Navigation(seq.incrementAndGet(), browserId, url));
+  }
+
+  void commit(Object browser){
+    Navigation n = pending.get(browser);
+    if(n != null && n.commitNanos == 0) n.commitNanos = System.nanoTime();
+  }
+
+  /**
+   * Main frame finished; records commit and load latency. Returns the script
+   * that reports DOMContentLoaded for this navigation, or null if none is
+   * being timed.
+   */
+  String loadEnd(Object browser, int status){
+    Navigation n = pending.remove(browser);
+    if(n == null) return null;
+    n.loadEndNanos = System.nanoTime();
+    n.status = status;
+    HostStats h = statsOf(n.url);
+    if(n.commitNanos != 0) h.commit.record(millis(n.startNanos, n.commitNanos));
+    h.load.record(millis(n.startNanos, n.loadEndNanos));
+    if(status >= 100 && status < 600) h.statusClass[status / 100 - 1].increment();
+    finished(n);
+    awaitingDcl.put(n.seq, n);
+    return dclScript(n.seq);
+  }
+
+  /** Main frame failed; aborted loads are not reported (a new navigation replaces them). */
+  void failed(Object browser, String error){
+    Navigation n = pending.remove(browser);
+    if(n == null) return;
+    n.loadEndNanos = System.nanoTime();
+    n.error = error;
+    statsOf(n.url).errors.increment();
+    finished(n);
+  }
+
+  /** Console message from dclScript; false if message is not one. */
+  boolean domContentLoaded(String message){
+    if(message == null || !message.startsWith(DCL_PREFIX)) return false;
+    String[] parts = message.substring(DCL_PREFIX.length()).split(":");
+    if(parts.length != 2) return true;
+    try{
+      Navigation n = awaitingDcl.remove(Long.parseLong(parts[0]));
+      long dcl = Long.parseLong(parts[1]);
+      if(n != null && dcl > 0){
+        n.dclMillis = dcl;
+        statsOf(n.url).dcl.record(dcl);
+      }
+    }catch(NumberFormatException ignored){}
+    return true;
+  }
+
+  /** Per-host counts and percentiles (p50/p90/p99/max for commit, DOMContentLoaded and load), slowest p90 load first. */
+  List<Map<String, Object>> hostStats(){
+    List<Map<String, Object>> out = new ArrayList<>();
+    for(Map.Entry<String, HostStats> e : hosts.entrySet()){
+      HostStats h = e.getValue();
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put(HOST, e.getKey());
+      m.put(LOADS, h.load.count());
+      m.put(ERRORS, h.errors.sum());
+      for(int i = 0; i < h.statusClass.length; i++) m.put((i + 1) + "xx", h.statusClass[i].sum());
+      put(m, "commit", h.commit);
+      put(m, "domContentLoaded", h.dcl);
+      put(m, "load", h.load);
+      out.add(Collections.unmodifiableMap(m));
+    }
+    out.sort(Comparator.comparingLong((Map<String, Object> m) -> (Long)m.get("loadP90")).reversed());
+    return out;
+  }
+
+  /** The last MAX_RECENT navigations, newest first; missing phases are absent. */
+  List<Map<String, Object>> recent(){
+    List<Navigation> copy;
+    synchronized(recent){
+      copy = new ArrayList<>(recent);
+    }
+    List<Map<String, Object>> out = new ArrayList<>(copy.size());
+    for(Navigation n : copy){
+      Map<String, Object> m = new LinkedHashMap<>();
+      if(n.browser != null) m.put(BROWSER, n.browser);
+      m.put(TIME, n.time);
+      m.put(URL, n.url);
+      m.put(HOST, hostOf(n.url));
+      m.put(STATUS, n.status);
+      if(n.error != null) m.put(ERROR, n.error);
+      if(n.commitNanos != 0) m.put(COMMIT_MS, millis(n.startNanos, n.commitNanos));
+      if(n.dclMillis >= 0) m.put(DCL_MS, n.dclMillis);
+      m.put(LOAD_MS, millis(n.startNanos, n.loadEndNanos));
+      out.add(Collections.unmodifiableMap(m));
+    }
+    return out;
+  }
+
+  void reset(){
+    hosts.clear();
+    awaitingDcl.clear();
+    synchronized(recent){
+      recent.clear();
+    }
+  }
+
+  String diagnostics(){
+    long loads = 0, errors = 0;
+    for(HostStats h : hosts.values()){
+      loads += h.load.count();
+      errors += h.errors.sum();
+    }
+    StringBuilder sb = new StringBuilder("Load timings: ").append(loads).append(" loads, ").append(errors)
+      .append(" errors, ").append(hosts.size()).append(" hosts\n");
+    List<Map<String, Object>> stats = hostStats();
+    for(int i = 0; i < Math.min(5, stats.size()); i++){
+      Map<String, Object> m = stats.get(i);
+      sb.append("  ").append(m.get(HOST)).append(": load p50=").append(m.get("loadP50"))
+        .append("ms p90=").append(m.get("loadP90")).append("ms (").append(m.get(LOADS)).append(")\n");
+    }
+    return sb.toString();
+  }
+
+  //-----------------------------------------------------------------------------
+  private void finished(Navigation n){
+    synchronized(recent){
+      recent.addFirst(n);
+      while(recent.size() > MAX_RECENT) recent.removeLast();
+    }
+    // Unanswered DOMContentLoaded queries (page navigated away, script blocked)
+    if(awaitingDcl.size() > MAX_RECENT) awaitingDcl.keySet().removeIf(s -> s < n.seq - MAX_RECENT);
+  }
+
+  private HostStats statsOf(String url){
+    String host = hostOf(url);
+    if(host == null) host = OTHER_HOST;
+    HostStats h = hosts.get(host);
+    if(h != null) return h;
+    if(hosts.size() >= MAX_HOSTS) host = OTHER_HOST;
+    return hosts.computeIfAbsent(host, k -> new HostStats());
+  }
+
+  private static void put(Map<String, Object> m, String name, LatencyHistogram h){
+    m.put(name + "P50", h.percentile(0.50));
+    m.put(name + "P90", h.percentile(0.90));
+    m.put(name + "P99", h.percentile(0.99));
+    m.put(name + "Max", h.max());
+  }
+
+  private static String dclScript(long seq){
+    return "(function(){var n=performance.getEntriesByType&&performance.getEntriesByType('navigation')[0];"
+      + "function r(){console.debug('" + DCL_PREFIX + seq + ":'+Math.round(n.domContentLoadedEventEnd));}"
+      + "if(!n)return;if(n.domContentLoadedEventEnd>0)r();else addEventListener('DOMContentLoaded',function(){setTimeout(r,0);});})();";
+  }
+
+  /** host[:port] of an http(s) URL, lowercased; null for anything else. */
+  static String hostOf(String url){
+    if(url == null) return null;
+    try{
+      URI u = URI.create(url);
+      String scheme = u.getScheme();
+      if(u.getHost() == null || scheme == null) return null;
+      if(!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) return null;
+      String host = u.getHost().toLowerCase(Locale.ROOT);
+      return u.getPort() > 0 ? host + ":" + u.getPort() : host;
+    }catch(IllegalArgumentException e){
+      return null;
+    }
+  }
+
+  private static long millis(long fromNanos, long toNanos){
+    return TimeUnit.NANOSECONDS.toMillis(toNanos - fromNanos);
+  }
+}
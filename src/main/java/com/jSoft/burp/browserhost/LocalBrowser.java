@@ -0,0 +1,465 @@
+package com.jSoft.burp.browserhost;
+
+import me.friwi.jcefmaven.CefAppBuilder;
+import me.friwi.jcefmaven.CefInitializationException;
+import me.friwi.jcefmaven.UnsupportedPlatformException;
+import org.cef.CefApp;
+import org.cef.CefClient;
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.handler.CefDisplayHandlerAdapter;
+import org.cef.handler.CefLoadHandlerAdapter;
+import org.cef.handler.CefRequestHandlerAdapter;
+
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+import java.awt.Component;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The panel's browser when no host is available, kept alive across extension
+ * reloads.
+ *
+ * The generation that initializes CEF owns the browser: its CefApp, client,
+ * handlers, navigation rules and history live in that generation's
+ * classloader, which the natives are bound to anyway. It publishes a handoff
+ * under the UIManager key HANDOFF_KEY: a map of JDK types only (functional
+ * interfaces, strings, lists, maps), so a later generation with its own copy
+ * of this class can drive the browser without CEF classes and without
+ * initializing it again. attach() is a map lookup and a generation bump;
+ * subscribe replays the current address, title and navigation state, so the
+ * toolbar of the new generation is right at once.
+ *
+ * Handoff versioning: keys are only ever added, never removed or retyped,
+ * and HANDOFF_VERSION goes up with every addition. A generation accepts any
+ * version from 1 on and treats a missing key as unsupported.
+ *
+ * Events are maps with the EventPipeline keys (type address, title,
+ * navState, navigation; browser is always "default"). Subscribers are
+ * cleared on every attach: a generation that was unloaded without
+ * unsubscribing would otherwise keep its classloader reachable.
+ */
+public final class LocalBrowser {
+  public static final String HANDOFF_KEY   = "com.jSoft.burp.jcef.handoff";
+  /** The bare component, as published by generations before the handoff. */
+  public static final String COMPONENT_KEY = "com.jSoft.burp.jcef.component";
+  public static final int    HANDOFF_VERSION = 1;
+
+  static final String BROWSER_ID = "default"; // as Host.DEFAULT_BROWSER_ID
+
+  // Handoff keys, version 1
+  static final String H_VERSION     = "version";            // Integer
+  static final String H_COMPONENT   = "component";          // Component
+  static final String H_ATTACH      = "attach";             // Supplier<Integer>: new generation number
+  static final String H_NAVIGATE    = "navigate";           // Consumer<String>
+  static final String H_RELOAD      = "reload";             // Runnable
+  static final String H_GO_BACK     = "goBack";             // Runnable
+  static final String H_GO_FORWARD  = "goForward";          // Runnable
+  static final String H_STOP        = "stop";               // Runnable
+  static final String H_RULES       = "setNavigationRules"; // Consumer<List<String>>; IllegalArgumentException on a bad rule
+  static final String H_SUBSCRIBE   = "subscribe";          // Function<Consumer<Map<String, Object>>, Runnable>
+  static final String H_STATE       = "state";              // Supplier<Map<String, Object>>
+
+  // state() keys
+  static final String S_HISTORY       = "history";       // List<String>
+  static final String S_HISTORY_INDEX = "historyIndex";  // Integer
+  static final String S_RULES         = "navigationRules"; // List<String>
+  static final String S_GENERATION    = "generation";    // Integer
+  static final String S_SUBSCRIBERS   = "subscribers";   // Integer
+  static final String S_CREATED       = "createdMillis"; // Long
+
+  private final Map<String, Object> handoff;
+  private final boolean owner;
+  private final int     generation;
+  private final long    attachMicros;
+
+  private LocalBrowser(Map<String, Object> handoff, boolean owner, long t0){
+    this.handoff = handoff;
+    this.owner = owner;
+    this.generation = this.<Supplier<Integer>>op(H_ATTACH).get();
+    this.attachMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0);
+  }
+
+  /**
+   * The browser left by an earlier generation, or null if there is none or
+   * its handoff is not compatible.
+   */
+  public static LocalBrowser attach(){
+    long t0 = System.nanoTime();
+    Map<String, Object> handoff = handoffOf(UIManager.getDefaults().get(HANDOFF_KEY));
+    return handoff == null ? null : new LocalBrowser(handoff, false, t0);
+  }
+
+  /**
+   * Initializes CEF in this classloader, creates the windowed browser at
+   * startUrl and publishes it for later generations. UnsatisfiedLinkError
+   * means another classloader loaded the natives first.
+   */
+  public static LocalBrowser create(String startUrl)
+      throws IOException, UnsupportedPlatformException, InterruptedException, CefInitializationException{
+    long t0 = System.nanoTime();
+    // Off-screen rendering is a host feature (Host.setRenderingMode); the
+    // fallback always embeds the windowed AWT component.
+    CefAppBuilder builder = new CefAppBuilder();
+    builder.addJcefArgs("--disable-gpu-vsync"); // minimize jitter in some setups
+    builder.getCefSettings().windowless_rendering_enabled = false;
+    CefApp app;
+    try(NativeBundleCache natives = NativeBundleCache.prepare(builder)){
+      app = builder.build();
+      natives.commit();
+    }
+    Owner o = new Owner(app, startUrl);
+    Map<String, Object> handoff = o.handoff();
+    UIManager.getDefaults().put(COMPONENT_KEY, o.ui);
+    UIManager.getDefaults().put(HANDOFF_KEY, handoff);
+    return new LocalBrowser(handoff, true, t0);
+  }
+
+  public Component component(){
+    return op(H_COMPONENT);
+  }
+
+  public void navigate(String url){
+    if(url == null || url.isEmpty()) return;
+    this.<Consumer<String>>op(H_NAVIGATE).accept(url);
+  }
+
+  public void reload(){
+    this.<Runnable>op(H_RELOAD).run();
+  }
+
+  public void goBack(){
+    this.<Runnable>op(H_GO_BACK).run();
+  }
+
+  public void goForward(){
+    this.<Runnable>op(H_GO_FORWARD).run();
+  }
+
+  public void stop(){
+    this.<Runnable>op(H_STOP).run();
+  }
+
+  /**
+   * Replaces the navigation rules (NavigationPolicy syntax; null or empty
+   * allows everything). Returns false if a rule is malformed; the previous
+   * rules then stay in force.
+   */
+  public boolean setNavigationRules(List<String> rules){
+    try{
+      this.<Consumer<List<String>>>op(H_RULES).accept(rules == null ? List.of() : List.copyOf(rules));
+      return true;
+    }catch(IllegalArgumentException e){
+      return false;
+    }
+  }
+
+  /**
+   * Delivers browser events to listener, in batches on the EDT when onEdt is
+   * set (at most one pending invokeLater), otherwise one by one on the CEF
+   * thread. The current state is replayed first. Returns the unsubscribe
+   * action.
+   */
+  public Runnable subscribeEvents(Consumer<List<Map<String, Object>>> listener, boolean onEdt){
+    Consumer<Map<String, Object>> sub;
+    Runnable close;
+    if(onEdt){
+      EdtBatcher b = new EdtBatcher(listener);
+      sub = b;
+      close = b::close;
+    }else{
+      sub = ev -> listener.accept(List.of(ev));
+      close = () -> {};
+    }
+    Runnable unsubscribe = this.<Function<Consumer<Map<String, Object>>, Runnable>>op(H_SUBSCRIBE).apply(sub);
+    return () -> {
+      close.run();
+      unsubscribe.run();
+    };
+  }
+
+  /**
+   * url, title, loading, canGoBack, canGoForward, history, historyIndex,
+   * navigationRules, generation, subscribers and createdMillis.
+   */
+  public Map<String, Object> state(){
+    return this.<Supplier<Map<String, Object>>>op(H_STATE).get();
+  }
+
+  /** 1 for the generation that created the browser, then one more per attach. */
+  public int generation(){
+    return generation;
+  }
+
+  public int handoffVersion(){
+    return (Integer)handoff.get(H_VERSION);
+  }
+
+  /** True if CEF was initialized by this generation. */
+  public boolean isOwner(){
+    return owner;
+  }
+
+  /** Time from the start of attach() or create() until the browser was usable. */
+  public long attachMicros(){
+    return attachMicros;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T op(String key){
+    Object op = handoff.get(key);
+    if(op == null) throw new UnsupportedOperationException(key + " (handoff version " + handoff.get(H_VERSION) + ")");
+    return (T)op;
+  }
+
+  /**
+   * The handoff map if it has a version and every version 1 key with its
+   * type, else null; the operations of a LocalBrowser then never miss.
+   */
+  @SuppressWarnings("unchecked")
+  static Map<String, Object> handoffOf(Object value){
+    if(!(value instanceof Map)) return null;
+    Map<String, Object> m = (Map<String, Object>)value;
+    if(!(m.get(H_VERSION) instanceof Integer) || (Integer)m.get(H_VERSION) < 1) return null;
+    return m.get(H_COMPONENT) instanceof Component && m.get(H_ATTACH) instanceof Supplier
+      && m.get(H_NAVIGATE) instanceof Consumer && m.get(H_RELOAD) instanceof Runnable
+      && m.get(H_GO_BACK) instanceof Runnable && m.get(H_GO_FORWARD) instanceof Runnable
+      && m.get(H_STOP) instanceof Runnable && m.get(H_RULES) instanceof Consumer
+      && m.get(H_SUBSCRIBE) instanceof Function && m.get(H_STATE) instanceof Supplier ? m : null;
+  }
+
+  //-----------------------------------------------------------------------------
+  // Owner: lives in the classloader that initialized CEF
+
+  static final class Owner {
+    private final CefApp     app;
+    private final CefClient  client;
+    private final CefBrowser browser;
+    final Component ui;
+
+    private final NavigationHistory history = new NavigationHistory();
+    private final List<Consumer<Map<String, Object>>> subscribers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final long createdMillis = System.currentTimeMillis();
+
+    private volatile NavigationPolicy policy;
+    private volatile String  url;
+    private volatile String  title;
+    private volatile boolean loading;
+    private volatile boolean canGoBack;
+    private volatile boolean canGoForward;
+
+    Owner(CefApp app, String startUrl){
+      this.app = app;
+      this.client = app.createClient();
+      client.addDisplayHandler(new CefDisplayHandlerAdapter(){
+        @Override public void onAddressChange(CefBrowser b, CefFrame f, String u){
+          if(f != null && !f.isMain()) return;
+          addressChanged(u);
+        }
+        @Override public void onTitleChange(CefBrowser b, String t){
+          titleChanged(t);
+        }
+      });
+      client.addLoadHandler(new CefLoadHandlerAdapter(){
+        @Override public void onLoadingStateChange(CefBrowser b, boolean isLoading, boolean back, boolean fwd){
+          navStateChanged(isLoading, back, fwd);
+        }
+      });
+      client.addRequestHandler(new CefRequestHandlerAdapter(){
+        @Override public boolean onBeforeBrowse(CefBrowser b, CefFrame f, org.cef.network.CefRequest req, boolean user_gesture, boolean is_redirect){
+          return !beforeBrowse(b, req != null ? req.getURL() : null, is_redirect);
+        }
+      });
+      this.browser = client.createBrowser(startUrl, false, false);
+      this.ui = browser.getUIComponent();
+    }
+
+    /** Only JDK types, see the class comment. */
+    Map<String, Object> handoff(){
+      Map<String, Object> m = new HashMap<>();
+      m.put(H_VERSION, HANDOFF_VERSION);
+      m.put(H_COMPONENT, ui);
+      m.put(H_ATTACH, (Supplier<Integer>)this::attach);
+      m.put(H_NAVIGATE, (Consumer<String>)browser::loadURL);
+      m.put(H_RELOAD, (Runnable)browser::reload);
+      m.put(H_GO_BACK, (Runnable)() -> move(-1));
+      m.put(H_GO_FORWARD, (Runnable)() -> move(1));
+      m.put(H_STOP, (Runnable)browser::stopLoad);
+      m.put(H_RULES, (Consumer<List<String>>)this::setRules);
+      m.put(H_SUBSCRIBE, (Function<Consumer<Map<String, Object>>, Runnable>)this::subscribe);
+      m.put(H_STATE, (Supplier<Map<String, Object>>)this::state);
+      return Collections.unmodifiableMap(m);
+    }
+
+    private int attach(){
+      subscribers.clear();
+      return generation.incrementAndGet();
+    }
+
+    /** Like Host.step: nowhere to go must not leave a move expected for the next address change. */
+    private void move(int delta){
+      if(delta < 0 ? !browser.canGoBack() : !browser.canGoForward()) return;
+      history.expectMove(delta);
+      if(delta < 0) browser.goBack();
+      else browser.goForward();
+    }
+
+    private void setRules(List<String> rules){
+      policy = (rules == null || rules.isEmpty()) ? null : NavigationPolicy.compile(rules);
+    }
+
+    private Runnable subscribe(Consumer<Map<String, Object>> sub){
+      subscribers.add(sub);
+      String u = url, t = title;
+      try{
+        if(u != null) sub.accept(event(EventPipeline.TYPE_ADDRESS, EventPipeline.URL, u));
+        if(t != null) sub.accept(event(EventPipeline.TYPE_TITLE, EventPipeline.TITLE, t));
+        sub.accept(navState());
+      }catch(Throwable ignored){
+        subscribers.remove(sub);
+      }
+      return () -> subscribers.remove(sub);
+    }
+
+    private Map<String, Object> state(){
+      NavigationPolicy p = policy;
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put(EventPipeline.URL, url);
+      m.put(EventPipeline.TITLE, title);
+      m.put(EventPipeline.LOADING, loading);
+      m.put(EventPipeline.CAN_GO_BACK, canGoBack);
+      m.put(EventPipeline.CAN_GO_FORWARD, canGoForward);
+      m.put(S_HISTORY, history.entries());
+      m.put(S_HISTORY_INDEX, history.index());
+      m.put(S_RULES, p == null ? List.of() : p.rules());
+      m.put(S_GENERATION, generation.get());
+      m.put(S_SUBSCRIBERS, subscribers.size());
+      m.put(S_CREATED, createdMillis);
+      return Collections.unmodifiableMap(m);
+    }
+
+    //---------------------------------------------------------------------------
+    // CEF callbacks
+
+    private void addressChanged(String u){
+      url = u;
+      history.committed(u);
+      publish(event(EventPipeline.TYPE_ADDRESS, EventPipeline.URL, u));
+    }
+
+    private void titleChanged(String t){
+      title = t;
+      publish(event(EventPipeline.TYPE_TITLE, EventPipeline.TITLE, t));
+    }
+
+    private void navStateChanged(boolean isLoading, boolean back, boolean fwd){
+      loading = isLoading;
+      canGoBack = back;
+      canGoForward = fwd;
+      publish(navState());
+    }
+
+    /** False cancels the navigation and shows the blocked page. */
+    private boolean beforeBrowse(CefBrowser b, String u, boolean redirect){
+      boolean ok = isAllowed(u);
+      Map<String, Object> ev = event(EventPipeline.TYPE_NAVIGATION, EventPipeline.URL, u);
+      ev.put(EventPipeline.ALLOWED, ok);
+      ev.put(EventPipeline.REDIRECT, redirect);
+      publish(ev);
+      if(!ok && b != null) b.loadURL(blockedPage(u));
+      return ok;
+    }
+
+    private boolean isAllowed(String u){
+      if(u == null) return false;
+      if(u.startsWith("about:") || u.startsWith("data:")) return true;
+      NavigationPolicy p = policy;
+      return p == null || p.isAllowed(u);
+    }
+
+    private Map<String, Object> navState(){
+      Map<String, Object> ev = event(EventPipeline.TYPE_NAV, EventPipeline.LOADING, loading);
+      ev.put(EventPipeline.CAN_GO_BACK, canGoBack);
+      ev.put(EventPipeline.CAN_GO_FORWARD, canGoForward);
+      return ev;
+    }
+
+    private static Map<String, Object> event(String type, String key, Object value){
+      Map<String, Object> ev = new HashMap<>();
+      ev.put(EventPipeline.TYPE, type);
+      ev.put(EventPipeline.BROWSER, BROWSER_ID);
+      ev.put(EventPipeline.TIME, System.currentTimeMillis());
+      ev.put(key, value);
+      return ev;
+    }
+
+    /** A subscriber that throws is dropped (typically one of an unloaded generation). */
+    private void publish(Map<String, Object> ev){
+      Map<String, Object> view = Collections.unmodifiableMap(ev);
+      for(Consumer<Map<String, Object>> sub : subscribers){
+        try{
+          sub.accept(view);
+        }catch(Throwable t){
+          subscribers.remove(sub);
+        }
+      }
+    }
+
+    /** Without a host there are no internal pages; the panel ignores data: addresses. */
+    private static String blockedPage(String attempted){
+      String text = "Blocked by the navigation rules: " + attempted;
+      String html = "<html><body><h3>" + text.replace("&", "&amp;").replace("<", "&lt;") + "</h3></body></html>";
+      return "data:text/html;charset=utf-8," + URLEncoder.encode(html, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+  }
+
+  //-----------------------------------------------------------------------------
+  /** Collects events off the EDT and hands them over in one invokeLater per batch. */
+  static final class EdtBatcher implements Consumer<Map<String, Object>> {
+    private final Consumer<List<Map<String, Object>>> listener;
+    private final ConcurrentLinkedQueue<Map<String, Object>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    EdtBatcher(Consumer<List<Map<String, Object>>> listener){
+      this.listener = listener;
+    }
+
+    @Override public void accept(Map<String, Object> ev){
+      if(closed) return;
+      queue.add(ev);
+      if(scheduled.compareAndSet(false, true)) SwingUtilities.invokeLater(this::drain);
+    }
+
+    void close(){
+      closed = true;
+      queue.clear();
+    }
+
+    private void drain(){
+      // Cleared first: an event added while draining schedules the next batch
+      scheduled.set(false);
+      List<Map<String, Object>> batch = new ArrayList<>();
+      Map<String, Object> ev;
+      while((ev = queue.poll()) != null) batch.add(ev);
+      if(!batch.isEmpty() && !closed) listener.accept(batch);
+    }
+  }
+}
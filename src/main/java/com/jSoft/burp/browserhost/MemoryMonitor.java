@@ -0,0 +1,340 @@
+package com.jSoft.burp.browserhost;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Memory of CEF's helper processes (renderers, GPU, utility, zygote),
+ * sampled from /proc every SAMPLE_INTERVAL_MILLIS on a daemon thread.
+ *
+ * A sample lists this process's descendants and reads one number per
+ * helper: the resident page count from /proc/&lt;pid&gt;/statm, a single
+ * short read with no page table walk (smaps would split shared pages
+ * exactly but costs far more). A pid's role comes from the --type switch of
+ * its cmdline, read once; processes that are not CEF helpers (Burp's own
+ * Chromium, anything else Burp starts) are remembered as foreign and
+ * skipped. The browser process is this JVM and is not counted. Pages shared
+ * between helpers count once per process, so the total errs high.
+ *
+ * Without /proc (macOS, Windows) nothing is sampled.
+ *
+ * Per-browser numbers come from the pages: HEAP_SCRIPT reports
+ * performance.memory.usedJSHeapSize as a console message that the display
+ * handler passes to heapOf and suppresses. It runs in the pages only for a
+ * while after diagnostics asked for them (wantHeaps), not on every sample.
+ *
+ * The budget (off unless embeddedBrowser.memoryBudgetMiB is set) and idle
+ * threshold are only held here; Host discards browsers.
+ */
+final class MemoryMonitor {
+  static final String ROLE_RENDERER = "renderer";
+  static final String ROLE_GPU      = "gpu";
+  static final String ROLE_UTILITY  = "utility";
+  static final String ROLE_OTHER    = "other"; // zygote, crashpad, ...
+
+  static final long SAMPLE_INTERVAL_MILLIS  = 15_000;
+  static final long DEFAULT_BUDGET_BYTES    = 0; // never discard
+  static final long HEAP_INTEREST_MILLIS    = 4 * SAMPLE_INTERVAL_MILLIS;
+  static final long DEFAULT_MIN_IDLE_MILLIS = 5 * 60_000;
+
+  static final String HEAP_PREFIX = "__burpHeap:";
+  static final String HEAP_SCRIPT = "console.debug('" + HEAP_PREFIX + "'+(performance.memory?performance.memory.usedJSHeapSize:-1));";
+
+  private static final String FOREIGN = "";
+
+  /** One helper process of a sample. */
+  static final class Proc {
+    final long   pid;
+    final String role;
+    final long   rssBytes;
+
+    Proc(long pid, String role, long rssBytes){
+      this.pid = pid;
+      this.role = role;
+      this.rssBytes = rssBytes;
+    }
+  }
+
+  /** The helpers seen by one sample. */
+  static final class Sample {
+    final long       timeMillis;
+    final List<Proc> procs;
+    final long       totalBytes;
+
+    Sample(long timeMillis, List<Proc> procs){
+      this.timeMillis = timeMillis;
+      this.procs = procs;
+      long t = 0;
+      for(Proc p : procs) t += p.rssBytes;
+      totalBytes = t;
+    }
+
+    long bytesOf(String role){
+      long t = 0;
+      for(Proc p : procs) if(p.role.equals(role)) t += p.rssBytes;
+      return t;
+    }
+
+    int countOf(String role){
+      int n = 0;
+      for(Proc p : procs) if(p.role.equals(role)) n++;
+      return n;
+    }
+  }
+
+  private final Path   proc;
+  private final String helperName;
+  private final long   pageBytes;
+  private final Map<Long, String> roles = new HashMap<>(); // sampling thread only; FOREIGN = not a helper
+  private final ScheduledThreadPoolExecutor exec;
+  private ScheduledFuture<?> tick; // guarded by this
+
+  private volatile Sample last;
+  private volatile long   peakBytes;
+  private volatile long   lastSampleNanos;
+  private volatile long   budgetBytes   = budgetFromProperty();
+  private volatile long   minIdleMillis = DEFAULT_MIN_IDLE_MILLIS;
+  private volatile long   heapsWantedNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(HEAP_INTEREST_MILLIS);
+
+  private final LongAdder samples   = new LongAdder();
+  private final LongAdder failures  = new LongAdder();
+  private final LongAdder discards  = new LongAdder();
+  private final LongAdder restores  = new LongAdder();
+
+  MemoryMonitor(){
+    this(Path.of("/proc"), "jcef");
+  }
+
+  /** proc: the procfs mount; helperName: a substring of the helpers' executable path. */
+  MemoryMonitor(Path proc, String helperName){
+    this.proc = proc;
+    this.helperName = helperName.toLowerCase(Locale.ROOT);
+    this.pageBytes = pageSize(proc);
+    exec = new ScheduledThreadPoolExecutor(1, r -> Thread.ofPlatform().daemon().name("jcef-memory").unstarted(r));
+    exec.setRemoveOnCancelPolicy(true);
+  }
+
+  /** True if /proc can be read here. */
+  boolean isAvailable(){
+    return Files.isReadable(proc.resolve("self/statm"));
+  }
+
+  /** Samples every SAMPLE_INTERVAL_MILLIS and hands each sample to listener; false without /proc. */
+  synchronized boolean start(Consumer<Sample> listener){
+    if(!isAvailable()) return false;
+    if(tick != null) return true;
+    tick = exec.scheduleWithFixedDelay(() -> {
+      try{
+        listener.accept(sample());
+      }catch(Throwable t){
+        failures.increment();
+      }
+    }, 0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    return true;
+  }
+
+  synchronized void stop(){
+    if(tick != null) tick.cancel(false);
+    tick = null;
+  }
+
+  /** Reads the helpers' memory now. Called from one thread at a time (the sampler, or a caller while stopped). */
+  Sample sample(){
+    long t0 = System.nanoTime();
+    List<Proc> procs = new ArrayList<>();
+    Set<Long> alive = new HashSet<>();
+    ProcessHandle.current().descendants().forEach(p -> {
+      long pid = p.pid();
+      alive.add(pid);
+      String role = roles.computeIfAbsent(pid, this::roleOf);
+      if(role.isEmpty()) return;
+      long rss = rssOf(pid);
+      if(rss >= 0) procs.add(new Proc(pid, role, rss));
+    });
+    roles.keySet().retainAll(alive);
+    Sample s = new Sample(System.currentTimeMillis(), Collections.unmodifiableList(procs));
+    last = s;
+    if(s.totalBytes > peakBytes) peakBytes = s.totalBytes;
+    samples.increment();
+    lastSampleNanos = System.nanoTime() - t0;
+    return s;
+  }
+
+  /** The latest sample, or null before the first. */
+  Sample last(){
+    return last;
+  }
+
+  /** 0 = never discard. */
+  void setBudget(long bytes, long minIdle){
+    budgetBytes = Math.max(0, bytes);
+    minIdleMillis = Math.max(0, minIdle);
+  }
+
+  long budgetBytes(){
+    return budgetBytes;
+  }
+
+  long minIdleMillis(){
+    return minIdleMillis;
+  }
+
+  /** Diagnostics show JS heaps: samples keep asking the pages for HEAP_INTEREST_MILLIS. */
+  void wantHeaps(){
+    heapsWantedNanos = System.nanoTime();
+  }
+
+  boolean heapsWanted(){
+    return System.nanoTime() - heapsWantedNanos < TimeUnit.MILLISECONDS.toNanos(HEAP_INTEREST_MILLIS);
+  }
+
+  void discarded(){
+    discards.increment();
+  }
+
+  void restored(){
+    restores.increment();
+  }
+
+  /** Heap bytes of a HEAP_SCRIPT report, -1 if unknown, or null if message is not one. */
+  static Long heapOf(String message){
+    if(message == null || !message.startsWith(HEAP_PREFIX)) return null;
+    try{
+      return Long.parseLong(message.substring(HEAP_PREFIX.length()));
+    }catch(NumberFormatException e){
+      return -1L;
+    }
+  }
+
+  Map<String, Long> stats(){
+    Sample s = last;
+    Map<String, Long> m = new LinkedHashMap<>();
+    m.put("available", isAvailable() ? 1L : 0L);
+    m.put("samples", samples.sum());
+    m.put("sampleMicros", TimeUnit.NANOSECONDS.toMicros(lastSampleNanos));
+    m.put("processes", s == null ? 0L : s.procs.size());
+    m.put("totalBytes", s == null ? 0L : s.totalBytes);
+    m.put("rendererBytes", s == null ? 0L : s.bytesOf(ROLE_RENDERER));
+    m.put("gpuBytes", s == null ? 0L : s.bytesOf(ROLE_GPU));
+    m.put("utilityBytes", s == null ? 0L : s.bytesOf(ROLE_UTILITY));
+    m.put("otherBytes", s == null ? 0L : s.bytesOf(ROLE_OTHER));
+    m.put("peakBytes", peakBytes);
+    m.put("budgetBytes", budgetBytes);
+    m.put("minIdleMillis", minIdleMillis);
+    m.put("discarded", discards.sum());
+    m.put("restored", restores.sum());
+    m.put("failures", failures.sum());
+    return Collections.unmodifiableMap(m);
+  }
+
+  String diagnostics(){
+    if(!isAvailable()) return "Memory: not sampled (no /proc)\n";
+    Sample s = last;
+    StringBuilder sb = new StringBuilder("Memory: helpers ");
+    if(s == null){
+      sb.append("not sampled yet");
+    }else{
+      sb.append(s.totalBytes >> 20).append(" MiB (renderer ").append(s.bytesOf(ROLE_RENDERER) >> 20)
+        .append(" in ").append(s.countOf(ROLE_RENDERER)).append(", gpu ").append(s.bytesOf(ROLE_GPU) >> 20)
+        .append(", utility ").append(s.bytesOf(ROLE_UTILITY) >> 20).append(", other ").append(s.bytesOf(ROLE_OTHER) >> 20)
+        .append("), peak ").append(peakBytes >> 20).append(" MiB");
+    }
+    long budget = budgetBytes;
+    sb.append("; budget ").append(budget == 0 ? "off" : (budget >> 20) + " MiB, idle " + minIdleMillis / 1000 + "s")
+      .append("; discarded=").append(discards.sum()).append(" restored=").append(restores.sum())
+      .append("; sample ").append(TimeUnit.NANOSECONDS.toMicros(lastSampleNanos)).append("us every ")
+      .append(SAMPLE_INTERVAL_MILLIS / 1000).append("s\n");
+    if(s != null){
+      for(Proc p : s.procs){
+        sb.append("  pid ").append(p.pid).append(' ').append(p.role).append(": ").append(p.rssBytes >> 20).append(" MiB\n");
+      }
+    }
+    return sb.toString();
+  }
+
+  //-----------------------------------------------------------------------------
+  /** Role from the cmdline's --type switch, or FOREIGN if pid is not a helper (or is gone). */
+  private String roleOf(long pid){
+    byte[] b;
+    try{
+      b = Files.readAllBytes(proc.resolve(pid + "/cmdline"));
+    }catch(IOException | SecurityException e){
+      return FOREIGN;
+    }
+    String[] args = new String(b, StandardCharsets.UTF_8).split("\0");
+    if(args.length == 0 || !args[0].toLowerCase(Locale.ROOT).contains(helperName)) return FOREIGN;
+    for(String a : args){
+      if(!a.startsWith("--type=")) continue;
+      switch(a.substring(7)){
+        case "renderer":    return ROLE_RENDERER;
+        case "gpu-process": return ROLE_GPU;
+        case "utility":     return ROLE_UTILITY;
+        default:            return ROLE_OTHER;
+      }
+    }
+    return ROLE_OTHER;
+  }
+
+  /** Resident bytes of pid, or -1 if it is gone. */
+  private long rssOf(long pid){
+    try{
+      return field(Files.readAllBytes(proc.resolve(pid + "/statm")), 1) * pageBytes;
+    }catch(IOException | SecurityException e){
+      return -1;
+    }
+  }
+
+  /** The n-th (0-based) space-separated number of a statm line. */
+  private static long field(byte[] b, int n){
+    int i = 0;
+    for(int f = 0; f < n; f++){
+      while(i < b.length && b[i] != ' ') i++;
+      i++;
+    }
+    long v = 0;
+    for(; i < b.length && b[i] >= '0' && b[i] <= '9'; i++) v = v * 10 + (b[i] - '0');
+    return v;
+  }
+
+  /** Page size from this process's RSS in pages (statm) and in kB (status); 4096 if unreadable. */
+  private static long pageSize(Path proc){
+    try{
+      long pages = field(Files.readAllBytes(proc.resolve("self/statm")), 1);
+      long kb = 0;
+      for(String line : Files.readAllLines(proc.resolve("self/status"))){
+        if(line.startsWith("VmRSS:")) kb = Long.parseLong(line.replaceAll("\\D", ""));
+      }
+      if(pages <= 0 || kb <= 0) return 4096;
+      long estimate = kb * 1024 / pages; // both read a moment apart: round to the nearest power of two
+      return Math.max(4096, Long.highestOneBit(estimate + estimate / 2));
+    }catch(IOException | RuntimeException e){
+      return 4096;
+    }
+  }
+
+  private static long budgetFromProperty(){
+    String mib = System.getProperty("embeddedBrowser.memoryBudgetMiB");
+    if(mib == null || mib.isBlank()) return DEFAULT_BUDGET_BYTES;
+    try{
+      return Math.max(0, Long.parseLong(mib.trim())) << 20;
+    }catch(NumberFormatException e){
+      return DEFAULT_BUDGET_BYTES;
+    }
+  }
+}
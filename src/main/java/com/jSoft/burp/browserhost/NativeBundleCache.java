@@ -0,0 +1,269 @@
+package com.jSoft.burp.browserhost;
+
+import me.friwi.jcefmaven.CefAppBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Native bundle install directory keyed by the hash of the bundled JCEF build
+ * (every build_meta.json on the classpath) and the platform, shared by all
+ * Burp starts and extension generations.
+ *
+ * After a successful build the installed files and their sizes are written to
+ * a manifest. A later start that finds the manifest with every file present at
+ * its recorded size tells jcefmaven to skip installation altogether (no
+ * extraction, no build_meta check). A missing or short file means the install
+ * was interrupted: the directory is marked invalid so jcefmaven wipes and
+ * re-extracts it. Installs are serialized across JVMs with a file lock.
+ *
+ * Used by Host and by the panel's local fallback:
+ *   try(NativeBundleCache cache = NativeBundleCache.prepare(builder)){
+ *     app = builder.build();
+ *     cache.commit();
+ *   }
+ */
+public final class NativeBundleCache implements AutoCloseable {
+  /** System property overriding the cache root. */
+  public static final String ROOT_PROPERTY = "embeddedBrowser.nativesDir";
+
+  static final String MANIFEST      = ".bundle-manifest";
+  static final String INSTALL_LOCK  = "install.lock";   // written by jcefmaven after extraction
+  static final String BUILD_META    = "build_meta.json";
+
+  enum State { HIT, INSTALL, REPAIR, DISABLED }
+
+  private static volatile String lastDescription = "Natives: not prepared\n";
+
+  private final Path        dir;
+  private final String      key;
+  private final State       state;
+  private final FileChannel lockChannel;
+  private final FileLock    lock;
+  private final long        checkNanos;
+
+  private NativeBundleCache(Path dir, String key, State state, FileChannel lockChannel, FileLock lock, long checkNanos){
+    this.dir = dir;
+    this.key = key;
+    this.state = state;
+    this.lockChannel = lockChannel;
+    this.lock = lock;
+    this.checkNanos = checkNanos;
+  }
+
+  /**
+   * Points builder at the cached install for the bundled build and, when the
+   * manifest verifies, skips jcefmaven's installation step. Never throws:
+   * without build metadata or a writable root the builder keeps its defaults.
+   */
+  public static NativeBundleCache prepare(CefAppBuilder builder){
+    long start = System.nanoTime();
+    String key;
+    Path dir;
+    try{
+      key = bundleKey(NativeBundleCache.class.getClassLoader());
+      if(key == null) return disabled("no " + BUILD_META + " on the classpath");
+      dir = root().resolve(key);
+      Files.createDirectories(dir);
+    }catch(IOException | UncheckedIOException e){
+      return disabled(e.toString());
+    }
+    builder.setInstallDir(dir.toFile());
+
+    if(verify(dir, key)){
+      builder.setSkipInstallation(true);
+      return remember(new NativeBundleCache(dir, key, State.HIT, null, null, System.nanoTime() - start));
+    }
+
+    // Install or repair under a cross-process lock; another JVM may have
+    // finished it while we waited.
+    FileChannel channel = null;
+    FileLock lock = null;
+    try{
+      channel = FileChannel.open(dir.resolveSibling(key + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      lock = channel.lock();
+    }catch(IOException | OverlappingFileLockException e){
+      // same JVM already installing (other classloader) or no lock support
+      closeQuietly(channel);
+      channel = null;
+    }
+    if(verify(dir, key)){
+      builder.setSkipInstallation(true);
+      release(lock, channel);
+      return remember(new NativeBundleCache(dir, key, State.HIT, null, null, System.nanoTime() - start));
+    }
+    State state = State.INSTALL;
+    if(Files.exists(dir.resolve(MANIFEST))){
+      // Files missing or cut short since the manifest was written: make
+      // jcefmaven's own check fail so it clears the directory and extracts again.
+      state = State.REPAIR;
+      deleteQuietly(dir.resolve(MANIFEST));
+      deleteQuietly(dir.resolve(INSTALL_LOCK));
+    }else if(!Files.exists(dir.resolve(INSTALL_LOCK)) && isNonEmpty(dir)){
+      state = State.REPAIR; // extraction never finished; jcefmaven wipes it without install.lock
+    }
+    return remember(new NativeBundleCache(dir, key, state, channel, lock, System.nanoTime() - start));
+  }
+
+  /** Records the manifest after a successful build (no-op on a cache hit). */
+  public void commit(){
+    if(state != State.INSTALL && state != State.REPAIR) return;
+    try{
+      writeManifest(dir, key);
+    }catch(IOException | UncheckedIOException ignored){
+      // next start installs again
+    }
+  }
+
+  @Override
+  public void close(){
+    release(lock, lockChannel);
+  }
+
+  public File dir(){
+    return dir == null ? null : dir.toFile();
+  }
+
+  /** One line for diagnostics: the last prepared install and how it was resolved. */
+  public static String diagnostics(){
+    return lastDescription;
+  }
+
+  //-----------------------------------------------------------------------------
+  /** Hash of every build_meta.json visible to cl plus the platform; null without metadata. */
+  static String bundleKey(ClassLoader cl) throws IOException{
+    MessageDigest md;
+    try{
+      md = MessageDigest.getInstance("SHA-256");
+    }catch(NoSuchAlgorithmException e){
+      throw new IOException(e);
+    }
+    Enumeration<URL> metas = cl == null ? ClassLoader.getSystemResources(BUILD_META) : cl.getResources(BUILD_META);
+    List<String> contents = new ArrayList<>();
+    while(metas.hasMoreElements()){
+      try(InputStream in = metas.nextElement().openStream()){
+        contents.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+      }
+    }
+    if(contents.isEmpty()) return null;
+    contents.sort(null); // jar locations and classpath order must not change the key
+    for(String c : contents) md.update(c.getBytes(StandardCharsets.UTF_8));
+    md.update(platform().getBytes(StandardCharsets.UTF_8));
+    byte[] digest = md.digest();
+    StringBuilder sb = new StringBuilder(platform()).append('-');
+    for(int i = 0; i < 8; i++){
+      sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  static String platform(){
+    String os = System.getProperty("os.name", "unknown").toLowerCase(Locale.ROOT);
+    String arch = System.getProperty("os.arch", "unknown").toLowerCase(Locale.ROOT);
+    if(os.startsWith("windows")) os = "windows";
+    else if(os.startsWith("mac") || os.startsWith("darwin")) os = "macosx";
+    else if(os.startsWith("linux")) os = "linux";
+    if(arch.equals("x86_64")) arch = "amd64";
+    else if(arch.equals("aarch64")) arch = "arm64";
+    return os + "-" + arch;
+  }
+
+  /** Manifest check: every recorded file exists with its recorded size. Nothing is hashed. */
+  static boolean verify(Path dir, String key){
+    Path manifest = dir.resolve(MANIFEST);
+    if(!Files.isRegularFile(manifest) || !Files.exists(dir.resolve(INSTALL_LOCK))) return false;
+    try{
+      List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+      if(lines.isEmpty() || !lines.get(0).equals("key=" + key)) return false;
+      for(int i = 1; i < lines.size(); i++){
+        String line = lines.get(i);
+        if(line.isEmpty()) continue;
+        int tab = line.indexOf('\t');
+        if(tab <= 0) return false;
+        long size = Long.parseLong(line.substring(0, tab));
+        Path f = dir.resolve(line.substring(tab + 1));
+        if(!f.normalize().startsWith(dir.normalize()) || !Files.isRegularFile(f) || Files.size(f) != size) return false;
+      }
+      return true;
+    }catch(IOException | NumberFormatException e){
+      return false;
+    }
+  }
+
+  static void writeManifest(Path dir, String key) throws IOException{
+    StringBuilder sb = new StringBuilder("key=").append(key).append('\n');
+    try(Stream<Path> files = Files.walk(dir)){
+      for(Path f : (Iterable<Path>)files.filter(Files::isRegularFile)::iterator){
+        String rel = dir.relativize(f).toString().replace(File.separatorChar, '/');
+        if(rel.equals(MANIFEST) || rel.startsWith(MANIFEST + ".")) continue;
+        sb.append(Files.size(f)).append('\t').append(rel).append('\n');
+      }
+    }
+    Path tmp = dir.resolve(MANIFEST + ".tmp");
+    Files.writeString(tmp, sb, StandardCharsets.UTF_8);
+    try{
+      Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }catch(AtomicMoveNotSupportedException e){
+      Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static Path root(){
+    String configured = System.getProperty(ROOT_PROPERTY);
+    if(configured != null && !configured.isBlank()) return Path.of(configured);
+    return Path.of(System.getProperty("user.home"), ".burp-embedded-browser", "natives");
+  }
+
+  private static NativeBundleCache disabled(String why){
+    lastDescription = "Natives: jcefmaven defaults (" + why + ")\n";
+    return new NativeBundleCache(null, null, State.DISABLED, null, null, 0);
+  }
+
+  private static NativeBundleCache remember(NativeBundleCache c){
+    lastDescription = "Natives: " + c.state.name().toLowerCase(Locale.ROOT)
+      + " dir=" + c.dir
+      + " check=" + TimeUnit.NANOSECONDS.toMicros(c.checkNanos) + "us\n";
+    return c;
+  }
+
+  private static boolean isNonEmpty(Path dir){
+    try(Stream<Path> s = Files.list(dir)){
+      return s.findAny().isPresent();
+    }catch(IOException e){
+      return false;
+    }
+  }
+
+  private static void deleteQuietly(Path p){
+    try{ Files.deleteIfExists(p); }catch(IOException ignored){}
+  }
+
+  private static void release(FileLock lock, FileChannel channel){
+    try{ if(lock != null) lock.release(); }catch(IOException ignored){}
+    closeQuietly(channel);
+  }
+
+  private static void closeQuietly(FileChannel channel){
+    try{ if(channel != null) channel.close(); }catch(IOException ignored){}
+  }
+}
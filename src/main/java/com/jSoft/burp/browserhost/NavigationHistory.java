@@ -0,0 +1,93 @@
+package com.jSoft.burp.browserhost;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Back/forward list of one browser as Host sees it: main frame addresses in
+ * commit order and the current position, kept so a discarded browser can
+ * come back with its history.
+ *
+ * Chromium's own list is not readable through JCEF, so this one is built
+ * from address changes. A back or forward started by Host (expectMove)
+ * moves the position when the expected entry commits; any other address is
+ * a new navigation that drops the forward entries, as in Chromium. History
+ * moves made by the page itself (history.back()) therefore read as new
+ * navigations. A restored browser starts with an empty Chromium history, so
+ * Host steps through this list instead (see isRestored).
+ */
+final class NavigationHistory {
+  static final int MAX_ENTRIES = 50;
+
+  private final List<String> entries = new ArrayList<>();
+  private int     index = -1;
+  private int     expectedMove;
+  private boolean restored;
+
+  synchronized void committed(String url){
+    if(url == null || url.isEmpty()) return;
+    int move = expectedMove;
+    expectedMove = 0;
+    int target = index + move;
+    if(move != 0 && target >= 0 && target < entries.size() && entries.get(target).equals(url)){
+      index = target;
+      return;
+    }
+    if(index >= 0 && entries.get(index).equals(url)) return; // reload
+    while(entries.size() > index + 1) entries.remove(entries.size() - 1);
+    entries.add(url);
+    index++;
+    if(entries.size() > MAX_ENTRIES){
+      entries.remove(0);
+      index--;
+    }
+  }
+
+  /** The next commit is expected to be the entry delta steps away (-1 back, 1 forward). */
+  synchronized void expectMove(int delta){
+    expectedMove = delta;
+  }
+
+  /** Entry delta steps from the current one, or null if there is none. */
+  synchronized String entry(int delta){
+    int i = index + delta;
+    return i >= 0 && i < entries.size() ? entries.get(i) : null;
+  }
+
+  synchronized boolean canGoBack(){
+    return index > 0;
+  }
+
+  synchronized boolean canGoForward(){
+    return index >= 0 && index < entries.size() - 1;
+  }
+
+  synchronized int size(){
+    return entries.size();
+  }
+
+  synchronized List<String> entries(){
+    return List.copyOf(entries);
+  }
+
+  /** Position of the current entry in entries(), -1 while empty. */
+  synchronized int index(){
+    return index;
+  }
+
+  /** True if this list came from a discarded browser and Chromium's is incomplete. */
+  synchronized boolean isRestored(){
+    return restored;
+  }
+
+  /** Takes over the entries of a discarded browser's history. */
+  synchronized void restore(NavigationHistory from){
+    synchronized(from){
+      entries.clear();
+      entries.addAll(from.entries);
+      index = from.index;
+    }
+    expectedMove = 0;
+    restored = index >= 0;
+  }
+}
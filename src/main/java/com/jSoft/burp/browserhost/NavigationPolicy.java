@@ -0,0 +1,325 @@
+package com.jSoft.burp.browserhost;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ordered allow/deny navigation rules compiled for the CEF UI thread.
+ *
+ * Rule syntax, one rule per string:
+ *   allow|deny [scheme://]host[:port]
+ *
+ *   host  : "*" (any host), "*.example.com" (example.com and every subdomain)
+ *           or an exact host name / IP literal
+ *   scheme: "*" or a scheme name; omitted means any scheme
+ *   port  : "*" or a number; omitted means any port
+ *
+ * The first matching rule in list order wins. When no rule matches, the URL is
+ * denied if at least one allow rule exists (allowlist semantics), otherwise
+ * allowed. Each URL is parsed once; hosts are looked up in a trie of reversed
+ * labels and candidates are filtered by port and scheme indexes. Recent
+ * decisions are kept in a small lock-free cache keyed by origin.
+ */
+final class NavigationPolicy {
+  static final int DEFAULT_CACHE_SIZE = 1024;
+
+  private static final int ANY_PORT = -1;
+
+  private final List<String> rules;
+  private final boolean      defaultAllow;
+  private final boolean[]    ruleAllows;
+  private final long[]       ruleSchemes;  // bit mask over schemeIds; 0 = any scheme
+  private final Map<String, Integer> schemeIds = new HashMap<>();
+  private final Node         root = new Node();
+
+  private final AtomicReferenceArray<CachedDecision> cache;
+  private final int          cacheMask;
+
+  private NavigationPolicy(List<String> rules, int cacheSize){
+    this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+    this.ruleAllows  = new boolean[rules.size()];
+    this.ruleSchemes = new long[rules.size()];
+
+    boolean anyAllow = false;
+    for(int i = 0; i < rules.size(); i++){
+      anyAllow |= compile(i, rules.get(i));
+    }
+    this.defaultAllow = !anyAllow;
+    root.freeze();
+
+    if(cacheSize > 0){
+      int size = Integer.highestOneBit(Math.max(2, cacheSize - 1)) << 1;
+      this.cache = new AtomicReferenceArray<>(size);
+      this.cacheMask = size - 1;
+    }else{
+      this.cache = null;
+      this.cacheMask = 0;
+    }
+  }
+
+  /** Compiles the given rules; throws IllegalArgumentException on a malformed rule. */
+  static NavigationPolicy compile(List<String> rules){
+    return compile(rules, DEFAULT_CACHE_SIZE);
+  }
+
+  static NavigationPolicy compile(List<String> rules, int cacheSize){
+    if(rules == null) throw new IllegalArgumentException("rules == null");
+    return new NavigationPolicy(rules, cacheSize);
+  }
+
+  List<String> rules(){
+    return rules;
+  }
+
+  boolean isAllowed(String url){
+    if(url == null) return false;
+
+    int schemeEnd = url.indexOf(':');
+    if(schemeEnd <= 0) return false;
+    int authStart = schemeEnd + 1;
+    boolean hierarchical = url.startsWith("//", authStart);
+    if(hierarchical) authStart += 2;
+    int authEnd = authStart;
+    if(hierarchical){
+      while(authEnd < url.length()){
+        char c = url.charAt(authEnd);
+        if(c == '/' || c == '?' || c == '#' || c == '\\') break;
+        authEnd++;
+      }
+    }
+
+    final String origin = url.substring(0, authEnd);
+    final int slot = cache == null ? 0 : (origin.hashCode() * 0x9E3779B9 >>> 16) & cacheMask;
+    if(cache != null){
+      CachedDecision hit = cache.get(slot);
+      if(hit != null && hit.origin.equals(origin)) return hit.allowed;
+    }
+
+    boolean allowed = decide(url, schemeEnd, hierarchical ? authStart : -1, authEnd);
+    if(cache != null) cache.set(slot, new CachedDecision(origin, allowed));
+    return allowed;
+  }
+
+  //-----------------------------------------------------------------------------
+  private boolean decide(String url, int schemeEnd, int authStart, int authEnd){
+    final String scheme = url.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+    final Integer schemeId = schemeIds.get(scheme);
+    final long schemeBit = schemeId == null ? 0L : 1L << schemeId;
+
+    String host = "";
+    int port = ANY_PORT;
+    if(authStart >= 0){
+      int hostStart = url.lastIndexOf('@', authEnd - 1);
+      hostStart = hostStart >= authStart ? hostStart + 1 : authStart;
+      int hostEnd = authEnd;
+      if(hostStart < authEnd && url.charAt(hostStart) == '['){
+        int close = url.indexOf(']', hostStart);
+        if(close < 0 || close >= authEnd) return false;
+        hostEnd = close + 1;
+      }else{
+        int colon = url.indexOf(':', hostStart);
+        if(colon >= 0 && colon < authEnd) hostEnd = colon;
+      }
+      if(hostEnd < authEnd && url.charAt(hostEnd) == ':'){
+        port = parsePort(url, hostEnd + 1, authEnd);
+        if(port == -2) return false;
+      }
+      if(hostEnd > hostStart && url.charAt(hostEnd - 1) == '.') hostEnd--;
+      host = url.substring(hostStart, hostEnd).toLowerCase(Locale.ROOT);
+    }
+    if(port == ANY_PORT) port = defaultPort(scheme);
+
+    int best = Integer.MAX_VALUE;
+    Node node = root;
+    best = Math.min(best, node.wildcard.first(port, schemeBit, ruleSchemes));
+    int end = host.length();
+    while(end > 0 && node != null){
+      int dot = host.lastIndexOf('.', end - 1);
+      node = node.child(host.substring(dot + 1, end));
+      if(node == null) break;
+      best = Math.min(best, node.wildcard.first(port, schemeBit, ruleSchemes));
+      if(dot < 0){
+        best = Math.min(best, node.exact.first(port, schemeBit, ruleSchemes));
+      }
+      end = dot;
+    }
+    return best == Integer.MAX_VALUE ? defaultAllow : ruleAllows[best];
+  }
+
+  private boolean compile(int index, String rule){
+    if(rule == null) throw new IllegalArgumentException("Rule " + index + " is null");
+    String[] parts = rule.trim().split("\\s+");
+    if(parts.length != 2){
+      throw new IllegalArgumentException("Rule " + index + " must be 'allow|deny pattern': " + rule);
+    }
+    final boolean allow;
+    switch(parts[0].toLowerCase(Locale.ROOT)){
+      case "allow": allow = true; break;
+      case "deny":  allow = false; break;
+      default: throw new IllegalArgumentException("Rule " + index + " has unknown action: " + parts[0]);
+    }
+
+    String pattern = parts[1].toLowerCase(Locale.ROOT);
+    long schemeMask = 0L;
+    int sep = pattern.indexOf("://");
+    if(sep >= 0){
+      String scheme = pattern.substring(0, sep);
+      if(scheme.isEmpty()) throw new IllegalArgumentException("Rule " + index + " has empty scheme: " + rule);
+      if(!scheme.equals("*")){
+        Integer id = schemeIds.get(scheme);
+        if(id == null){
+          if(schemeIds.size() == Long.SIZE){
+            throw new IllegalArgumentException("Too many distinct schemes in navigation rules");
+          }
+          id = schemeIds.size();
+          schemeIds.put(scheme, id);
+        }
+        schemeMask = 1L << id;
+      }
+      pattern = pattern.substring(sep + 3);
+    }
+    if(pattern.endsWith("/")) pattern = pattern.substring(0, pattern.length() - 1);
+    if(pattern.indexOf('/') >= 0){
+      throw new IllegalArgumentException("Rule " + index + " must not contain a path: " + rule);
+    }
+
+    int port = ANY_PORT;
+    int colon = pattern.lastIndexOf(':');
+    if(colon >= 0 && colon > pattern.lastIndexOf(']')){
+      String p = pattern.substring(colon + 1);
+      if(!p.equals("*")){
+        port = parsePort(p, 0, p.length());
+        if(port < 0) throw new IllegalArgumentException("Rule " + index + " has invalid port: " + rule);
+      }
+      pattern = pattern.substring(0, colon);
+    }
+    if(pattern.endsWith(".")) pattern = pattern.substring(0, pattern.length() - 1);
+    if(pattern.isEmpty()) throw new IllegalArgumentException("Rule " + index + " has empty host: " + rule);
+
+    ruleAllows[index]  = allow;
+    ruleSchemes[index] = schemeMask;
+
+    if(pattern.equals("*")){
+      root.wildcard.add(port, index);
+    }else if(pattern.startsWith("*.")){
+      insert(pattern.substring(2), index).wildcard.add(port, index);
+    }else if(pattern.indexOf('*') >= 0){
+      throw new IllegalArgumentException("Rule " + index + " may only use '*' as the leading label: " + rule);
+    }else{
+      insert(pattern, index).exact.add(port, index);
+    }
+    return allow;
+  }
+
+  private Node insert(String host, int index){
+    if(host.isEmpty() || host.indexOf('*') >= 0){
+      throw new IllegalArgumentException("Rule " + index + " has invalid host: " + rules.get(index));
+    }
+    Node node = root;
+    int end = host.length();
+    while(end > 0){
+      int dot = host.lastIndexOf('.', end - 1);
+      String label = host.substring(dot + 1, end);
+      if(label.isEmpty()){
+        throw new IllegalArgumentException("Rule " + index + " has an empty host label: " + rules.get(index));
+      }
+      node = node.children.computeIfAbsent(label, k -> new Node());
+      end = dot;
+    }
+    return node;
+  }
+
+  /** Returns the port, or -2 when the digits are missing or out of range. */
+  private static int parsePort(String s, int from, int to){
+    if(from >= to || to - from > 5) return -2;
+    int port = 0;
+    for(int i = from; i < to; i++){
+      char c = s.charAt(i);
+      if(c < '0' || c > '9') return -2;
+      port = port * 10 + (c - '0');
+    }
+    return port <= 65535 ? port : -2;
+  }
+
+  private static int defaultPort(String scheme){
+    switch(scheme){
+      case "http": case "ws":   return 80;
+      case "https": case "wss": return 443;
+      case "ftp":               return 21;
+      default:                  return ANY_PORT;
+    }
+  }
+
+  //-----------------------------------------------------------------------------
+  private static final class Node {
+    private Map<String, Node> children = new HashMap<>();
+    private final RuleSet exact    = new RuleSet();
+    private final RuleSet wildcard = new RuleSet();
+
+    Node child(String label){
+      return children.get(label);
+    }
+
+    void freeze(){
+      if(children.isEmpty()) children = Collections.emptyMap();
+      for(Node n : children.values()) n.freeze();
+    }
+  }
+
+  /** Rule indexes attached to one trie node, bucketed by port, ascending by rule order. */
+  private static final class RuleSet {
+    private static final int[] NONE = new int[0];
+
+    private int[] anyPort = NONE;
+    private Map<Integer, int[]> byPort = Collections.emptyMap();
+
+    void add(int port, int index){
+      if(port == ANY_PORT){
+        anyPort = append(anyPort, index);
+      }else{
+        if(byPort.isEmpty()) byPort = new HashMap<>();
+        byPort.merge(port, new int[]{index}, (a, b) -> append(a, b[0]));
+      }
+    }
+
+    /** Lowest matching rule index, or Integer.MAX_VALUE. */
+    int first(int port, long schemeBit, long[] ruleSchemes){
+      int best = first(anyPort, schemeBit, ruleSchemes);
+      if(port != ANY_PORT && !byPort.isEmpty()){
+        int[] bucket = byPort.get(port);
+        if(bucket != null) best = Math.min(best, first(bucket, schemeBit, ruleSchemes));
+      }
+      return best;
+    }
+
+    private static int first(int[] indexes, long schemeBit, long[] ruleSchemes){
+      for(int idx : indexes){
+        long mask = ruleSchemes[idx];
+        if(mask == 0L || (mask & schemeBit) != 0L) return idx;
+      }
+      return Integer.MAX_VALUE;
+    }
+
+    private static int[] append(int[] a, int v){
+      int[] out = Arrays.copyOf(a, a.length + 1);
+      out[a.length] = v;
+      return out;
+    }
+  }
+
+  private static final class CachedDecision {
+    final String  origin;
+    final boolean allowed;
+
+    CachedDecision(String origin, boolean allowed){
+      this.origin = origin;
+      this.allowed = allowed;
+    }
+  }
+}
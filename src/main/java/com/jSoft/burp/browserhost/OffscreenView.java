@@ -0,0 +1,275 @@
+package com.jSoft.burp.browserhost;
+
+import org.cef.browser.CefBrowser;
+import org.cef.callback.CefDragData;
+import org.cef.handler.CefRenderHandler;
+import org.cef.handler.CefRenderHandlerAdapter;
+import org.cef.handler.CefScreenInfo;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import java.awt.Cursor;
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.FocusEvent;
+import java.awt.event.FocusListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lightweight Swing view of a windowless (off-screen) browser.
+ *
+ * CEF renders into a BGRA buffer and reports the dirty rectangles; onPaint
+ * copies only those rows into an int-ARGB image shared with paintComponent
+ * (BGRA read as little-endian ints is already ARGB, so rows are bulk copies)
+ * and repaints just those regions. Nothing heavyweight or GL-backed is
+ * embedded in Burp's window. Mouse, wheel, key and focus events are
+ * forwarded to the browser; CEF paces frames (windowless_frame_rate).
+ */
+final class OffscreenView extends JComponent {
+  // Totals over all views, for diagnostics
+  static final LongAdder frames       = new LongAdder();
+  static final LongAdder dirtyPixels  = new LongAdder();
+  static final LongAdder framePixels  = new LongAdder();
+
+  private final Object lock = new Object();
+  private BufferedImage frame;     // guarded by lock; device pixels
+  private BufferedImage popup;     // guarded by lock; <select> dropdowns etc.
+  private Rectangle     popupRect; // guarded by lock; view coordinates
+  private volatile double     scale = 1.0;
+  private volatile CefBrowser browser;
+  private volatile long       lastPaintNanos; // 0 = never painted
+
+  private final CefRenderHandler handler = new Handler();
+
+  OffscreenView(){
+    setFocusable(true);
+    setFocusTraversalKeysEnabled(false); // Tab belongs to the page
+    setOpaque(true);
+    Input input = new Input();
+    addMouseListener(input);
+    addMouseMotionListener(input);
+    addMouseWheelListener(input);
+    addKeyListener(input);
+    addFocusListener(input);
+    addComponentListener(new ComponentAdapter(){
+      @Override public void componentResized(ComponentEvent e){
+        CefBrowser b = browser;
+        if(b != null) b.wasResized(Math.max(1, getWidth()), Math.max(1, getHeight()));
+      }
+    });
+  }
+
+  CefRenderHandler handler(){
+    return handler;
+  }
+
+  /** Binds the browser created with this view's handler; input goes to it from now on. */
+  void attach(CefBrowser b){
+    browser = b;
+  }
+
+  /** Copies the current frame (device pixels, no popup) into a buffer from pool; null before the first paint. */
+  ScreenshotPipeline.Frame snapshot(ScreenshotPipeline.PixelPool pool){
+    synchronized(lock){
+      if(frame == null) return null;
+      int w = frame.getWidth(), h = frame.getHeight();
+      int[] px = pool.acquire(w * h);
+      System.arraycopy(((DataBufferInt)frame.getRaster().getDataBuffer()).getData(), 0, px, 0, w * h);
+      return new ScreenshotPipeline.Frame(px, w, h);
+    }
+  }
+
+  /** System.nanoTime() of the last frame painted, 0 if none yet. */
+  long lastPaintNanos(){
+    return lastPaintNanos;
+  }
+
+  @Override
+  protected void paintComponent(Graphics g){
+    synchronized(lock){
+      if(frame == null){
+        g.setColor(getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        return;
+      }
+      double s = scale;
+      if(s == 1.0){
+        g.drawImage(frame, 0, 0, null);
+      }else{
+        g.drawImage(frame, 0, 0, (int)Math.ceil(frame.getWidth() / s), (int)Math.ceil(frame.getHeight() / s), null);
+      }
+      if(popup != null && popupRect != null){
+        g.drawImage(popup, popupRect.x, popupRect.y, popupRect.width, popupRect.height, null);
+      }
+    }
+  }
+
+  //-----------------------------------------------------------------------------
+  /** Copies the dirty rows of src into img; a size change reallocates and copies everything. */
+  private boolean copyDirty(boolean isPopup, Rectangle[] dirty, ByteBuffer buffer, int width, int height){
+    IntBuffer src = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    boolean full = false;
+    synchronized(lock){
+      BufferedImage img = isPopup ? popup : frame;
+      if(img == null || img.getWidth() != width || img.getHeight() != height){
+        img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        if(isPopup) popup = img; else frame = img;
+        full = true;
+      }
+      int[] dst = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+      if(full || dirty == null){
+        src.get(0, dst, 0, Math.min(dst.length, src.remaining()));
+        dirtyPixels.add((long)width * height);
+      }else{
+        for(Rectangle r : dirty){
+          Rectangle c = r.intersection(new Rectangle(0, 0, width, height));
+          if(c.isEmpty()) continue;
+          for(int y = c.y; y < c.y + c.height; y++){
+            int off = y * width + c.x;
+            src.get(off, dst, off, c.width);
+          }
+          dirtyPixels.add((long)c.width * c.height);
+        }
+      }
+    }
+    frames.increment();
+    framePixels.add((long)width * height);
+    return full;
+  }
+
+  /** Device-pixel rectangle to view coordinates, rounded outwards. */
+  private Rectangle toView(Rectangle r){
+    double s = scale;
+    if(s == 1.0) return r;
+    int x = (int)Math.floor(r.x / s);
+    int y = (int)Math.floor(r.y / s);
+    return new Rectangle(x, y, (int)Math.ceil((r.x + r.width) / s) - x, (int)Math.ceil((r.y + r.height) / s) - y);
+  }
+
+  private final class Handler extends CefRenderHandlerAdapter {
+    @Override public Rectangle getViewRect(CefBrowser b){
+      return new Rectangle(0, 0, Math.max(1, getWidth()), Math.max(1, getHeight()));
+    }
+
+    @Override public boolean getScreenInfo(CefBrowser b, CefScreenInfo info){
+      GraphicsConfiguration gc = getGraphicsConfiguration();
+      double s = gc == null ? 1.0 : gc.getDefaultTransform().getScaleX();
+      scale = s;
+      Rectangle view = getViewRect(b);
+      info.Set(s, 32, 8, false, view, view);
+      return true;
+    }
+
+    @Override public Point getScreenPoint(CefBrowser b, Point viewPoint){
+      Point p = new Point(viewPoint);
+      if(isShowing()) SwingUtilities.convertPointToScreen(p, OffscreenView.this);
+      return p;
+    }
+
+    @Override public void onPopupShow(CefBrowser b, boolean show){
+      if(show) return;
+      Rectangle old;
+      synchronized(lock){
+        old = popupRect;
+        popup = null;
+        popupRect = null;
+      }
+      if(old != null) repaint(old);
+    }
+
+    @Override public void onPopupSize(CefBrowser b, Rectangle size){
+      synchronized(lock){
+        popupRect = new Rectangle(size);
+      }
+    }
+
+    @Override public void onPaint(CefBrowser b, boolean isPopup, Rectangle[] dirtyRects, ByteBuffer buffer, int width, int height){
+      boolean full = copyDirty(isPopup, dirtyRects, buffer, width, height);
+      if(!isPopup) lastPaintNanos = System.nanoTime();
+      if(isPopup){
+        Rectangle r;
+        synchronized(lock){
+          r = popupRect;
+        }
+        if(r != null) repaint(r);
+      }else if(full || dirtyRects == null){
+        repaint();
+      }else{
+        for(Rectangle r : dirtyRects) repaint(toView(r));
+      }
+    }
+
+    @Override public boolean onCursorChange(CefBrowser b, int cursorType){
+      SwingUtilities.invokeLater(() -> {
+        try{
+          setCursor(Cursor.getPredefinedCursor(cursorType));
+        }catch(IllegalArgumentException e){
+          setCursor(Cursor.getDefaultCursor());
+        }
+      });
+      return true;
+    }
+
+    @Override public boolean startDragging(CefBrowser b, CefDragData dragData, int mask, int x, int y){
+      return false; // drag and drop out of the page is not supported
+    }
+  }
+
+  /** Forwards AWT input to the browser (view coordinates, as CEF expects). */
+  private final class Input implements MouseListener, MouseMotionListener, MouseWheelListener, KeyListener, FocusListener {
+    @Override public void mousePressed(MouseEvent e){
+      requestFocusInWindow();
+      mouse(e);
+    }
+    @Override public void mouseReleased(MouseEvent e){ mouse(e); }
+    @Override public void mouseClicked(MouseEvent e){ mouse(e); }
+    @Override public void mouseEntered(MouseEvent e){ mouse(e); }
+    @Override public void mouseExited(MouseEvent e){ mouse(e); }
+    @Override public void mouseMoved(MouseEvent e){ mouse(e); }
+    @Override public void mouseDragged(MouseEvent e){ mouse(e); }
+
+    @Override public void mouseWheelMoved(MouseWheelEvent e){
+      CefBrowser b = browser;
+      if(b != null) b.sendMouseWheelEvent(e);
+    }
+
+    @Override public void keyTyped(KeyEvent e){ key(e); }
+    @Override public void keyPressed(KeyEvent e){ key(e); }
+    @Override public void keyReleased(KeyEvent e){ key(e); }
+
+    @Override public void focusGained(FocusEvent e){
+      CefBrowser b = browser;
+      if(b != null) b.setFocus(true);
+    }
+    @Override public void focusLost(FocusEvent e){
+      CefBrowser b = browser;
+      if(b != null) b.setFocus(false);
+    }
+
+    private void mouse(MouseEvent e){
+      CefBrowser b = browser;
+      if(b != null) b.sendMouseEvent(e);
+    }
+
+    private void key(KeyEvent e){
+      CefBrowser b = browser;
+      if(b != null) b.sendKeyEvent(e);
+    }
+  }
+}
@@ -0,0 +1,397 @@
+package com.jSoft.burp.browserhost;
+
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.callback.CefQueryCallback;
+import org.cef.handler.CefMessageRouterHandler;
+import org.cef.handler.CefMessageRouterHandlerAdapter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Message channel between page JavaScript and Java over CEF's message router.
+ *
+ * The page script (pagechannel.js, installed on demand) exposes
+ * burpBridge.query(channel, payload) and send(channel, payload); messages
+ * queued in one JS task cross in a single burpQuery call as netstrings
+ * (id, channel, payload per message; an empty id expects no answer) and the
+ * answers come back the same way (id, then "+result" or "-error"). Each
+ * message runs on a virtual thread, never on a CEF thread; at most
+ * maxInFlight run at once and the rest are answered "-busy" (one-way ones
+ * are dropped). The page caps its own in-flight calls, so bursts turn into
+ * bigger batches rather than more crossings.
+ *
+ * evaluate runs an expression in a page and completes with its (stringified,
+ * awaited) value through the reserved RESULT_CHANNEL.
+ *
+ * The message router is present in every frame of every site, so a query
+ * carries its Caller: the browser and the frame's URL and origin. Query
+ * handlers (registerQuery) get these and decide; plain handlers (register)
+ * are only called for internal pages in a main frame and the origins set with
+ * setAllowedOrigins, and other callers are answered "-forbidden". An
+ * evaluation id is 128 random bits, and its result is only taken from the
+ * main frame of the browser and origin the expression was sent to.
+ */
+final class PageChannel {
+  static final String QUERY_FUNCTION  = "burpQuery";
+  static final String CANCEL_FUNCTION = "burpQueryCancel";
+  static final String RESULT_CHANNEL  = "__result";
+  static final int    DEFAULT_MAX_IN_FLIGHT = 64;
+  static final String BUSY = "busy";
+  static final String FORBIDDEN = "forbidden";
+
+  // Keys of the query map given to query handlers
+  static final String Q_BROWSER    = "browser";
+  static final String Q_ORIGIN     = "origin";    // scheme://host[:port], "null" if there is none
+  static final String Q_FRAME_URL  = "frameUrl";
+  static final String Q_MAIN_FRAME = "mainFrame"; // "true" / "false"
+  static final String Q_PAYLOAD    = "payload";
+
+  /** Where a query came from. */
+  record Caller(String browser, String frameUrl, boolean mainFrame){
+    String origin(){
+      return originOf(frameUrl);
+    }
+  }
+
+  /** A pending evaluate: answered only from the main frame of browser at origin. */
+  private record Evaluation(CompletableFuture<String> future, String browser, String origin){}
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private static final String CLIENT_SCRIPT = readClientScript();
+
+  private final Map<String, Function<Map<String, String>, String>> handlers = new ConcurrentHashMap<>();
+  private final Map<String, Evaluation> evaluations = new ConcurrentHashMap<>();
+  private final Map<Long, Crossing> active = new ConcurrentHashMap<>();
+  private volatile Set<String> allowedOrigins = Set.of(); // for plain handlers; "*" = any
+  private final ExecutorService exec = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("page-channel-", 1).factory());
+  private volatile Semaphore inFlight = new Semaphore(DEFAULT_MAX_IN_FLIGHT);
+  private volatile int       maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+  final LongAdder crossings = new LongAdder();
+  final LongAdder messages  = new LongAdder();
+  final LongAdder busy      = new LongAdder();
+  final LongAdder failures  = new LongAdder();
+  final LongAdder cancelled = new LongAdder();
+  final LongAdder forbidden = new LongAdder(); // refused callers and foreign evaluation results
+  final LatencyHistogram handlerMicros = new LatencyHistogram();
+
+  /** One burpQuery call: its messages and their answers. */
+  private final class Crossing {
+    final long   queryId;
+    final Consumer<String> success;
+    final String[] ids;
+    final String[] answers;
+    final AtomicInteger remaining;
+    volatile boolean cancelled;
+
+    Crossing(long queryId, int size, Consumer<String> success){
+      this.queryId = queryId;
+      this.success = success;
+      this.ids = new String[size];
+      this.answers = new String[size];
+      this.remaining = new AtomicInteger(size + 1); // + the dispatch loop itself
+    }
+
+    void done(){
+      if(remaining.decrementAndGet() != 0) return;
+      if(queryId != 0) active.remove(queryId);
+      if(cancelled) return;
+      StringBuilder sb = new StringBuilder();
+      for(int i = 0; i < ids.length; i++){
+        if(ids[i] == null || ids[i].isEmpty()) continue;
+        netstring(sb, ids[i]);
+        netstring(sb, answers[i]);
+      }
+      success.accept(sb.toString());
+    }
+  }
+
+  /**
+   * Sets a handler of (browser id, payload) for channel, called only for
+   * internal pages and allowed origins (null removes it); returns an action
+   * that removes it again.
+   */
+  Runnable register(String channel, BiFunction<String, String, String> handler){
+    return registerQuery(channel, handler == null ? null : q -> {
+      if(!isAllowedOrigin(q.get(Q_ORIGIN), Boolean.parseBoolean(q.get(Q_MAIN_FRAME)))) throw new SecurityException(FORBIDDEN);
+      return handler.apply(q.get(Q_BROWSER), q.get(Q_PAYLOAD));
+    });
+  }
+
+  /**
+   * Sets a handler of the query map (Q_* keys) for channel, called for every
+   * caller; it checks the origin itself. null removes it.
+   */
+  Runnable registerQuery(String channel, Function<Map<String, String>, String> handler){
+    if(channel == null || channel.isEmpty() || RESULT_CHANNEL.equals(channel)) throw new IllegalArgumentException("invalid channel: " + channel);
+    if(handler == null){
+      handlers.remove(channel);
+      return () -> {};
+    }
+    handlers.put(channel, handler);
+    return () -> handlers.remove(channel, handler);
+  }
+
+  /** Origins (scheme://host[:port], or "*") whose frames may call plain handlers; internal pages always may. */
+  void setAllowedOrigins(List<String> origins){
+    Set<String> s = new HashSet<>();
+    if(origins != null){
+      for(String o : origins){
+        if(o != null && !o.isBlank()) s.add("*".equals(o.trim()) ? "*" : originOf(o.trim()));
+      }
+    }
+    allowedOrigins = Set.copyOf(s);
+  }
+
+  List<String> allowedOrigins(){
+    return List.copyOf(allowedOrigins);
+  }
+
+  /**
+   * An internal page counts only as a main frame: Host refuses burpbrowser://
+   * in subframes and in navigations a web page starts, so there it was
+   * loaded by Burp or typed by the user.
+   */
+  private boolean isAllowedOrigin(String origin, boolean mainFrame){
+    if(origin == null) return false;
+    if(origin.startsWith(InternalPages.PREFIX)) return mainFrame;
+    Set<String> allowed = allowedOrigins;
+    return allowed.contains("*") || allowed.contains(origin);
+  }
+
+  /** Messages handled concurrently (at least 1); applies to messages arriving afterwards. */
+  void setMaxInFlight(int max){
+    maxInFlight = Math.max(1, max);
+    inFlight = new Semaphore(maxInFlight);
+  }
+
+  /** Router handler; browserIds maps a browser to the id passed to the handlers. */
+  CefMessageRouterHandler routerHandler(Function<CefBrowser, String> browserIds){
+    return new CefMessageRouterHandlerAdapter(){
+      @Override public boolean onQuery(CefBrowser b, CefFrame f, long queryId, String request, boolean persistent, CefQueryCallback callback){
+        if(persistent) return false; // not ours
+        Caller caller = new Caller(browserIds.apply(b), f != null ? f.getURL() : null, f != null && f.isMain());
+        return dispatch(queryId, caller, request, callback::success);
+      }
+      @Override public void onQueryCanceled(CefBrowser b, CefFrame f, long queryId){
+        Crossing c = active.remove(queryId);
+        if(c != null){
+          c.cancelled = true;
+          cancelled.increment();
+        }
+      }
+    };
+  }
+
+  /**
+   * Handles one batch; success gets the encoded answers once every message
+   * is done. Returns false if request is not a batch (left to other router
+   * handlers). queryId 0 means no cancellation tracking.
+   */
+  boolean dispatch(long queryId, Caller caller, String request, Consumer<String> success){
+    List<String> parts;
+    try{
+      parts = parse(request);
+    }catch(IllegalArgumentException e){
+      return false;
+    }
+    if(parts.size() % 3 != 0) return false;
+    int n = parts.size() / 3;
+    crossings.increment();
+    messages.add(n);
+    Crossing c = new Crossing(queryId, n, success);
+    if(queryId != 0) active.put(queryId, c);
+    Semaphore permits = inFlight;
+    for(int i = 0; i < n; i++){
+      String id = parts.get(3 * i);
+      String channel = parts.get(3 * i + 1);
+      String payload = parts.get(3 * i + 2);
+      c.ids[i] = id;
+      if(RESULT_CHANNEL.equals(channel)){
+        c.answers[i] = evaluated(caller, payload) ? "+" : "-" + FORBIDDEN;
+        c.done();
+        continue;
+      }
+      if(!permits.tryAcquire()){
+        busy.increment();
+        c.answers[i] = "-" + BUSY;
+        c.done();
+        continue;
+      }
+      int index = i;
+      exec.execute(() -> {
+        long t0 = System.nanoTime();
+        try{
+          c.answers[index] = c.cancelled ? "-cancelled" : "+" + handle(caller, channel, payload);
+        }catch(SecurityException e){
+          forbidden.increment();
+          c.answers[index] = "-" + FORBIDDEN;
+        }catch(Throwable t){
+          failures.increment();
+          c.answers[index] = "-" + (t.getMessage() != null ? t.getMessage() : t.getClass().getSimpleName());
+        }finally{
+          permits.release();
+          handlerMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0));
+          c.done();
+        }
+      });
+    }
+    c.done();
+    return true;
+  }
+
+  /**
+   * Evaluates expression in b's main frame (browser is its id as seen by
+   * the router handler) and completes with its value: strings as is, other
+   * values as JSON, promises awaited. A syntax error or a page without the
+   * message router surfaces as a timeout.
+   */
+  CompletableFuture<String> evaluate(CefBrowser b, String browser, String expression, long timeoutMillis){
+    byte[] nonce = new byte[16];
+    RANDOM.nextBytes(nonce);
+    String id = "e" + HexFormat.of().formatHex(nonce);
+    CompletableFuture<String> f = new CompletableFuture<>();
+    evaluations.put(id, new Evaluation(f, browser, originOf(b.getURL())));
+    f.whenComplete((v, t) -> evaluations.remove(id));
+    f.orTimeout(Math.max(1, timeoutMillis), TimeUnit.MILLISECONDS);
+    b.executeJavaScript(CLIENT_SCRIPT + "\nwindow.burpBridge&&window.burpBridge._eval('" + id + "',function(){return (" + expression + "\n);});",
+      "burpbrowser://evaluate", 0);
+    return f;
+  }
+
+  Map<String, Long> stats(){
+    return Map.of(
+      "crossings", crossings.sum(), "messages", messages.sum(), "busy", busy.sum(),
+      "failures", failures.sum(), "cancelled", cancelled.sum(), "forbidden", forbidden.sum(), "handlers", (long)handlers.size(),
+      "maxInFlight", (long)maxInFlight, "handlerP50Micros", handlerMicros.percentile(0.5),
+      "handlerP99Micros", handlerMicros.percentile(0.99));
+  }
+
+  String diagnostics(){
+    long c = crossings.sum();
+    return "Page channel: " + handlers.size() + " handlers, crossings=" + c + " messages=" + messages.sum()
+      + (c == 0 ? "" : " (" + messages.sum() / c + "/crossing)") + " busy=" + busy.sum()
+      + " failures=" + failures.sum() + " cancelled=" + cancelled.sum() + " forbidden=" + forbidden.sum()
+      + " handler p50=" + handlerMicros.percentile(0.5) + "us p99=" + handlerMicros.percentile(0.99) + "us\n";
+  }
+
+  //-----------------------------------------------------------------------------
+  private String handle(Caller caller, String channel, String payload){
+    Function<Map<String, String>, String> h = handlers.get(channel);
+    if(h == null) throw new IllegalArgumentException("no handler for channel " + channel);
+    Map<String, String> q = new HashMap<>();
+    q.put(Q_BROWSER, caller.browser());
+    q.put(Q_ORIGIN, caller.origin());
+    q.put(Q_FRAME_URL, caller.frameUrl() == null ? "" : caller.frameUrl());
+    q.put(Q_MAIN_FRAME, String.valueOf(caller.mainFrame()));
+    q.put(Q_PAYLOAD, payload);
+    String r = h.apply(Collections.unmodifiableMap(q));
+    return r == null ? "" : r;
+  }
+
+  /**
+   * Result of an evaluate: netstrings id and "+value" or "-error". False if
+   * it is not from the frame the expression was sent to.
+   */
+  private boolean evaluated(Caller caller, String payload){
+    List<String> r;
+    try{
+      r = parse(payload);
+    }catch(IllegalArgumentException e){
+      return false;
+    }
+    if(r.size() != 2) return false;
+    Evaluation e = evaluations.get(r.get(0));
+    if(e == null || !caller.mainFrame() || !Objects.equals(e.browser(), caller.browser()) || !e.origin().equals(caller.origin())){
+      forbidden.increment();
+      return false;
+    }
+    CompletableFuture<String> f = e.future();
+    String v = r.get(1);
+    if(v.startsWith("+")) f.complete(v.substring(1));
+    else f.completeExceptionally(new IllegalStateException("page script failed: " + v.substring(Math.min(1, v.length()))));
+    return true;
+  }
+
+  /** scheme://host[:port] of url, lower case; "null" if it has none (opaque origins). */
+  static String originOf(String url){
+    if(url == null || url.isEmpty()) return "null";
+    try{
+      URI u = new URI(url);
+      if(u.getScheme() == null || u.getHost() == null) return "null";
+      String o = u.getScheme().toLowerCase(Locale.ROOT) + "://" + u.getHost().toLowerCase(Locale.ROOT);
+      return u.getPort() < 0 ? o : o + ":" + u.getPort();
+    }catch(URISyntaxException e){
+      return "null";
+    }
+  }
+
+  static String clientScript(){
+    return CLIENT_SCRIPT;
+  }
+
+  static void netstring(StringBuilder sb, String s){
+    sb.append(s.length()).append(':').append(s).append(',');
+  }
+
+  /** Splits concatenated netstrings (lengths in UTF-16 units, as in JS). */
+  static List<String> parse(String s){
+    List<String> out = new ArrayList<>();
+    int i = 0;
+    int len = s.length();
+    while(i < len){
+      int n = 0;
+      int j = i;
+      char ch;
+      while(j < len && (ch = s.charAt(j)) >= '0' && ch <= '9'){
+        n = n * 10 + (ch - '0');
+        if(n > len) throw new IllegalArgumentException("bad netstring length at " + i);
+        j++;
+      }
+      if(j == i || j >= len || s.charAt(j) != ':') throw new IllegalArgumentException("bad netstring at " + i);
+      int start = j + 1;
+      int end = start + n;
+      if(end >= len || s.charAt(end) != ',') throw new IllegalArgumentException("bad netstring at " + i);
+      out.add(s.substring(start, end));
+      i = end + 1;
+    }
+    return out;
+  }
+
+  private static String readClientScript(){
+    try(InputStream in = PageChannel.class.getResourceAsStream("pagechannel.js")){
+      if(in == null) return "";
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }catch(IOException e){
+      return "";
+    }
+  }
+}
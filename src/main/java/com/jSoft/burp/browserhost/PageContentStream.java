@@ -0,0 +1,196 @@
+package com.jSoft.burp.browserhost;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Page source or text as a stream of chunks, pulled on demand.
+ *
+ * The document is serialized once inside the renderer and parked there under
+ * a token; each requested chunk is then fetched with one evaluate call, so
+ * the Java heap never holds more than a chunk of it. Chunks never split a
+ * surrogate pair. The stream stops at maxChars (truncated) and the snapshot
+ * is dropped when it ends, fails or is cancelled; a navigation in between
+ * fails it. Single use: one subscriber.
+ */
+final class PageContentStream implements Flow.Publisher<String> {
+  static final String KIND_SOURCE = "source";
+  static final String KIND_TEXT   = "text";
+  static final int    CHUNK_CHARS = 64 * 1024;
+
+  // Map keys of drain's result
+  static final String LENGTH    = "length";    // chars in the document
+  static final String DELIVERED = "delivered"; // chars passed to the consumer
+  static final String CHUNKS    = "chunks";
+  static final String TRUNCATED = "truncated";
+
+  private static final AtomicLong tokens = new AtomicLong();
+
+  private final Function<String, CompletableFuture<String>> eval;
+  private final String  serialize;
+  private final long    maxChars;
+  private final int     chunkChars;
+  private final String  token = "s" + tokens.incrementAndGet();
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition     more = lock.newCondition();
+  private long             demand;    // guarded by lock
+  private volatile boolean cancelled;
+  private volatile Throwable badRequest; // signalled by the pump, never concurrently with onNext
+  private volatile long    length = -1;
+  private volatile long    delivered;
+  private volatile long    chunks;
+
+  /** eval runs an expression in the page and completes with its string value. */
+  PageContentStream(Function<String, CompletableFuture<String>> eval, String kind, long maxChars, int chunkChars){
+    this.serialize = serializer(kind);
+    this.eval = eval;
+    this.maxChars = maxChars <= 0 ? Long.MAX_VALUE : maxChars;
+    this.chunkChars = Math.max(1024, chunkChars);
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super String> s){
+    if(!subscribed.compareAndSet(false, true)){
+      s.onSubscribe(new Flow.Subscription(){
+        @Override public void request(long n){}
+        @Override public void cancel(){}
+      });
+      s.onError(new IllegalStateException("page content stream already subscribed"));
+      return;
+    }
+    s.onSubscribe(new Flow.Subscription(){
+      @Override public void request(long n){
+        lock.lock();
+        try{
+          if(n <= 0) badRequest = new IllegalArgumentException("request must be positive: " + n);
+          else demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+          more.signal();
+        }finally{
+          lock.unlock();
+        }
+      }
+      @Override public void cancel(){
+        cancelled = true;
+        lock.lock();
+        try{
+          more.signal();
+        }finally{
+          lock.unlock();
+        }
+      }
+    });
+    Thread.ofVirtual().name("page-content-" + token).start(() -> pump(s));
+  }
+
+  /**
+   * Subscribes sink, one chunk at a time, and completes with length,
+   * delivered, chunks and truncated. Cancelling the future stops the stream.
+   */
+  CompletableFuture<Map<String, Object>> drain(Consumer<? super CharSequence> sink){
+    CompletableFuture<Map<String, Object>> done = new CompletableFuture<>();
+    subscribe(new Flow.Subscriber<String>(){
+      private Flow.Subscription sub;
+      @Override public void onSubscribe(Flow.Subscription subscription){
+        sub = subscription;
+        done.whenComplete((r, t) -> {
+          if(done.isCancelled()) subscription.cancel();
+        });
+        subscription.request(1);
+      }
+      @Override public void onNext(String chunk){
+        try{
+          sink.accept(chunk);
+          sub.request(1);
+        }catch(Throwable t){
+          sub.cancel();
+          done.completeExceptionally(t);
+        }
+      }
+      @Override public void onError(Throwable t){ done.completeExceptionally(t); }
+      @Override public void onComplete(){ done.complete(result()); }
+    });
+    return done;
+  }
+
+  //-----------------------------------------------------------------------------
+  private void pump(Flow.Subscriber<? super String> s){
+    try{
+      long len = Long.parseLong(call("(function(){var s=" + serialize + ";(window.__burpSnap||(window.__burpSnap={}))['" + token
+        + "']=s;return String(s.length);})()").trim());
+      length = len;
+      long limit = Math.min(len, maxChars);
+      long off = 0;
+      while(off < limit){
+        if(!awaitDemand()) return;
+        int n = (int)Math.min(chunkChars, limit - off);
+        String chunk = call("(function(s){if(s===undefined)throw new Error('page navigated away while streaming');var e=" + (off + n) + ";"
+          + "if(e<s.length){var c=s.charCodeAt(e-1);if(c>=0xD800&&c<0xDC00)e--;}return s.substring(" + off + ",e);})"
+          + "((window.__burpSnap||{})['" + token + "'])");
+        if(chunk.isEmpty()) throw new IllegalStateException("page navigated away while streaming");
+        off += chunk.length();
+        delivered = off;
+        chunks++;
+        s.onNext(chunk);
+      }
+      if(!cancelled) s.onComplete();
+    }catch(Throwable t){
+      if(!cancelled) s.onError(t instanceof ExecutionException && t.getCause() != null ? t.getCause() : t);
+    }finally{
+      release();
+    }
+  }
+
+  /** Waits for demand (and takes one); false once cancelled. */
+  private boolean awaitDemand() throws Throwable{
+    lock.lock();
+    try{
+      while(demand == 0 && !cancelled && badRequest == null) more.await();
+      if(badRequest != null) throw badRequest;
+      if(cancelled) return false;
+      demand--;
+      return true;
+    }finally{
+      lock.unlock();
+    }
+  }
+
+  private String call(String expression) throws InterruptedException, ExecutionException{
+    String v = eval.apply(expression).get();
+    return v == null ? "" : v;
+  }
+
+  private void release(){
+    try{
+      eval.apply("(function(){if(window.__burpSnap)delete window.__burpSnap['" + token + "'];return '';})()");
+    }catch(Throwable ignored){}
+  }
+
+  private Map<String, Object> result(){
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put(LENGTH, length);
+    m.put(DELIVERED, delivered);
+    m.put(CHUNKS, chunks);
+    m.put(TRUNCATED, length > delivered);
+    return Collections.unmodifiableMap(m);
+  }
+
+  private static String serializer(String kind){
+    if(KIND_TEXT.equals(kind)) return "(document.body?document.body.innerText:'')";
+    if(KIND_SOURCE.equals(kind) || kind == null){
+      return "((document.doctype?new XMLSerializer().serializeToString(document.doctype)+'\\n':'')+document.documentElement.outerHTML)";
+    }
+    throw new IllegalArgumentException("unknown content kind: " + kind);
+  }
+}
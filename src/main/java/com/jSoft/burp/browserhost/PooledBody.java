@@ -0,0 +1,80 @@
+package com.jSoft.burp.browserhost;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A response body held as a list of pooled chunks. Appends copy each
+ * received block once; no contiguous copy of the whole body is made. The
+ * body is reference counted: the resource handler serving it and the
+ * traffic capture each hold a reference, and the chunks go back to the pool
+ * when the last one is released.
+ *
+ * Appends happen on one thread before the body is shared; afterwards it is
+ * read-only, so readers need no locking.
+ */
+final class PooledBody {
+  private final BufferPool pool;
+  private final List<byte[]> chunks = new ArrayList<>();
+  private final AtomicInteger refs = new AtomicInteger(1);
+  private long length;
+
+  PooledBody(BufferPool pool){
+    this.pool = pool;
+  }
+
+  void append(byte[] data, int len){
+    int off = 0;
+    while(off < len){
+      int used = (int)(length % BufferPool.CHUNK_SIZE);
+      if(used == 0) chunks.add(pool.acquire());
+      byte[] chunk = chunks.get(chunks.size() - 1);
+      int n = Math.min(len - off, BufferPool.CHUNK_SIZE - used);
+      System.arraycopy(data, off, chunk, used, n);
+      off += n;
+      length += n;
+    }
+  }
+
+  long length(){
+    return length;
+  }
+
+  /** Copies up to n bytes starting at pos into out[off..); returns the count copied. */
+  int read(long pos, byte[] out, int off, int n){
+    int copied = 0;
+    while(copied < n && pos < length){
+      int index = (int)(pos / BufferPool.CHUNK_SIZE);
+      int chunkOff = (int)(pos % BufferPool.CHUNK_SIZE);
+      int take = (int)Math.min(Math.min(n - copied, BufferPool.CHUNK_SIZE - chunkOff), length - pos);
+      System.arraycopy(chunks.get(index), chunkOff, out, off + copied, take);
+      copied += take;
+      pos += take;
+    }
+    return copied;
+  }
+
+  /** Read-only views over the content, one per chunk. */
+  ByteBuffer[] buffers(){
+    ByteBuffer[] out = new ByteBuffer[chunks.size()];
+    long remaining = length;
+    for(int i = 0; i < out.length; i++){
+      int n = (int)Math.min(remaining, BufferPool.CHUNK_SIZE);
+      out[i] = ByteBuffer.wrap(chunks.get(i), 0, n).asReadOnlyBuffer();
+      remaining -= n;
+    }
+    return out;
+  }
+
+  void retain(){
+    refs.incrementAndGet();
+  }
+
+  void release(){
+    if(refs.decrementAndGet() != 0) return;
+    for(byte[] chunk : chunks) pool.release(chunk);
+    chunks.clear();
+  }
+}
@@ -0,0 +1,536 @@
+package com.jSoft.burp.browserhost;
+
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.callback.CefAuthCallback;
+import org.cef.callback.CefCallback;
+import org.cef.handler.CefResourceHandler;
+import org.cef.handler.CefResourceHandlerAdapter;
+import org.cef.handler.CefResourceRequestHandler;
+import org.cef.handler.CefResourceRequestHandlerAdapter;
+import org.cef.misc.IntRef;
+import org.cef.misc.StringRef;
+import org.cef.network.CefPostData;
+import org.cef.network.CefPostDataElement;
+import org.cef.network.CefRequest;
+import org.cef.network.CefResponse;
+import org.cef.network.CefURLRequest;
+import org.cef.network.CefURLRequestClient;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Resource request handlers for the subresource cache and the traffic
+ * capture. handlerFor picks one of three routes per request:
+ *
+ *   CACHE    cacheable subresources (scripts, stylesheets, images, fonts)
+ *            are served from the ContentCache. A fresh entry (younger than
+ *            its rule's ttl) is streamed from its memory mapping without
+ *            touching the network; otherwise the request is re-issued
+ *            through CefURLRequest, conditionally when an entry exists. A 304
+ *            is answered from the cache, a cacheable 200 is stored and served.
+ *            A "Cache-Control: no-cache" request (hard reload) always
+ *            revalidates.
+ *   FETCH    while capturing with bodies (opt-in, see refetch), other GET and
+ *            HEAD scripts, stylesheets, images, fonts and icons are re-issued
+ *            through CefURLRequest so their bodies are seen. The response is
+ *            buffered before the page gets it and redirects are followed
+ *            there, so XHR/fetch calls and other methods never take it.
+ *   OBSERVE  while capturing, everything else (navigations, frames, XHR and
+ *            fetch calls, media, event streams) is loaded by the browser and
+ *            recorded from its response headers only.
+ *
+ * Cookies set by re-issued responses are stored by CefURLRequest, out of
+ * sight of the browser's cookie filters; their URLs go to cookiesSet.
+ *
+ * CefURLRequest always runs in the global request context, so browsers of
+ * an isolated profile (see BrowserProfiles) never take the re-issuing paths,
+ * and as every cache entry was fetched with that context's cookies they are
+ * never served from the cache either: they are only observed.
+ *
+ * JCEF has no response filter, so bodies are only visible where the fetch is
+ * done here. Received blocks go into pooled chunks (PooledBody) that are
+ * served to the browser, stored in the cache and handed to the capture
+ * without further copies on the IO thread.
+ */
+final class ResourceInterceptor {
+  /** Largest body that is stored; bigger responses are served but not cached. */
+  static final int MAX_OBJECT_BYTES = 32 * 1024 * 1024;
+
+  // cef_urlrequest_flags_t UR_FLAG_ALLOW_STORED_CREDENTIALS: send cookies/auth like the page would
+  private static final int UR_FLAG_ALLOW_STORED_CREDENTIALS = 1 << 3;
+
+  private static final Set<String> DROPPED_HEADERS = Set.of(
+    "content-length", "content-encoding", "transfer-encoding", "connection",
+    "keep-alive", "set-cookie", "set-cookie2", "age", "date");
+
+  private static final Set<String> FETCH_METHODS = Set.of("GET", "HEAD");
+
+  private enum Route { CACHE, FETCH, OBSERVE }
+
+  private final ContentCache   cache;   // null = cache bypassed
+  private final TrafficCapture capture; // null = not capturing
+  private final BufferPool     pool;
+  private final Function<CefBrowser, String> browserIds;
+  private final Predicate<CefBrowser>        isolated;
+  private final Consumer<String>             cookiesSet;
+  private final boolean                      refetch; // FETCH route for capture bodies
+  private volatile CacheRules  rules;
+
+  private final Tap cacheTap   = new Tap(Route.CACHE);
+  private final Tap fetchTap   = new Tap(Route.FETCH);
+  private final Tap observeTap = new Tap(Route.OBSERVE);
+
+  ResourceInterceptor(ContentCache cache, CacheRules rules, TrafficCapture capture, BufferPool pool, Function<CefBrowser, String> browserIds,
+      Predicate<CefBrowser> isolated, Consumer<String> cookiesSet, boolean refetch){
+    this.cache = cache;
+    this.rules = rules;
+    this.capture = capture;
+    this.pool = pool;
+    this.browserIds = browserIds;
+    this.isolated = isolated;
+    this.cookiesSet = cookiesSet;
+    this.refetch = refetch;
+  }
+
+  void setRules(CacheRules rules){
+    this.rules = rules;
+  }
+
+  CacheRules rules(){
+    return rules;
+  }
+
+  ContentCache cache(){
+    return cache;
+  }
+
+  /** Cheap routing on the IO thread; null leaves the request to the browser untouched. */
+  CefResourceRequestHandler handlerFor(CefBrowser browser, CefRequest request, boolean isNavigation, boolean isDownload){
+    if(request == null || isDownload || CacheRules.hostOf(request.getURL()) == null) return null;
+    boolean own = isolated.test(browser);
+    if(!isNavigation && !own && cacheable(request)) return cacheTap;
+    if(capture == null) return null;
+    if(refetch && !isNavigation && !own && refetchable(request)) return fetchTap;
+    return observeTap;
+  }
+
+  /** GET of a cacheable type whose host has a caching rule. */
+  private boolean cacheable(CefRequest request){
+    if(cache == null || !"GET".equalsIgnoreCase(request.getMethod())) return false;
+    CefRequest.ResourceType type = request.getResourceType();
+    if(type != CefRequest.ResourceType.RT_SCRIPT && type != CefRequest.ResourceType.RT_STYLESHEET
+      && type != CefRequest.ResourceType.RT_IMAGE && type != CefRequest.ResourceType.RT_FONT_RESOURCE){
+      return false;
+    }
+    if(rules.match(request.getURL()).mode == CacheRules.Mode.BYPASS){
+      cache.bypassed.increment();
+      return false;
+    }
+    return true;
+  }
+
+  /** GET/HEAD of static subresources the fetch path can buffer: no page calls, streams or uploads. */
+  private static boolean refetchable(CefRequest request){
+    CefRequest.ResourceType type = request.getResourceType();
+    if(type != CefRequest.ResourceType.RT_SCRIPT && type != CefRequest.ResourceType.RT_STYLESHEET
+      && type != CefRequest.ResourceType.RT_IMAGE && type != CefRequest.ResourceType.RT_FONT_RESOURCE
+      && type != CefRequest.ResourceType.RT_FAVICON){
+      return false;
+    }
+    String method = request.getMethod();
+    if(method == null || !FETCH_METHODS.contains(method.toUpperCase(Locale.ROOT))) return false;
+    if(containsIgnoreCase(request.getHeaderByName("Accept"), "text/event-stream")) return false;
+    return replayable(request.getPostData());
+  }
+
+  //-----------------------------------------------------------------------------
+  static String keyOf(String url){
+    int hash = url == null ? -1 : url.indexOf('#');
+    return hash < 0 ? url : url.substring(0, hash);
+  }
+
+  private static boolean containsIgnoreCase(String value, String token){
+    return value != null && value.toLowerCase(Locale.ROOT).contains(token);
+  }
+
+  /**
+   * A 200 that may be shared: the cache is keyed by URL only, so responses
+   * that set cookies or vary by cookie or credentials are per user and never
+   * stored.
+   */
+  static boolean storable(int status, Map<String, String> headers){
+    if(status != 200) return false;
+    for(Map.Entry<String, String> h : headers.entrySet()){
+      String name = h.getKey();
+      if(name.equalsIgnoreCase("Set-Cookie") || name.equalsIgnoreCase("Set-Cookie2")) return false;
+      if(name.equalsIgnoreCase("Cache-Control")){
+        String v = h.getValue().toLowerCase(Locale.ROOT);
+        if(v.contains("no-store") || v.contains("private")) return false;
+      }
+      if(name.equalsIgnoreCase("Vary")){
+        String v = h.getValue().toLowerCase(Locale.ROOT);
+        if(v.contains("*") || v.contains("cookie") || v.contains("authorization")) return false;
+      }
+    }
+    return true;
+  }
+
+  /** Response headers worth replaying; the body is already decoded, so length/encoding are dropped. */
+  static Map<String, String> replayHeaders(Map<String, String> headers){
+    Map<String, String> out = new LinkedHashMap<>();
+    for(Map.Entry<String, String> h : headers.entrySet()){
+      if(!DROPPED_HEADERS.contains(h.getKey().toLowerCase(Locale.ROOT))) out.put(h.getKey(), h.getValue());
+    }
+    return out;
+  }
+
+  /** False if the body has a file element, which CefURLRequest cannot replay. */
+  private static boolean replayable(CefPostData postData){
+    if(postData == null || postData.getElementCount() == 0) return true;
+    Vector<CefPostDataElement> elements = new Vector<>();
+    postData.getElements(elements);
+    for(CefPostDataElement e : elements){
+      if(e.getType() == CefPostDataElement.Type.PDE_TYPE_FILE) return false;
+    }
+    return true;
+  }
+
+  /** The in-memory part of the request body, at most limit bytes (empty array for none). */
+  private static byte[] postBytes(CefPostData postData, int limit){
+    if(postData == null || postData.getElementCount() == 0) return new byte[0];
+    Vector<CefPostDataElement> elements = new Vector<>();
+    postData.getElements(elements);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for(CefPostDataElement e : elements){
+      if(e.getType() != CefPostDataElement.Type.PDE_TYPE_BYTES || out.size() >= limit) continue;
+      int n = e.getBytesCount();
+      byte[] b = new byte[n];
+      int read = e.getBytes(n, b);
+      out.write(b, 0, Math.min(read, limit - out.size()));
+    }
+    return out.toByteArray();
+  }
+
+  private TrafficCapture.Exchange exchangeOf(CefBrowser browser, CefRequest request){
+    Map<String, String> h = new LinkedHashMap<>();
+    request.getHeaderMap(h);
+    return new TrafficCapture.Exchange(browserIds.apply(browser), request.getMethod(), keyOf(request.getURL()), h,
+      postBytes(request.getPostData(), capture.maxBodyBytes()));
+  }
+
+  //-----------------------------------------------------------------------------
+  /** Shared per-route handler; per-request state lives in the resource handlers. */
+  private final class Tap extends CefResourceRequestHandlerAdapter {
+    private final Route route;
+
+    Tap(Route route){
+      this.route = route;
+    }
+
+    @Override
+    public CefResourceHandler getResourceHandler(CefBrowser browser, CefFrame frame, CefRequest request){
+      switch(route){
+        case CACHE: return cachedOrFetch(browser, request);
+        case FETCH: return new FetchHandler(browser, null, null);
+        default:    return null;
+      }
+    }
+
+    @Override
+    public void onResourceLoadComplete(CefBrowser browser, CefFrame frame, CefRequest request, CefResponse response,
+        CefURLRequest.Status status, long receivedContentLength){
+      TrafficCapture c = capture;
+      if(route != Route.OBSERVE || c == null || request == null || response == null || response.getStatus() <= 0) return;
+      TrafficCapture.Exchange ex = exchangeOf(browser, request);
+      Map<String, String> h = new LinkedHashMap<>();
+      response.getHeaderMap(h);
+      ex.status = response.getStatus();
+      ex.statusText = response.getStatusText();
+      ex.responseHeaders = h;
+      c.record(ex);
+    }
+  }
+
+  private CefResourceHandler cachedOrFetch(CefBrowser browser, CefRequest request){
+    if(isolated.test(browser)) return null; // the cache holds the default profile's responses
+    String key = keyOf(request.getURL());
+    CacheRules.Rule rule = rules.match(key);
+    if(rule.mode == CacheRules.Mode.BYPASS) return capture != null ? new FetchHandler(browser, null, null) : null;
+
+    ContentCache.Entry entry = cache.lookup(key);
+    boolean forceRevalidate = containsIgnoreCase(request.getHeaderByName("Cache-Control"), "no-cache")
+      || containsIgnoreCase(request.getHeaderByName("Pragma"), "no-cache");
+    if(entry != null && !forceRevalidate && rule.mode == CacheRules.Mode.CACHE
+      && System.currentTimeMillis() - entry.validatedMillis < rule.ttlMillis){
+      ByteBuffer body = cache.open(entry);
+      if(body != null){
+        cache.hits.increment();
+        cache.bytesSaved.add(entry.size);
+        return new CachedHandler(browser, entry, body);
+      }
+      entry = null;
+    }
+    return new FetchHandler(browser, key, entry);
+  }
+
+  /** Fills the response fields of a capture record from a cache entry. */
+  private static void fromEntry(TrafficCapture.Exchange ex, ContentCache.Entry entry, ByteBuffer body, String source){
+    ex.status = entry.status;
+    ex.statusText = "OK";
+    ex.responseHeaders = entry.mime == null || entry.header("Content-Type") != null ? entry.headers
+      : withContentType(entry.headers, entry.mime);
+    ex.mapped = body.duplicate();
+    ex.source = source;
+  }
+
+  private static Map<String, String> withContentType(Map<String, String> headers, String mime){
+    Map<String, String> m = new LinkedHashMap<>(headers);
+    m.put("Content-Type", mime);
+    return m;
+  }
+
+  //-----------------------------------------------------------------------------
+  /** Streams a mapped cache object. */
+  private final class CachedHandler extends CefResourceHandlerAdapter {
+    private final CefBrowser browser;
+    private final ContentCache.Entry entry;
+    private final ByteBuffer body;
+
+    CachedHandler(CefBrowser browser, ContentCache.Entry entry, ByteBuffer body){
+      this.browser = browser;
+      this.entry = entry;
+      this.body = body;
+    }
+
+    @Override
+    public boolean processRequest(CefRequest request, CefCallback callback){
+      TrafficCapture c = capture;
+      if(c == null){
+        callback.Continue();
+        return true;
+      }
+      TrafficCapture.Exchange ex = exchangeOf(browser, request);
+      fromEntry(ex, entry, body, TrafficCapture.SOURCE_CACHE);
+      c.submit(ex, callback::Continue);
+      return true;
+    }
+
+    @Override
+    public void getResponseHeaders(CefResponse response, IntRef length, StringRef redirectUrl){
+      response.setStatus(entry.status);
+      response.setStatusText("OK");
+      if(entry.mime != null && !entry.mime.isEmpty()) response.setMimeType(entry.mime);
+      response.setHeaderMap(new HashMap<>(entry.headers));
+      length.set((int)entry.size);
+    }
+
+    @Override
+    public boolean readResponse(byte[] out, int bytesToRead, IntRef bytesRead, CefCallback callback){
+      int n = Math.min(bytesToRead, body.remaining());
+      if(n <= 0){
+        bytesRead.set(0);
+        return false;
+      }
+      body.get(out, 0, n);
+      bytesRead.set(n);
+      return true;
+    }
+  }
+
+  /**
+   * Fetches through CefURLRequest. With a cache key it answers 304s from the
+   * cache and stores cacheable 200s; with a capture it records the exchange.
+   */
+  private final class FetchHandler extends CefResourceHandlerAdapter implements CefURLRequestClient {
+    private final CefBrowser         browser;
+    private final String             key;      // null = do not cache
+    private final ContentCache.Entry previous;
+
+    private CefCallback   callback;
+    private CefURLRequest urlRequest;
+    private String        url;
+    private long          nativeRef;
+    private TrafficCapture.Exchange exchange;
+
+    // Response state, written on completion before callback.Continue()
+    private final PooledBody data = new PooledBody(pool);
+    private long       readPos;
+    private boolean    released;
+    private int        status;
+    private String     statusText;
+    private String     mime;
+    private Map<String, String> headers = Map.of();
+    private ByteBuffer cached; // body of a 304 answered from the cache
+
+    FetchHandler(CefBrowser browser, String key, ContentCache.Entry previous){
+      this.browser = browser;
+      this.key = key;
+      this.previous = previous;
+    }
+
+    @Override
+    public boolean processRequest(CefRequest request, CefCallback callback){
+      this.callback = callback;
+      this.url = request.getURL();
+      if(capture != null) exchange = exchangeOf(browser, request);
+      Map<String, String> h = new HashMap<>();
+      request.getHeaderMap(h);
+      if(previous != null){
+        String etag = previous.header("ETag");
+        String modified = previous.header("Last-Modified");
+        if(etag != null) h.put("If-None-Match", etag);
+        if(modified != null) h.put("If-Modified-Since", modified);
+      }
+      CefRequest r = CefRequest.create();
+      r.set(request.getURL(), request.getMethod(), request.getPostData(), h);
+      r.setFlags(request.getFlags() | UR_FLAG_ALLOW_STORED_CREDENTIALS);
+      urlRequest = CefURLRequest.create(r, this);
+      if(urlRequest == null){
+        if(cache != null) cache.errors.increment();
+        done();
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public void getResponseHeaders(CefResponse response, IntRef length, StringRef redirectUrl){
+      response.setStatus(status);
+      if(statusText != null) response.setStatusText(statusText);
+      if(mime != null && !mime.isEmpty()) response.setMimeType(mime);
+      response.setHeaderMap(new HashMap<>(headers));
+      length.set((int)(cached != null ? cached.remaining() : data.length()));
+    }
+
+    @Override
+    public boolean readResponse(byte[] out, int bytesToRead, IntRef bytesRead, CefCallback cb){
+      int n;
+      if(cached != null){
+        n = Math.min(bytesToRead, cached.remaining());
+        if(n > 0) cached.get(out, 0, n);
+      }else{
+        n = data.read(readPos, out, 0, bytesToRead);
+        readPos += n;
+      }
+      if(n <= 0){
+        bytesRead.set(0);
+        done();
+        return false;
+      }
+      bytesRead.set(n);
+      return true;
+    }
+
+    @Override
+    public void cancel(){
+      CefURLRequest r = urlRequest;
+      if(r != null) r.cancel();
+      done();
+    }
+
+    /** Gives the serving reference of the body back to the pool (once). */
+    private void done(){
+      if(released) return;
+      released = true;
+      data.release();
+    }
+
+    //---------------------------------------------------------------------------
+    // CefURLRequestClient
+
+    @Override
+    public void onDownloadData(CefURLRequest request, byte[] bytes, int dataLength){
+      data.append(bytes, dataLength);
+    }
+
+    @Override
+    public void onRequestComplete(CefURLRequest request){
+      CefResponse response = request.getResponse();
+      if(request.getRequestStatus() != CefURLRequest.Status.UR_SUCCESS || response == null){
+        if(cache != null) cache.errors.increment();
+        callback.cancel();
+        done();
+        return;
+      }
+      Map<String, String> h = new HashMap<>();
+      response.getHeaderMap(h);
+      for(String name : h.keySet()){
+        if(name.equalsIgnoreCase("Set-Cookie")){
+          cookiesSet.accept(url);
+          break;
+        }
+      }
+
+      if(response.getStatus() == 304 && previous != null){
+        ByteBuffer body = cache.open(previous);
+        if(body != null){
+          cache.revalidated(previous);
+          cache.revalidated.increment();
+          cache.bytesSaved.add(previous.size);
+          status = previous.status;
+          statusText = "OK";
+          mime = previous.mime;
+          headers = previous.headers;
+          cached = body;
+          if(exchange != null) fromEntry(exchange, previous, body, TrafficCapture.SOURCE_REVALIDATED);
+          resume();
+          return;
+        }
+      }
+
+      status = response.getStatus();
+      statusText = response.getStatusText();
+      mime = response.getMimeType();
+      headers = replayHeaders(h);
+      if(key != null){
+        cache.misses.increment();
+        if(data.length() <= MAX_OBJECT_BYTES && storable(status, h)){
+          cache.store(key, status, mime, headers, data.buffers());
+        }else if(previous != null){
+          cache.remove(key);
+        }
+      }
+      if(exchange != null){
+        exchange.status = status;
+        exchange.statusText = statusText;
+        exchange.responseHeaders = h;
+        exchange.source = TrafficCapture.SOURCE_NETWORK;
+        data.retain();
+        exchange.body = data;
+      }
+      resume();
+    }
+
+    /** Lets the browser read the response, once the capture has room for the exchange. */
+    private void resume(){
+      TrafficCapture c = capture;
+      if(exchange != null && c != null){
+        c.submit(exchange, callback::Continue);
+      }else{
+        callback.Continue();
+      }
+    }
+
+    @Override public void onUploadProgress(CefURLRequest request, int current, int total){}
+    @Override public void onDownloadProgress(CefURLRequest request, int current, int total){}
+
+    @Override
+    public boolean getAuthCredentials(boolean isProxy, String host, int port, String realm, String scheme, CefAuthCallback callback){
+      return false;
+    }
+
+    @Override public void setNativeRef(String identifier, long nativeRef){ this.nativeRef = nativeRef; }
+    @Override public long getNativeRef(String identifier){ return nativeRef; }
+  }
+}
@@ -0,0 +1,318 @@
+package com.jSoft.burp.browserhost;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.AWTException;
+import java.awt.Component;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Screenshots of rendered browser frames.
+ *
+ * The caller's thread copies the frame (one arraycopy under the view's lock
+ * for off-screen browsers) into a pooled int[] and hands it to a small
+ * encoder pool, which wraps the buffer as an RGB image without copying,
+ * writes PNG or JPEG with a writer kept per thread, and returns the buffer
+ * to the pool. Neither CEF nor the EDT ever encodes. At most MAX_IN_FLIGHT
+ * frames are copied but not yet encoded; a caller beyond that waits, so a
+ * bulk capture is paced by encoding instead of piling up frames.
+ *
+ * Windowed browsers have no pixel buffer; a showing one is grabbed from the
+ * screen with java.awt.Robot, which is what a manual screenshot does too.
+ */
+final class ScreenshotPipeline {
+  static final String FORMAT_PNG  = "png";
+  static final String FORMAT_JPEG = "jpeg";
+  static final float  JPEG_QUALITY = 0.85f;
+  static final int    ENCODERS      = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+  static final int    MAX_IN_FLIGHT = 2 * ENCODERS;
+  static final long   SETTLE_MILLIS     = 100; // no paint for this long = rendered
+  static final long   MAX_SETTLE_MILLIS = 1_000;
+
+  // Map keys of results (batch results keep theirs and add these)
+  static final String BROWSER       = "browser";
+  static final String URL           = "url";
+  static final String FORMAT        = "format";
+  static final String WIDTH         = "width";
+  static final String HEIGHT        = "height";
+  static final String IMAGE         = "image";       // encoded bytes
+  static final String COPY_MICROS   = "copyMicros";
+  static final String ENCODE_MILLIS = "encodeMillis";
+  static final String TIME          = "time";        // epoch millis of the copy
+  static final String ERROR         = "screenshotError";
+
+  private static final DirectColorModel RGB = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+  private static final int[] RGB_MASKS = {0xff0000, 0xff00, 0xff};
+
+  /** One frame: packed 0x??RRGGBB pixels, row by row, in a pooled buffer. */
+  static final class Frame {
+    final int[] pixels;
+    final int   width;
+    final int   height;
+
+    Frame(int[] pixels, int width, int height){
+      this.pixels = pixels;
+      this.width = width;
+      this.height = height;
+    }
+  }
+
+  /** Pixel buffers for frames; keeps up to MAX_IN_FLIGHT idle ones, reused for frames that fit. */
+  static final class PixelPool {
+    private final ArrayDeque<int[]> free = new ArrayDeque<>(); // guarded by this
+    private final AtomicLong held = new AtomicLong();          // bytes pooled or in use
+    final AtomicLong peakBytes = new AtomicLong();
+    final LongAdder  reused    = new LongAdder();
+    final LongAdder  allocated = new LongAdder();
+
+    /** A buffer of at least n ints; pooled ones more than twice that size are not handed out. */
+    int[] acquire(int n){
+      synchronized(this){
+        for(Iterator<int[]> it = free.iterator(); it.hasNext();){
+          int[] b = it.next();
+          if(b.length >= n && b.length / 2 <= n){
+            it.remove();
+            reused.increment();
+            return b;
+          }
+        }
+        if(free.size() >= MAX_IN_FLIGHT) held.addAndGet(-4L * free.removeFirst().length); // another size now
+      }
+      allocated.increment();
+      long h = held.addAndGet(4L * n);
+      peakBytes.accumulateAndGet(h, Math::max);
+      return new int[n];
+    }
+
+    void release(int[] b){
+      synchronized(this){
+        if(free.size() < MAX_IN_FLIGHT){
+          free.addLast(b);
+          return;
+        }
+      }
+      held.addAndGet(-4L * b.length);
+    }
+
+    long heldBytes(){
+      return held.get();
+    }
+  }
+
+  /** Per encoder thread: one writer per format and the output buffer. */
+  private static final class Encoder {
+    final ImageWriter png  = ImageIO.getImageWritersByFormatName(FORMAT_PNG).next();
+    final ImageWriter jpeg = ImageIO.getImageWritersByFormatName(FORMAT_JPEG).next();
+    final ImageWriteParam jpegParam = jpeg.getDefaultWriteParam();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+
+    Encoder(){
+      jpegParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      jpegParam.setCompressionQuality(JPEG_QUALITY);
+    }
+  }
+
+  private final PixelPool pool = new PixelPool();
+  private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+  private final ThreadLocal<Encoder> encoder = ThreadLocal.withInitial(Encoder::new);
+  private final ThreadPoolExecutor encoders;
+  private volatile Robot robot; // created on the first windowed grab
+
+  final LongAdder captured     = new LongAdder();
+  final LongAdder failed       = new LongAdder();
+  final LongAdder encodedBytes = new LongAdder();
+  final LongAdder encodeMillis = new LongAdder();
+  final LongAdder waits        = new LongAdder(); // callers that waited for a free slot
+
+  ScreenshotPipeline(){
+    AtomicInteger seq = new AtomicInteger();
+    encoders = new ThreadPoolExecutor(ENCODERS, ENCODERS, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_IN_FLIGHT),
+      r -> Thread.ofPlatform().daemon().name("screenshot-encoder-" + seq.incrementAndGet()).unstarted(r));
+    encoders.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Copies a frame from source on the calling thread and encodes it in the
+   * background as format ("png" or "jpeg"). info is copied into the result
+   * ahead of the screenshot keys. Waits while MAX_IN_FLIGHT frames are
+   * queued; the future fails if source has nothing rendered (null).
+   */
+  CompletableFuture<Map<String, Object>> capture(Function<PixelPool, Frame> source, String format, Map<String, Object> info)
+      throws InterruptedException{
+    String f = formatOf(format);
+    if(f == null) throw new IllegalArgumentException("unknown screenshot format: " + format);
+    if(!inFlight.tryAcquire()){
+      waits.increment();
+      inFlight.acquire();
+    }
+    Frame frame;
+    long t0 = System.nanoTime();
+    try{
+      frame = source.apply(pool);
+    }catch(Throwable t){
+      inFlight.release();
+      failed.increment();
+      return CompletableFuture.failedFuture(t);
+    }
+    if(frame == null){
+      inFlight.release();
+      failed.increment();
+      return CompletableFuture.failedFuture(new IllegalStateException("nothing rendered yet"));
+    }
+    long copyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0);
+    long time = System.currentTimeMillis();
+    CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+    Runnable encode = () -> {
+      try{
+        long e0 = System.nanoTime();
+        byte[] image = encode(frame, f);
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - e0);
+        Map<String, Object> m = new LinkedHashMap<>(info == null ? Map.of() : info);
+        m.put(FORMAT, f);
+        m.put(WIDTH, frame.width);
+        m.put(HEIGHT, frame.height);
+        m.put(IMAGE, image);
+        m.put(COPY_MICROS, copyMicros);
+        m.put(ENCODE_MILLIS, ms);
+        m.put(TIME, time);
+        captured.increment();
+        encodedBytes.add(image.length);
+        encodeMillis.add(ms);
+        result.complete(Collections.unmodifiableMap(m));
+      }catch(Throwable t){
+        failed.increment();
+        result.completeExceptionally(t);
+      }finally{
+        pool.release(frame.pixels);
+        inFlight.release();
+      }
+    };
+    try{
+      encoders.execute(encode); // the permit guarantees room in the queue
+    }catch(Throwable t){
+      pool.release(frame.pixels);
+      inFlight.release();
+      failed.increment();
+      return CompletableFuture.failedFuture(t);
+    }
+    return result;
+  }
+
+  /** Grabs a showing component from the screen into a pooled buffer. */
+  Frame grab(Component c, PixelPool pool){
+    if(c == null || !c.isShowing() || c.getWidth() <= 0 || c.getHeight() <= 0){
+      throw new IllegalStateException("windowed browser is not showing; hidden browsers need offscreen rendering");
+    }
+    Robot r = robot;
+    if(r == null){
+      try{
+        robot = r = new Robot();
+      }catch(AWTException e){
+        throw new IllegalStateException("cannot grab the screen: " + e.getMessage(), e);
+      }
+    }
+    Point p = c.getLocationOnScreen();
+    BufferedImage img = r.createScreenCapture(new Rectangle(p.x, p.y, c.getWidth(), c.getHeight()));
+    int w = img.getWidth(), h = img.getHeight();
+    int[] px = pool.acquire(w * h);
+    img.getRGB(0, 0, w, h, px, 0, w);
+    return new Frame(px, w, h);
+  }
+
+  /** Counters: captured, failed, encodedBytes, encodeMillis, waits and the pixel pool's. */
+  Map<String, Long> stats(){
+    Map<String, Long> m = new LinkedHashMap<>();
+    m.put("captured", captured.sum());
+    m.put("failed", failed.sum());
+    m.put("encodedBytes", encodedBytes.sum());
+    m.put("encodeMillis", encodeMillis.sum());
+    m.put("waits", waits.sum());
+    m.put("inFlight", (long)(MAX_IN_FLIGHT - inFlight.availablePermits()));
+    m.put("buffersReused", pool.reused.sum());
+    m.put("buffersAllocated", pool.allocated.sum());
+    m.put("bufferBytes", pool.heldBytes());
+    m.put("peakBufferBytes", pool.peakBytes.get());
+    return Collections.unmodifiableMap(m);
+  }
+
+  String diagnostics(){
+    long n = captured.sum();
+    return "Screenshots: captured=" + n + " failed=" + failed.sum()
+      + " encode mean=" + (n == 0 ? 0 : encodeMillis.sum() / n) + "ms"
+      + " bytes=" + encodedBytes.sum() + " waits=" + waits.sum()
+      + " buffers=" + pool.reused.sum() + " reused/" + pool.allocated.sum() + " allocated"
+      + " peak=" + (pool.peakBytes.get() >> 20) + "MiB (" + ENCODERS + " encoders)\n";
+  }
+
+  //-----------------------------------------------------------------------------
+  /** "png" or "jpeg" (also "jpg"); null for anything else. Null or empty means png. */
+  static String formatOf(String format){
+    if(format == null || format.isBlank()) return FORMAT_PNG;
+    String f = format.trim().toLowerCase(Locale.ROOT);
+    if(f.equals("jpg")) return FORMAT_JPEG;
+    return f.equals(FORMAT_PNG) || f.equals(FORMAT_JPEG) ? f : null;
+  }
+
+  /**
+   * Waits until lastPaintNanos (0 = never painted) is at least SETTLE_MILLIS
+   * old, for MAX_SETTLE_MILLIS at most: a page that finished loading may
+   * still be painting its final frame.
+   */
+  static void settle(LongSupplier lastPaintNanos) throws InterruptedException{
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_SETTLE_MILLIS);
+    long quiet = TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+    while(true){
+      long now = System.nanoTime();
+      long last = lastPaintNanos.getAsLong();
+      long quietAt = last == 0 ? deadline : last + quiet;
+      if(now >= quietAt || now >= deadline) return;
+      TimeUnit.NANOSECONDS.sleep(Math.min(quietAt, deadline) - now);
+    }
+  }
+
+  private byte[] encode(Frame frame, String format) throws IOException{
+    DataBufferInt data = new DataBufferInt(frame.pixels, frame.width * frame.height);
+    WritableRaster raster = Raster.createPackedRaster(data, frame.width, frame.height, frame.width, RGB_MASKS, null);
+    BufferedImage img = new BufferedImage(RGB, raster, false, null); // alpha bits are ignored
+    Encoder e = encoder.get();
+    boolean jpeg = FORMAT_JPEG.equals(format);
+    ImageWriter w = jpeg ? e.jpeg : e.png;
+    e.out.reset();
+    try(ImageOutputStream ios = new MemoryCacheImageOutputStream(e.out)){ // ImageIO's default may cache in a temp file
+      w.setOutput(ios);
+      w.write(null, new IIOImage(img, null, null), jpeg ? e.jpegParam : null);
+    }finally{
+      w.setOutput(null);
+    }
+    return e.out.toByteArray();
+  }
+}
@@ -0,0 +1,84 @@
+package com.jSoft.burp.browserhost;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Begin/end timestamps of the startup phases, reported relative to JVM start
+ * in Host.diagnostics(). Each phase is recorded once; later marks are ignored.
+ */
+final class StartupTimeline {
+  enum Phase {
+    ATTACH         ("attach"),          // agent appended to the system classloader
+    CLASS_LOAD     ("class load"),      // jcefmaven/JCEF classes linked, builder ready
+    NATIVE_INIT    ("native init"),     // natives extracted/verified, CefApp initialized
+    CLIENT_CREATION("client creation"), // CefClient and handlers
+    FIRST_PAINT    ("first paint");     // first browser's first load finished
+
+    final String label;
+
+    Phase(String label){
+      this.label = label;
+    }
+  }
+
+  private final AtomicLongArray begin = new AtomicLongArray(Phase.values().length);
+  private final AtomicLongArray end   = new AtomicLongArray(Phase.values().length);
+  private final long            jvmStartNanos;
+
+  StartupTimeline(){
+    long start;
+    try{
+      start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime());
+    }catch(Throwable t){
+      start = System.nanoTime(); // no management module: offsets are relative to Host load
+    }
+    jvmStartNanos = start;
+  }
+
+  void begin(Phase p){
+    begin.compareAndSet(p.ordinal(), 0, stamp());
+  }
+
+  void end(Phase p){
+    if(begin.get(p.ordinal()) != 0) end.compareAndSet(p.ordinal(), 0, stamp());
+  }
+
+  /** Records a phase measured elsewhere (nanoTime values, 0 = unknown). */
+  void record(Phase p, long beginNanos, long endNanos){
+    if(beginNanos == 0) return;
+    begin.compareAndSet(p.ordinal(), 0, beginNanos);
+    if(endNanos != 0) end.compareAndSet(p.ordinal(), 0, endNanos);
+  }
+
+  boolean isPending(Phase p){
+    return begin.get(p.ordinal()) != 0 && end.get(p.ordinal()) == 0;
+  }
+
+  boolean isDone(Phase p){
+    return end.get(p.ordinal()) != 0;
+  }
+
+  String diagnostics(){
+    StringBuilder sb = new StringBuilder("Startup:");
+    for(Phase p : Phase.values()){
+      long b = begin.get(p.ordinal());
+      long e = end.get(p.ordinal());
+      sb.append(' ').append(p.label).append('=');
+      if(b == 0){
+        sb.append('-');
+      }else{
+        sb.append('+').append(TimeUnit.NANOSECONDS.toMillis(b - jvmStartNanos)).append("ms");
+        if(e == 0) sb.append("(running)");
+        else sb.append('(').append(TimeUnit.NANOSECONDS.toMillis(e - b)).append("ms)");
+      }
+    }
+    return sb.append('\n').toString();
+  }
+
+  private static long stamp(){
+    long t = System.nanoTime();
+    return t == 0 ? 1 : t; // 0 means "not recorded"
+  }
+}
@@ -0,0 +1,362 @@
+package com.jSoft.burp.browserhost;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Records the browser's requests and responses and hands them to one
+ * subscriber in batches.
+ *
+ * Producers on the CEF IO thread only enqueue an Exchange that references
+ * the body (pooled chunks or a mapped cache object); the raw HTTP messages
+ * are assembled on the capture thread, bodies cut at maxBodyBytes, and the
+ * chunks released before the batch is delivered.
+ *
+ * The queue is bounded. Exchanges whose resource handler can wait (submit)
+ * are parked when it is full and their response is held back until the
+ * subscriber catches up, which slows the page down instead of losing
+ * traffic; after PARK_TIMEOUT_MILLIS, or beyond MAX_PARKED, they are dropped
+ * and released. Exchanges that cannot wait (record) are dropped when the
+ * queue is full. All drops are counted.
+ */
+final class TrafficCapture {
+  static final int  DEFAULT_MAX_BODY_BYTES = 2 * 1024 * 1024;
+  static final int  QUEUE_CAPACITY         = 256;
+  static final int  MAX_PARKED             = 256;
+  static final int  MAX_BATCH              = 64;
+  static final long PARK_TIMEOUT_MILLIS    = 5000;
+
+  // Map keys of delivered exchanges
+  static final String BROWSER   = "browser";
+  static final String TIME      = "time";
+  static final String METHOD    = "method";
+  static final String URL       = "url";
+  static final String STATUS    = "status";
+  static final String REQUEST   = "request";   // raw HTTP/1.1 request, byte[]
+  static final String RESPONSE  = "response";  // raw HTTP/1.1 response, byte[]
+  static final String SOURCE    = "source";
+  static final String TRUNCATED = "truncated";
+
+  // Where the response body came from
+  static final String SOURCE_NETWORK     = "network";
+  static final String SOURCE_CACHE       = "cache";
+  static final String SOURCE_REVALIDATED = "revalidated";
+  static final String SOURCE_HEADERS     = "headers"; // loaded by the browser; no body available
+
+  private static final Set<String> BODY_HEADERS = Set.of("content-length", "content-encoding", "transfer-encoding");
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  /** One request/response pair. Filled on the IO thread, read on the capture thread. */
+  static final class Exchange {
+    final String browser;
+    final long   time = System.currentTimeMillis();
+    final String method;
+    final String url;
+    final Map<String, String> requestHeaders;
+    final byte[] requestBody;
+
+    int        status;
+    String     statusText;
+    Map<String, String> responseHeaders = Map.of();
+    PooledBody body;   // network body; retained for the capture
+    ByteBuffer mapped; // cached body
+    String     source = SOURCE_HEADERS;
+
+    Exchange(String browser, String method, String url, Map<String, String> requestHeaders, byte[] requestBody){
+      this.browser = browser;
+      this.method = method;
+      this.url = url;
+      this.requestHeaders = requestHeaders;
+      this.requestBody = requestBody;
+    }
+
+    void release(){
+      PooledBody b = body;
+      body = null;
+      if(b != null) b.release();
+    }
+  }
+
+  private static final class Parked {
+    final Exchange exchange;
+    final Runnable resume;
+    final long     sinceNanos = System.nanoTime();
+
+    Parked(Exchange exchange, Runnable resume){
+      this.exchange = exchange;
+      this.resume = resume;
+    }
+  }
+
+  private final BlockingQueue<Exchange>     queue  = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final ConcurrentLinkedQueue<Parked> parked = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger parkedCount = new AtomicInteger();
+  private volatile Consumer<List<Map<String, Object>>> subscriber;
+  private volatile int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+
+  final LongAdder captured    = new LongAdder();
+  final LongAdder delivered   = new LongAdder();
+  final LongAdder batches     = new LongAdder();
+  final LongAdder parkedTotal = new LongAdder();
+  final LongAdder dropped     = new LongAdder();
+  final LongAdder truncated   = new LongAdder();
+  final LongAdder failures    = new LongAdder();
+  final LongAdder bodyBytes   = new LongAdder();
+
+  TrafficCapture(){
+    Thread.ofVirtual().name("browser-capture").start(this::run);
+  }
+
+  /** Sets the single subscriber (null removes it); returns an action that removes it again. */
+  Runnable subscribe(Consumer<List<Map<String, Object>>> s){
+    subscriber = s;
+    return () -> {
+      if(subscriber == s) subscriber = null;
+    };
+  }
+
+  boolean hasSubscriber(){
+    return subscriber != null;
+  }
+
+  void setMaxBodyBytes(int bytes){
+    maxBodyBytes = Math.max(0, bytes);
+  }
+
+  int maxBodyBytes(){
+    return maxBodyBytes;
+  }
+
+  /** Enqueues e if there is room; never blocks. */
+  void record(Exchange e){
+    captured.increment();
+    if(!queue.offer(e)){
+      dropped.increment();
+      e.release();
+    }
+  }
+
+  /**
+   * Enqueues e and runs resume; with a full queue e is parked and resume runs
+   * on the capture thread once e is queued (or dropped after the timeout).
+   */
+  void submit(Exchange e, Runnable resume){
+    captured.increment();
+    if(parked.isEmpty() && queue.offer(e)){
+      resume.run();
+      return;
+    }
+    if(parkedCount.incrementAndGet() > MAX_PARKED){
+      parkedCount.decrementAndGet();
+      dropped.increment();
+      e.release();
+      resume.run();
+      return;
+    }
+    parkedTotal.increment();
+    parked.offer(new Parked(e, resume)); // picked up after the next batch or poll timeout
+  }
+
+  Map<String, Long> stats(){
+    Map<String, Long> m = new LinkedHashMap<>();
+    m.put("captured", captured.sum());
+    m.put("delivered", delivered.sum());
+    m.put("batches", batches.sum());
+    m.put("parked", parkedTotal.sum());
+    m.put("dropped", dropped.sum());
+    m.put("truncated", truncated.sum());
+    m.put("failures", failures.sum());
+    m.put("bodyBytes", bodyBytes.sum());
+    m.put("queued", (long)queue.size());
+    m.put("waiting", (long)parkedCount.get());
+    m.put("maxBodyBytes", (long)maxBodyBytes);
+    return Collections.unmodifiableMap(m);
+  }
+
+  String diagnostics(){
+    Map<String, Long> s = stats();
+    return "Capture: captured=" + s.get("captured") + " delivered=" + s.get("delivered")
+      + " batches=" + s.get("batches") + " parked=" + s.get("parked") + " dropped=" + s.get("dropped")
+      + " truncated=" + s.get("truncated") + " failures=" + s.get("failures")
+      + " queued=" + s.get("queued") + "/" + QUEUE_CAPACITY + " waiting=" + s.get("waiting")
+      + " maxBody=" + s.get("maxBodyBytes") / 1024 + "KiB\n";
+  }
+
+  //-----------------------------------------------------------------------------
+  private void run(){
+    List<Exchange> batch = new ArrayList<>(MAX_BATCH);
+    List<Map<String, Object>> out = new ArrayList<>(MAX_BATCH);
+    while(true){
+      try{
+        Exchange first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if(first != null){
+          batch.add(first);
+          queue.drainTo(batch, MAX_BATCH - 1);
+        }
+      }catch(InterruptedException e){
+        return;
+      }
+      if(!batch.isEmpty()){
+        deliver(batch, out);
+        batch.clear();
+        out.clear();
+      }
+      unpark();
+    }
+  }
+
+  private void deliver(List<Exchange> batch, List<Map<String, Object>> out){
+    int cap = maxBodyBytes;
+    for(Exchange e : batch){
+      try{
+        out.add(toMap(e, cap));
+      }catch(RuntimeException ex){
+        failures.increment();
+      }finally{
+        e.release();
+      }
+    }
+    Consumer<List<Map<String, Object>>> s = subscriber;
+    if(s == null){
+      dropped.add(out.size());
+      return;
+    }
+    try{
+      s.accept(Collections.unmodifiableList(new ArrayList<>(out)));
+      delivered.add(out.size());
+      batches.increment();
+    }catch(Throwable t){
+      failures.add(out.size());
+    }
+  }
+
+  /** Moves parked exchanges into the queue while there is room; expires old ones. */
+  private void unpark(){
+    long now = System.nanoTime();
+    Parked p;
+    while((p = parked.peek()) != null){
+      boolean expired = now - p.sinceNanos > TimeUnit.MILLISECONDS.toNanos(PARK_TIMEOUT_MILLIS);
+      if(!expired && !queue.offer(p.exchange)) return;
+      parked.poll();
+      parkedCount.decrementAndGet();
+      if(expired){
+        dropped.increment();
+        p.exchange.release();
+      }
+      try{
+        p.resume.run();
+      }catch(RuntimeException ignored){
+        // request already cancelled by the browser
+      }
+    }
+  }
+
+  private Map<String, Object> toMap(Exchange e, int cap){
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put(BROWSER, e.browser);
+    m.put(TIME, e.time);
+    m.put(METHOD, e.method);
+    m.put(URL, e.url);
+    m.put(STATUS, e.status);
+    m.put(SOURCE, e.source);
+    m.put(REQUEST, rawRequest(e, cap));
+
+    long available = e.body != null ? e.body.length() : e.mapped != null ? e.mapped.remaining() : 0;
+    int n = (int)Math.min(available, cap);
+    boolean cut = n < available;
+    if(cut) truncated.increment();
+    bodyBytes.add(n);
+    m.put(TRUNCATED, cut);
+    m.put(RESPONSE, e.status > 0 ? rawResponse(e, n) : null);
+    return Collections.unmodifiableMap(m);
+  }
+
+  private static byte[] rawRequest(Exchange e, int cap){
+    StringBuilder sb = new StringBuilder(256);
+    sb.append(e.method).append(' ').append(target(e.url)).append(" HTTP/1.1\r\n");
+    if(header(e.requestHeaders, "Host") == null) sb.append("Host: ").append(authority(e.url)).append("\r\n");
+    int bodyLen = e.requestBody == null ? 0 : Math.min(e.requestBody.length, cap);
+    for(Map.Entry<String, String> h : e.requestHeaders.entrySet()){
+      if(bodyLen > 0 && h.getKey().equalsIgnoreCase("Content-Length")) continue;
+      sb.append(h.getKey()).append(": ").append(h.getValue()).append("\r\n");
+    }
+    if(bodyLen > 0) sb.append("Content-Length: ").append(bodyLen).append("\r\n");
+    sb.append("\r\n");
+    byte[] head = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    if(bodyLen == 0) return head;
+    byte[] raw = new byte[head.length + bodyLen];
+    System.arraycopy(head, 0, raw, 0, head.length);
+    System.arraycopy(e.requestBody, 0, raw, head.length, bodyLen);
+    return raw;
+  }
+
+  /** Status line and headers plus the first n body bytes, copied straight from the chunks or the mapping. */
+  private static byte[] rawResponse(Exchange e, int n){
+    StringBuilder sb = new StringBuilder(256);
+    sb.append("HTTP/1.1 ").append(e.status);
+    if(e.statusText != null && !e.statusText.isEmpty()) sb.append(' ').append(e.statusText);
+    sb.append("\r\n");
+    boolean hasBody = e.body != null || e.mapped != null;
+    for(Map.Entry<String, String> h : e.responseHeaders.entrySet()){
+      // Bodies arrive decoded; their length is restated below
+      if(hasBody && BODY_HEADERS.contains(h.getKey().toLowerCase(Locale.ROOT))) continue;
+      sb.append(h.getKey()).append(": ").append(h.getValue()).append("\r\n");
+    }
+    if(hasBody) sb.append("Content-Length: ").append(n).append("\r\n");
+    byte[] head = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    byte[] raw = new byte[head.length + CRLF.length + n];
+    System.arraycopy(head, 0, raw, 0, head.length);
+    System.arraycopy(CRLF, 0, raw, head.length, CRLF.length);
+    int off = head.length + CRLF.length;
+    if(e.body != null){
+      e.body.read(0, raw, off, n);
+    }else if(e.mapped != null){
+      e.mapped.duplicate().get(raw, off, n);
+    }
+    return raw;
+  }
+
+  private static String header(Map<String, String> headers, String name){
+    for(Map.Entry<String, String> h : headers.entrySet()){
+      if(h.getKey().equalsIgnoreCase(name)) return h.getValue();
+    }
+    return null;
+  }
+
+  /** Path and query of an absolute URL ("/" if it has none), without the fragment. */
+  static String target(String url){
+    int scheme = url.indexOf("://");
+    int start = scheme < 0 ? 0 : url.indexOf('/', scheme + 3);
+    int hash = url.indexOf('#');
+    int end = hash < 0 ? url.length() : hash;
+    if(start < 0 || start >= end){
+      int query = url.indexOf('?', scheme < 0 ? 0 : scheme + 3);
+      return query >= 0 && query < end ? "/" + url.substring(query, end) : "/";
+    }
+    return url.substring(start, end);
+  }
+
+  static String authority(String url){
+    int scheme = url.indexOf("://");
+    int start = scheme < 0 ? 0 : scheme + 3;
+    int end = start;
+    while(end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) end++;
+    String a = url.substring(start, end);
+    int at = a.lastIndexOf('@');
+    return at >= 0 ? a.substring(at + 1) : a;
+  }
+}
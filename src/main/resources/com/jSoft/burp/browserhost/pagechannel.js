@@ -0,0 +1,91 @@
+// Page side of PageChannel: window.burpBridge.query(channel, payload) -> Promise<string>
+// and send(channel, payload). Messages queued in one task go to Java in a
+// single burpQuery call (at most MAX_BATCH each, MAX_IN_FLIGHT calls at a
+// time; the rest wait and are sent together). Installed on demand; idempotent.
+(function(w){
+  if(w.burpBridge || typeof w.burpQuery !== 'function') return;
+  var MAX_BATCH = 64, MAX_IN_FLIGHT = 4;
+  var seq = 0, queue = [], pending = {}, inFlight = 0, scheduled = false;
+  var later = typeof queueMicrotask === 'function' ? queueMicrotask : function(f){ Promise.resolve().then(f); };
+
+  function ns(s){ s = String(s); return s.length + ':' + s + ','; }
+  function parse(s){
+    var out = [], i = 0;
+    while(i < s.length){
+      var c = s.indexOf(':', i);
+      if(c < 0) break;
+      var n = +s.substring(i, c);
+      out.push(s.substr(c + 1, n));
+      i = c + n + 2;
+    }
+    return out;
+  }
+  function str(v){
+    if(v === undefined) return '';
+    if(typeof v === 'string') return v;
+    try{ var j = JSON.stringify(v); return j === undefined ? String(v) : j; }catch(e){ return String(v); }
+  }
+  function fail(ids, msg){
+    for(var i = 0; i < ids.length; i++){
+      var p = pending[ids[i]];
+      if(p){ delete pending[ids[i]]; p.reject(new Error(msg)); }
+    }
+  }
+  function schedule(){
+    if(scheduled) return;
+    scheduled = true;
+    later(flush);
+  }
+  function flush(){
+    scheduled = false;
+    while(queue.length && inFlight < MAX_IN_FLIGHT) cross(queue.splice(0, MAX_BATCH));
+  }
+  function cross(batch){
+    var req = '', ids = [];
+    for(var i = 0; i < batch.length; i++){
+      var m = batch[i];
+      req += ns(m.id) + ns(m.ch) + ns(m.p);
+      if(m.id) ids.push(m.id);
+    }
+    inFlight++;
+    w.burpQuery({request: req, persistent: false,
+      onSuccess: function(resp){
+        inFlight--;
+        var r = parse(resp);
+        for(var i = 0; i + 1 < r.length; i += 2){
+          var p = pending[r[i]];
+          if(!p) continue;
+          delete pending[r[i]];
+          if(r[i + 1].charAt(0) === '+') p.resolve(r[i + 1].substring(1));
+          else p.reject(new Error(r[i + 1].substring(1)));
+        }
+        fail(ids, 'no response');
+        flush();
+      },
+      onFailure: function(code, msg){
+        inFlight--;
+        fail(ids, msg || ('error ' + code));
+        flush();
+      }});
+  }
+  function enqueue(id, ch, p){
+    queue.push({id: id, ch: String(ch), p: p == null ? '' : String(p)});
+    schedule();
+  }
+
+  w.burpBridge = {
+    query: function(ch, p){
+      return new Promise(function(resolve, reject){
+        var id = String(++seq);
+        pending[id] = {resolve: resolve, reject: reject};
+        enqueue(id, ch, p);
+      });
+    },
+    send: function(ch, p){ enqueue('', ch, p); },
+    _eval: function(id, f){
+      Promise.resolve().then(f).then(
+        function(v){ enqueue('', '__result', ns(id) + ns('+' + str(v))); },
+        function(e){ enqueue('', '__result', ns(id) + ns('-' + (e && e.message || e))); });
+    }
+  };
+})(window);